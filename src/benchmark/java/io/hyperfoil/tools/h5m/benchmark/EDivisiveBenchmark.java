@@ -0,0 +1,47 @@
+package io.hyperfoil.tools.h5m.benchmark;
+
+import io.hyperfoil.tools.h5m.entity.node.EDivisive;
+import io.hyperfoil.tools.jhunter.Analysis;
+import io.hyperfoil.tools.jhunter.AnalysisOptions;
+import io.hyperfoil.tools.jhunter.ChangePoint;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * E-divisive change point analysis over the series an EDivisive node reads from the SeriesCache.
+ * The series is noise around a mean with a 20% step at three quarters of its length, so every
+ * iteration has one change point to find.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class EDivisiveBenchmark {
+
+    @Param({"100", "250", "500", "1000", "2000"})
+    int seriesLength;
+
+    double[] series;
+    AnalysisOptions options;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        series = new double[seriesLength];
+        int step = seriesLength * 3 / 4;
+        for (int i = 0; i < seriesLength; i++) {
+            series[i] = (i < step ? 100.0 : 120.0) + random.nextGaussian() * 2.0;
+        }
+        options = new AnalysisOptions(EDivisive.DEFAULT_WINDOW_LEN, EDivisive.DEFAULT_MAX_PVALUE, EDivisive.DEFAULT_MIN_MAGNITUDE);
+    }
+
+    @Benchmark
+    public List<ChangePoint> computeChangePoints() {
+        return Analysis.computeChangePoints(series, options);
+    }
+}
@@ -0,0 +1,597 @@
+package io.hyperfoil.tools.h5m.benchmark;
+
+import io.hyperfoil.tools.h5m.api.NodeType;
+import io.hyperfoil.tools.h5m.entity.work.Work;
+import io.hyperfoil.tools.h5m.queue.KahnDagSort;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/*
+ * Scan-and-sort WorkQueue kept as the baseline for WorkQueueBenchmark.
+ * poll() scans every queued runnable and addWorks() re-runs KahnDagSort under the lock.
+ *
+ * Ideas:
+ * * change to accept Runnable and keep the runnable behind the preceding Work when re-sorting
+ *   This would allow us to have "callbacks" in the work queue that do not persist to DB
+ *   For Example: having a synchronous upload that responds with change detection when all nodes finish calculating
+*
+ */
+public class LegacyWorkQueue implements BlockingQueue<Runnable> {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyWorkQueue.class);
+    //TODO using counters blocks work on different values, change to set of active work
+    //private Counters<NodeEntity> counters = new Counters<>();
+    private Set<Work> activeWork = ConcurrentHashMap.newKeySet();
+    private Set<Work> pendingWork = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger deferredCount = new AtomicInteger(0);
+
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+    //private final ReentrantLock putLock = new ReentrantLock();
+
+    private List<Runnable> runnables = new  ArrayList<>();
+
+    public LegacyWorkQueue() {
+    }
+
+    public boolean isIdle(){
+        takeLock.lock();
+        try {
+            return activeWork.isEmpty() && runnables.isEmpty() && deferredCount.get() == 0;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    public void incrementDeferred(int count) {
+        deferredCount.addAndGet(count);
+    }
+
+    public void decrementDeferred(int count) {
+        deferredCount.addAndGet(-count);
+    }
+
+    public void decrement(Work work){
+        fullyLock();
+        try {
+            activeWork.remove(work); // will be re-added to the queue if needed
+            if(!runnables.isEmpty()){
+                //signal all because this could unblock multiple work items
+                notEmpty.signalAll();
+            }
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    private void fullyLock(){
+//        putLock.lock();
+        takeLock.lock();
+
+
+    }
+    private void fullyUnlock(){
+//        putLock.unlock();
+        takeLock.unlock();
+    }
+    private void signalNotEmpty(){
+        takeLock.lock();
+        try{
+            notEmpty.signal();
+        }finally {
+            takeLock.unlock();
+        }
+    }
+
+    private int getScore(int index){
+        Runnable runnable = runnables.get(index);
+        if(runnable instanceof Work work){
+            for (Work w : activeWork) {
+                if (work.dependsOn(w)) {
+                    return 1;
+                }
+            }
+            for (int i = 0, size = runnables.size(); i < size; i++) {
+                Runnable r = runnables.get(i);
+                if (r instanceof Work wr && work.dependsOn(wr)) {
+                    return 1;
+                }
+            }
+            //TODO this implementation will block work for different values using the same node
+            return 0;
+        }else if (index > 0){//if this a normable Runnable
+            // can we just return index because it has to run after any preceding?
+            // what if the preceding is already out of queue but not done?
+            // we need some tracking between runnable when added
+            return index;
+        }else{
+            return 0;
+        }
+    }
+
+    private Runnable removeFirstUnblocked(){
+        Runnable found = null;
+        int idx = 0;
+        int score = -1;
+
+        fullyLock();
+        try {
+            if(runnables.isEmpty()){
+                return null;
+            }
+            do {
+                found = runnables.get(idx);
+                score = getScore(idx);
+                if (score > 0) {
+                    found = null;
+                }
+                idx++;
+            } while (idx < runnables.size() && score > 0);
+            if (found != null) {
+                Runnable removed = runnables.remove(idx - 1); //index of found
+                assert !runnables.contains(found);
+                if(found instanceof Work work){
+                    activeWork.add(work);
+                    pendingWork.remove(work);
+                }
+            }
+        }finally {
+            fullyUnlock();
+        }
+        takeLock.lock();
+        try {
+            if(runnables.isEmpty()){
+                synchronized (this) {
+                    this.notify();
+                }
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return found;
+    }
+
+    /**
+     * get the runables that the input runnable must follow
+     * @param runnable
+     * @return
+     */
+    public List<Runnable> getRequiredPrecedingRunnables(Runnable runnable){
+        if(runnable instanceof Work work){
+            List<Runnable> result = new ArrayList<>();
+            for (int i = 0, size = runnables.size(); i < size; i++) {
+                Runnable r = runnables.get(i);
+                if (r instanceof Work wr && work.dependsOn(wr)) {
+                    result.add(r);
+                }
+            }
+            return result;
+        }
+        int index = runnables.indexOf(runnable);
+        if(index > 0){
+            return List.of(runnables.get(index-1));
+        }
+        return Collections.emptyList();
+    }
+    // Tracks whether any queued Work depends on another queued Work.
+    // Set to true when addWorks detects a dependency. Reset after sort.
+    // When false, sort() is skipped (no dependencies to order).
+    private boolean dependenciesExist = false;
+
+    private void sort(){
+        if (!dependenciesExist) {
+            return; // no dependencies between queued items — skip O(n²) sort
+        }
+        runnables = KahnDagSort.sort(runnables,this::getRequiredPrecedingRunnables);
+        dependenciesExist = false;
+    }
+    public Collection<Work> addWorks(Collection<Work> works){
+//        putLock.lock();
+        takeLock.lock();
+        try {
+            boolean wasEmpty = runnables.isEmpty();
+            List<Work> acceptedWork = works.stream().filter(w -> {
+                boolean has = hasWork(w);
+                if (has) {
+                    log.warn("addWorks: REJECTED duplicate work hash={} pending={} active={}",
+                            w.hashCode(), isPending(w), isActive(w));
+                }
+                return !has;
+            }).peek(w-> {
+                pendingWork.add(w);
+                runnables.add(w);
+                assert isPending(w);
+            }).toList();
+            if (!acceptedWork.isEmpty()) {
+                // Check if any new Work depends on any existing queued Work.
+                // Uses Work.dependsOn() as the single source of truth for dependency.
+                if (!dependenciesExist) {
+                    outer:
+                    for (Work newWork : acceptedWork) {
+                        for (Runnable r : runnables) {
+                            if (r instanceof Work existing && r != newWork && newWork.dependsOn(existing)) {
+                                dependenciesExist = true;
+                                break outer;
+                            }
+                        }
+                    }
+                }
+                sort();
+                if (wasEmpty) {
+                    signalNotEmpty();
+                }
+            }
+            return acceptedWork;
+        } finally {
+//            putLock.unlock();
+            takeLock.unlock();
+        }
+    }
+    public boolean hasWork(Work work){
+        return isPending(work) || isActive(work);
+        //return runnables.stream().anyMatch(v->v instanceof WorkRunner && work.equals(((WorkRunner) v).work));
+    }
+    public boolean isPending(Work work){
+        return pendingWork.contains(work);
+    }
+    public boolean isActive(Work work){
+        return activeWork.contains(work);
+    }
+
+    public int pendingCount(){
+        return pendingWork.size();
+    }
+    public int activeCount(){
+        return activeWork.size();
+    }
+
+    @Override
+    public boolean add(Runnable runnable) {
+        if(runnable instanceof Work work){
+            if(isRoot(work)){
+                return false;
+            }
+            //reject new work that is already pending
+            //do NOT reject new work if it matches an active work because it could be a retry re-queue
+            if(isPending(work)){
+                return false;//reject new work that is already pending
+            }else {
+                pendingWork.add(work);
+            }
+        }
+//        putLock.lock();
+        takeLock.lock();
+        try {
+            int c = runnables.size();
+            runnables.add(runnable);
+            if(runnable instanceof Work){
+                sort();
+            }
+            if(c == 0){
+                signalNotEmpty();
+            }
+        }finally {
+//            putLock.unlock();
+            takeLock.unlock();
+        }
+        //This is not supported
+        return true;
+    }
+
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        //This is not supported
+        return false;
+    }
+
+    @Override
+    public Runnable remove() {
+        Runnable r = poll();
+        if(r == null){
+            throw new NoSuchElementException();
+        }
+        return r;
+    }
+
+    @Override
+    public Runnable poll() {
+        takeLock.lock();
+        try{
+            if(runnables.isEmpty()){
+                return null;
+            }
+            Runnable found = removeFirstUnblocked();
+            if(found == null){
+                return null;
+            }
+            int c = runnables.size();
+            if(c > 1){
+                notEmpty.signal();
+            }
+            return found;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable element() {
+        Runnable rtrn = peek();
+        if(rtrn==null){
+            throw new NoSuchElementException();
+        }
+        return rtrn;
+    }
+
+    @Override
+    public Runnable peek() {
+        takeLock.lock();
+        try{
+            return !runnables.isEmpty() ? runnables.getFirst() : null;
+        }finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable runnable) throws InterruptedException {
+//        putLock.lock();
+        takeLock.lock();
+        try{
+            if(runnable instanceof Work work){
+                if(isPending(work)){
+                    return;
+                }else {
+                    pendingWork.add(work);
+                }
+            }
+            int c = runnables.size();
+            runnables.add(runnable);
+            if(c!=0){
+                signalNotEmpty();
+            }
+        }finally {
+//            putLock.unlock();
+            takeLock.unlock();
+        }
+        //not supported
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
+        //not supported
+        return false;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        takeLock.lockInterruptibly();
+        try {
+            while (runnables.isEmpty()) {
+                notEmpty.await();
+            }
+            Runnable work = null;
+            do {
+                work = removeFirstUnblocked();
+                if (work == null) {
+                    notEmpty.await();
+                }
+            } while (work == null);
+            int c = runnables.size();
+            if (c > 0) {
+                notEmpty.signal();
+            }
+            return work;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        takeLock.lockInterruptibly();
+        try {
+            while(runnables.isEmpty()){
+                if (nanos <= 0L){
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Runnable work = null;
+            while(work == null){
+                work = removeFirstUnblocked();
+                if(work == null){
+                    if (nanos <= 0L){
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            }
+            int c = runnables.size();
+            if( c > 0){
+                notEmpty.signal();
+            }
+            return work;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        boolean rtrn = false;
+        fullyLock();
+        try{
+            if(o instanceof Work work){
+                pendingWork.remove(work);
+            }
+            rtrn = runnables.remove(o);
+            int c = runnables.size();
+            if(c>0){
+                notEmpty.signal();
+            }
+        } finally {
+            fullyUnlock();
+        }
+        return rtrn;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        takeLock.lock();
+        try {
+            return runnables.containsAll(c);
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Runnable> c) {
+        fullyLock();
+        boolean added = false;
+        boolean wasEmpty = runnables.isEmpty();
+        try {
+            for (Runnable r : c) {
+                if(r instanceof Work work){
+                    if(isPending(work) || isRoot(work)){
+                        continue;
+                    }else{
+                        pendingWork.add(work);
+                    }
+                }
+                runnables.add(r);
+                added = true;
+            }
+            if (added) {
+                sort();
+                if(wasEmpty){
+                    signalNotEmpty();
+                }
+            }
+        } finally {
+            fullyUnlock();
+        }
+        return added;
+    }
+
+    public static boolean isRoot(Work w){
+        return w.getActiveNodes()!=null && w.getActiveNodes().stream().anyMatch(n->n.type().equals(NodeType.ROOT));
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        //not supported
+        return false;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        fullyLock();
+        try {
+            runnables.retainAll(c);
+            sort();
+        }finally {
+            fullyUnlock();
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        fullyLock();
+        try {
+            runnables.clear();
+        }finally {
+            fullyUnlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        takeLock.lock();
+        try {
+            return runnables.size();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        takeLock.lock();
+        try {
+            return runnables.isEmpty();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        takeLock.lock();
+        try {
+            return runnables.contains(o);
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        takeLock.lock();
+        try {
+            return List.copyOf(runnables).iterator();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        takeLock.lock();
+        try {
+            return runnables.toArray();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        takeLock.lock();
+        try {
+            return runnables.toArray(a);
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        //not supported
+        return 0;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        //not supported
+        return 0;
+    }
+}
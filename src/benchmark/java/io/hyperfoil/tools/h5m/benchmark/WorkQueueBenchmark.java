@@ -0,0 +1,99 @@
+package io.hyperfoil.tools.h5m.benchmark;
+
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.h5m.entity.work.Work;
+import io.hyperfoil.tools.h5m.queue.WorkQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the indexed WorkQueue against the scan-and-sort LegacyWorkQueue.
+ * Each upload queues one Work per extractor node plus one for a sink node that depends on every extractor,
+ * so the queue has to hold back the sink until the extractors for the same upload complete.
+ * <p>
+ * The legacy queue is O(n²) to add and drain, expect the 100000 case to take minutes per iteration.
+ * Use -Dh5m.benchmark.params="-p impl=indexed" to skip it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkQueueBenchmark {
+
+    private static final int EXTRACTORS = 9;
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    @Param({"indexed", "legacy"})
+    String impl;
+
+    JqNode[] fan;
+    JqNode sink;
+    List<Work> works;
+
+    @Setup(Level.Trial)
+    public void setupNodes() {
+        GraphBuilder.resetIds();
+        fan = GraphBuilder.buildWideFan(EXTRACTORS);
+        sink = new JqNode("sink");
+        sink.id = 1_000_000L;
+        sink.sources.addAll(Arrays.asList(fan).subList(1, fan.length));
+    }
+
+    @Setup(Level.Invocation)
+    public void setupWorks() {
+        int uploads = size / (EXTRACTORS + 1);
+        works = new ArrayList<>(size);
+        for (long upload = 0; upload < uploads; upload++) {
+            List<Long> sourceValueIds = List.of(upload);
+            for (int i = 1; i < fan.length; i++) {
+                works.add(newWork(fan[i], sourceValueIds));
+            }
+            works.add(newWork(sink, sourceValueIds));
+        }
+    }
+
+    private static Work newWork(JqNode node, List<Long> sourceValueIds) {
+        Work work = new Work(node, node.sources, sourceValueIds);
+        work.precomputeAncestors();
+        return work;
+    }
+
+    @Benchmark
+    public int addWorks() {
+        if ("legacy".equals(impl)) {
+            return new LegacyWorkQueue().addWorks(works).size();
+        }
+        return new WorkQueue().addWorks(works).size();
+    }
+
+    @Benchmark
+    public int addWorks_and_drain() {
+        int drained = 0;
+        if ("legacy".equals(impl)) {
+            LegacyWorkQueue q = new LegacyWorkQueue();
+            q.addWorks(works);
+            Runnable r;
+            while ((r = q.poll()) != null) {
+                q.decrement((Work) r);
+                drained++;
+            }
+        } else {
+            WorkQueue q = new WorkQueue();
+            q.addWorks(works);
+            Runnable r;
+            while ((r = q.poll()) != null) {
+                q.decrement((Work) r);
+                drained++;
+            }
+        }
+        return drained;
+    }
+}
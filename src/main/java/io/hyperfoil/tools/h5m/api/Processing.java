@@ -8,12 +8,16 @@ import java.util.List;
  * Immutable snapshot of a tracked processing operation's progress.
  * Covers both ingestion (single value, {@code total=1}) and node
  * recalculations (multiple values, {@code total=N}).
+ * <p>
+ * {@code valueIds} only lists the root value of an ingestion. Node recalculations are planned page by page and no
+ * longer list the root values they cover, it is always empty for them; {@code total} and {@code completed} report
+ * their progress.
  */
 @Schema(description = "Progress snapshot of a pipeline processing operation (ingestion or recalculation)")
 public record Processing(
         @Schema(description = "ID of the root node (ingestion) or target node (recalculation)")
         long nodeId,
-        @Schema(description = "Root value IDs being processed")
+        @Schema(description = "Root value ID of an ingestion. Always empty for node recalculations, use total and completed for their progress")
         List<Long> valueIds,
         @Schema(description = "Name of the folder being processed")
         String folderName,
@@ -24,7 +24,9 @@ public interface ProcessingServiceInterface {
 
     /**
      * Returns the current status of a node recalculation, or {@code null}
-     * if no recalculation is tracked for the given node.
+     * if no recalculation is tracked for the given node. The status does not
+     * list the root values of the recalculation, {@link Processing#valueIds()}
+     * is empty.
      */
     Processing getRecalculationStatus(long nodeId);
 
@@ -21,6 +21,16 @@ public interface ValueServiceInterface {
      */
     long createRootValue(long folderId, JqValue data);
 
+    /**
+     * Creates root values for many uploads in one transaction and kicks off the calculation pipeline for all of them.
+     * Use {@link ProcessingServiceInterface#awaitIngestion} to wait for each upload to complete.
+     *
+     * @param folderId The ID of the folder.
+     * @param data The JSON data for each upload.
+     * @return the root value IDs, in the same order as data
+     */
+    List<Long> createRootValues(long folderId, List<JqValue> data);
+
     /**
      * Purges all values.
      */
@@ -34,6 +44,16 @@ public interface ValueServiceInterface {
      */
     List<Value> getNodeDescendantValues(Long nodeId);
 
+    /**
+     * Retrieves a page of the descendant values of a specific node, ordered by id.
+     *
+     * @param nodeId The ID of the node.
+     * @param afterId Only return values with a greater ID, 0 for the first page.
+     * @param limit Maximum number of values to return.
+     * @return The next descendant values after afterId.
+     */
+    List<Value> getNodeDescendantValuesAfter(Long nodeId, long afterId, int limit);
+
     /**
      * Retrieves grouped values for a specific node.
      *
@@ -51,6 +71,16 @@ public interface ValueServiceInterface {
      */
     List<Value> getNodeValues(Long nodeId);
 
+    /**
+     * Retrieves a page of the values produced by a specific node, ordered by id.
+     *
+     * @param nodeId The ID of the node.
+     * @param afterId Only return values with a greater ID, 0 for the first page.
+     * @param limit Maximum number of values to return.
+     * @return The next values after afterId.
+     */
+    List<Value> getNodeValuesAfter(Long nodeId, long afterId, int limit);
+
     /**
      * Returns the total count of values for a specific node.
      *
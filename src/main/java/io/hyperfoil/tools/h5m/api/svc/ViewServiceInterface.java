@@ -60,4 +60,27 @@ public interface ViewServiceInterface {
      * @return A list of JSON objects, one per upload.
      */
     List<JqValue> getViewData(long folderId, Long viewId);
+
+    /**
+     * Gets a page of the filtered pivoted data for a view, in upload order.
+     *
+     * @param folderId The folder ID.
+     * @param viewId The view ID.
+     * @param offset The number of rows to skip.
+     * @param limit The maximum number of rows, or all rows if limit <= 0.
+     * @return A list of JSON objects, one per upload.
+     */
+    List<JqValue> getViewData(long folderId, Long viewId, int offset, int limit);
+
+    /**
+     * Gets a page of the filtered pivoted data for a view, ordered by the value of a node.
+     *
+     * @param folderId The folder ID.
+     * @param viewId The view ID.
+     * @param sortByNodeId The node whose value orders the rows, or null for upload order.
+     * @param offset The number of rows to skip.
+     * @param limit The maximum number of rows, or all rows if limit <= 0.
+     * @return A list of JSON objects, one per upload.
+     */
+    List<JqValue> getViewData(long folderId, Long viewId, Long sortByNodeId, int offset, int limit);
 }
@@ -31,6 +31,9 @@ import java.util.concurrent.TimeUnit;
 @CommandDefinition(name = "load-runs", description = "Import run data from a legacy Horreum PostgreSQL database and process through the node graph", generateHelp = true)
 public class LoadLegacyRuns implements Command<H5mCommandInvocation> {
 
+    // runs created per transaction, parsed runs are held in memory until their batch is created
+    private static final int INSERT_BATCH_SIZE = 50;
+
     @Inject
     FolderService folderService;
 
@@ -149,6 +152,7 @@ public class LoadLegacyRuns implements Command<H5mCommandInvocation> {
                     int count = 0;
                     int batchCount = 0;
                     List<Long> batchUploadIds = new ArrayList<>();
+                    List<JqValue> pendingData = new ArrayList<>();
                     try (ResultSet rs = ps.executeQuery()) {
                         while (rs.next()) {
                             if (Thread.interrupted()) throw new InterruptedException("Import interrupted");
@@ -158,11 +162,16 @@ public class LoadLegacyRuns implements Command<H5mCommandInvocation> {
                             // StringBuilder doubling, and String copy that the previous
                             // getCharacterStream() path required.
                             byte[] bytes = rs.getBytes("data");
-                            JqValue data = JqValues.parse(bytes);
-                            batchUploadIds.add(valueService.createRootValue(folder.id(), data));
+                            pendingData.add(JqValues.parse(bytes));
                             count++;
                             batchCount++;
+                            if (pendingData.size() >= INSERT_BATCH_SIZE) {
+                                batchUploadIds.addAll(valueService.createRootValues(folder.id(), pendingData));
+                                pendingData.clear();
+                            }
                             if (batch > 0 && batchCount >= batch) {
+                                batchUploadIds.addAll(valueService.createRootValues(folder.id(), pendingData));
+                                pendingData.clear();
                                 invocation.println("waiting for batch of " + batchCount + " to complete");
                                 for (long uid : batchUploadIds) {
                                     processingService.awaitIngestion(uid, 10, TimeUnit.MINUTES);
@@ -176,6 +185,7 @@ public class LoadLegacyRuns implements Command<H5mCommandInvocation> {
                             }
                         }
                     }
+                    batchUploadIds.addAll(valueService.createRootValues(folder.id(), pendingData));
                     // Wait for any remaining uploads
                     if (!batchUploadIds.isEmpty()) {
                         invocation.println("waiting for final " + batchUploadIds.size() + " uploads to complete");
@@ -1,7 +1,10 @@
 package io.hyperfoil.tools.h5m.cli;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -13,9 +16,10 @@ import io.hyperfoil.tools.h5m.api.Folder;
 import io.hyperfoil.tools.h5m.api.Value;
 import io.hyperfoil.tools.h5m.api.svc.FolderServiceInterface;
 import io.hyperfoil.tools.h5m.api.svc.ProcessingServiceInterface;
+import io.hyperfoil.tools.h5m.provided.JqValueStreamParser;
 import io.hyperfoil.tools.h5m.svc.ValueService;
 import io.hyperfoil.tools.jjq.value.JqValue;
-import io.hyperfoil.tools.jjq.value.JqValues;
+import jakarta.json.stream.JsonParsingException;
 
 import org.aesh.command.Command;
 import org.aesh.command.CommandDefinition;
@@ -28,6 +32,9 @@ public class UploadCmd implements Command<H5mCommandInvocation> {
 
     private static final long TIMEOUT_MINUTES = 5;
 
+    // uploads created per transaction with --batch
+    private static final int BATCH_SIZE = 100;
+
     @Inject
     FolderServiceInterface folderService;
 
@@ -41,6 +48,10 @@ public class UploadCmd implements Command<H5mCommandInvocation> {
             description = "return immediately without waiting for processing to complete")
     boolean async;
 
+    @Option(name = "batch", hasValue = false, acceptNameWithoutDashes = true,
+            description = "create uploads in batches of " + BATCH_SIZE + " per transaction")
+    boolean batch;
+
     @Argument(description = "path to JSON file or directory")
     String path;
 
@@ -73,11 +84,21 @@ public class UploadCmd implements Command<H5mCommandInvocation> {
                 ? List.of(pathFile.listFiles(s -> s.toString().endsWith(".json") && !s.getName().startsWith(".")))
                 : List.of(pathFile);
         List<Long> uploadIds = new ArrayList<>();
+        List<File> pendingFiles = new ArrayList<>();
+        List<JqValue> pendingData = new ArrayList<>();
         for (File f : todo) {
             if (Thread.interrupted()) throw new InterruptedException("Upload interrupted");
-            try {
-                JqValue read = JqValues.parse(new String(java.nio.file.Files.readAllBytes(f.toPath())));
+            try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(f.toPath()))) {
+                JqValue read = parse(inputStream);
                 if (read != null) {
+                    if (batch) {
+                        pendingFiles.add(f);
+                        pendingData.add(read);
+                        if (pendingData.size() >= BATCH_SIZE && !createBatch(invocation, folder, pendingFiles, pendingData, uploadIds)) {
+                            return CommandResult.FAILURE;
+                        }
+                        continue;
+                    }
                     try {
                         long uploadId = valueService.createRootValue(folder.id(), read);
                         uploadIds.add(uploadId);
@@ -98,6 +119,9 @@ public class UploadCmd implements Command<H5mCommandInvocation> {
                 return CommandResult.FAILURE;
             }
         }
+        if (!pendingData.isEmpty() && !createBatch(invocation, folder, pendingFiles, pendingData, uploadIds)) {
+            return CommandResult.FAILURE;
+        }
 
         if (async) {
             // Async mode — return immediately, user can poll with 'status' command
@@ -120,4 +144,30 @@ public class UploadCmd implements Command<H5mCommandInvocation> {
         invocation.println("Processing complete. " + ChangeFormatter.formatSummary(allChanges));
         return CommandResult.SUCCESS;
     }
+
+    // creates the pending uploads in one transaction and clears the pending lists
+    private boolean createBatch(H5mCommandInvocation invocation, Folder folder, List<File> files, List<JqValue> data, List<Long> uploadIds) {
+        try {
+            List<Long> ids = valueService.createRootValues(folder.id(), data);
+            for (int i = 0; i < ids.size(); i++) {
+                invocation.println(files.get(i).getName() + " -> processing id: " + ids.get(i));
+            }
+            uploadIds.addAll(ids);
+        } catch (NoResultException e) {
+            invocation.println("Folder '" + folderName + "' not found");
+            return false;
+        }
+        files.clear();
+        data.clear();
+        return true;
+    }
+
+    // streams the file into the JqValue tree instead of reading the whole file into memory first
+    private static JqValue parse(InputStream inputStream) {
+        try {
+            return JqValueStreamParser.parse(inputStream);
+        } catch (JsonParsingException e) {
+            return null;
+        }
+    }
 }
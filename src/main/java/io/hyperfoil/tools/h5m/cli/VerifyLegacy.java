@@ -5,7 +5,7 @@ import io.agroal.api.configuration.supplier.AgroalPropertiesReader;
 import io.hyperfoil.tools.h5m.api.View;
 import io.hyperfoil.tools.h5m.api.ViewComponent;
 import io.hyperfoil.tools.h5m.api.svc.ViewServiceInterface;
-import io.hyperfoil.tools.h5m.provided.DatabaseEngine;
+import io.hyperfoil.tools.h5m.provided.ValueCodec;
 import io.hyperfoil.tools.h5m.svc.FolderService;
 import io.hyperfoil.tools.h5m.svc.NodeService;
 import io.hyperfoil.tools.h5m.svc.ValueService;
@@ -18,6 +18,7 @@ import org.aesh.command.CommandResult;
 import org.aesh.command.option.Option;
 
 
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
 
@@ -48,9 +49,6 @@ public class VerifyLegacy implements Command<H5mCommandInvocation> {
     @Inject
     EntityManager em;
 
-    @Inject
-    DatabaseEngine db;
-
     @Inject
     FolderService folderService;
 
@@ -625,12 +623,7 @@ public class VerifyLegacy implements Command<H5mCommandInvocation> {
 
         // Get h5m values for this specific upload (descendants of rootValueId),
         // scoped to avoid mixing values from different uploads.
-        // PostgreSQL stores value data as BYTEA (needs convert_from),
-        // SQLite stores as BLOB (needs CAST to TEXT).
-        String dataExpr = switch (db.kind()) {
-            case POSTGRESQL -> "convert_from(v.data, 'UTF-8')";
-            case SQLITE -> "CAST(v.data AS TEXT)";
-        };
+        // The raw BYTEA/BLOB is decoded here, large values can be compressed by ValueCodec.
         @SuppressWarnings("unchecked")
         List<Object[]> h5mValues = em.createNativeQuery("""
                 WITH RECURSIVE descendants(vid) AS (
@@ -638,13 +631,13 @@ public class VerifyLegacy implements Command<H5mCommandInvocation> {
                     UNION ALL
                     SELECT ve.child_id FROM value_edge ve JOIN descendants d ON ve.parent_id = d.vid
                 )
-                SELECT n.name, v.idx, %s
+                SELECT n.name, v.idx, v.data
                 FROM value v
                 JOIN node n ON v.node_id = n.id
                 JOIN descendants d ON v.id = d.vid
                 WHERE n.type NOT IN ('root')
                 ORDER BY n.name, v.idx
-                """.formatted(dataExpr))
+                """)
                 .setParameter(1, rootValueId)
                 .getResultList();
 
@@ -652,7 +645,9 @@ public class VerifyLegacy implements Command<H5mCommandInvocation> {
         for (Object[] row : h5mValues) {
             String name = (String) row[0];
             int idx = ((Number) row[1]).intValue();
-            String value = (String) row[2];
+            byte[] bytes = (byte[]) row[2];
+            String value = bytes == null ? null
+                    : ValueCodec.isEncoded(bytes) ? ValueCodec.decode(bytes).toJsonString() : new String(bytes, StandardCharsets.UTF_8);
             // Prefer non-null values when multiple nodes with the same name produce
             // values at the same idx (e.g., ephemeral-nulled variant nodes and the
             // combiner node sharing the same label name)
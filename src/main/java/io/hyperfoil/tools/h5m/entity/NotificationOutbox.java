@@ -0,0 +1,76 @@
+package io.hyperfoil.tools.h5m.entity;
+
+import io.hyperfoil.tools.h5m.api.NodeType;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * A notification waiting to be dispatched.
+ * <p>
+ * Rows are written in the same transaction as the detection values that triggered them
+ * and are removed by the NotificationDispatcher once the plugin accepted the notification.
+ * A dispatcher claims the rows it sends by setting status "sending", rows that exhaust their
+ * retries stay behind with status "failed".
+ */
+@Entity(name = "notification_outbox")
+@Table(indexes = {
+    @Index(name = "idx_notification_outbox_due", columnList = "status,nextAttemptAt"),
+    @Index(name = "idx_notification_outbox_folder", columnList = "folderId")
+})
+public class NotificationOutbox extends PanacheEntityBase {
+
+    public static final String PENDING = "pending";
+    public static final String SENDING = "sending";
+    public static final String FAILED = "failed";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public Long id;
+
+    public long folderId;
+
+    /** The notification config to send with, loaded again at dispatch time */
+    public long configId;
+
+    /** The root value ID (upload ID) that triggered the detection */
+    public long rootValueId;
+
+    /** Detection node that triggered this notification */
+    public long nodeId;
+
+    public String nodeName;
+
+    @Enumerated(EnumType.STRING)
+    public NodeType nodeType;
+
+    /** The Change records as a JSON array */
+    @Column(columnDefinition = "TEXT")
+    public String changes;
+
+    /** "pending", "sending" or "failed" */
+    public String status = PENDING;
+
+    /** Number of failed send attempts */
+    public int attempts;
+
+    public LocalDateTime nextAttemptAt;
+
+    /** When a dispatcher last claimed the row, rows still sending after the claim timeout are claimed again */
+    public LocalDateTime claimedAt;
+
+    /** Number of claims, a claim only succeeds if the row was not claimed since it was read */
+    public int claims;
+
+    /** Error message of the last failed attempt */
+    @Column(columnDefinition = "TEXT")
+    public String lastError;
+
+    @CreationTimestamp
+    @Column(updatable = false)
+    public LocalDateTime createdAt;
+
+    public NotificationOutbox() {}
+}
@@ -0,0 +1,63 @@
+package io.hyperfoil.tools.h5m.entity;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Transitive closure of value_edge: one row for every (ancestor, descendant) pair of values,
+ * including a depth 0 row for each value with itself.
+ * <p>
+ * Maintained by ValueClosureService when {@code h5m.value.closure.enabled} is set so descendant and
+ * ancestor lookups are a join instead of a recursive CTE over value_edge. Rows are written with
+ * native queries, the entity only exists to define the table.
+ */
+@Entity(name = "value_closure")
+@IdClass(ValueClosure.Key.class)
+@Table(indexes = {
+    @Index(name = "idx_value_closure_descendant", columnList = "descendant_id,depth"),
+    @Index(name = "idx_value_closure_root", columnList = "root_id")
+})
+public class ValueClosure extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "ancestor_id")
+    public long ancestorId;
+
+    @Id
+    @Column(name = "descendant_id")
+    public long descendantId;
+
+    /** Length of the shortest path from the ancestor to the descendant, 0 for the value itself */
+    public int depth;
+
+    /** The upload (root value) the ancestor belongs to */
+    @Column(name = "root_id")
+    public Long rootId;
+
+    public static class Key implements Serializable {
+        public long ancestorId;
+        public long descendantId;
+
+        public Key() {}
+
+        public Key(long ancestorId, long descendantId) {
+            this.ancestorId = ancestorId;
+            this.descendantId = descendantId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.ancestorId == ancestorId && k.descendantId == descendantId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ancestorId, descendantId);
+        }
+    }
+
+    public ValueClosure() {}
+}
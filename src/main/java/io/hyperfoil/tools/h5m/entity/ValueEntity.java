@@ -1,5 +1,8 @@
 package io.hyperfoil.tools.h5m.entity;
 
+import io.hyperfoil.tools.h5m.api.NodeType;
+import io.hyperfoil.tools.h5m.entity.node.FingerprintNode;
+import io.hyperfoil.tools.h5m.provided.EncodedJqValueJdbcType;
 import io.hyperfoil.tools.jjq.value.JqValue;
 import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import io.quarkus.runtime.annotations.RegisterForReflection;
@@ -11,7 +14,6 @@ import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.Immutable;
 import io.hyperfoil.tools.jjq.jakarta.JqValueJavaType;
-import io.hyperfoil.tools.jjq.jakarta.JqValueJdbcType;
 import org.hibernate.annotations.JavaType;
 import org.hibernate.annotations.JdbcType;
 import org.hibernate.annotations.Mutability;
@@ -25,7 +27,9 @@ import java.util.stream.Collectors;
 @Entity(name = "value")
 @Table(indexes = {
     @Index(name = "idx_value_node_id", columnList = "node_id"),
-    @Index(name = "idx_value_folder_id", columnList = "folder_id")
+    @Index(name = "idx_value_folder_id", columnList = "folder_id"),
+    @Index(name = "idx_value_root_node", columnList = "root_id,node_id"),
+    @Index(name = "idx_value_node_fingerprint", columnList = "node_id,fingerprint_hash")
 })
 @Immutable
 @Cacheable
@@ -37,7 +41,7 @@ public class ValueEntity extends PanacheEntityBase {
     public Long id;
 
     @Column(columnDefinition = "BYTEA")
-    @JdbcType(JqValueJdbcType.class)
+    @JdbcType(EncodedJqValueJdbcType.class)
     @JavaType(JqValueJavaType.class)
     @Basic(fetch = FetchType.LAZY)
     @Mutability(Immutability.class)
@@ -53,6 +57,22 @@ public class ValueEntity extends PanacheEntityBase {
     @ManyToOne(fetch = FetchType.LAZY)
     public FolderEntity folder;
 
+    //the lowest upload (root value) of the value's sources, null for the uploads themselves and values without sources
+    @Column(name = "root_id")
+    public Long rootId;
+
+    //FingerprintNode.hash of the data for fingerprint values, null for other values
+    @Column(name = "fingerprint_hash")
+    public Long fingerprintHash;
+
+    //hash of the serialized data, see contentHash(). null for values written before the column was added
+    @Column(name = "content_hash")
+    public Long contentHash;
+
+    //hash of the node, idx and source lineage keys, see lineageKey(). null for values written before the column was added
+    @Column(name = "lineage_key")
+    public Long lineageKey;
+
     @CreationTimestamp
     @Column(updatable = false) // updatable = false ensures it's set only once
     private LocalDateTime createdAt;
@@ -66,6 +86,11 @@ public class ValueEntity extends PanacheEntityBase {
 
     public Long getId(){return id;}
 
+    /**
+     * @return the ID of the upload this value belongs to, which is the value's own ID for uploads
+     */
+    public Long getUploadId(){return rootId != null ? rootId : id;}
+
     //cannot cascade delete because this entity "owns" the reference to the parent values
     @ManyToMany(cascade = { CascadeType.PERSIST, CascadeType.MERGE }, fetch = FetchType.EAGER )
     @JoinTable(
@@ -103,6 +128,53 @@ public class ValueEntity extends PanacheEntityBase {
     @RegisterForReflection
     public record DataProjection(JqValue data) {} // field names must match with entity
 
+    /**
+     * A 64-bit hash of the serialized data, stored on persist. Values with different hashes have different data, equal
+     * hashes still need {@link #sameData(ValueEntity)} to rule out a collision.
+     */
+    public long contentHash(){
+        if(contentHash == null){
+            contentHash = data == null ? 0L : FingerprintNode.hash(data);
+        }
+        return contentHash;
+    }
+
+    /**
+     * A 64-bit hash of {@link #getPath()}: the node and idx of the value and the lineage keys of its sources.
+     * It is stored on persist so matching a calculated value with the existing one does not walk the sources.
+     */
+    public long lineageKey(){
+        if(lineageKey == null){
+            long key = mix(0xcbf29ce484222325L, node.getId());
+            key = mix(key, idx);
+            if(sources != null){
+                for(ValueEntity source : sources){
+                    key = mix(key, source.lineageKey());
+                }
+            }
+            lineageKey = key;
+        }
+        return lineageKey;
+    }
+
+    /**
+     * @return true if the other value has equal data, only compares the data when the content hashes match
+     */
+    public boolean sameData(ValueEntity other){
+        if(contentHash() != other.contentHash()){
+            return false;
+        }
+        return Objects.equals(data, other.data);
+    }
+
+    private static long mix(long hash, long value){
+        for(int i = 0; i < Long.BYTES; i++){
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     public String getPath(){
         String prefix = node.getId()+"="+idx;
         String suffix = (sources!=null ? ( ","+sources.stream().map(v->{
@@ -115,6 +187,22 @@ public class ValueEntity extends PanacheEntityBase {
     @PrePersist
     public void preUpdate() {
         this.lastUpdated =  LocalDateTime.now();
+        if(node != null){
+            lineageKey();
+            //fingerprint values are only matched by their hash
+            if(fingerprintHash == null && data != null && node.type() == NodeType.FINGERPRINT){
+                fingerprintHash = FingerprintNode.hash(data);
+            }
+        }
+        //uploads are never compared with calculated values, do not serialize them again for the hash
+        if(sources != null && !sources.isEmpty()){
+            contentHash();
+        }
+        //values belong to the lowest upload of their sources, the same upload the value_edge walk reaches first.
+        //Detection values can be calculated for a later upload than the one their groupBy sources belong to
+        if(rootId == null && sources != null){
+            rootId = sources.stream().map(ValueEntity::getUploadId).filter(Objects::nonNull).min(Long::compare).orElse(null);
+        }
     }
 
     public List<ValueEntity> getSources() {return this.sources;}
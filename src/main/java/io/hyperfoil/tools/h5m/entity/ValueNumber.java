@@ -0,0 +1,70 @@
+package io.hyperfoil.tools.h5m.entity;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Numeric copy of values whose data is a JSON number, so sorting and detection read indexed doubles instead of
+ * parsing the BYTEA JSON.
+ * <p>
+ * There are two kinds of rows:
+ * <ul>
+ *     <li>{@code node_id} is the node of the value: written when the value is created, only {@code range_num} is set</li>
+ *     <li>{@code node_id} is a detection node that reads the value as its range: written when the detection node
+ *     calculates an upload, with the hash of the fingerprint and the numeric domain value of the same groupBy value</li>
+ * </ul>
+ * Maintained by ValueNumberService when {@code h5m.value.number.enabled} is set. Rows are written with
+ * native queries, the entity only exists to define the table.
+ */
+@Entity(name = "value_number")
+@IdClass(ValueNumber.Key.class)
+@Table(indexes = {
+    @Index(name = "idx_value_number_series", columnList = "node_id,fingerprint_hash,domain_num")
+})
+public class ValueNumber extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "value_id")
+    public long valueId;
+
+    @Id
+    @Column(name = "node_id")
+    public long nodeId;
+
+    @Column(name = "fingerprint_hash")
+    public Long fingerprintHash;
+
+    @Column(name = "domain_num")
+    public Double domainNum;
+
+    /** null when a detection node's range value is not a number */
+    @Column(name = "range_num")
+    public Double rangeNum;
+
+    public static class Key implements Serializable {
+        public long valueId;
+        public long nodeId;
+
+        public Key() {}
+
+        public Key(long valueId, long nodeId) {
+            this.valueId = valueId;
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.valueId == valueId && k.nodeId == nodeId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(valueId, nodeId);
+        }
+    }
+
+    public ValueNumber() {}
+}
@@ -26,6 +26,10 @@ public class ViewEntity extends PanacheEntityBase {
     @OrderBy("headerOrder ASC")
     public List<ViewComponentEntity> components = new ArrayList<>();
 
+    //true once the view_row rows of every upload are written for the current components, see ViewRowService
+    @Column(name = "rows_built")
+    public Boolean rowsBuilt;
+
     public ViewEntity() {}
 
     public ViewEntity(String name, FolderEntity folder) {
@@ -0,0 +1,59 @@
+package io.hyperfoil.tools.h5m.entity;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Materialized row of a view: the grouped values of the view's nodes for one upload (root value), as returned by
+ * ValueService.getGroupedValues.
+ * <p>
+ * Maintained by ViewRowService when {@code h5m.view.rows.enabled} is set so view data is read with an index range
+ * scan instead of the recursive CTE over the folder's values. Rows are written with native queries, the entity
+ * only exists to define the table.
+ */
+@Entity(name = "view_row")
+@IdClass(ViewRow.Key.class)
+@Table(indexes = {
+    @Index(name = "idx_view_row_root", columnList = "root_value_id")
+})
+public class ViewRow extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "view_id")
+    public long viewId;
+
+    @Id
+    @Column(name = "root_value_id")
+    public long rootValueId;
+
+    /** The row JSON, encoded by ValueCodec */
+    @Column(columnDefinition = "BYTEA")
+    public byte[] data;
+
+    public static class Key implements Serializable {
+        public long viewId;
+        public long rootValueId;
+
+        public Key() {}
+
+        public Key(long viewId, long rootValueId) {
+            this.viewId = viewId;
+            this.rootValueId = rootValueId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.viewId == viewId && k.rootValueId == rootValueId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(viewId, rootValueId);
+        }
+    }
+
+    public ViewRow() {}
+}
@@ -2,6 +2,8 @@ package io.hyperfoil.tools.h5m.entity.node;
 
 import io.hyperfoil.tools.h5m.api.NodeType;
 import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
 import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
 
@@ -25,6 +27,19 @@ public class FingerprintNode extends NodeEntity {
         super(name,operation,sources);
     }
 
+    /**
+     * Stable 64-bit FNV-1a hash of the serialized fingerprint. Fingerprints are serialized by the same code path so
+     * equal fingerprints have equal bytes and therefore equal hashes.
+     */
+    public static long hash(JqValue fingerprint) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : JqValues.serializeToBytes(fingerprint)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     @Override
     protected NodeEntity shallowCopy() {
         return new FingerprintNode(name,operation);
@@ -17,6 +17,10 @@ public class Work implements Runnable, Comparable<Work>{
 
     private List<Long> sourceValueIds;//IDs of source values — full entities are loaded in WorkService.execute()
 
+    // IDs of the root (upload) values this work descends from. Cascaded work inherits it from the work that created it
+    // so dependency checks stay scoped to one upload even when sourceValueIds are not root values.
+    private Set<Long> rootValueIds;
+
     private List<NodeEntity> sourceNodes; //what is going to use a list of sources that are not already listed for the activeNode?
 
     private int retryCount;
@@ -45,6 +49,11 @@ public class Work implements Runnable, Comparable<Work>{
      */
     private boolean cascade = true;
 
+    /*
+     * If the work should only run when no other work is ready, e.g. recalculations that must not hold back uploads
+     */
+    private boolean background = false;
+
     public Work(){
         retryCount = 0;
     }
@@ -58,6 +67,7 @@ public class Work implements Runnable, Comparable<Work>{
             this.cumulative = true;
         }
         this.sourceValueIds = sourceValueIds == null ? Collections.emptyList() : new ArrayList<>(sourceValueIds);
+        this.rootValueIds = new HashSet<>(this.sourceValueIds);
         this.sourceNodes = sourceNodes == null ? Collections.emptyList() : new ArrayList<>(sourceNodes);
     }
 
@@ -76,6 +86,11 @@ public class Work implements Runnable, Comparable<Work>{
     }
     public List<Long> getSourceValueIds(){return sourceValueIds;}
 
+    public Set<Long> getRootValueIds(){return rootValueIds;}
+    public void setRootValueIds(Collection<Long> rootValueIds){
+        this.rootValueIds = rootValueIds == null ? new HashSet<>() : new HashSet<>(rootValueIds);
+    }
+
     /**
      * Pre-computes the transitive ancestor node IDs for all active nodes.
      * Must be called while the Hibernate session is open (sources are lazy).
@@ -83,7 +98,7 @@ public class Work implements Runnable, Comparable<Work>{
      * the NodeEntity.sources graph.
      */
     public void precomputeAncestors() {
-        if (activeNodes == null || activeNodes.isEmpty()) return;
+        if (ancestorNodeIds != null || activeNodes == null || activeNodes.isEmpty()) return;
         ancestorNodeIds = new HashSet<>();
         Queue<NodeEntity> queue = new ArrayDeque<>();
         for (NodeEntity activeNode : activeNodes) {
@@ -101,6 +116,26 @@ public class Work implements Runnable, Comparable<Work>{
         }
     }
 
+    /**
+     * The transitive ancestor node IDs of the active nodes, computing them on first use
+     * if {@link #precomputeAncestors()} has not been called.
+     * WorkQueue indexes Work by these IDs to find dependencies without scanning the queue.
+     */
+    public Set<Long> getAncestorNodeIds() {
+        if (ancestorNodeIds == null) {
+            precomputeAncestors();
+        }
+        return ancestorNodeIds == null ? Collections.emptySet() : ancestorNodeIds;
+    }
+
+    /**
+     * Uses ancestor node IDs computed for other work with the same active nodes, so work created for many values
+     * shares one set instead of walking the node graph for each of them.
+     */
+    public void setAncestorNodeIds(Set<Long> ancestorNodeIds) {
+        this.ancestorNodeIds = ancestorNodeIds;
+    }
+
     //work A depends on work B if A.activeNode depends on B.activeNode
     public boolean dependsOn(Work work){
 
@@ -134,17 +169,27 @@ public class Work implements Runnable, Comparable<Work>{
         if (!hasNodeDependency) {
             return false;
         }
-        if (cumulative || sourceValueIds.isEmpty()) {
+        if (cumulative || (rootValueIds.isEmpty() && sourceValueIds.isEmpty())) {
             return true;
         }
+        // scoped by root and source values: work for different uploads runs concurrently even when it uses the same nodes
+        for (Long id : rootValueIds) {
+            if (work.isScopedTo(id)) {
+                return true;
+            }
+        }
         for (int i = 0, size = sourceValueIds.size(); i < size; i++) {
-            if (work.sourceValueIds.contains(sourceValueIds.get(i))) {
+            if (work.isScopedTo(sourceValueIds.get(i))) {
                 return true;
             }
         }
         return false;
     }
 
+    private boolean isScopedTo(Long valueId) {
+        return rootValueIds.contains(valueId) || sourceValueIds.contains(valueId);
+    }
+
     /**
      * filters works for any Work that are in the dependsOn path for this
      * @param works
@@ -231,6 +276,7 @@ public class Work implements Runnable, Comparable<Work>{
 
     public void releaseReferences() {
         sourceValueIds = null;
+        rootValueIds = null;
         sourceNodes = null;
         activeNodes = null;
         ancestorNodeIds = null;
@@ -241,6 +287,7 @@ public class Work implements Runnable, Comparable<Work>{
         return "Work<activeNodes="+activeNodes+
                 " sourceNodes="+(sourceNodes == null ? "null" : sourceNodes.stream().map(n->""+n.getId()).collect(Collectors.joining(",")))+
                 " sourceValueIds="+(sourceValueIds == null ? "null" : sourceValueIds.stream().map(String::valueOf).collect(Collectors.joining(",")))+
+                " rootValueIds="+(rootValueIds == null ? "null" : rootValueIds.stream().map(String::valueOf).collect(Collectors.joining(",")))+
                 " retry="+retryCount+
                 " hashCode="+hashCode()+" >";
     }
@@ -251,6 +298,9 @@ public class Work implements Runnable, Comparable<Work>{
     public boolean isDispatch() { return dispatch; }
     public void setDispatch(boolean dispatch) { this.dispatch = dispatch; }
 
+    public boolean isBackground() { return background; }
+    public void setBackground(boolean background) { this.background = background; }
+
     public boolean isCumulative() { return cumulative; }
     public void setCumulative(boolean cumulative) { this.cumulative = cumulative; }
 
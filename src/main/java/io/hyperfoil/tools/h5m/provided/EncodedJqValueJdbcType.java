@@ -0,0 +1,67 @@
+package io.hyperfoil.tools.h5m.provided;
+
+import io.hyperfoil.tools.jjq.value.JqValue;
+import org.hibernate.type.SqlTypes;
+import org.hibernate.type.descriptor.ValueBinder;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.JavaType;
+import org.hibernate.type.descriptor.jdbc.BasicBinder;
+import org.hibernate.type.descriptor.jdbc.BasicExtractor;
+import org.hibernate.type.descriptor.jdbc.JdbcType;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Binds a JqValue to a BYTEA column through {@link ValueCodec}, decoding plain and encoded rows alike.
+ */
+public class EncodedJqValueJdbcType implements JdbcType {
+
+    @Override
+    public int getJdbcTypeCode() {
+        return SqlTypes.VARBINARY;
+    }
+
+    @Override
+    public String getFriendlyName() {
+        return "JQ_VALUE_ENCODED";
+    }
+
+    @Override
+    public <X> ValueBinder<X> getBinder(JavaType<X> javaType) {
+        return new BasicBinder<>(javaType, this) {
+            @Override
+            protected void doBind(PreparedStatement st, X value, int index, WrapperOptions options) throws SQLException {
+                st.setBytes(index, ValueCodec.encode((JqValue) value));
+            }
+
+            @Override
+            protected void doBind(CallableStatement st, X value, String name, WrapperOptions options) throws SQLException {
+                st.setBytes(name, ValueCodec.encode((JqValue) value));
+            }
+        };
+    }
+
+    @Override
+    public <X> ValueExtractor<X> getExtractor(JavaType<X> javaType) {
+        return new BasicExtractor<>(javaType, this) {
+            @Override
+            protected X doExtract(ResultSet rs, int paramIndex, WrapperOptions options) throws SQLException {
+                return javaType.cast(ValueCodec.decode(rs.getBytes(paramIndex)));
+            }
+
+            @Override
+            protected X doExtract(CallableStatement statement, int index, WrapperOptions options) throws SQLException {
+                return javaType.cast(ValueCodec.decode(statement.getBytes(index)));
+            }
+
+            @Override
+            protected X doExtract(CallableStatement statement, String name, WrapperOptions options) throws SQLException {
+                return javaType.cast(ValueCodec.decode(statement.getBytes(name)));
+            }
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package io.hyperfoil.tools.h5m.provided;
+
+import io.hyperfoil.tools.jjq.value.*;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParserFactory;
+import jakarta.json.stream.JsonParsingException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Builds a JqValue directly from the JSON-P event stream of an InputStream.
+ *
+ * Uploads used to be read into a byte[] (or a String) before JqValues.parse,
+ * which kept the raw payload and its copies on the heap next to the parsed tree.
+ * Parsing from the stream only buffers the parser window, so peak heap per upload
+ * is the JqValue tree itself. Containers are tracked on an explicit stack so
+ * deeply nested documents do not overflow the thread stack.
+ */
+public final class JqValueStreamParser {
+
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+    private JqValueStreamParser() {}
+
+    /**
+     * Parses a single JSON document from the stream. The stream is not closed.
+     *
+     * @throws JsonParsingException if the content is not valid JSON
+     */
+    public static JqValue parse(InputStream inputStream) {
+        try (JsonParser parser = PARSER_FACTORY.createParser(new NonClosingInputStream(inputStream))) {
+            return read(parser);
+        }
+    }
+
+    /**
+     * Parses a single JSON document from the stream, failing once more than maxBytes are read.
+     *
+     * @throws LimitExceededException if the stream is longer than maxBytes
+     * @throws JsonParsingException if the content is not valid JSON
+     */
+    public static JqValue parse(InputStream inputStream, long maxBytes) {
+        return parse(new LimitedInputStream(inputStream, maxBytes));
+    }
+
+    private static JqValue read(JsonParser parser) {
+        Deque<Container> stack = new ArrayDeque<>();
+        JqValue rtrn = null;
+        String key = null;
+        while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            JqValue value;
+            switch (event) {
+                case KEY_NAME -> {
+                    key = parser.getString();
+                    continue;
+                }
+                case START_OBJECT -> {
+                    stack.push(new Container(key, JqObject.builder(8), null));
+                    key = null;
+                    continue;
+                }
+                case START_ARRAY -> {
+                    stack.push(new Container(key, null, new ArrayList<>()));
+                    key = null;
+                    continue;
+                }
+                case END_OBJECT, END_ARRAY -> {
+                    Container done = stack.pop();
+                    key = done.key;
+                    value = done.build();
+                }
+                case VALUE_STRING -> value = JqString.of(parser.getString());
+                case VALUE_NUMBER -> value = number(parser);
+                case VALUE_TRUE -> value = JqBoolean.TRUE;
+                case VALUE_FALSE -> value = JqBoolean.FALSE;
+                case VALUE_NULL -> value = JqNull.NULL;
+                default -> throw new JsonParsingException("Unexpected event " + event, parser.getLocation());
+            }
+            if (stack.isEmpty()) {
+                rtrn = value;
+                if (parser.hasNext()) {
+                    throw new JsonParsingException("Unexpected content after the JSON document", parser.getLocation());
+                }
+            } else {
+                stack.peek().add(key, value);
+            }
+            key = null;
+        }
+        if (rtrn == null) {
+            throw new JsonParsingException("Empty JSON document", parser.getLocation());
+        }
+        return rtrn;
+    }
+
+    private static JqNumber number(JsonParser parser) {
+        if (!parser.isIntegralNumber()) {
+            return JqNumber.of(parser.getBigDecimal().doubleValue());
+        }
+        // up to 18 digits always fits in a long, anything longer keeps full precision
+        if (parser.getString().length() <= 18) {
+            return JqNumber.of(parser.getLong());
+        }
+        return JqNumber.of(parser.getBigDecimal());
+    }
+
+    private static final class Container {
+        final String key;
+        final JqObject.Builder object;
+        final List<JqValue> array;
+
+        Container(String key, JqObject.Builder object, List<JqValue> array) {
+            this.key = key;
+            this.object = object;
+            this.array = array;
+        }
+
+        void add(String name, JqValue value) {
+            if (object != null) {
+                object.put(name, value);
+            } else {
+                array.add(value);
+            }
+        }
+
+        JqValue build() {
+            return object != null ? object.build() : JqArray.of(array.toArray(JqValue[]::new));
+        }
+    }
+
+    /**
+     * Thrown when a bounded stream is longer than the allowed size.
+     */
+    public static class LimitExceededException extends RuntimeException {
+        public LimitExceededException(long maxBytes) {
+            super("Content exceeds the maximum size of " + maxBytes + " bytes");
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count = 0;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) {
+            count += n;
+            if (count > maxBytes) {
+                throw new LimitExceededException(maxBytes);
+            }
+        }
+    }
+
+    // the parser closes its source, callers own the stream they pass in
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,134 @@
+package io.hyperfoil.tools.h5m.provided;
+
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes the bytes stored in {@code value.data}.
+ * <p>
+ * Values are stored as UTF-8 JSON so the database can compare, sort and aggregate them. Values of at least
+ * {@code h5m.value.compression.minSize} bytes, the uploaded run documents, are deflated instead and start with a
+ * header: {@link #MARKER} then the codec byte. JSON text never starts with a zero byte, so rows without the header,
+ * including every row written before the codec existed, are read as plain JSON and do not need a migration.
+ * <p>
+ * SQL that reads {@code value.data} as JSON has to go through {@link #plainData(DatabaseEngine.Kind, String)}, which
+ * reads encoded rows as NULL instead of failing on them.
+ */
+public final class ValueCodec {
+
+    /**
+     * First byte of an encoded value.
+     */
+    public static final byte MARKER = 0;
+    /**
+     * Codec byte of deflated UTF-8 JSON.
+     */
+    public static final byte DEFLATE = 1;
+
+    private static final int HEADER_SIZE = 2;
+
+    private record Settings(boolean enabled, int minSize, int level) {}
+
+    private static volatile Settings settings;
+
+    private ValueCodec() {}
+
+    private static Settings settings() {
+        Settings s = settings;
+        if (s == null) {
+            Config config = ConfigProvider.getConfig();
+            s = new Settings(
+                    config.getOptionalValue("h5m.value.compression.enabled", Boolean.class).orElse(true),
+                    config.getOptionalValue("h5m.value.compression.minSize", Integer.class).orElse(256 * 1024),
+                    // compression runs on the write path of every upload, favour speed
+                    config.getOptionalValue("h5m.value.compression.level", Integer.class).orElse(Deflater.BEST_SPEED));
+            settings = s;
+        }
+        return s;
+    }
+
+    /**
+     * The bytes to store for the value, null for null.
+     */
+    public static byte[] encode(JqValue value) {
+        Settings s = settings();
+        return encode(value, s.enabled() ? s.minSize() : Integer.MAX_VALUE, s.level());
+    }
+
+    static byte[] encode(JqValue value, int minSize, int level) {
+        if (value == null) {
+            return null;
+        }
+        byte[] json = JqValues.serializeToBytes(value);
+        if (json.length < minSize) {
+            return json;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + HEADER_SIZE);
+            out.write(MARKER);
+            out.write(DEFLATE);
+            try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 8192)) {
+                deflated.write(json);
+            }
+            byte[] encoded = out.toByteArray();
+            // incompressible data is kept as plain JSON
+            return encoded.length < json.length ? encoded : json;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * The value of stored bytes, encoded or plain JSON, null for null.
+     */
+    public static JqValue decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (!isEncoded(bytes)) {
+            return JqValues.parse(bytes);
+        }
+        if (bytes.length < HEADER_SIZE || bytes[1] != DEFLATE) {
+            throw new IllegalArgumentException("Unknown value codec " + (bytes.length < HEADER_SIZE ? "header" : bytes[1]));
+        }
+        Inflater inflater = new Inflater();
+        // parse while inflating so the JSON text is never held as a whole
+        try (InflaterInputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE), inflater, 8192)) {
+            return JqValueStreamParser.parse(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes != null && bytes.length > 0 && bytes[0] == MARKER;
+    }
+
+    /**
+     * SQL for the data column as plain JSON bytes, NULL for encoded rows. Encoded rows are the large documents that
+     * are not compared or sorted by in SQL.
+     */
+    public static String plainData(DatabaseEngine.Kind kind, String column) {
+        return switch (kind) {
+            case POSTGRESQL -> "(case when get_byte(" + column + ", 0) = 0 then null else " + column + " end)";
+            case SQLITE -> "(case when substr(" + column + ", 1, 1) = x'00' then null else " + column + " end)";
+        };
+    }
+}
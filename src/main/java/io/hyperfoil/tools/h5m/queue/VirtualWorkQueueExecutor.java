@@ -0,0 +1,178 @@
+package io.hyperfoil.tools.h5m.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs the runnables of a WorkQueue on virtual threads, one thread per runnable, with at most maxConcurrency running
+ * at once. The dispatcher takes a permit before it takes the next ready runnable so the WorkQueue keeps deciding the
+ * order and runnables that cannot start yet stay pending in the queue, like they do with the platform pool.
+ *
+ * shutdown() lets the pending runnables finish, the same as ThreadPoolExecutor. setMaxConcurrency() changes the limit
+ * while running, a lower limit takes effect as the running runnables complete.
+ */
+public class VirtualWorkQueueExecutor extends AbstractExecutorService {
+
+    private static final AtomicInteger atomicInteger = new AtomicInteger(0);
+
+    // how often the dispatcher checks for shutdown while the queue has nothing ready
+    private static final long POLL_MILLIS = 100;
+
+    // reducePermits is protected, a lower limit removes permits without waiting for them
+    private static final class ResizableSemaphore extends Semaphore {
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private final WorkQueue workQueue;
+    private volatile int maxConcurrency;
+    private final ResizableSemaphore permits;
+    private final ThreadFactory threadFactory;
+    private final Thread dispatcher;
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean shutdown = false;
+
+    public VirtualWorkQueueExecutor(int maxConcurrency, WorkQueue workQueue) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1 but was " + maxConcurrency);
+        }
+        int id = atomicInteger.getAndIncrement();
+        this.workQueue = workQueue;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new ResizableSemaphore(maxConcurrency);
+        this.threadFactory = Thread.ofVirtual().name("h5m-work-queue-vthread-" + id + "-", 0).factory();
+        this.dispatcher = Thread.ofVirtual().name("h5m-work-queue-dispatcher-" + id).unstarted(this::dispatch);
+        this.dispatcher.start();
+    }
+
+    public WorkQueue getWorkQueue() {
+        return workQueue;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public synchronized void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1 but was " + maxConcurrency);
+        }
+        int delta = maxConcurrency - this.maxConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            permits.reducePermits(-delta);
+        }
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public long getCompletedTaskCount() {
+        return completed.get();
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                permits.acquire();
+                Runnable runnable = null;
+                while (runnable == null) {
+                    if (shutdown && workQueue.isEmpty()) {
+                        permits.release();
+                        // wait for the running tasks, they can still add work to the queue before they complete
+                        int all = maxConcurrency;
+                        permits.acquire(all);
+                        permits.release(all);
+                        if (workQueue.isEmpty()) {
+                            return;
+                        }
+                        permits.acquire();
+                    }
+                    runnable = workQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                start(runnable);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    private void start(Runnable runnable) {
+        active.incrementAndGet();
+        try {
+            threadFactory.newThread(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                    permits.release();
+                }
+            }).start();
+        } catch (RuntimeException | Error e) {
+            active.decrementAndGet();
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor is shut down");
+        }
+        if (!workQueue.add(command)) {
+            throw new RejectedExecutionException("work queue did not accept " + command);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(workQueue);
+        workQueue.clear();
+        dispatcher.interrupt();
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+}
@@ -1,8 +1,8 @@
 package io.hyperfoil.tools.h5m.queue;
 
 import io.hyperfoil.tools.h5m.api.NodeType;
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
 import io.hyperfoil.tools.h5m.entity.work.Work;
-import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,26 +15,106 @@ import java.util.concurrent.locks.ReentrantLock;
 
 
 /*
- * Ideas:
- * * change to accept Runnable and keep the runnable behind the preceding Work when re-sorting
- *   This would allow us to have "callbacks" in the work queue that do not persist to DB
- *   For Example: having a synchronous upload that responds with change detection when all nodes finish calculating
-*
+ * Indexed ready-set scheduler.
+ *
+ * Every queued or active Work has an Entry with an in-degree (the number of queued or active Work it must follow)
+ * and a list of dependents. Entries are indexed by their active node IDs and by their ancestor node IDs
+ * (Work.getAncestorNodeIds()), each split by root and source value ID, so finding the Work a new item depends on, or that
+ * depends on it, only touches the Work sharing those nodes. Work.dependsOn() confirms every indexed candidate so
+ * it remains the single source of truth for dependencies.
+ *
+ * Entries with in-degree 0 sit in the ready set: poll() is O(1) and decrement() only touches the dependents of the
+ * completed Work. Background Work (Work.isBackground(), e.g. recalculations) is only taken when no other entry is ready.
+ *
+ * Plain Runnables follow every runnable that was pending when they were added.
  */
 public class WorkQueue implements BlockingQueue<Runnable> {
 
     private static final Logger log = LoggerFactory.getLogger(WorkQueue.class);
-    //TODO using counters blocks work on different values, change to set of active work
-    //private Counters<NodeEntity> counters = new Counters<>();
-    private Set<Work> activeWork = ConcurrentHashMap.newKeySet();
-    private Set<Work> pendingWork = ConcurrentHashMap.newKeySet();
+
+    private enum State { PENDING, ACTIVE }
+
+    private static final class Entry {
+        final Runnable runnable;
+        final boolean background;
+        State state = State.PENDING;
+        int inDegree = 0;
+        List<Entry> dependents;
+        // keys this entry was indexed with, kept so removal does not depend on the (mutable) Work
+        long[] nodeIds;
+        long[] ancestorIds;
+        long[] valueIds;
+        boolean wildcard;
+
+        Entry(Runnable runnable) {
+            this.runnable = runnable;
+            this.background = runnable instanceof Work work && work.isBackground();
+        }
+
+        void addDependent(Entry dependent) {
+            if (dependents == null) {
+                dependents = new ArrayList<>(2);
+            }
+            dependents.add(dependent);
+        }
+    }
+
+    /*
+     * Entries for one node ID, split by root and source value ID. In the ancestor index, Work without source values or with
+     * cumulative nodes depends on every value so it is only kept in the any set.
+     */
+    private static final class Slot {
+        final Set<Entry> any = new LinkedHashSet<>();
+        final Map<Long, Set<Entry>> byValue = new HashMap<>();
+
+        boolean isEmpty() {
+            return any.isEmpty() && byValue.isEmpty();
+        }
+    }
+
+    /*
+     * Ready entries in insertion order, background entries after all the others
+     */
+    private static final class ReadySet {
+        final LinkedHashSet<Entry> foreground = new LinkedHashSet<>();
+        final LinkedHashSet<Entry> background = new LinkedHashSet<>();
+
+        void add(Entry entry) {
+            (entry.background ? background : foreground).add(entry);
+        }
+
+        boolean remove(Entry entry) {
+            return (entry.background ? background : foreground).remove(entry);
+        }
+
+        boolean isEmpty() {
+            return foreground.isEmpty() && background.isEmpty();
+        }
+
+        Entry first() {
+            return foreground.isEmpty() ? background.getFirst() : foreground.getFirst();
+        }
+
+        Entry removeFirst() {
+            return foreground.isEmpty() ? background.removeFirst() : foreground.removeFirst();
+        }
+    }
+
+    // pending and active runnables in insertion order
+    private final Map<Runnable, Entry> entries = new LinkedHashMap<>();
+    // pending entries with no unfinished dependencies
+    private final ReadySet ready = new ReadySet();
+    // entries by the IDs of their active nodes (every entry is in any and in byValue for each root and source value)
+    private final Map<Long, Slot> byNode = new HashMap<>();
+    // entries by the IDs of their ancestor nodes (wildcard entries in any, value scoped entries in byValue)
+    private final Map<Long, Slot> byAncestor = new HashMap<>();
+
+    private int pending = 0;
+    private int active = 0;
     private final AtomicInteger deferredCount = new AtomicInteger(0);
 
     private final ReentrantLock takeLock = new ReentrantLock();
     private final Condition notEmpty = takeLock.newCondition();
-    //private final ReentrantLock putLock = new ReentrantLock();
-
-    private List<Runnable> runnables = new  ArrayList<>();
 
     public WorkQueue() {
     }
@@ -42,7 +122,7 @@ public class WorkQueue implements BlockingQueue<Runnable> {
     public boolean isIdle(){
         takeLock.lock();
         try {
-            return activeWork.isEmpty() && runnables.isEmpty() && deferredCount.get() == 0;
+            return active == 0 && pending == 0 && deferredCount.get() == 0;
         } finally {
             takeLock.unlock();
         }
@@ -56,230 +136,370 @@ public class WorkQueue implements BlockingQueue<Runnable> {
         deferredCount.addAndGet(-count);
     }
 
+    /**
+     * Marks active work as complete, releasing any queued work that was waiting on it.
+     * Work that was re-queued (e.g. for a retry) is left in the queue.
+     * @param work the work that finished
+     */
     public void decrement(Work work){
-        fullyLock();
+        takeLock.lock();
         try {
-            activeWork.remove(work); // will be re-added to the queue if needed
-            if(!runnables.isEmpty()){
+            Entry entry = entries.get(work);
+            if(entry == null || entry.state != State.ACTIVE){
+                return;
+            }
+            entries.remove(work);
+            active--;
+            unindex(entry);
+            release(entry);
+            if(!ready.isEmpty()){
                 //signal all because this could unblock multiple work items
                 notEmpty.signalAll();
             }
         } finally {
-            fullyUnlock();
+            takeLock.unlock();
         }
     }
 
-    private void fullyLock(){
-//        putLock.lock();
-        takeLock.lock();
-
-
-    }
-    private void fullyUnlock(){
-//        putLock.unlock();
-        takeLock.unlock();
-    }
-    private void signalNotEmpty(){
+    /**
+     * get the runables that the input runnable must follow
+     * @param runnable
+     * @return
+     */
+    public List<Runnable> getRequiredPrecedingRunnables(Runnable runnable){
         takeLock.lock();
-        try{
-            notEmpty.signal();
-        }finally {
+        try {
+            if(runnable instanceof Work work){
+                List<Runnable> result = new ArrayList<>();
+                for (Entry candidate : findPrerequisites(work, entries.get(work))) {
+                    if (candidate.state == State.PENDING) {
+                        result.add(candidate.runnable);
+                    }
+                }
+                return result;
+            }
+            Runnable previous = null;
+            for (Entry entry : entries.values()) {
+                if (entry.runnable.equals(runnable)) {
+                    return previous == null ? Collections.emptyList() : List.of(previous);
+                }
+                if (entry.state == State.PENDING) {
+                    previous = entry.runnable;
+                }
+            }
+            return Collections.emptyList();
+        } finally {
             takeLock.unlock();
         }
     }
 
-    private int getScore(int index){
-        Runnable runnable = runnables.get(index);
-        if(runnable instanceof Work work){
-            for (Work w : activeWork) {
-                if (work.dependsOn(w)) {
-                    return 1;
+    public Collection<Work> addWorks(Collection<Work> works){
+        takeLock.lock();
+        try {
+            boolean wasEmpty = ready.isEmpty();
+            List<Work> acceptedWork = new ArrayList<>(works.size());
+            for (Work w : works) {
+                if (hasWork(w)) {
+                    log.warn("addWorks: REJECTED duplicate work hash={} pending={} active={}",
+                            w.hashCode(), isPending(w), isActive(w));
+                    continue;
                 }
+                enqueue(w);
+                acceptedWork.add(w);
+                assert isPending(w);
             }
-            for (int i = 0, size = runnables.size(); i < size; i++) {
-                Runnable r = runnables.get(i);
-                if (r instanceof Work wr && work.dependsOn(wr)) {
-                    return 1;
-                }
+            if (!acceptedWork.isEmpty() && wasEmpty && !ready.isEmpty()) {
+                notEmpty.signal();
             }
-            //TODO this implementation will block work for different values using the same node
-            return 0;
-        }else if (index > 0){//if this a normable Runnable
-            // can we just return index because it has to run after any preceding?
-            // what if the preceding is already out of queue but not done?
-            // we need some tracking between runnable when added
-            return index;
-        }else{
-            return 0;
+            return acceptedWork;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+    public boolean hasWork(Work work){
+        takeLock.lock();
+        try {
+            return entries.containsKey(work);
+        } finally {
+            takeLock.unlock();
+        }
+    }
+    public boolean isPending(Work work){
+        return hasState(work, State.PENDING);
+    }
+    public boolean isActive(Work work){
+        return hasState(work, State.ACTIVE);
+    }
+    private boolean hasState(Work work, State state){
+        takeLock.lock();
+        try {
+            Entry entry = entries.get(work);
+            return entry != null && entry.state == state;
+        } finally {
+            takeLock.unlock();
         }
     }
 
-    private Runnable removeFirstUnblocked(){
-        Runnable found = null;
-        int idx = 0;
-        int score = -1;
-
-        fullyLock();
+    public int pendingCount(){
+        takeLock.lock();
         try {
-            if(runnables.isEmpty()){
-                return null;
-            }
-            do {
-                found = runnables.get(idx);
-                score = getScore(idx);
-                if (score > 0) {
-                    found = null;
-                }
-                idx++;
-            } while (idx < runnables.size() && score > 0);
-            if (found != null) {
-                Runnable removed = runnables.remove(idx - 1); //index of found
-                assert !runnables.contains(found);
-                if(found instanceof Work work){
-                    activeWork.add(work);
-                    pendingWork.remove(work);
-                }
-            }
-        }finally {
-            fullyUnlock();
+            return pending;
+        } finally {
+            takeLock.unlock();
         }
+    }
+    public int activeCount(){
         takeLock.lock();
         try {
-            if(runnables.isEmpty()){
-                synchronized (this) {
-                    this.notify();
-                }
-            }
+            return active;
         } finally {
             takeLock.unlock();
         }
-        return found;
     }
 
-    /**
-     * get the runables that the input runnable must follow
-     * @param runnable
-     * @return
+    /*
+     * Adds the runnable as a pending entry. Active work is moved back to pending (retry re-queue).
+     * Must be called while holding takeLock.
+     * @return false if the runnable was already pending
      */
-    public List<Runnable> getRequiredPrecedingRunnables(Runnable runnable){
+    private boolean enqueue(Runnable runnable){
+        Entry entry = entries.get(runnable);
+        if(entry != null){
+            if(entry.state == State.PENDING){
+                return false;
+            }
+            //re-queue of active work, dependents already wait on this entry
+            entry.state = State.PENDING;
+            active--;
+            pending++;
+            Work work = (Work) entry.runnable;
+            for (Entry prerequisite : findPrerequisites(work, entry)) {
+                prerequisite.addDependent(entry);
+                entry.inDegree++;
+            }
+            if(entry.inDegree == 0){
+                ready.add(entry);
+            }
+            return true;
+        }
+        entry = new Entry(runnable);
         if(runnable instanceof Work work){
-            List<Runnable> result = new ArrayList<>();
-            for (int i = 0, size = runnables.size(); i < size; i++) {
-                Runnable r = runnables.get(i);
-                if (r instanceof Work wr && work.dependsOn(wr)) {
-                    result.add(r);
+            Set<Entry> prerequisites = findPrerequisites(work, null);
+            for (Entry prerequisite : prerequisites) {
+                prerequisite.addDependent(entry);
+                entry.inDegree++;
+            }
+            //pending work that must now wait for the new work
+            Set<Entry> dependents = findDependents(work);
+            //work with several active nodes can depend on each other, the first one queued runs first
+            dependents.removeAll(prerequisites);
+            for (Entry dependent : dependents) {
+                if(dependent.inDegree++ == 0){
+                    ready.remove(dependent);
+                }
+                entry.addDependent(dependent);
+            }
+            index(entry, work);
+        }else{
+            for (Entry preceding : entries.values()) {
+                if(preceding.state == State.PENDING){
+                    preceding.addDependent(entry);
+                    entry.inDegree++;
                 }
             }
-            return result;
         }
-        int index = runnables.indexOf(runnable);
-        if(index > 0){
-            return List.of(runnables.get(index-1));
+        entries.put(runnable, entry);
+        pending++;
+        if(entry.inDegree == 0){
+            ready.add(entry);
         }
-        return Collections.emptyList();
+        return true;
     }
-    // Tracks whether any queued Work depends on another queued Work.
-    // Set to true when addWorks detects a dependency. Reset after sort.
-    // When false, sort() is skipped (no dependencies to order).
-    private boolean dependenciesExist = false;
 
-    private void sort(){
-        if (!dependenciesExist) {
-            return; // no dependencies between queued items — skip O(n²) sort
-        }
-        runnables = KahnDagSort.sort(runnables,this::getRequiredPrecedingRunnables);
-        dependenciesExist = false;
-    }
-    public Collection<Work> addWorks(Collection<Work> works){
-//        putLock.lock();
-        takeLock.lock();
-        try {
-            boolean wasEmpty = runnables.isEmpty();
-            List<Work> acceptedWork = works.stream().filter(w -> {
-                boolean has = hasWork(w);
-                if (has) {
-                    log.warn("addWorks: REJECTED duplicate work hash={} pending={} active={}",
-                            w.hashCode(), isPending(w), isActive(w));
-                }
-                return !has;
-            }).peek(w-> {
-                pendingWork.add(w);
-                runnables.add(w);
-                assert isPending(w);
-            }).toList();
-            if (!acceptedWork.isEmpty()) {
-                // Check if any new Work depends on any existing queued Work.
-                // Uses Work.dependsOn() as the single source of truth for dependency.
-                if (!dependenciesExist) {
-                    outer:
-                    for (Work newWork : acceptedWork) {
-                        for (Runnable r : runnables) {
-                            if (r instanceof Work existing && r != newWork && newWork.dependsOn(existing)) {
-                                dependenciesExist = true;
-                                break outer;
-                            }
-                        }
+    /*
+     * Queued or active entries that the work depends on
+     */
+    private Set<Entry> findPrerequisites(Work work, Entry self){
+        Set<Entry> candidates = new LinkedHashSet<>();
+        boolean wildcard = isWildcard(work);
+        long[] valueIds = scopeIds(work);
+        for (Long ancestorId : work.getAncestorNodeIds()) {
+            Slot slot = byNode.get(ancestorId);
+            if(slot == null){
+                continue;
+            }
+            if(wildcard){
+                candidates.addAll(slot.any);
+            }else{
+                for (long valueId : valueIds) {
+                    Set<Entry> matched = slot.byValue.get(valueId);
+                    if(matched != null){
+                        candidates.addAll(matched);
                     }
                 }
-                sort();
-                if (wasEmpty) {
-                    signalNotEmpty();
+            }
+        }
+        candidates.remove(self);
+        candidates.removeIf(candidate -> !work.dependsOn((Work) candidate.runnable));
+        return candidates;
+    }
+
+    /*
+     * Pending entries that depend on the work
+     */
+    private Set<Entry> findDependents(Work work){
+        Set<Entry> candidates = new LinkedHashSet<>();
+        if(work.getActiveNodes() == null){
+            return candidates;
+        }
+        long[] valueIds = scopeIds(work);
+        for (NodeEntity node : work.getActiveNodes()) {
+            Slot slot = node.id == null ? null : byAncestor.get(node.id);
+            if(slot == null){
+                continue;
+            }
+            candidates.addAll(slot.any);
+            for (long valueId : valueIds) {
+                Set<Entry> matched = slot.byValue.get(valueId);
+                if(matched != null){
+                    candidates.addAll(matched);
                 }
             }
-            return acceptedWork;
-        } finally {
-//            putLock.unlock();
-            takeLock.unlock();
         }
+        candidates.removeIf(candidate -> candidate.state != State.PENDING || !((Work) candidate.runnable).dependsOn(work));
+        return candidates;
     }
-    public boolean hasWork(Work work){
-        return isPending(work) || isActive(work);
-        //return runnables.stream().anyMatch(v->v instanceof WorkRunner && work.equals(((WorkRunner) v).work));
+
+    /*
+     * Cumulative work, or work without any root or source values, depends on work for every value
+     */
+    private static boolean isWildcard(Work work){
+        return work.isCumulative() || scopeIds(work).length == 0;
     }
-    public boolean isPending(Work work){
-        return pendingWork.contains(work);
+
+    /*
+     * Root and source value IDs that scope the dependencies of the work
+     */
+    private static long[] scopeIds(Work work){
+        Set<Long> ids = new LinkedHashSet<>();
+        if(work.getRootValueIds() != null){
+            ids.addAll(work.getRootValueIds());
+        }
+        if(work.getSourceValueIds() != null){
+            ids.addAll(work.getSourceValueIds());
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private void index(Entry entry, Work work){
+        entry.valueIds = scopeIds(work);
+        entry.wildcard = work.isCumulative() || entry.valueIds.length == 0;
+        entry.nodeIds = work.getActiveNodes() == null ? new long[0] :
+                work.getActiveNodes().stream().map(n -> n.id).filter(Objects::nonNull).mapToLong(Long::longValue).toArray();
+        entry.ancestorIds = work.getAncestorNodeIds().stream().mapToLong(Long::longValue).toArray();
+        for (long nodeId : entry.nodeIds) {
+            Slot slot = byNode.computeIfAbsent(nodeId, k -> new Slot());
+            slot.any.add(entry);
+            for (long valueId : entry.valueIds) {
+                slot.byValue.computeIfAbsent(valueId, k -> new LinkedHashSet<>()).add(entry);
+            }
+        }
+        for (long ancestorId : entry.ancestorIds) {
+            Slot slot = byAncestor.computeIfAbsent(ancestorId, k -> new Slot());
+            if(entry.wildcard){
+                slot.any.add(entry);
+            }else{
+                for (long valueId : entry.valueIds) {
+                    slot.byValue.computeIfAbsent(valueId, k -> new LinkedHashSet<>()).add(entry);
+                }
+            }
+        }
     }
-    public boolean isActive(Work work){
-        return activeWork.contains(work);
+
+    private void unindex(Entry entry){
+        if(entry.nodeIds == null){
+            return;
+        }
+        for (long nodeId : entry.nodeIds) {
+            removeFromSlot(byNode, nodeId, entry);
+        }
+        for (long ancestorId : entry.ancestorIds) {
+            removeFromSlot(byAncestor, ancestorId, entry);
+        }
     }
 
-    public int pendingCount(){
-        return pendingWork.size();
+    private void removeFromSlot(Map<Long, Slot> slots, long key, Entry entry){
+        Slot slot = slots.get(key);
+        if(slot == null){
+            return;
+        }
+        slot.any.remove(entry);
+        for (long valueId : entry.valueIds) {
+            Set<Entry> matched = slot.byValue.get(valueId);
+            if(matched != null && matched.remove(entry) && matched.isEmpty()){
+                slot.byValue.remove(valueId);
+            }
+        }
+        if(slot.isEmpty()){
+            slots.remove(key);
+        }
     }
-    public int activeCount(){
-        return activeWork.size();
+
+    /*
+     * Decrements the in-degree of every dependent of a finished or removed entry
+     */
+    private void release(Entry entry){
+        if(entry.dependents == null){
+            return;
+        }
+        for (int i = 0, size = entry.dependents.size(); i < size; i++) {
+            Entry dependent = entry.dependents.get(i);
+            if(dependent.inDegree > 0 && --dependent.inDegree == 0 && dependent.state == State.PENDING
+                    && entries.get(dependent.runnable) == dependent){
+                ready.add(dependent);
+            }
+        }
+        entry.dependents = null;
+    }
+
+    /*
+     * Removes the first ready entry, must be called while holding takeLock
+     */
+    private Runnable removeFirstReady(){
+        if(ready.isEmpty()){
+            return null;
+        }
+        Entry entry = ready.removeFirst();
+        pending--;
+        if(entry.runnable instanceof Work){
+            entry.state = State.ACTIVE;
+            active++;
+        }else{
+            //plain runnables are not tracked once they leave the queue
+            entries.remove(entry.runnable);
+            release(entry);
+        }
+        return entry.runnable;
     }
 
     @Override
     public boolean add(Runnable runnable) {
-        if(runnable instanceof Work work){
-            if(isRoot(work)){
-                return false;
-            }
-            //reject new work that is already pending
-            //do NOT reject new work if it matches an active work because it could be a retry re-queue
-            if(isPending(work)){
-                return false;//reject new work that is already pending
-            }else {
-                pendingWork.add(work);
-            }
+        if(runnable instanceof Work work && isRoot(work)){
+            return false;
         }
-//        putLock.lock();
         takeLock.lock();
         try {
-            int c = runnables.size();
-            runnables.add(runnable);
-            if(runnable instanceof Work){
-                sort();
+            //reject new work that is already pending
+            //do NOT reject new work if it matches an active work because it could be a retry re-queue
+            if(!enqueue(runnable)){
+                return false;
             }
-            if(c == 0){
-                signalNotEmpty();
+            if(!ready.isEmpty()){
+                notEmpty.signal();
             }
         }finally {
-//            putLock.unlock();
             takeLock.unlock();
         }
-        //This is not supported
         return true;
     }
 
@@ -303,15 +523,8 @@ public class WorkQueue implements BlockingQueue<Runnable> {
     public Runnable poll() {
         takeLock.lock();
         try{
-            if(runnables.isEmpty()){
-                return null;
-            }
-            Runnable found = removeFirstUnblocked();
-            if(found == null){
-                return null;
-            }
-            int c = runnables.size();
-            if(c > 1){
+            Runnable found = removeFirstReady();
+            if(found != null && !ready.isEmpty()){
                 notEmpty.signal();
             }
             return found;
@@ -333,7 +546,15 @@ public class WorkQueue implements BlockingQueue<Runnable> {
     public Runnable peek() {
         takeLock.lock();
         try{
-            return !runnables.isEmpty() ? runnables.getFirst() : null;
+            if(!ready.isEmpty()){
+                return ready.first().runnable;
+            }
+            for (Entry entry : entries.values()) {
+                if(entry.state == State.PENDING){
+                    return entry.runnable;
+                }
+            }
+            return null;
         }finally {
             takeLock.unlock();
         }
@@ -341,26 +562,14 @@ public class WorkQueue implements BlockingQueue<Runnable> {
 
     @Override
     public void put(Runnable runnable) throws InterruptedException {
-//        putLock.lock();
         takeLock.lock();
         try{
-            if(runnable instanceof Work work){
-                if(isPending(work)){
-                    return;
-                }else {
-                    pendingWork.add(work);
-                }
-            }
-            int c = runnables.size();
-            runnables.add(runnable);
-            if(c!=0){
-                signalNotEmpty();
+            if(enqueue(runnable) && !ready.isEmpty()){
+                notEmpty.signal();
             }
         }finally {
-//            putLock.unlock();
             takeLock.unlock();
         }
-        //not supported
     }
 
     @Override
@@ -373,18 +582,11 @@ public class WorkQueue implements BlockingQueue<Runnable> {
     public Runnable take() throws InterruptedException {
         takeLock.lockInterruptibly();
         try {
-            while (runnables.isEmpty()) {
+            Runnable work;
+            while ((work = removeFirstReady()) == null) {
                 notEmpty.await();
             }
-            Runnable work = null;
-            do {
-                work = removeFirstUnblocked();
-                if (work == null) {
-                    notEmpty.await();
-                }
-            } while (work == null);
-            int c = runnables.size();
-            if (c > 0) {
+            if (!ready.isEmpty()) {
                 notEmpty.signal();
             }
             return work;
@@ -398,24 +600,14 @@ public class WorkQueue implements BlockingQueue<Runnable> {
         long nanos = unit.toNanos(timeout);
         takeLock.lockInterruptibly();
         try {
-            while(runnables.isEmpty()){
+            Runnable work;
+            while((work = removeFirstReady()) == null){
                 if (nanos <= 0L){
                     return null;
                 }
                 nanos = notEmpty.awaitNanos(nanos);
             }
-            Runnable work = null;
-            while(work == null){
-                work = removeFirstUnblocked();
-                if(work == null){
-                    if (nanos <= 0L){
-                        return null;
-                    }
-                    nanos = notEmpty.awaitNanos(nanos);
-                }
-            }
-            int c = runnables.size();
-            if( c > 0){
+            if(!ready.isEmpty()){
                 notEmpty.signal();
             }
             return work;
@@ -431,58 +623,57 @@ public class WorkQueue implements BlockingQueue<Runnable> {
 
     @Override
     public boolean remove(Object o) {
-        boolean rtrn = false;
-        fullyLock();
+        takeLock.lock();
         try{
-            if(o instanceof Work work){
-                pendingWork.remove(work);
+            Entry entry = entries.get(o);
+            if(entry == null || entry.state != State.PENDING){
+                return false;
             }
-            rtrn = runnables.remove(o);
-            int c = runnables.size();
-            if(c>0){
+            removePending(entry);
+            if(!ready.isEmpty()){
                 notEmpty.signal();
             }
+            return true;
         } finally {
-            fullyUnlock();
+            takeLock.unlock();
         }
-        return rtrn;
+    }
+
+    private void removePending(Entry entry){
+        entries.remove(entry.runnable);
+        ready.remove(entry);
+        pending--;
+        unindex(entry);
+        release(entry);
     }
 
     @Override
     public boolean containsAll(Collection<?> c) {
-        takeLock.lock();
-        try {
-            return runnables.containsAll(c);
-        } finally {
-            takeLock.unlock();
+        for (Object o : c) {
+            if(!contains(o)){
+                return false;
+            }
         }
+        return true;
     }
 
     @Override
     public boolean addAll(Collection<? extends Runnable> c) {
-        fullyLock();
         boolean added = false;
-        boolean wasEmpty = runnables.isEmpty();
+        takeLock.lock();
         try {
+            boolean wasEmpty = ready.isEmpty();
             for (Runnable r : c) {
-                if(r instanceof Work work){
-                    if(isPending(work) || isRoot(work)){
-                        continue;
-                    }else{
-                        pendingWork.add(work);
-                    }
+                if(r instanceof Work work && isRoot(work)){
+                    continue;
                 }
-                runnables.add(r);
-                added = true;
+                added |= enqueue(r);
             }
-            if (added) {
-                sort();
-                if(wasEmpty){
-                    signalNotEmpty();
-                }
+            if (added && wasEmpty && !ready.isEmpty()) {
+                notEmpty.signal();
             }
         } finally {
-            fullyUnlock();
+            takeLock.unlock();
         }
         return added;
     }
@@ -499,84 +690,84 @@ public class WorkQueue implements BlockingQueue<Runnable> {
 
     @Override
     public boolean retainAll(Collection<?> c) {
-        fullyLock();
+        boolean changed = false;
+        takeLock.lock();
         try {
-            runnables.retainAll(c);
-            sort();
+            for (Entry entry : List.copyOf(entries.values())) {
+                if(entry.state == State.PENDING && !c.contains(entry.runnable)){
+                    removePending(entry);
+                    changed = true;
+                }
+            }
         }finally {
-            fullyUnlock();
+            takeLock.unlock();
         }
-        return false;
+        return changed;
     }
 
     @Override
     public void clear() {
-        fullyLock();
+        takeLock.lock();
         try {
-            runnables.clear();
+            for (Entry entry : List.copyOf(entries.values())) {
+                if(entry.state == State.PENDING){
+                    removePending(entry);
+                }
+            }
         }finally {
-            fullyUnlock();
+            takeLock.unlock();
         }
     }
 
     @Override
     public int size() {
-        takeLock.lock();
-        try {
-            return runnables.size();
-        } finally {
-            takeLock.unlock();
-        }
+        return pendingCount();
     }
 
     @Override
     public boolean isEmpty() {
-        takeLock.lock();
-        try {
-            return runnables.isEmpty();
-        } finally {
-            takeLock.unlock();
-        }
+        return pendingCount() == 0;
     }
 
     @Override
     public boolean contains(Object o) {
         takeLock.lock();
         try {
-            return runnables.contains(o);
+            Entry entry = entries.get(o);
+            return entry != null && entry.state == State.PENDING;
         } finally {
             takeLock.unlock();
         }
     }
 
-    @Override
-    public Iterator<Runnable> iterator() {
+    private List<Runnable> pendingRunnables(){
         takeLock.lock();
         try {
-            return List.copyOf(runnables).iterator();
+            List<Runnable> rtrn = new ArrayList<>(pending);
+            for (Entry entry : entries.values()) {
+                if(entry.state == State.PENDING){
+                    rtrn.add(entry.runnable);
+                }
+            }
+            return rtrn;
         } finally {
             takeLock.unlock();
         }
     }
 
+    @Override
+    public Iterator<Runnable> iterator() {
+        return List.copyOf(pendingRunnables()).iterator();
+    }
+
     @Override
     public Object[] toArray() {
-        takeLock.lock();
-        try {
-            return runnables.toArray();
-        } finally {
-            takeLock.unlock();
-        }
+        return pendingRunnables().toArray();
     }
 
     @Override
     public <T> T[] toArray(T[] a) {
-        takeLock.lock();
-        try {
-            return runnables.toArray(a);
-        } finally {
-            takeLock.unlock();
-        }
+        return pendingRunnables().toArray(a);
     }
 
     @Override
@@ -15,4 +15,22 @@ public class WorkQueueExecutor extends ThreadPoolExecutor {
     public WorkQueue getWorkQueue() {
         return (WorkQueue) getQueue();
     }
+
+    /**
+     * Sets the number of workers. The maximum pool size follows the core pool size down: a worker above the core
+     * size only retires when its timed poll finds the queue empty, which never happens while work is pending, but a
+     * worker above the maximum retires at its next task.
+     */
+    public void setConcurrency(int concurrency) {
+        int target = Math.max(1, concurrency);
+        // the core size can never exceed the maximum size
+        if (target > getMaximumPoolSize()) {
+            setMaximumPoolSize(target);
+            setCorePoolSize(target);
+        } else {
+            setCorePoolSize(target);
+            setMaximumPoolSize(target);
+        }
+        prestartAllCoreThreads();
+    }
 }
@@ -8,6 +8,8 @@ import io.hyperfoil.tools.h5m.api.Processing;
 import io.hyperfoil.tools.h5m.api.svc.FolderServiceInterface;
 import io.hyperfoil.tools.h5m.api.svc.ValueServiceInterface;
 import io.hyperfoil.tools.h5m.api.svc.ProcessingServiceInterface;
+import io.hyperfoil.tools.h5m.provided.JqValueStreamParser;
+import io.quarkus.logging.Log;
 import io.quarkus.runtime.configuration.MemorySize;
 import io.quarkus.security.Authenticated;
 import jakarta.annotation.security.PermitAll;
@@ -22,10 +24,17 @@ import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.jboss.resteasy.reactive.RestForm;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -33,16 +42,20 @@ import java.util.Set;
 import java.util.stream.Stream;
 
 import static jakarta.ws.rs.core.MediaType.MULTIPART_FORM_DATA;
-import static java.nio.file.Files.readAllBytes;
 
 @Path("/api/folder")
 @Produces(MediaType.APPLICATION_JSON)
 @Tag(name = "Folder", description = "Manage folders for uploaded data")
 public class FolderResource {
 
+    private static final String NDJSON = "application/x-ndjson";
+
     @ConfigProperty(name = "quarkus.http.limits.max-body-size")
     MemorySize maxBodySize;
 
+    @ConfigProperty(name = "h5m.upload.batchSize", defaultValue = "100")
+    int batchSize;
+
     @Inject
     FolderServiceInterface folderService;
 
@@ -115,8 +128,8 @@ public class FolderResource {
             throw new BadRequestException("Provide exactly one of 'file', 'raw', or 'url'");
         }
 
-        byte[] bytes;
-
+        // parse straight from the source stream so the payload is never copied into a byte[] before the JqValue tree is built
+        JqValue data;
         try {
             if (url != null) {
                 if (!Set.of("http", "https").contains(url.getProtocol())) {
@@ -125,26 +138,140 @@ public class FolderResource {
                 URLConnection connection = url.openConnection();
                 connection.setConnectTimeout(5000);
                 connection.setReadTimeout(30000);
-                int readLimit = (int) Math.min(maxBodySize.asLongValue() + 1, Integer.MAX_VALUE);
                 try (var inputStream = connection.getInputStream()) {
-                    bytes = inputStream.readNBytes(readLimit);
-                }
-                if (bytes.length > maxBodySize.asLongValue()) {
+                    data = JqValueStreamParser.parse(inputStream, maxBodySize.asLongValue());
+                } catch (JqValueStreamParser.LimitExceededException e) {
                     throw new BadRequestException("Content at '" + url + "' exceeds the maximum upload size");
                 }
             } else if (file != null) {
-                bytes = readAllBytes(file.uploadedFile());
+                try (var inputStream = new BufferedInputStream(Files.newInputStream(file.uploadedFile()))) {
+                    data = JqValueStreamParser.parse(inputStream);
+                }
             } else {
-                bytes = raw.getBytes(StandardCharsets.UTF_8);
+                data = JqValues.parse(raw);
             }
         } catch (IOException e) {
             throw new BadRequestException("Failed to read upload data: " + e.getMessage());
+        } catch (BadRequestException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BadRequestException("Invalid JSON: " + e.getMessage());
         }
 
         try {
-            return valueService.createRootValue(id, JqValues.parse(bytes));
+            return valueService.createRootValue(id, data);
         } catch (Exception e) {
-            throw new BadRequestException("Invalid JSON: " + e.getMessage());
+            throw new BadRequestException("Failed to create upload: " + e.getMessage());
+        }
+    }
+
+    @POST
+    @Path("{id}/upload/batch")
+    @Consumes(NDJSON)
+    @Authenticated
+    @Operation(description = "Upload many runs to a folder as newline delimited JSON, one run per line. Returns the uploadIds in line order. "
+            + "Every line is validated before the first run is created, an invalid line creates no uploads.")
+    @APIResponse(responseCode = "200", description = "Uploads successful, returns uploadIds")
+    @APIResponse(responseCode = "400", description = "A line is not valid JSON")
+    public List<Long> uploadBatch(@PathParam("id") long id, InputStream body) {
+        java.nio.file.Path spooled = null;
+        try {
+            // the body is validated while it is copied to a file, then read again to create the uploads batch by batch
+            spooled = Files.createTempFile("h5m-upload-batch", ".ndjson");
+            int lineNumber = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+                 BufferedWriter writer = Files.newBufferedWriter(spooled, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JqValues.parse(line);
+                    } catch (Exception e) {
+                        throw new BadRequestException("Invalid JSON on line " + lineNumber + ": " + e.getMessage());
+                    }
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            List<Long> uploadIds = new ArrayList<>();
+            List<JqValue> pending = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(spooled, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    pending.add(JqValues.parse(line));
+                    if (pending.size() >= batchSize) {
+                        createRootValues(id, pending, uploadIds);
+                    }
+                }
+            }
+            createRootValues(id, pending, uploadIds);
+            return uploadIds;
+        } catch (IOException e) {
+            throw new BadRequestException("Failed to read upload data: " + e.getMessage());
+        } finally {
+            if (spooled != null) {
+                try {
+                    Files.deleteIfExists(spooled);
+                } catch (IOException e) {
+                    Log.warnf("Failed to delete %s: %s", spooled, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @POST
+    @Path("{id}/upload/batch")
+    @Consumes(MULTIPART_FORM_DATA)
+    @Authenticated
+    @Operation(description = "Upload many JSON files to a folder, one run per 'file' part. Returns the uploadIds in part order. "
+            + "Every file is validated before the first run is created, an invalid file creates no uploads.")
+    @APIResponse(responseCode = "200", description = "Uploads successful, returns uploadIds")
+    @APIResponse(responseCode = "400", description = "A file is not valid JSON")
+    public List<Long> uploadBatchFiles(@PathParam("id") long id, @RestForm("file") List<FileUpload> files) {
+        if (files == null || files.isEmpty()) {
+            throw new BadRequestException("Provide at least one 'file'");
+        }
+        // the files are parsed twice instead of holding every run in memory before the first batch is created
+        for (FileUpload file : files) {
+            parseFile(file);
+        }
+        List<Long> uploadIds = new ArrayList<>();
+        List<JqValue> pending = new ArrayList<>();
+        for (FileUpload file : files) {
+            pending.add(parseFile(file));
+            if (pending.size() >= batchSize) {
+                createRootValues(id, pending, uploadIds);
+            }
+        }
+        createRootValues(id, pending, uploadIds);
+        return uploadIds;
+    }
+
+    private static JqValue parseFile(FileUpload file) {
+        try (var inputStream = new BufferedInputStream(Files.newInputStream(file.uploadedFile()))) {
+            return JqValueStreamParser.parse(inputStream);
+        } catch (IOException e) {
+            throw new BadRequestException("Failed to read upload data: " + e.getMessage());
+        } catch (Exception e) {
+            throw new BadRequestException("Invalid JSON in '" + file.fileName() + "': " + e.getMessage());
+        }
+    }
+
+    // each batch is its own transaction, the uploads created before a failure stay committed and are named in the error
+    private void createRootValues(long folderId, List<JqValue> pending, List<Long> uploadIds) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            uploadIds.addAll(valueService.createRootValues(folderId, pending));
+        } catch (Exception e) {
+            throw new BadRequestException("Failed to create uploads: " + e.getMessage()
+                    + (uploadIds.isEmpty() ? "" : ", uploads created before the failure: " + uploadIds));
+        } finally {
+            pending.clear();
         }
     }
 
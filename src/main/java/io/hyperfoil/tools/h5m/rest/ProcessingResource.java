@@ -2,18 +2,25 @@ package io.hyperfoil.tools.h5m.rest;
 
 import io.hyperfoil.tools.h5m.api.Processing;
 import io.hyperfoil.tools.h5m.api.svc.ProcessingServiceInterface;
+import io.smallrye.mutiny.Multi;
 import jakarta.annotation.security.PermitAll;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Path("/api/processing")
 @Produces(MediaType.APPLICATION_JSON)
 @Tag(name = "Processing", description = "Track processing status for uploads and recalculations")
 public class ProcessingResource {
 
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(1);
+
     @Inject
     ProcessingServiceInterface processingService;
 
@@ -41,4 +48,22 @@ public class ProcessingResource {
         return status;
     }
 
+    @GET
+    @Path("node/{id}/stream")
+    @PermitAll
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @Operation(description = "Stream the progress of a node recalculation, one event per second until it completes or fails.")
+    public Multi<Processing> streamRecalculationStatus(@PathParam("id") long nodeId) {
+        if (processingService.getRecalculationStatus(nodeId) == null) {
+            throw new NotFoundException("Recalculation not found: " + nodeId);
+        }
+        // the event that reports the end of the recalculation is the last one
+        AtomicBoolean ended = new AtomicBoolean(false);
+        return Multi.createFrom().ticks().startingAfter(Duration.ZERO).every(PROGRESS_INTERVAL)
+                .onOverflow().drop()
+                .map(_ -> processingService.getRecalculationStatus(nodeId))
+                .select().first(status -> status != null && !ended.getAndSet(status.state() != Processing.State.RUNNING));
+    }
+
 }
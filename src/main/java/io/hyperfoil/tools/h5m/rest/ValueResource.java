@@ -5,21 +5,39 @@ import io.hyperfoil.tools.h5m.api.Value;
 import io.hyperfoil.tools.h5m.api.svc.ValueServiceInterface;
 import io.hyperfoil.tools.h5m.entity.ValueEntity;
 import io.hyperfoil.tools.h5m.svc.ValueService;
+import io.smallrye.common.annotation.Blocking;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import jakarta.annotation.security.PermitAll;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
 @Path("/api/value")
 @Produces(MediaType.APPLICATION_JSON)
 @Tag(name = "Value", description = "Manage computed values produced by nodes")
 public class ValueResource {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    @ConfigProperty(name = "h5m.value.stream.pageSize", defaultValue = "500")
+    int streamPageSize;
+
+    @ConfigProperty(name = "h5m.value.page.maxLimit", defaultValue = "1000")
+    int maxPageSize;
+
     @Inject
     ValueServiceInterface valueService;
 
@@ -49,14 +67,19 @@ public class ValueResource {
     @GET
     @Path("{id}/descendants")
     @PermitAll
-    @Operation(description = "Get all descendant values of a value. Use ?detection=true to filter to detection node values or ?node=id to filter to values from specified nodes. Detection is mutually exclusive and takes effect over node list")
+    @Operation(description = "Get all descendant values of a value. Use ?detection=true to filter to detection node values or ?node=id to filter to values from specified nodes. Detection is mutually exclusive and takes effect over node list. Use ?after=id&limit=n to get a page of values ordered by ID")
     public List<Value> getDescendants(
             @PathParam("id") Long id,
             @QueryParam("detection") @DefaultValue("false") boolean detectionOnly,
-            @QueryParam("node") List<Long> nodes) {
+            @QueryParam("node") List<Long> nodes,
+            @QueryParam("after") Long after,
+            @QueryParam("limit") Integer limit) {
         if(valueServiceImpl.byId(id) == null){
             throw new  NotFoundException("Value not found: " + id);
         }
+        if (after != null || limit != null) {
+            return valueServiceImpl.getDescendantsAfter(id, nodes, detectionOnly, afterId(after), pageSize(limit));
+        }
         if (detectionOnly) {
             return valueServiceImpl.getDetectionDescendants(id);
         }
@@ -67,14 +90,55 @@ public class ValueResource {
         return valueServiceImpl.getAllDescendants(id);
     }
 
+    @GET
+    @Path("{id}/descendants/stream")
+    @PermitAll
+    @Blocking
+    @Produces(NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @Operation(description = "Stream the descendant values of a value as newline delimited JSON, ordered by ID. Accepts the same filters as the JSON endpoint and ?after=id to resume a stream")
+    public Multi<Value> streamDescendants(
+            @PathParam("id") Long id,
+            @QueryParam("detection") @DefaultValue("false") boolean detectionOnly,
+            @QueryParam("node") List<Long> nodes,
+            @QueryParam("after") Long after) {
+        if(valueServiceImpl.byId(id) == null){
+            throw new  NotFoundException("Value not found: " + id);
+        }
+        if (valueServiceImpl.walksValueEdges(id)) {
+            return stream(after, new IdPages(() -> valueServiceImpl.getDescendantIdsAfter(id, nodes, detectionOnly, 0, 0)));
+        }
+        return stream(after, afterId -> valueServiceImpl.getDescendantsAfter(id, nodes, detectionOnly, afterId, streamPageSize));
+    }
+
     @GET
     @Path("node/{nodeId}/descendants")
     @PermitAll
-    @Operation(description = "Get descendant values of a specific node")
-    public List<Value> getNodeDescendantValues(@PathParam("nodeId") Long nodeId) {
+    @Operation(description = "Get descendant values of a specific node. Use ?after=id&limit=n to get a page of values ordered by ID")
+    public List<Value> getNodeDescendantValues(
+            @PathParam("nodeId") Long nodeId,
+            @QueryParam("after") Long after,
+            @QueryParam("limit") Integer limit) {
+        if (after != null || limit != null) {
+            return valueService.getNodeDescendantValuesAfter(nodeId, afterId(after), pageSize(limit));
+        }
         return valueService.getNodeDescendantValues(nodeId);
     }
 
+    @GET
+    @Path("node/{nodeId}/descendants/stream")
+    @PermitAll
+    @Blocking
+    @Produces(NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @Operation(description = "Stream the descendant values of a specific node as newline delimited JSON, ordered by ID. Use ?after=id to resume a stream")
+    public Multi<Value> streamNodeDescendantValues(@PathParam("nodeId") Long nodeId, @QueryParam("after") Long after) {
+        if (valueServiceImpl.walksValueEdges(null)) {
+            return stream(after, new IdPages(() -> valueServiceImpl.getNodeDescendantIdsAfter(nodeId, 0, 0)));
+        }
+        return stream(after, afterId -> valueService.getNodeDescendantValuesAfter(nodeId, afterId, streamPageSize));
+    }
+
     @GET
     @Path("node/{nodeId}/grouped")
     @PermitAll
@@ -86,8 +150,80 @@ public class ValueResource {
     @GET
     @Path("node/{nodeId}")
     @PermitAll
-    @Operation(description = "Get all values produced by a specific node")
-    public List<Value> getNodeValues(@PathParam("nodeId") Long nodeId) {
+    @Operation(description = "Get all values produced by a specific node. Use ?after=id&limit=n to get a page of values ordered by ID")
+    public List<Value> getNodeValues(
+            @PathParam("nodeId") Long nodeId,
+            @QueryParam("after") Long after,
+            @QueryParam("limit") Integer limit) {
+        if (after != null || limit != null) {
+            return valueService.getNodeValuesAfter(nodeId, afterId(after), pageSize(limit));
+        }
         return valueService.getNodeValues(nodeId);
     }
+
+    @GET
+    @Path("node/{nodeId}/stream")
+    @PermitAll
+    @Blocking
+    @Produces(NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @Operation(description = "Stream the values produced by a specific node as newline delimited JSON, ordered by ID. Use ?after=id to resume a stream")
+    public Multi<Value> streamNodeValues(@PathParam("nodeId") Long nodeId, @QueryParam("after") Long after) {
+        return stream(after, afterId -> valueService.getNodeValuesAfter(nodeId, afterId, streamPageSize));
+    }
+
+    private static long afterId(Long after) {
+        if (after != null && after < 0) {
+            throw new BadRequestException("after must not be negative: " + after);
+        }
+        return after == null ? 0 : after;
+    }
+
+    // larger limits are clamped, a page is read in one transaction and held in memory
+    private int pageSize(Integer limit) {
+        if (limit != null && limit < 1) {
+            throw new BadRequestException("limit must be positive: " + limit);
+        }
+        return Math.min(limit == null ? DEFAULT_PAGE_SIZE : limit, maxPageSize);
+    }
+
+    /*
+     * Pages of a stream of descendants read without value_closure. Every page of the keyset query would walk
+     * value_edge again, so the descendant IDs are read once, on the first page, and each page only loads its values.
+     */
+    private final class IdPages implements LongFunction<List<Value>> {
+        private final Supplier<List<Long>> query;
+        private long[] ids;
+
+        IdPages(Supplier<List<Long>> query) {
+            this.query = query;
+        }
+
+        @Override
+        public List<Value> apply(long afterId) {
+            if (ids == null) {
+                ids = query.get().stream().mapToLong(Long::longValue).toArray();
+            }
+            int from = Arrays.binarySearch(ids, afterId);
+            from = from < 0 ? -from - 1 : from + 1;
+            int to = Math.min(ids.length, from + streamPageSize);
+            return valueServiceImpl.getValuesById(Arrays.stream(ids, from, to).boxed().toList());
+        }
+    }
+
+    // the next page is only read once the client consumed the previous one, so memory does not grow with the result
+    private Multi<Value> stream(Long after, LongFunction<List<Value>> page) {
+        long start = afterId(after);
+        return Multi.createBy().repeating()
+                .supplier(() -> new AtomicLong(start), cursor -> {
+                    List<Value> values = page.apply(cursor.get());
+                    if (!values.isEmpty()) {
+                        cursor.set(values.getLast().id());
+                    }
+                    return values;
+                })
+                .whilst(values -> values.size() == streamPageSize)
+                .onItem().<Value>disjoint()
+                .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
 }
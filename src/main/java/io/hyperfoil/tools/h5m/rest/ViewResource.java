@@ -63,8 +63,16 @@ public class ViewResource {
     @GET
     @Path("/{viewId}/data")
     @PermitAll
-    @Operation(description = "Get filtered pivoted data for a view")
-    public List<JqValue> getViewData(@PathParam("folderId") long folderId, @PathParam("viewId") Long viewId) {
-        return viewService.getViewData(folderId, viewId);
+    @Operation(description = "Get filtered pivoted data for a view, one row per upload in upload order or ordered by the value of the ?sortBy=nodeId node. Use ?offset=n&limit=n to get a page of rows")
+    public List<JqValue> getViewData(
+            @PathParam("folderId") long folderId,
+            @PathParam("viewId") Long viewId,
+            @QueryParam("sortBy") Long sortBy,
+            @QueryParam("offset") @DefaultValue("0") int offset,
+            @QueryParam("limit") @DefaultValue("0") int limit) {
+        if (offset < 0) {
+            throw new BadRequestException("offset must not be negative: " + offset);
+        }
+        return viewService.getViewData(folderId, viewId, sortBy, offset, limit);
     }
 }
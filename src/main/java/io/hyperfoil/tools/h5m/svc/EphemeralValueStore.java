@@ -0,0 +1,243 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.h5m.provided.ValueCodec;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the data of ephemeral values in memory while their upload is processed.
+ * <p>
+ * Values of nodes whose data {@link ValueService#nullifyEphemeralData(long)} discards once the upload completes are
+ * stored with NULL data, the row, content hash and edges are written as usual. Their data stays here, by upload, for
+ * the downstream work of the same upload until {@link #release(long)}, so it is not written and then nulled again.
+ * The data is only kept once the transaction that wrote the NULL row commits.
+ * <p>
+ * The kept data is bounded by {@code h5m.ephemeral.passThrough.maxBytes}, the size of the serialized JSON of the
+ * values. When a value does not fit, the oldest kept values are evicted: their data is written to their rows by the
+ * transaction that keeps the new value and dropped from memory once it commits, so it is nullified with the rest of the
+ * upload like all ephemeral values are when {@code h5m.ephemeral.passThrough.enabled} is false. A value larger than the
+ * limit is written with its data right away. After a restart the data is gone, recovery recalculates the upload and
+ * fills the store again.
+ */
+@ApplicationScoped
+public class EphemeralValueStore {
+
+    @ConfigProperty(name = "h5m.ephemeral.passThrough.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "h5m.ephemeral.passThrough.maxBytes", defaultValue = "268435456")
+    long maxBytes;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    TransactionSynchronizationRegistry txRegistry;
+
+    private static final Object TX_KEY = EphemeralValueStore.class.getName() + ".staged";
+
+    private record Kept(long uploadId, JqValue data, long bytes) {}
+
+    /*
+     * The values the transaction keeps once it commits and the kept values whose data it wrote to their rows
+     */
+    private static final class TxChanges {
+        final Map<Long, Kept> staged = new HashMap<>();
+        final Map<Long, Kept> evicted = new HashMap<>();
+        long stagedBytes;
+    }
+
+    // kept values, oldest first. Guarded by this
+    private final LinkedHashMap<Long, Kept> data = new LinkedHashMap<>();
+    private final Map<Long, Set<Long>> byUpload = new HashMap<>();
+    // kept values being written to their rows by a transaction that did not complete yet
+    private final Set<Long> evicting = new HashSet<>();
+    // values whose data was written to their rows, by upload. A read that saw the NULL row before the write
+    // committed reads the data again instead of finding it here
+    private final Map<Long, Set<Long>> writtenBack = new HashMap<>();
+    private long bytes;
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("h5m.ephemeral.passThrough.values", this, EphemeralValueStore::size)
+                .description("Ephemeral values kept in memory instead of written to the database").register(registry);
+        Gauge.builder("h5m.ephemeral.passThrough.bytes", this, EphemeralValueStore::bytes)
+                .description("Serialized size of the ephemeral values kept in memory").baseUnit("bytes").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Keeps the data of a value persisted with NULL data once the current transaction commits. A rolled back
+     * transaction did not write the row, its data must not be filled into later reads.
+     * <p>
+     * Evicts the oldest kept values when the data does not fit, or writes the data to the row when it is larger than
+     * the limit.
+     */
+    void put(ValueEntity value, JqValue valueData) {
+        long size = JqValues.serializeToBytes(valueData).length;
+        TxChanges changes = changes();
+        if (size > maxBytes - changes.stagedBytes) {
+            value.data = valueData;
+            writeBack(value.id, valueData);
+            return;
+        }
+        Kept previous = changes.staged.put(value.id, new Kept(value.getUploadId(), valueData, size));
+        changes.stagedBytes += size - (previous == null ? 0 : previous.bytes());
+        for (Map.Entry<Long, Kept> victim : reserve(changes)) {
+            writeBack(victim.getKey(), victim.getValue().data());
+            changes.evicted.put(victim.getKey(), victim.getValue());
+        }
+    }
+
+    /*
+     * Marks the oldest kept values that are not already evicted until the staged bytes fit. Values the transaction
+     * replaces are not evicted, their rows were just written with NULL data
+     */
+    private synchronized List<Map.Entry<Long, Kept>> reserve(TxChanges changes) {
+        List<Map.Entry<Long, Kept>> victims = new ArrayList<>();
+        long available = maxBytes - bytes;
+        for (Iterator<Map.Entry<Long, Kept>> iter = data.entrySet().iterator(); available < changes.stagedBytes && iter.hasNext(); ) {
+            Map.Entry<Long, Kept> entry = iter.next();
+            if (!changes.staged.containsKey(entry.getKey()) && evicting.add(entry.getKey())) {
+                victims.add(Map.entry(entry.getKey(), entry.getValue()));
+                available += entry.getValue().bytes();
+            }
+        }
+        return victims;
+    }
+
+    private void writeBack(long valueId, JqValue valueData) {
+        em.createNativeQuery("UPDATE value SET data = :data WHERE id = :id AND data IS NULL")
+                .setParameter("data", ValueCodec.encode(valueData))
+                .setParameter("id", valueId)
+                .executeUpdate();
+        em.getEntityManagerFactory().getCache().evict(ValueEntity.class, valueId);
+    }
+
+    private TxChanges changes() {
+        TxChanges changes = (TxChanges) txRegistry.getResource(TX_KEY);
+        if (changes == null) {
+            TxChanges created = new TxChanges();
+            txRegistry.putResource(TX_KEY, created);
+            // interposed synchronizations complete before the regular ones, so the data is kept before
+            // WorkService releases the downstream work in its own afterCompletion
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {}
+
+                @Override
+                public void afterCompletion(int status) {
+                    complete(created, status == Status.STATUS_COMMITTED);
+                }
+            });
+            changes = created;
+        }
+        return changes;
+    }
+
+    private synchronized void complete(TxChanges changes, boolean committed) {
+        evicting.removeAll(changes.evicted.keySet());
+        if (!committed) {
+            return;
+        }
+        changes.evicted.forEach((valueId, kept) -> {
+            if (remove(valueId) != null) {
+                writtenBack.computeIfAbsent(kept.uploadId(), _ -> new HashSet<>()).add(valueId);
+            }
+        });
+        changes.staged.forEach((valueId, kept) -> {
+            byUpload.computeIfAbsent(kept.uploadId(), _ -> new HashSet<>()).add(valueId);
+            Kept previous = data.put(valueId, kept);
+            bytes += kept.bytes() - (previous == null ? 0 : previous.bytes());
+        });
+    }
+
+    private Kept remove(long valueId) {
+        Kept removed = data.remove(valueId);
+        if (removed != null) {
+            bytes -= removed.bytes();
+        }
+        return removed;
+    }
+
+    /**
+     * Sets the data of the loaded values that are kept here, their rows have NULL data.
+     */
+    void fill(Collection<ValueEntity> values) {
+        List<Long> reread = new ArrayList<>();
+        synchronized (this) {
+            if (data.isEmpty() && writtenBack.isEmpty()) {
+                return;
+            }
+            for (ValueEntity value : values) {
+                if (value != null) {
+                    Kept kept = data.get(value.id);
+                    if (kept != null) {
+                        value.data = kept.data();
+                    } else if (value.data == null && writtenBack.getOrDefault(value.getUploadId(), Set.of()).contains(value.id)) {
+                        reread.add(value.id);
+                    }
+                }
+            }
+        }
+        if (!reread.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = em.createNativeQuery("SELECT id, data FROM value WHERE id IN (:ids)")
+                    .setParameter("ids", reread)
+                    .getResultList();
+            Map<Long, JqValue> read = new HashMap<>();
+            rows.forEach(row -> read.put(((Number) row[0]).longValue(), ValueCodec.decode((byte[]) row[1])));
+            for (ValueEntity value : values) {
+                if (value != null && value.data == null && read.get(value.id) != null) {
+                    value.data = read.get(value.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the data of the upload's values once the upload is processed.
+     */
+    synchronized void release(long uploadId) {
+        writtenBack.remove(uploadId);
+        Set<Long> valueIds = byUpload.remove(uploadId);
+        if (valueIds != null) {
+            valueIds.forEach(this::remove);
+        }
+    }
+
+    synchronized int size() {
+        return data.size();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,278 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.pasted.ProxyJqObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded pool of pre-initialized GraalJS contexts on a shared engine.
+ * <p>
+ * Each context is created with the js options and the {@code Symbol.hasInstance} prelude that
+ * JsNode functions rely on. Function sources are parsed once into a cached {@link Source}, which
+ * the shared engine reuses across contexts. The function {@link Value} is evaluated from that
+ * source for every call, so state captured by the function does not outlive the call.
+ * <p>
+ * Globals added by a function are removed when the context returns to the pool. A function that
+ * changed a builtin (a global, a global object such as {@code Math} or the prototype of a global
+ * constructor such as {@code Array.prototype}) leaves the context unusable for other nodes, so the
+ * context is closed instead. Contexts are also closed after {@code h5m.js.pool.maxUses} uses, after
+ * an internal error, or when the pool already holds {@code h5m.js.pool.size} idle contexts.
+ */
+@ApplicationScoped
+public class JsContextPool {
+
+    // Shared GraalJS engine — thread-safe and designed for reuse.  Creating a
+    // new Engine per evaluation allocates heavyweight Truffle metadata
+    // (JSFunctionData, ShapeExt, FrameDescriptor, etc.) that accumulates
+    // faster than GC can reclaim it during bulk imports.
+    private static final Engine JS_ENGINE = Engine.newBuilder("js")
+            .option("engine.WarnInterpreterOnly", "false")
+            .build();
+
+    private static final Source PRELUDE = Source.create("js",
+            """
+            Object.defineProperty(Object,Symbol.hasInstance, {
+              value: function myinstanceof(obj) {
+                return isInstanceLike(obj);
+              }
+            });
+            """);
+
+    // Snapshots the property descriptors of the builtins and returns a function that reports whether any of them
+    // changed. The check only uses the captured functions and indexed loops so a changed builtin cannot fool it.
+    private static final Source BUILTINS_SNAPSHOT = Source.create("js",
+            """
+            (() => {
+              const ownKeys = Reflect.ownKeys, describe = Object.getOwnPropertyDescriptor;
+              const prototypeOf = Object.getPrototypeOf, is = Object.is;
+              const snapshots = [];
+              const add = object => {
+                const keys = ownKeys(object);
+                snapshots.push({ object, prototype: prototypeOf(object), keys, descriptors: keys.map(key => describe(object, key)) });
+              };
+              add(globalThis);
+              for (const key of ownKeys(globalThis)) {
+                const value = describe(globalThis, key).value;
+                if (typeof value === 'function' || (typeof value === 'object' && value !== null)) {
+                  try {
+                    add(value);
+                    const prototype = typeof value === 'function' ? describe(value, 'prototype') : undefined;
+                    if (prototype !== undefined && typeof prototype.value === 'object' && prototype.value !== null) {
+                      add(prototype.value);
+                    }
+                  } catch (e) {
+                    // host objects such as isInstanceLike cannot be inspected and are not shared with functions
+                  }
+                }
+              }
+              return () => {
+                for (let i = 0; i < snapshots.length; i++) {
+                  const snapshot = snapshots[i];
+                  const keys = snapshot.keys;
+                  if (prototypeOf(snapshot.object) !== snapshot.prototype || ownKeys(snapshot.object).length !== keys.length) {
+                    return true;
+                  }
+                  for (let k = 0; k < keys.length; k++) {
+                    const now = describe(snapshot.object, keys[k]), then = snapshot.descriptors[k];
+                    if (now === undefined || !is(now.value, then.value) || now.get !== then.get || now.set !== then.set
+                        || now.writable !== then.writable || now.configurable !== then.configurable) {
+                      return true;
+                    }
+                  }
+                }
+                return false;
+              };
+            })()
+            """);
+
+    private static final int SOURCE_CACHE_SIZE = 1024;
+
+    @ConfigProperty(name = "h5m.js.pool.size", defaultValue = "8")
+    int poolSize;
+
+    @ConfigProperty(name = "h5m.js.pool.maxUses", defaultValue = "10000")
+    int maxUses;
+
+    @Inject
+    MeterRegistry registry;
+
+    private BlockingQueue<PooledContext> idle;
+
+    private final Map<String, Source> sources = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Source> eldest) {
+            return size() > SOURCE_CACHE_SIZE;
+        }
+    };
+
+    private Counter hits;
+    private Counter misses;
+    private Counter discarded;
+    private Timer createTimer;
+    private Timer evaluationTimer;
+
+    private static final class PooledContext {
+        final Context context;
+        final Set<String> baselineGlobals;
+        final Value builtinsChanged;
+        int uses = 0;
+
+        PooledContext(Context context) {
+            this.context = context;
+            this.baselineGlobals = new HashSet<>(context.getBindings("js").getMemberKeys());
+            this.builtinsChanged = context.eval(BUILTINS_SNAPSHOT);
+        }
+
+        /*
+         * Removes any globals the last function added, returns false if it changed a builtin
+         */
+        boolean reset() {
+            Value bindings = context.getBindings("js");
+            for (String key : Set.copyOf(bindings.getMemberKeys())) {
+                if (!baselineGlobals.contains(key)) {
+                    bindings.removeMember(key);
+                }
+            }
+            try {
+                return !builtinsChanged.execute().asBoolean();
+            } catch (PolyglotException e) {
+                return false;
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        idle = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+        hits = Counter.builder("h5m.js.context.acquire").tag("result", "hit")
+                .description("JS evaluations that reused a pooled context").register(registry);
+        misses = Counter.builder("h5m.js.context.acquire").tag("result", "miss")
+                .description("JS evaluations that had to create a context").register(registry);
+        discarded = Counter.builder("h5m.js.context.discarded")
+                .description("JS contexts closed instead of returned to the pool").register(registry);
+        createTimer = Timer.builder("h5m.js.context.create")
+                .description("Time to create and initialize a JS context").register(registry);
+        evaluationTimer = Timer.builder("h5m.js.evaluation")
+                .description("Time to execute a JS function and convert its result").register(registry);
+        Gauge.builder("h5m.js.context.idle", idle, BlockingQueue::size)
+                .description("Initialized JS contexts waiting in the pool").register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        PooledContext pooled;
+        while ((pooled = idle.poll()) != null) {
+            pooled.context.close();
+        }
+    }
+
+    /**
+     * Executes a JavaScript function with the arguments on a pooled context.
+     * The handler runs while the context is still entered so it can read the returned value.
+     *
+     * @param function the function source, e.g. {@code (a, b) => a + b}
+     * @param arguments the arguments passed to the function, typically ProxyJq wrapped values
+     * @param handler converts the returned value before the context returns to the pool
+     * @throws PolyglotException if the function fails to parse or throws
+     */
+    public <T> T execute(String function, Object[] arguments, Function<Value, T> handler) {
+        PooledContext pooled = acquire();
+        boolean reusable = true;
+        long start = System.nanoTime();
+        pooled.context.enter();
+        try {
+            Value result = pooled.context.eval(source(function)).execute(arguments);
+            return handler.apply(result);
+        } catch (PolyglotException e) {
+            reusable = !(e.isInternalError() || e.isCancelled() || e.isExit() || e.isResourceExhausted());
+            throw e;
+        } finally {
+            try {
+                if (reusable) {
+                    reusable = pooled.reset();
+                }
+            } finally {
+                pooled.context.leave();
+                evaluationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                release(pooled, reusable);
+            }
+        }
+    }
+
+    public int idleCount() {
+        return idle.size();
+    }
+
+    private Source source(String function) {
+        synchronized (sources) {
+            // parentheses turn a function declaration into an expression, newlines keep trailing comments closed
+            return sources.computeIfAbsent(function,
+                    fn -> Source.create("js", "(\n" + stripTrailingSemicolons(fn) + "\n)"));
+        }
+    }
+
+    static String stripTrailingSemicolons(String function) {
+        String rtrn = function.strip();
+        while (rtrn.endsWith(";")) {
+            rtrn = rtrn.substring(0, rtrn.length() - 1).stripTrailing();
+        }
+        return rtrn;
+    }
+
+    private PooledContext acquire() {
+        PooledContext pooled = idle.poll();
+        if (pooled != null) {
+            hits.increment();
+            return pooled;
+        }
+        misses.increment();
+        return createTimer.record(this::create);
+    }
+
+    private void release(PooledContext pooled, boolean reusable) {
+        pooled.uses++;
+        if (!reusable || pooled.uses >= maxUses || !idle.offer(pooled)) {
+            discarded.increment();
+            pooled.context.close();
+        }
+    }
+
+    private PooledContext create() {
+        Context context = Context.newBuilder("js")
+                .engine(JS_ENGINE)
+                .allowExperimentalOptions(true)
+                .option("js.foreign-object-prototype", "true")
+                .option("js.global-property", "true")
+                .timeZone(java.time.ZoneId.of("UTC"))
+                .build();
+        context.enter();
+        try {
+            context.getBindings("js").putMember("isInstanceLike", new ProxyJqObject.InstanceCheck());
+            context.eval(PRELUDE);
+        } finally {
+            context.leave();
+        }
+        return new PooledContext(context);
+    }
+}
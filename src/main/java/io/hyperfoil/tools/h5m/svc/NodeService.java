@@ -1,6 +1,5 @@
 package io.hyperfoil.tools.h5m.svc;
 
-import io.hyperfoil.tools.jjq.jsonata.JsonataCompiler;
 import io.hyperfoil.tools.jjq.jsonata.JsonataException;
 import io.hyperfoil.tools.jjq.value.*;
 import io.hyperfoil.tools.h5m.api.node.EDivisiveConfig;
@@ -21,16 +20,12 @@ import io.hyperfoil.tools.h5m.entity.mapper.ApiMapper;
 import io.hyperfoil.tools.h5m.entity.mapper.CycleAvoidingContext;
 import io.hyperfoil.tools.h5m.entity.node.*;
 import io.hyperfoil.tools.h5m.pasted.ProxyJq;
-import io.hyperfoil.tools.h5m.pasted.ProxyJqObject;
 import io.hyperfoil.tools.h5m.pasted.Util;
 import io.quarkus.logging.Log;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-import org.graalvm.polyglot.Context;
-import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.proxy.ProxyExecutable;
 import org.hibernate.Session;
@@ -39,8 +34,10 @@ import io.hyperfoil.tools.jjq.JqProgram;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.DoubleBinaryOperator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -53,25 +50,6 @@ public class NodeService implements NodeServiceInterface {
     public static final String ROOT_OR_ANALYSIS_NODES = "('root',"+Arrays.stream(NodeType.values()).filter(NodeType::isAnalysis).map(t->"'"+t.display()+"'").collect(Collectors.joining(","))+")";
 
 
-    private static final ConcurrentHashMap<String, JqProgram> JQ_CACHE = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, JqProgram> JSONATA_CACHE = new ConcurrentHashMap<>();
-
-    // Shared GraalJS engine — thread-safe and designed for reuse.  Creating a
-    // new Engine per evaluation allocates heavyweight Truffle metadata
-    // (JSFunctionData, ShapeExt, FrameDescriptor, etc.) that accumulates
-    // faster than GC can reclaim it during bulk imports.
-    private static final Engine JS_ENGINE = Engine.newBuilder("js")
-            .option("engine.WarnInterpreterOnly", "false")
-            .build();
-
-    private static JqProgram compileJq(String filter) {
-        return JQ_CACHE.computeIfAbsent(filter, JqProgram::compile);
-    }
-
-    private static JqProgram compileJsonata(String expression) {
-        return JSONATA_CACHE.computeIfAbsent(expression, JsonataCompiler::compile);
-    }
-
     @Inject
     EntityManager em;
 
@@ -86,6 +64,18 @@ public class NodeService implements NodeServiceInterface {
     @Inject
     FolderService folderService;
 
+    @Inject
+    JsContextPool jsContextPool;
+
+    @Inject
+    SeriesCache seriesCache;
+
+    @Inject
+    ProgramCache programCache;
+
+    @Inject
+    ValueNumberService valueNumbers;
+
 
     @Transactional
     public NodeEntity create(NodeEntity node){
@@ -93,6 +83,7 @@ public class NodeService implements NodeServiceInterface {
         if(!node.isPersistent()){
             node.id = null;
             em.persist(node);
+            programCache.precompile(node);
         }
         return node;
     }
@@ -112,6 +103,7 @@ public class NodeService implements NodeServiceInterface {
             node.sources.add(node.group.root);
         }
         em.persist(node);
+        programCache.precompile(node);
         return apiMapper.toNode(node, new CycleAvoidingContext());
     }
 
@@ -180,6 +172,7 @@ public class NodeService implements NodeServiceInterface {
                 }
             }
             em.merge(node);
+            programCache.precompile(node);
         }
         return node.id;
     }
@@ -245,6 +238,38 @@ public class NodeService implements NodeServiceInterface {
         return result !=null && result;
     }
 
+    /**
+     * Whether {@link ValueService#nullifyEphemeralData(long)} discards the data of the node's values once their upload
+     * is processed: the node is ephemeral and not a source of an analysis node. Must match the conditions of that query.
+     */
+    @Transactional
+    public boolean isDiscardedAfterUpload(NodeEntity node){
+        Boolean result = (Boolean) em.createNativeQuery("""
+            select exists(
+                select 1
+                    from node n
+                    where n.id = :node_id and n.type NOT IN ROOT_OR_ANALYSIS_NODES and (n.ephemeral = 'DISCARD' OR (
+                        n.ephemeral = 'AUTO' and
+                        EXISTS (
+                            select 1
+                            from node_edge ne JOIN node child ON child.id = ne.child_id
+                            where ne.parent_id = n.id AND child.type NOT IN ANALYSIS_NODES
+                        )
+                    ))
+                    and NOT EXISTS (
+                        select 1
+                        from node_edge ne2 JOIN node det ON det.id = ne2.child_id
+                        where ne2.parent_id = n.id AND det.type IN ANALYSIS_NODES
+                    )
+             )
+            """.replaceAll("ROOT_OR_ANALYSIS_NODES",ROOT_OR_ANALYSIS_NODES)
+                .replaceAll("ANALYSIS_NODES",ANALYSIS_NODES
+        ),Boolean.class)
+            .setParameter("node_id",node.id)
+            .getSingleResult();
+        return result !=null && result;
+    }
+
     @Transactional
     public List<NodeEntity> getDependentNodes(NodeEntity n){
         return em.createQuery(
@@ -464,6 +489,60 @@ public class NodeService implements NodeServiceInterface {
         return rtrn;
     }
 
+    /**
+     * Whether the node can be calculated with {@link #calculateFusedValues}: a jq or jsonata node that only reads the upload.
+     */
+    public static boolean isFusable(NodeEntity node) {
+        return (node instanceof JqNode || node instanceof JsonataNode)
+                && node.sources.size() == 1 && node.sources.getFirst().sources.isEmpty();
+    }
+
+    /**
+     * Calculates the values of sibling {@link #isFusable} nodes for each upload in roots.
+     * The upload data is loaded once and the programs run in parallel on virtual threads, the values are the
+     * same as calling calculateValues for each node.
+     */
+    @Transactional
+    public Map<NodeEntity, List<ValueEntity>> calculateFusedValues(Collection<NodeEntity> nodes, List<ValueEntity> roots) {
+        // the evaluation threads cannot use the session, read the lazy upload data here
+        // (node.sources was already loaded by the isFusable check)
+        for (ValueEntity root : roots) {
+            Objects.hashCode(root.data);
+        }
+        List<NodeEntity> fused = new ArrayList<>(nodes);
+
+        Map<NodeEntity, List<ValueEntity>> rtrn = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<ValueEntity>>> futures = new ArrayList<>(fused.size());
+            for (NodeEntity node : fused) {
+                futures.add(executor.submit(() -> calculateFusedNodeValues(node, roots)));
+            }
+            for (int i = 0, size = fused.size(); i < size; i++) {
+                rtrn.put(fused.get(i), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return rtrn;
+    }
+
+    //mirrors calculateValues for a node whose only source combination is the upload itself
+    private List<ValueEntity> calculateFusedNodeValues(NodeEntity node, List<ValueEntity> roots) throws IOException {
+        Long sourceId = node.sources.getFirst().getId();
+        List<ValueEntity> rtrn = new ArrayList<>();
+        for (ValueEntity root : roots) {
+            Map<Long, ValueEntity> sourceValues = Map.of(sourceId, root);
+            List<ValueEntity> created = node instanceof JqNode jqNode
+                    ? calculateJqValues(jqNode, sourceValues, rtrn.size() + 1)
+                    : calculateJsonataValues((JsonataNode) node, sourceValues, rtrn.size() + 1);
+            rtrn.addAll(created);
+        }
+        return rtrn;
+    }
+
     @Transactional
     public List<ValueEntity> calculateNodeValues(NodeEntity node, Map<Long, ValueEntity> sourceValues, int startingOrdinal) throws IOException {
         return switch(node.type()){
@@ -486,7 +565,7 @@ public class NodeService implements NodeServiceInterface {
         try{
             long minPrevious = relDiff.getWindow() > relDiff.getMinPrevious() ? relDiff.getWindow() : relDiff.getMinPrevious();
             NodeEntity groupBy = NodeEntity.findById(relDiff.getGroupByNode().getId());
-            List<ValueEntity> fingerprintValues = valueService.getDescendantValues(root,relDiff.getFingerprintNode());
+            List<ValueEntity> fingerprintValues = seriesCache.fingerprints(root, relDiff.getFingerprintNode());
             String fpFilter = relDiff.getFingerprintFilter();
             for(int fIdx=0; fIdx<fingerprintValues.size(); fIdx++) {
                 ValueEntity fingerprintValue = fingerprintValues.get(fIdx);
@@ -498,83 +577,78 @@ public class NodeService implements NodeServiceInterface {
                     //but that would only work if values are added sequentially to the domain value (or we delay relative difference calculation to the end of the work queue.
                     //perhaps we check if root introduced the maximum domainValue then only calculate new changes for that last window
                     //or get the domainValues greater than domain values from root and calculate all those changes?
+                    int seriesLength = (int) (relDiff.getWindow() + minPrevious);
                     List<ValueEntity> rootDomainValues = valueService.getDescendantValues(root, relDiff.getDomainNode());
-                    List<ValueEntity> allDomainValues = new ArrayList<>();
+                    List<DomainPoint> allDomainValues = new ArrayList<>();
                     for (int sdIdx = 0; sdIdx < rootDomainValues.size(); sdIdx++) {
                         ValueEntity uploadedDomainValue = rootDomainValues.get(sdIdx);
-                        List<ValueEntity> preceedingDomainValues = valueService.findMatchingFingerprint(
-                                relDiff.getDomainNode(),
-                                groupBy,
-                                fingerprintValue,
-                                relDiff.getDomainNode(),
-                                uploadedDomainValue,
-                                null,
-                                (int) (relDiff.getWindow() + minPrevious),
-                                0,
-                                true
-                        );
-
-                        List<ValueEntity> followingDomainValues = valueService.findMatchingFingerprint(
-                                relDiff.getDomainNode(),
-                                groupBy,
-                                fingerprintValue,
-                                relDiff.getDomainNode(),
-                                uploadedDomainValue,
-                                null,
-                                (int) (relDiff.getWindow() + minPrevious),
-                                0,
-                                false
-                        );
-                        if(!followingDomainValues.isEmpty()) {
-                            followingDomainValues.remove(0);
+                        if (uploadedDomainValue.data == null) {
+                            continue;
+                        }
+                        // the domain values within seriesLength of the uploaded one, a slice of the fingerprint's series
+                        // in the SeriesCache instead of a findMatchingFingerprint query per domain value. Only an
+                        // upload older than the cached tail of the series reads the whole series
+                        SeriesCache.Window domainSeries = seriesCache.span(relDiff.getDomainNode(), groupBy, fingerprintValue, relDiff.getDomainNode(),
+                                uploadedDomainValue.data, uploadedDomainValue.data, seriesLength, seriesLength);
+                        if (domainSeries == null) {
+                            domainSeries = seriesCache.all(relDiff.getDomainNode(), groupBy, fingerprintValue, relDiff.getDomainNode());
+                        }
+                        List<JqValue> domainSeriesData = Arrays.asList(domainSeries.domains());
+                        int upper = upperBound(domainSeriesData, uploadedDomainValue.data);
+                        int lower = lowerBound(domainSeriesData, uploadedDomainValue.data);
+                        for (int i = Math.max(0, upper - seriesLength); i < upper; i++) {
+                            allDomainValues.add(new DomainPoint(domainSeries.domains()[i], domainSeries.groupByIds()[i]));
+                        }
+                        for (int i = lower + 1; i < Math.min(domainSeries.size(), lower + seriesLength); i++) {
+                            allDomainValues.add(new DomainPoint(domainSeries.domains()[i], domainSeries.groupByIds()[i]));
+                        }
+                        if (allDomainValues.isEmpty()) {
+                            continue;
+                        }
+                        // the range values of every window below, each window ends at the last range value at or
+                        // before its domain value and holds the seriesLength range values up to it
+                        JqValue first = allDomainValues.getFirst().data();
+                        JqValue last = first;
+                        for (DomainPoint point : allDomainValues) {
+                            first = compareDomain(point.data(), first) < 0 ? point.data() : first;
+                            last = compareDomain(point.data(), last) > 0 ? point.data() : last;
+                        }
+                        SeriesCache.Window rangeSeries = seriesCache.span(relDiff.getRangeNode(), groupBy, fingerprintValue, relDiff.getDomainNode(),
+                                first, last, seriesLength, 0);
+                        if (rangeSeries == null) {
+                            rangeSeries = seriesCache.all(relDiff.getRangeNode(), groupBy, fingerprintValue, relDiff.getDomainNode());
+                        }
+                        List<JqValue> rangeSeriesDomains = Arrays.asList(rangeSeries.domains());
+                        double[] range = rangeSeries.values();
+                        // running sums and non-numeric counts so the statistics of a window take two subtractions
+                        double[] sums = new double[range.length + 1];
+                        int[] missing = new int[range.length + 1];
+                        for (int i = 0; i < range.length; i++) {
+                            boolean numeric = !Double.isNaN(range[i]);
+                            sums[i + 1] = sums[i] + (numeric ? range[i] : 0);
+                            missing[i + 1] = missing[i] + (numeric ? 0 : 1);
                         }
-                        allDomainValues.addAll(preceedingDomainValues);
-                        allDomainValues.addAll(followingDomainValues);
                         for (int dIdx = 0; dIdx < allDomainValues.size(); dIdx++) {
-                            ValueEntity domainValue = allDomainValues.get(dIdx);
+                            DomainPoint domainValue = allDomainValues.get(dIdx);
                             //todo this does not look for values after previous relDiff observation :(
-                            List<ValueEntity> rangeValues = valueService.findMatchingFingerprint(
-                                    relDiff.getRangeNode(),
-                                    groupBy,
-                                    fingerprintValue,
-                                    relDiff.getDomainNode(),
-                                    domainValue,
-                                    null,
-                                    (int) (relDiff.getWindow() + minPrevious),
-                                    0,
-                                    true
-                            );
-                            List<Double> converted = rangeValues.stream()
-                                .map(obj -> obj.data != null ? obj.data.tryDouble() : null)
-                                .filter(Objects::nonNull).toList();
-
-                            if (converted.size() < relDiff.getWindow() + minPrevious) {
-                                System.err.println("insufficient samples to calculate " + relDiff.name + " need " + (relDiff.getWindow() + minPrevious) + " have " + converted.size());
+                            int end = upperBound(rangeSeriesDomains, domainValue.data());
+                            int begin = Math.max(0, end - seriesLength);
+                            // a window with fewer than seriesLength numbers is skipped
+                            int samples = end - begin - (missing[end] - missing[begin]);
+
+                            if (samples < seriesLength) {
+                                System.err.println("insufficient samples to calculate " + relDiff.name + " need " + seriesLength + " have " + samples);
                             } else {
-                                DoubleBinaryOperator op = switch (relDiff.getFilter()) {
-                                    case "min" -> Double::min;
-                                    case "max" -> Double::max;
-                                    case "mean" -> Double::sum;
-                                    default -> Double::sum;
+                                // the first minPrevious values are the baseline, the rest are the window
+                                int split = begin + (int) minPrevious;
+                                double previousMean = (sums[split] - sums[begin]) / minPrevious;
+                                double value = switch (relDiff.getFilter()) {
+                                    case "min" -> Arrays.stream(range, split, end).min().getAsDouble();
+                                    case "max" -> Arrays.stream(range, split, end).max().getAsDouble();
+                                    case "mean" -> (sums[end] - sums[split]) / (end - split);
+                                    default -> sums[end] - sums[split];
                                 };
-                                SummaryStatistics previousStats = new SummaryStatistics();
-                                converted
-                                        .stream()
-                                        .limit(minPrevious)
-                                        //.skip(relDiff.getWindow())
-                                        .mapToDouble(Double::doubleValue)
-                                        .forEach(previousStats::addValue);
-                                Double value = converted
-                                        .stream()
-                                        //.limit(relDiff.getWindow())
-                                        .skip(minPrevious)
-                                        .mapToDouble(Double::doubleValue)
-                                        .reduce(op)
-                                        .getAsDouble();
-                                if (relDiff.getFilter().equals("mean")) {
-                                    value = value / (converted.size() - minPrevious);
-                                }
-                                double ratio = value / previousStats.getMean();
+                                double ratio = value / previousMean;
                                 if (ratio < 1 - relDiff.getThreshold() || ratio > 1 + relDiff.getThreshold()) {
                                     // We cannot know which datapoint is first with the regression; as a heuristic approach
                                     // we'll select first datapoint with value lower than mean (if this is a drop, e.g. throughput)
@@ -582,30 +656,30 @@ public class NodeService implements NodeServiceInterface {
                                     Double cv = null;
                                     //why does i start with less than last in window?
                                     for (int i = (int) relDiff.getWindow() - 1; i >= 0; --i) {
-                                        cv = converted.get(i);
-                                        if (ratio < 1 && cv < previousStats.getMean()) {
+                                        cv = range[begin + i];
+                                        if (ratio < 1 && cv < previousMean) {
                                             break;
-                                        } else if (ratio > 1 && cv > previousStats.getMean()) {
+                                        } else if (ratio > 1 && cv > previousMean) {
                                             break;
                                         }
                                     }
                                     assert cv != null;
-                                    Double prevData = converted.get((int) relDiff.getWindow() - 1);
+                                    Double prevData = range[begin + (int) relDiff.getWindow() - 1];
                                     Double lastData = cv;
                                     JqValue data = JqObject.builder()
                                             .put("previous", prevData)
                                             .put("last", lastData)
                                             .put("value", value)
                                             .put("ratio", 100 * (ratio - 1))
-                                            .put("domainvalue", domainValue.data)
+                                            .put("domainvalue", domainValue.data())
                                             .build();
                                     //skip domain values due to a detection
                                     dIdx += minPrevious;
                                     ValueEntity changeValue = new ValueEntity(root.folder, relDiff, data);
                                     changeValue.idx = startingOrdinal;
-                                    List<ValueEntity> foundParents = valueService.getAncestor(domainValue, groupBy);
-                                    if (foundParents.size() == 1) {
-                                        changeValue.sources = foundParents;
+                                    ValueEntity parent = valueService.findByIds(List.of(domainValue.groupById())).get(domainValue.groupById());
+                                    if (parent != null) {
+                                        changeValue.sources = List.of(parent);
                                     }
 
                                     rtrn.add(changeValue);
@@ -624,10 +698,8 @@ public class NodeService implements NodeServiceInterface {
                                 false
                         );
                         List<JqValue> domainRemoveScope = new ArrayList<>();
-                        for (ValueEntity dv : allDomainValues) {
-                            if (dv.data != null) {
-                                domainRemoveScope.add(dv.data);
-                            }
+                        for (DomainPoint dv : allDomainValues) {
+                            domainRemoveScope.add(dv.data());
                         }
                         if (!rtrn.isEmpty()) {
                             for (ValueEntity existingValue : persistedChangeValues) {
@@ -659,12 +731,69 @@ public class NodeService implements NodeServiceInterface {
         return rtrn;
     }
 
+    // a domain value of a fingerprint series and the groupBy value it belongs to
+    private record DomainPoint(JqValue data, long groupById) {}
+
+    // number of series entries with a domain less than or equal to the domain, the series is sorted by domain
+    static int upperBound(List<JqValue> sortedDomains, JqValue domain) {
+        int low = 0, high = sortedDomains.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareDomain(sortedDomains.get(mid), domain) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // index of the first series entry with a domain greater than or equal to the domain
+    static int lowerBound(List<JqValue> sortedDomains, JqValue domain) {
+        int low = 0, high = sortedDomains.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareDomain(sortedDomains.get(mid), domain) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Orders domain values the way findMatchingFingerprint compares them in the database:
+     * numbers numerically, strings lexically, and mixed types by jsonb type order
+     */
+    static int compareDomain(JqValue a, JqValue b) {
+        if (a instanceof JqNumber an && b instanceof JqNumber bn) {
+            return Double.compare(an.doubleValue(), bn.doubleValue());
+        }
+        if (a instanceof JqString as && b instanceof JqString bs) {
+            return as.stringValue().compareTo(bs.stringValue());
+        }
+        int typeOrder = Integer.compare(domainTypeOrder(a), domainTypeOrder(b));
+        return typeOrder != 0 ? typeOrder : a.toJsonString().compareTo(b.toJsonString());
+    }
+
+    private static int domainTypeOrder(JqValue value) {
+        return switch (value) {
+            case JqNull ignored -> 0;
+            case JqString ignored -> 1;
+            case JqNumber ignored -> 2;
+            case JqBoolean ignored -> 3;
+            case JqArray ignored -> 4;
+            case JqObject ignored -> 5;
+        };
+    }
+
     @Transactional
     public List<ValueEntity> calculateFixedThresholdValues(FixedThreshold ft, ValueEntity root, int startingOrdinal) throws IOException {
         List<ValueEntity> rtrn = new ArrayList<>();
         try {
             NodeEntity groupBy = NodeEntity.findById(ft.getGroupByNode().getId());
-            List<ValueEntity> fingerprintValues = valueService.getDescendantValues(root, ft.getFingerprintNode());
+            List<ValueEntity> fingerprintValues = seriesCache.fingerprints(root, ft.getFingerprintNode());
             String fpFilter = ft.getFingerprintFilter();
 
             for (int fIdx = 0; fIdx < fingerprintValues.size(); fIdx++) {
@@ -673,10 +802,12 @@ public class NodeService implements NodeServiceInterface {
                     continue;
                 }
 
-                // Get range values scoped to this fingerprint and current root
-                List<ValueEntity> rangeValues = valueService.findMatchingFingerprint(
-                    ft.getRangeNode(), groupBy, fingerprintValue, null, null, root, -1, -1, true
-                );
+                // Get the range values below the groupBy values of this fingerprint, the groupBy lookup is cached
+                // for the other detection nodes of the upload instead of a findMatchingFingerprint query
+                List<ValueEntity> rangeValues = new ArrayList<>();
+                for (ValueEntity groupByValue : seriesCache.groupBy(fingerprintValue, groupBy)) {
+                    rangeValues.addAll(valueService.getDescendantValues(groupByValue, ft.getRangeNode()));
+                }
                 for (int rIdx = 0; rIdx < rangeValues.size(); rIdx++) {
                     ValueEntity rangeValue = rangeValues.get(rIdx);
                     Double numericValue = rangeValue.data != null ? rangeValue.data.tryDouble() : null;
@@ -709,7 +840,7 @@ public class NodeService implements NodeServiceInterface {
                                 .build();
                         ValueEntity changeValue = new ValueEntity(root.folder, ft, data);
                         changeValue.idx = startingOrdinal;
-                        List<ValueEntity> foundParents = valueService.getAncestor(fingerprintValue, groupBy);
+                        List<ValueEntity> foundParents = seriesCache.groupBy(fingerprintValue, groupBy);
                         if (foundParents.size() == 1) {
                             changeValue.sources = foundParents;
                         }
@@ -757,7 +888,7 @@ public class NodeService implements NodeServiceInterface {
             }
 
             NodeEntity groupBy = NodeEntity.findById(ed.getGroupByNode().getId());
-            List<ValueEntity> fingerprintValues = valueService.getDescendantValues(root, ed.getFingerprintNode());
+            List<ValueEntity> fingerprintValues = seriesCache.fingerprints(root, ed.getFingerprintNode());
             String fpFilter = ed.getFingerprintFilter();
             int maxSeriesLength = ed.getMaxSeriesLength();
             for (int fIdx = 0; fIdx < fingerprintValues.size(); fIdx++) {
@@ -768,7 +899,7 @@ public class NodeService implements NodeServiceInterface {
 
                 // Check if this upload contributed a range value for this fingerprint.
                 // Scope through the groupBy ancestor to handle multi-dataset uploads.
-                List<ValueEntity> groupByValues = valueService.getAncestor(fingerprintValue, groupBy);
+                List<ValueEntity> groupByValues = seriesCache.groupBy(fingerprintValue, groupBy);
                 if (groupByValues.isEmpty()) {
                     continue;
                 }
@@ -778,26 +909,23 @@ public class NodeService implements NodeServiceInterface {
                     continue; // this upload didn't produce a range value for this fingerprint
                 }
 
-                // Collect the most recent maxSeriesLength range values for this fingerprint,
-                // ordered by domain ascending. The limit is applied in SQL.
-                // preceedingValues=true fetches the most recent values and returns them
-                // in ascending order (findMatchingFingerprint reverses internally).
-                List<ValueEntity> rangeValues = valueService.findMatchingFingerprint(
-                        ed.getRangeNode(), groupBy, fingerprintValue,
-                        ed.getDomainNode(), null,
-                        maxSeriesLength, 0, true);
+                // The most recent maxSeriesLength range values for this fingerprint, ordered by domain ascending.
+                // The series stays cached between uploads and only the changed groupBy values are re-read.
+                SeriesCache.Window window = seriesCache.window(
+                        ed.getRangeNode(), groupBy, fingerprintValue, ed.getDomainNode(), maxSeriesLength);
 
-                if (rangeValues.size() < ed.getWindowLen()) {
+                if (window.size() < ed.getWindowLen()) {
                     continue;
                 }
 
-                // Extract double[] from range values
-                double[] series = new double[rangeValues.size()];
+                // Skip non-numeric values, positions maps a series index back to its window entry
+                double[] series = new double[window.size()];
+                int[] positions = new int[window.size()];
                 int validCount = 0;
-                for (int i = 0; i < rangeValues.size(); i++) {
-                    Double d = rangeValues.get(i).data != null ? rangeValues.get(i).data.tryDouble() : null;
-                    if (d != null) {
-                        series[validCount++] = d;
+                for (int i = 0; i < window.size(); i++) {
+                    if (!Double.isNaN(window.values()[i])) {
+                        positions[validCount] = i;
+                        series[validCount++] = window.values()[i];
                     }
                 }
 
@@ -821,8 +949,8 @@ public class NodeService implements NodeServiceInterface {
                 // window (from older analyses with values that fell out of maxSeriesLength) are
                 // preserved — they represent historical detections that are no longer in scope.
                 Set<Long> windowRangeIds = new HashSet<>();
-                for (ValueEntity rv : rangeValues) {
-                    if (rv.id != null) windowRangeIds.add(rv.id);
+                for (long rangeId : window.rangeIds()) {
+                    windowRangeIds.add(rangeId);
                 }
                 List<ValueEntity> existingEdValues = valueService.findMatchingFingerprint(
                         ed, groupBy, fingerprintValue, (NodeEntity) null);
@@ -849,30 +977,19 @@ public class NodeService implements NodeServiceInterface {
                     }
                     dataBuilder.put("fingerprint", fingerprintValue.data);
                     // Reference the range and domain values at the change point index
-                    if (cp.index() < rangeValues.size()) {
-                        ValueEntity rangeAtCp = rangeValues.get(cp.index());
+                    if (cp.index() < validCount) {
+                        int position = positions[cp.index()];
                         // Store range value ID for windowed deletion on recomputation
-                        if (rangeAtCp.id != null) {
-                            dataBuilder.put("rangeValueId", rangeAtCp.id);
-                        }
-                        // Find the domain value that shares the same groupBy ancestor as
-                        // the range value at the change point. This handles split/dataset
-                        // scoping correctly (siblings in the DAG, not ancestors).
-                        List<ValueEntity> rangeGroupBy = valueService.getAncestor(rangeAtCp, groupBy);
-                        if (!rangeGroupBy.isEmpty()) {
-                            List<ValueEntity> domainValues = valueService.getDescendantValues(rangeGroupBy.getFirst(), ed.getDomainNode());
-                            if (!domainValues.isEmpty()) {
-                                dataBuilder.put("domainvalue", domainValues.getFirst().data);
-                            }
-                        }
+                        dataBuilder.put("rangeValueId", window.rangeIds()[position]);
+                        // the domain value that shares the groupBy ancestor of the range value at the change point
+                        dataBuilder.put("domainvalue", window.domains()[position]);
                     }
                     JqValue data = dataBuilder.build();
 
                     ValueEntity changeValue = new ValueEntity(root.folder, ed, data);
                     changeValue.idx = startingOrdinal + rtrn.size();
-                    List<ValueEntity> foundParents = valueService.getAncestor(fingerprintValue, groupBy);
-                    if (foundParents.size() == 1) {
-                        changeValue.sources = foundParents;
+                    if (groupByValues.size() == 1) {
+                        changeValue.sources = new ArrayList<>(groupByValues);
                     }
                     rtrn.add(changeValue);
                 }
@@ -888,7 +1005,7 @@ public class NodeService implements NodeServiceInterface {
         List<ValueEntity> rtrn = new ArrayList<>();
         try {
             NodeEntity groupBy = NodeEntity.findById(sd.getGroupByNode().getId());
-            List<ValueEntity> fingerprintValues = valueService.getDescendantValues(root, sd.getFingerprintNode());
+            List<ValueEntity> fingerprintValues = seriesCache.fingerprints(root, sd.getFingerprintNode());
             String fpFilter = sd.getFingerprintFilter();
 
             for (int fIdx = 0; fIdx < fingerprintValues.size(); fIdx++) {
@@ -899,7 +1016,7 @@ public class NodeService implements NodeServiceInterface {
 
                 // Get the groupBy ancestor for this fingerprint — this scopes to the
                 // specific dataset/split branch. For non-split uploads, this is the root.
-                List<ValueEntity> groupByValues = valueService.getAncestor(fingerprintValue, groupBy);
+                List<ValueEntity> groupByValues = seriesCache.groupBy(fingerprintValue, groupBy);
                 if (groupByValues.isEmpty()) {
                     continue;
                 }
@@ -923,6 +1040,16 @@ public class NodeService implements NodeServiceInterface {
                     }
                 }
 
+                // with a numeric domain the baseline window is an index scan of value_number instead of a findMatchingFingerprint query
+                boolean numericDomain = valueNumbers.isEnabled() && domainPivot != null && domainPivot.data instanceof JqNumber;
+                if (numericDomain) {
+                    valueNumbers.record(sd, sd.getDomainNode(), fingerprintValue, domainPivot, currentRangeValues);
+                }
+                // the cached series of the fingerprint up to the current domain value, null if the cache does not reach back far enough
+                SeriesCache.Window baseline = currentDomainData != null
+                        ? seriesCache.preceding(sd.getRangeNode(), groupBy, fingerprintValue, sd.getDomainNode(), currentDomainData, sd.getWindowSize() + 1)
+                        : null;
+
                 // For each range value in the current dataset:
                 for (ValueEntity currentRangeValue : currentRangeValues) {
                     Double currentNumeric = currentRangeValue.data != null ? currentRangeValue.data.tryDouble() : null;
@@ -935,22 +1062,36 @@ public class NodeService implements NodeServiceInterface {
                     // Request windowSize + 1 because the current value will be in the result set
                     // (its domain matches the pivot with <=). We skip it by ID below,
                     // leaving windowSize baseline values.
-                    List<ValueEntity> historicalValues = valueService.findMatchingFingerprint(
-                            sd.getRangeNode(), groupBy, fingerprintValue,
-                            sd.getDomainNode(), domainPivot, null,
-                            sd.getWindowSize() + 1, 0, true);
-
                     // Build the numeric series: historical values in chronological order,
                     // with the current value as the last element
                     List<Double> values = new ArrayList<>();
-                    for (ValueEntity rv : historicalValues) {
-                        // Skip the current value if it appears in the historical set
-                        if (rv.getId().equals(currentRangeValue.getId())) {
-                            continue;
+                    if (baseline != null) {
+                        for (int i = 0; i < baseline.size(); i++) {
+                            if (baseline.rangeIds()[i] != currentRangeValue.getId() && !Double.isNaN(baseline.values()[i])) {
+                                values.add(baseline.values()[i]);
+                            }
                         }
-                        Double d = rv.data != null ? rv.data.tryDouble() : null;
-                        if (d != null) {
-                            values.add(d);
+                    } else if (numericDomain) {
+                        for (ValueNumberService.Point point : valueNumbers.preceding(
+                                sd, fingerprintValue, ((JqNumber) domainPivot.data).doubleValue(), sd.getWindowSize() + 1)) {
+                            if (point.valueId() != currentRangeValue.getId() && point.range() != null) {
+                                values.add(point.range());
+                            }
+                        }
+                    } else {
+                        List<ValueEntity> historicalValues = valueService.findMatchingFingerprint(
+                                sd.getRangeNode(), groupBy, fingerprintValue,
+                                sd.getDomainNode(), domainPivot, null,
+                                sd.getWindowSize() + 1, 0, true);
+                        for (ValueEntity rv : historicalValues) {
+                            // Skip the current value if it appears in the historical set
+                            if (rv.getId().equals(currentRangeValue.getId())) {
+                                continue;
+                            }
+                            Double d = rv.data != null ? rv.data.tryDouble() : null;
+                            if (d != null) {
+                                values.add(d);
+                            }
                         }
                     }
                     // Append the current value as the last element — this is what gets checked
@@ -976,7 +1117,7 @@ public class NodeService implements NodeServiceInterface {
                         JqValue data = dataBuilder.build();
                         ValueEntity changeValue = new ValueEntity(root.folder, sd, data);
                         changeValue.idx = startingOrdinal;
-                        List<ValueEntity> foundParents = valueService.getAncestor(fingerprintValue, groupBy);
+                        List<ValueEntity> foundParents = seriesCache.groupBy(fingerprintValue, groupBy);
                         if (foundParents.size() == 1) {
                             changeValue.sources = foundParents;
                         }
@@ -988,12 +1129,15 @@ public class NodeService implements NodeServiceInterface {
                 // for this fingerprint at the current upload's domain value.
                 // The new results (in rtrn) will replace them when persisted by the caller.
                 // This handles: reprocessing, recalculation, and baseline shifts.
+                // The anomalies are the series of the node itself, only the slice at the current domain value is read
                 if (currentDomainData != null) {
-                    List<ValueEntity> persistedChanges = valueService.findMatchingFingerprint(
-                            sd, groupBy, fingerprintValue,
-                            sd.getDomainNode(), null, null,
-                            -1, -1, true);
-                    for (ValueEntity existing : persistedChanges) {
+                    SeriesCache.Window persisted = seriesCache.span(sd, groupBy, fingerprintValue, sd.getDomainNode(),
+                            currentDomainData, currentDomainData, 0, 1);
+                    if (persisted == null) {
+                        persisted = seriesCache.all(sd, groupBy, fingerprintValue, sd.getDomainNode());
+                    }
+                    Map<Long, ValueEntity> persistedChanges = valueService.findByIds(Arrays.stream(persisted.rangeIds()).boxed().toList());
+                    for (ValueEntity existing : persistedChanges.values()) {
                         JqValue existingDomain = existing.data != null ? existing.data.getField("domainvalue") : JqNull.NULL;
                         if (!existingDomain.isNull() && existingDomain.equals(currentDomainData)) {
                             valueService.delete(existing);
@@ -1055,7 +1199,7 @@ public class NodeService implements NodeServiceInterface {
 
         try {
             // JSONata compiled to jq via jjq-jsonata — executes natively on JqValue
-            JqProgram program = compileJsonata(node.operation);
+            JqProgram program = programCache.jsonata(node.operation);
             JqValue jqInput = input != null && input.data != null ? input.data : JqNull.NULL;
             JqValue result = program.apply(jqInput);
             if (result == null) {
@@ -1170,36 +1314,13 @@ public class NodeService implements NodeServiceInterface {
         }
         List<JqValue> input = JsNode.createParameters(node.operation, namedSourceValues,
                 node.sources.isEmpty() ? sourceValues.size() : node.sources.size());
-        try(Context context = Context.newBuilder("js").engine(JS_ENGINE)
-                .allowExperimentalOptions(true)
-                .option("js.foreign-object-prototype", "true")
-                .option("js.global-property", "true")
-                .timeZone(java.time.ZoneId.of("UTC"))
-                .build()){
-            context.enter();
-            context.getBindings("js").putMember("isInstanceLike", new ProxyJqObject.InstanceCheck());
-            context.eval("js",
-                    """
-                    Object.defineProperty(Object,Symbol.hasInstance, {
-                      value: function myinstanceof(obj) {
-                        return isInstanceLike(obj);
-                      }
-                    });
-                    """);
-            // Bind input parameters as GraalVM proxy objects — JqValue passed directly
-            for(int i=0; i<input.size(); i++) {
-                context.getBindings("js").putMember("__obj" + i, ProxyJq.wrap(input.get(i)));
-            }
-            StringBuilder jsCode = new StringBuilder();
-            jsCode.append("const __func").append(" = ").append(node.operation).append(";").append(System.lineSeparator());
-            jsCode.append("__func(");
-            for(int i=0; i<input.size(); i++) {
-                if(i>0) jsCode.append(", ");
-                jsCode.append("__obj").append(i);
-            }
-            jsCode.append(");");
-            try{
-                org.graalvm.polyglot.Value value = context.eval("js", jsCode);
+        // Bind input parameters as GraalVM proxy objects — JqValue passed directly
+        Object[] arguments = new Object[input.size()];
+        for(int i=0; i<input.size(); i++) {
+            arguments[i] = ProxyJq.wrap(input.get(i));
+        }
+        try{
+            jsContextPool.execute(node.operation, arguments, value -> {
                 List<org.graalvm.polyglot.Value> resolvedValues = resolvePromiseOrGenerator(value);
                 for(org.graalvm.polyglot.Value resolvedValue : resolvedValues) {
                     try{
@@ -1220,11 +1341,10 @@ public class NodeService implements NodeServiceInterface {
                         System.err.println("exception jsNode "+node.name+" sourceValues="+sourceValues+"\n"+pe.getMessage());
                     }
                 }
-            }catch(PolyglotException e){
-                System.err.println("exception jsNode "+node.name+" sourceValues="+sourceValues+"\n"+e.getMessage());
-            } finally {
-                context.leave();
-            }
+                return rtrn;
+            });
+        }catch(PolyglotException e){
+            System.err.println("exception jsNode "+node.name+" sourceValues="+sourceValues+"\n"+e.getMessage());
         }
         return rtrn;
     }
@@ -1284,6 +1404,7 @@ public class NodeService implements NodeServiceInterface {
         newValue.idx = startingOrdinal+1;
         newValue.node = node;
         newValue.data = fpBuilder.build();
+        newValue.fingerprintHash = FingerprintNode.hash(newValue.data);
         newValue.sources = node.sources.stream().filter(n->sourceValues.containsKey(n.getId())).map(n -> sourceValues.get(n.getId())).collect(Collectors.toList());
         return List.of(newValue);
     }
@@ -1291,25 +1412,13 @@ public class NodeService implements NodeServiceInterface {
         if (filter == null || filter.isBlank()) {
             return true;
         }
-        try (Context context = Context.newBuilder("js")
-                .engine(JS_ENGINE)
-                .allowExperimentalOptions(true)
-                .option("js.foreign-object-prototype", "true")
-                .option("js.global-property", "true")
-                .build()) {
-            context.enter();
-            try {
-                context.getBindings("js").putMember("__fp", ProxyJq.wrap(fingerprint));
-                String jsCode = "const __filter = " + filter + ";\n" +
-                        "!!(__filter(__fp));";
-                org.graalvm.polyglot.Value result = context.eval("js", jsCode);
-                return result.asBoolean();
-            } catch (PolyglotException e) {
-                System.err.println("failed to evaluate fingerprint filter: " + e.getMessage());
-                return true;
-            } finally {
-                context.leave();
-            }
+        try {
+            String predicate = "(fp) => !!((\n" + JsContextPool.stripTrailingSemicolons(filter) + "\n)(fp))";
+            return jsContextPool.execute(predicate, new Object[]{ProxyJq.wrap(fingerprint)},
+                    org.graalvm.polyglot.Value::asBoolean);
+        } catch (PolyglotException e) {
+            System.err.println("failed to evaluate fingerprint filter: " + e.getMessage());
+            return true;
         }
     }
 
@@ -1321,7 +1430,7 @@ public class NodeService implements NodeServiceInterface {
 
         JqProgram program;
         try {
-            program = compileJq(node.operation);
+            program = programCache.jq(node.operation);
         } catch (Exception e) {
             System.err.println("Error compiling jq filter for node " + node.id + " " + node.name + ": " + e.getMessage());
             return rtrn;
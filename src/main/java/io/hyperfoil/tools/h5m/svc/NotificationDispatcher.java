@@ -0,0 +1,362 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.api.Change;
+import io.hyperfoil.tools.h5m.api.NodeType;
+import io.hyperfoil.tools.h5m.entity.FolderEntity;
+import io.hyperfoil.tools.h5m.entity.NotificationConfig;
+import io.hyperfoil.tools.h5m.entity.NotificationOutbox;
+import io.hyperfoil.tools.h5m.event.ChangeNotification;
+import io.hyperfoil.tools.h5m.notification.NotificationMethod;
+import io.hyperfoil.tools.h5m.notification.NotificationPlugin;
+import io.hyperfoil.tools.jjq.value.JqArray;
+import io.hyperfoil.tools.jjq.value.JqObject;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the {@link NotificationOutbox} and sends the notifications on virtual threads.
+ * <p>
+ * Sending is decoupled from the work transaction: {@link NotificationService} only writes outbox rows
+ * next to the detection values and wakes the dispatcher once they are committed. Due rows for the same
+ * notification config, detection node and upload are sent as one notification. Rows are claimed in the database
+ * before they are sent so several instances can drain the same outbox, a claim that is not resolved within
+ * {@code h5m.notification.dispatch.claimTimeout} is taken over by the next pass. Each method has its own
+ * concurrency limit ({@code h5m.notification.dispatch.concurrency}) so a slow Slack API cannot hold up
+ * email. Failed sends are retried with exponential backoff starting at {@code h5m.notification.dispatch.backoff}
+ * until {@code h5m.notification.dispatch.maxAttempts} is reached and the rows are marked failed.
+ */
+@ApplicationScoped
+public class NotificationDispatcher {
+
+    private static final long MAX_BACKOFF_MS = TimeUnit.HOURS.toMillis(1);
+
+    @ConfigProperty(name = "h5m.notification.dispatch.concurrency", defaultValue = "4")
+    int concurrency;
+
+    @ConfigProperty(name = "h5m.notification.dispatch.maxAttempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "h5m.notification.dispatch.backoff", defaultValue = "PT5S")
+    Duration backoff;
+
+    @ConfigProperty(name = "h5m.notification.dispatch.pollInterval", defaultValue = "PT10S")
+    Duration pollInterval;
+
+    @ConfigProperty(name = "h5m.notification.dispatch.batchSize", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "h5m.notification.dispatch.claimTimeout", defaultValue = "PT5M")
+    Duration claimTimeout;
+
+    @Inject
+    NotificationService notificationService;
+
+    @Inject
+    WorkService workService;
+
+    @Inject
+    MeterRegistry registry;
+
+    private ExecutorService executor;
+    private Thread poller;
+    private volatile boolean running;
+
+    // released after a commit that wrote outbox rows, the poller also wakes up every pollInterval for retries
+    private final Semaphore signal = new Semaphore(0);
+    private final Map<NotificationMethod, Semaphore> permits = new EnumMap<>(NotificationMethod.class);
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    void onStart(@Observes StartupEvent ev) {
+        for (NotificationMethod method : NotificationMethod.values()) {
+            permits.put(method, new Semaphore(Math.max(1, concurrency)));
+        }
+        Gauge.builder("h5m.notification.dispatch.inflight", inFlight, Set::size)
+                .description("Outbox rows being sent").register(registry);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        running = true;
+        poller = Thread.ofVirtual().name("h5m-notification-dispatcher").start(this::poll);
+        // rows left over from before a restart
+        wakeUp();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Dispatches the due outbox rows without waiting for the poll interval.
+     */
+    public void wakeUp() {
+        signal.release();
+    }
+
+    private void poll() {
+        while (running) {
+            try {
+                signal.tryAcquire(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+                dispatchDue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.errorf(e, "Failed to read the notification outbox");
+            }
+        }
+    }
+
+    /**
+     * Claims the due outbox rows and submits one send task per (notification config, detection node, upload).
+     */
+    void dispatchDue() {
+        List<Batch> batches = workService.callInNewTransaction(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<NotificationOutbox> due = NotificationOutbox
+                    .find("(status = ?1 AND nextAttemptAt <= ?2) OR (status = ?3 AND claimedAt <= ?4) ORDER BY id",
+                            NotificationOutbox.PENDING, now, NotificationOutbox.SENDING, now.minus(claimTimeout))
+                    .range(0, Math.max(1, batchSize) - 1)
+                    .list();
+            Map<List<Long>, Batch> byTarget = new LinkedHashMap<>();
+            for (NotificationOutbox row : due) {
+                if (inFlight.contains(row.id) || !claim(row, now)) {
+                    continue; // still being sent by the previous pass or claimed by another instance
+                }
+                inFlight.add(row.id);
+                byTarget.computeIfAbsent(List.of(row.configId, row.nodeId, row.rootValueId), _ -> new Batch(row)).add(row);
+            }
+            return new ArrayList<>(byTarget.values());
+        });
+        for (Batch batch : batches) {
+            executor.submit(() -> send(batch));
+        }
+    }
+
+    // the update only matches if no other dispatcher claimed, sent or failed the row since it was read
+    private boolean claim(NotificationOutbox row, LocalDateTime now) {
+        return NotificationOutbox.update("status = ?1, claimedAt = ?2, claims = claims + 1 where id = ?3 and claims = ?4",
+                NotificationOutbox.SENDING, now, row.id, row.claims) == 1;
+    }
+
+    private void send(Batch batch) {
+        try {
+            Target target = workService.callInNewTransaction(() -> loadTarget(batch));
+            if (target == null) {
+                // the config was deleted or disabled after the detection, there is nothing to send to
+                workService.runInNewTransaction(() -> NotificationOutbox.delete("id in ?1", batch.ids));
+                return;
+            }
+            Semaphore limit = permits.get(target.config.method);
+            Exception failure = null;
+            limit.acquire();
+            long start = System.nanoTime();
+            try {
+                target.plugin.send(target.notification);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                limit.release();
+                record(target.config.method, failure == null ? "sent" : "failed", start);
+            }
+            if (failure != null) {
+                failed(batch, target, failure);
+                return;
+            }
+            sent(batch, target);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.errorf(e, "Failed to dispatch notifications %s", batch.ids);
+        } finally {
+            batch.ids.forEach(inFlight::remove);
+        }
+    }
+
+    private Target loadTarget(Batch batch) {
+        NotificationConfig config = NotificationConfig.findById(batch.configId);
+        if (config == null || !config.enabled) {
+            return null;
+        }
+        Optional<NotificationPlugin> plugin = notificationService.findPlugin(config.method);
+        if (plugin.isEmpty()) {
+            Log.warnf("No plugin found for notification method '%s'", config.method);
+            return null;
+        }
+        FolderEntity folder = FolderEntity.findById(batch.folderId);
+        String folderName = folder != null ? folder.name : "unknown";
+        ChangeNotification notification = new ChangeNotification(
+                folderName, batch.folderId, batch.rootValueId,
+                batch.nodeId, batch.nodeName, batch.nodeType, batch.changes(),
+                NotificationService.parseConfigJson(config.data), NotificationService.parseConfigJson(config.secrets),
+                config.template);
+        return new Target(config, plugin.get(), notification);
+    }
+
+    private void sent(Batch batch, Target target) {
+        workService.runInNewTransaction(() -> {
+            NotificationOutbox.delete("id in ?1", batch.ids);
+            notificationService.logNotification(batch.folderId, target.config, batch.nodeId, batch.nodeName,
+                    target.notification.changes().size(), "sent", null);
+        });
+        LocalDateTime now = LocalDateTime.now();
+        for (LocalDateTime created : batch.createdAt) {
+            if (created != null) {
+                Timer.builder("h5m.notification.dispatch.latency").tag("method", target.config.method.label())
+                        .description("Time from detection to a sent notification")
+                        .register(registry)
+                        .record(Duration.between(created, now));
+            }
+        }
+        Log.infof("Notification sent via %s for %s/%s (%d changes)",
+                target.config.method, target.notification.folderName(), batch.nodeName, target.notification.changes().size());
+    }
+
+    private void failed(Batch batch, Target target, Exception e) {
+        int attempts = batch.attempts + 1;
+        boolean exhausted = attempts >= maxAttempts;
+        long delay = Math.min(MAX_BACKOFF_MS, backoff.toMillis() << Math.min(attempts - 1, 20));
+        workService.runInNewTransaction(() -> {
+            NotificationOutbox.update("attempts = ?1, status = ?2, nextAttemptAt = ?3, lastError = ?4 where id in ?5",
+                    attempts, exhausted ? NotificationOutbox.FAILED : NotificationOutbox.PENDING,
+                    LocalDateTime.now().plus(Duration.ofMillis(delay)), e.getMessage(), batch.ids);
+            if (exhausted) {
+                notificationService.logNotification(batch.folderId, target.config, batch.nodeId, batch.nodeName,
+                        target.notification.changes().size(), "failed", e.getMessage());
+            }
+        });
+        Counter.builder("h5m.notification.dispatch.failures").tag("method", target.config.method.label())
+                .tag("exhausted", Boolean.toString(exhausted))
+                .description("Notification sends that threw")
+                .register(registry)
+                .increment();
+        if (exhausted) {
+            Log.errorf(e, "Failed to send %s notification for %s/%s after %d attempts",
+                    target.config.method, target.notification.folderName(), batch.nodeName, attempts);
+        } else {
+            Log.warnf("Failed to send %s notification for %s/%s (attempt %d/%d), retrying in %dms: %s",
+                    target.config.method, target.notification.folderName(), batch.nodeName, attempts, maxAttempts, delay, e.getMessage());
+        }
+    }
+
+    private void record(NotificationMethod method, String result, long start) {
+        Timer.builder("h5m.notification.dispatch").tag("method", method.label()).tag("result", result)
+                .description("Time to send a notification through its plugin")
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Serializes the Change records for the outbox, the inverse of {@link #parseChanges(String)}.
+     */
+    static String serializeChanges(List<Change> changes) {
+        JqValue[] elements = new JqValue[changes.size()];
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            JqObject.Builder builder = JqObject.builder();
+            builder.put("valueId", change.valueId());
+            builder.put("nodeId", change.nodeId());
+            builder.put("nodeName", change.nodeName());
+            if (change.nodeType() != null) {
+                builder.put("nodeType", change.nodeType().name());
+            }
+            if (change.data() != null) {
+                builder.put("data", change.data());
+            }
+            if (change.fingerprint() != null) {
+                builder.put("fingerprint", change.fingerprint());
+            }
+            elements[i] = builder.build();
+        }
+        return JqArray.of(elements).toJsonString();
+    }
+
+    static List<Change> parseChanges(String json) {
+        if (json == null || json.isBlank() || !(JqValues.parse(json) instanceof JqArray array)) {
+            return List.of();
+        }
+        List<Change> rtrn = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            if (!(array.get(i) instanceof JqObject change)) {
+                continue;
+            }
+            String nodeType = change.has("nodeType") ? change.get("nodeType").asString(null) : null;
+            rtrn.add(new Change(
+                    change.get("valueId").asLong(0),
+                    change.get("nodeId").asLong(0),
+                    change.get("nodeName").asString(null),
+                    nodeType != null ? NodeType.valueOf(nodeType) : null,
+                    change.has("data") ? change.get("data") : null,
+                    change.has("fingerprint") ? change.get("fingerprint") : null));
+        }
+        return rtrn;
+    }
+
+    private record Target(NotificationConfig config, NotificationPlugin plugin, ChangeNotification notification) {}
+
+    /*
+     * Outbox rows for the same notification config, detection node and upload, sent as one notification
+     */
+    private static class Batch {
+        final long configId;
+        final long folderId;
+        final long nodeId;
+        final String nodeName;
+        final NodeType nodeType;
+        final long rootValueId;
+        int attempts;
+        final List<Long> ids = new ArrayList<>();
+        final List<String> changesJson = new ArrayList<>();
+        final List<LocalDateTime> createdAt = new ArrayList<>();
+
+        Batch(NotificationOutbox first) {
+            configId = first.configId;
+            folderId = first.folderId;
+            nodeId = first.nodeId;
+            nodeName = first.nodeName;
+            nodeType = first.nodeType;
+            rootValueId = first.rootValueId;
+            attempts = first.attempts;
+        }
+
+        void add(NotificationOutbox row) {
+            ids.add(row.id);
+            attempts = Math.max(attempts, row.attempts);
+            changesJson.add(row.changes);
+            createdAt.add(row.createdAt);
+        }
+
+        List<Change> changes() {
+            List<Change> rtrn = new ArrayList<>();
+            for (String json : changesJson) {
+                rtrn.addAll(parseChanges(json));
+            }
+            return rtrn;
+        }
+    }
+}
@@ -7,8 +7,8 @@ import io.hyperfoil.tools.h5m.api.Change;
 import io.hyperfoil.tools.h5m.entity.FolderEntity;
 import io.hyperfoil.tools.h5m.entity.NotificationConfig;
 import io.hyperfoil.tools.h5m.entity.NotificationLog;
+import io.hyperfoil.tools.h5m.entity.NotificationOutbox;
 import io.hyperfoil.tools.h5m.event.ChangeDetectedEvent;
-import io.hyperfoil.tools.h5m.event.ChangeNotification;
 import io.hyperfoil.tools.h5m.notification.NotificationMethod;
 import io.hyperfoil.tools.h5m.notification.NotificationPlugin;
 import io.quarkus.logging.Log;
@@ -17,14 +17,20 @@ import jakarta.enterprise.event.Observes;
 import jakarta.enterprise.inject.Instance;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
 import jakarta.transaction.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 /**
- * Observes {@link ChangeDetectedEvent} and dispatches notifications to
- * configured channels via {@link NotificationPlugin} implementations.
+ * Observes {@link ChangeDetectedEvent} and queues notifications for the
+ * configured channels in the {@link NotificationOutbox}. The
+ * {@link NotificationDispatcher} sends them via {@link NotificationPlugin}
+ * implementations.
  * <p>
  * Change events arrive pre-enriched with data and fingerprint fields —
  * no additional DB lookups are needed.
@@ -37,12 +43,20 @@ public class NotificationService implements io.hyperfoil.tools.h5m.api.svc.Notif
     @Inject
     Instance<NotificationPlugin> plugins;
 
+    @Inject
+    NotificationDispatcher dispatcher;
+
+    @Inject
+    TransactionSynchronizationRegistry txRegistry;
+
     /**
-     * Observes change detected events and dispatches notifications
-     * to all enabled notification configs for the folder.
+     * Observes change detected events and queues a notification in the outbox
+     * for each enabled notification config of the folder.
      * <p>
-     * The event carries pre-enriched {@link Change} records — no need
-     * to load values from the DB.
+     * The event is fired inside the work transaction, so the outbox rows commit
+     * (or roll back) with the detection values. {@link NotificationDispatcher}
+     * sends them once the transaction commits, keeping slow notification channels
+     * out of the work transaction.
      */
     @Transactional
     public void onChangeDetected(@Observes ChangeDetectedEvent event) {
@@ -64,33 +78,35 @@ public class NotificationService implements io.hyperfoil.tools.h5m.api.svc.Notif
             return;
         }
 
-        // Resolve folder name
-        FolderEntity folder = FolderEntity.findById(event.folderId());
-        String folderName = folder != null ? folder.name : "unknown";
-
-        // Dispatch to each configured plugin
+        String serialized = NotificationDispatcher.serializeChanges(changes);
+        LocalDateTime now = LocalDateTime.now();
         for (NotificationConfig config : configs) {
-            findPlugin(config.method).ifPresentOrElse(
-                plugin -> {
-                    ChangeNotification notification = new ChangeNotification(
-                        folderName, event.folderId(), event.rootValueId(),
-                        first.nodeId(), first.nodeName(),
-                        first.nodeType(), changes, parseConfigJson(config.data), parseConfigJson(config.secrets), config.template
-                    );
-                    try {
-                        plugin.send(notification);
-                        logNotification(folder, config, first, changes.size(), "sent", null);
-                        Log.infof("Notification sent via %s for %s/%s (%d changes)",
-                            config.method, folderName, first.nodeName(), changes.size());
-                    } catch (Exception e) {
-                        logNotification(folder, config, first, changes.size(), "failed", e.getMessage());
-                        Log.errorf(e, "Failed to send %s notification for %s/%s",
-                            config.method, folderName, first.nodeName());
-                    }
-                },
-                () -> Log.warnf("No plugin found for notification method '%s'", config.method)
-            );
+            if (findPlugin(config.method).isEmpty()) {
+                Log.warnf("No plugin found for notification method '%s'", config.method);
+                continue;
+            }
+            NotificationOutbox outbox = new NotificationOutbox();
+            outbox.folderId = event.folderId();
+            outbox.configId = config.id;
+            outbox.rootValueId = event.rootValueId();
+            outbox.nodeId = first.nodeId();
+            outbox.nodeName = first.nodeName();
+            outbox.nodeType = first.nodeType();
+            outbox.changes = serialized;
+            outbox.nextAttemptAt = now;
+            outbox.persist();
         }
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    dispatcher.wakeUp();
+                }
+            }
+        });
     }
 
     /**
@@ -105,14 +121,14 @@ public class NotificationService implements io.hyperfoil.tools.h5m.api.svc.Notif
         plugin.validate(configData);
     }
 
-    private Optional<NotificationPlugin> findPlugin(NotificationMethod method) {
+    Optional<NotificationPlugin> findPlugin(NotificationMethod method) {
         return plugins.stream()
             .filter(p -> p.method() == method)
             .findFirst();
     }
 
     /** Parse a JSON config string to JqObject, returning EMPTY for null/blank/non-object. */
-    private static JqObject parseConfigJson(String json) {
+    static JqObject parseConfigJson(String json) {
         if (json == null || json.isBlank()) return JqObject.EMPTY;
         try {
             JqValue parsed = JqValues.parse(json);
@@ -122,17 +138,17 @@ public class NotificationService implements io.hyperfoil.tools.h5m.api.svc.Notif
         }
     }
 
-    private void logNotification(FolderEntity folder, NotificationConfig config,
-                                  Change change, int changeCount,
-                                  String status, String errorMessage) {
+    void logNotification(long folderId, NotificationConfig config,
+                         long nodeId, String nodeName, int changeCount,
+                         String status, String errorMessage) {
         NotificationLog log = new NotificationLog();
-        log.folder = folder;
+        log.folder = FolderEntity.findById(folderId);
         log.method = config.method.label();
         log.destination = config.data;
         log.status = status;
         log.errorMessage = errorMessage;
-        log.nodeId = change.nodeId();
-        log.nodeName = change.nodeName();
+        log.nodeId = nodeId;
+        log.nodeName = nodeName;
         log.changeCount = changeCount;
         log.persist();
     }
@@ -207,6 +223,8 @@ public class NotificationService implements io.hyperfoil.tools.h5m.api.svc.Notif
                 .setParameter("fid", folderId).executeUpdate();
         em.createNativeQuery("DELETE FROM notification_log WHERE folder_id = :fid")
                 .setParameter("fid", folderId).executeUpdate();
+        em.createNativeQuery("DELETE FROM notification_outbox WHERE folder_id = :fid")
+                .setParameter("fid", folderId).executeUpdate();
     }
 
 }
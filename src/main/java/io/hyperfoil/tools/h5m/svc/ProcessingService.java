@@ -70,6 +70,12 @@ public class ProcessingService implements ProcessingServiceInterface {
     WorkService workService;
     @Inject
     NodeService nodeService;
+    @Inject
+    SeriesCache seriesCache;
+    @Inject
+    RecalculationPlanner recalculationPlanner;
+    @Inject
+    ViewRowService viewRows;
 
     // --- Tracker lifecycle ---
 
@@ -98,11 +104,12 @@ public class ProcessingService implements ProcessingServiceInterface {
                 entity.completed = true;
             }
         }
-        int nullified = valueService.nullifyEphemeralData(rootValueId);
-        if (nullified > 0) {
-            Log.debugf("Nullified data for %d ephemeral values (root value %d)", nullified, rootValueId);
-            em.getEntityManagerFactory().getCache().evict(ValueEntity.class);
+        // evicts only the nullified values from the 2LC, the values of concurrent uploads stay cached
+        List<Long> nullified = valueService.nullifyEphemeralData(rootValueId);
+        if (!nullified.isEmpty()) {
+            Log.debugf("Nullified data for %d ephemeral values (root value %d)", nullified.size(), rootValueId);
         }
+        viewRows.refresh(List.of(rootValueId));
     }
 
     /**
@@ -115,9 +122,7 @@ public class ProcessingService implements ProcessingServiceInterface {
     ActivityTracker createForRecalculation(long nodeId, Set<Long> rootValueIds, String folderName) {
         List<CompletableFuture<Void>> subFutures = new ArrayList<>(rootValueIds.size());
         for (long rootValueId : rootValueIds) {
-            ActivityTracker sub = byRootValueId.computeIfAbsent(rootValueId, _ -> new ActivityTracker(nodeId, List.of(rootValueId), folderName, 1));
-            sub.future.whenComplete((_, _) -> byRootValueId.remove(rootValueId));
-            subFutures.add(sub.future);
+            subFutures.add(trackRootValue(nodeId, rootValueId, folderName).future);
         }
 
         CompletableFuture<Void> combinedFuture = CompletableFuture.allOf(subFutures.toArray(CompletableFuture[]::new));
@@ -131,6 +136,16 @@ public class ProcessingService implements ProcessingServiceInterface {
         return main;
     }
 
+    /**
+     * Creates the sub-tracker that counts the work items of one root value in a
+     * recalculation, or returns the tracker already counting them.
+     */
+    ActivityTracker trackRootValue(long nodeId, long rootValueId, String folderName) {
+        ActivityTracker sub = byRootValueId.computeIfAbsent(rootValueId, _ -> new ActivityTracker(nodeId, List.of(rootValueId), folderName, 1));
+        sub.future.whenComplete((_, _) -> byRootValueId.remove(rootValueId));
+        return sub;
+    }
+
     // --- Work-item accounting (called by WorkService) ---
 
     List<ActivityTracker> findTrackers(Work work) {
@@ -394,11 +409,10 @@ public class ProcessingService implements ProcessingServiceInterface {
                     if (entity != null) {
                         entity.completed = true;
                     }
+                    // also evicts the nullified values from the 2LC
                     for (ValueEntity rootValue : rootValues) {
                         valueService.nullifyEphemeralData(rootValue.id);
                     }
-                    // Evict cached ValueEntity instances since data was nullified via native SQL
-                    em.getEntityManagerFactory().getCache().evict(ValueEntity.class);
                 }));
             });
         } else {
@@ -430,7 +444,9 @@ public class ProcessingService implements ProcessingServiceInterface {
     /**
      * Selectively recalculates values for a specific node and its dependents.
      * Walks up the source chain to find ephemeral ancestor.
-     * Queues Work from those ancestors along with Work for target node
+     * The {@link RecalculationPlanner} queues Work from those ancestors along with
+     * Work for target node, one page of root values at a time, as background work
+     * behind uploads. Progress is reported per root value.
      *
      * Use cases:
      * * A user adds a new Node to the NodeGroup
@@ -442,7 +458,7 @@ public class ProcessingService implements ProcessingServiceInterface {
      * @throws IllegalArgumentException if the node is not found or has no group
      */
     public Processing recalculateNode(long nodeId){
-        return workService.callInNewTransaction(() -> {
+        RecalculationPlanner.Plan plan = workService.callInNewTransaction(() -> {
             NodeEntity targetNode = NodeEntity.findById(nodeId);
             if(targetNode == null){
                 throw new IllegalArgumentException("Node not found: " + nodeId);
@@ -451,69 +467,46 @@ public class ProcessingService implements ProcessingServiceInterface {
                 throw new IllegalArgumentException("Node " + nodeId + " has no group");
             }
             FolderEntity folder = findFolderByGroupId(targetNode.group.id);
-            List<ValueEntity> rootValues = valueService.getValues(targetNode.group.root);
-            if (rootValues.isEmpty()) {
-                return new Processing(nodeId, List.of(), folder.name, 0, 0, Processing.State.COMPLETED, null, 0);
-            }
-            rootValues.forEach(ValueEntity::getPath);
-
-            Set<Long> rootValueIds = new HashSet<>(rootValues.size());
-            Set<NodeEntity> ephemeralSources = nodeService.getEphemeralSources(targetNode);
-            List<Work> todo = new  ArrayList<>();
-
-            for(ValueEntity rootValue : rootValues){
-                rootValueIds.add(rootValue.id);
-                if(!ephemeralSources.isEmpty()){
-                    for(NodeEntity ephemeralSource : ephemeralSources){
-                        Work ephemeralWork = new Work(ephemeralSource,new ArrayList<>(ephemeralSource.sources),List.of(rootValue.id));
-                        ephemeralWork.setCascade(false);
-                        ephemeralWork.setDispatch(false);
-                        todo.add(ephemeralWork);
-                    }
-                }
-                Work nodeWork = new Work(targetNode, new ArrayList<>(targetNode.sources), List.of(rootValue.id));
-                nodeWork.setDispatch(false);
-                todo.add(nodeWork);
-            }
-
-            if(todo.isEmpty()){
-                return new Processing(nodeId, List.of(), folder.name, 0, 0, Processing.State.COMPLETED, null, 0);
+            seriesCache.invalidateNode(nodeId);
+            long rootNodeId = targetNode.group.root.id;
+            int total = (int) valueService.getNodeValueCount(rootNodeId);
+            if (total == 0) {
+                return new RecalculationPlanner.Plan(nodeId, folder.name, rootNodeId, 0, 0, List.of(), null);
             }
+            List<Long> ephemeralSourceIds = nodeService.getEphemeralSources(targetNode).stream().map(NodeEntity::getId).toList();
 
             // Track for crash recovery
             ProcessingEntity tracking = new ProcessingEntity(folder.id, nodeId, null);
             tracking.persist();
+            return new RecalculationPlanner.Plan(nodeId, folder.name, rootNodeId, valueService.getMaxValueId(rootNodeId),
+                    total, ephemeralSourceIds, tracking.id);
+        });
+        if (plan.total() == 0) {
+            return new Processing(nodeId, List.of(), plan.folderName(), 0, 0, Processing.State.COMPLETED, null, 0);
+        }
 
-            ActivityTracker tracker = createForRecalculation(nodeId, rootValueIds, folder.name);
-            workService.create(todo);
+        // Progress is counted per root value, the root value IDs are not listed as there can be many of them
+        ActivityTracker tracker = new ActivityTracker(nodeId, List.of(), plan.folderName(), plan.total());
+        byNodeId.put(nodeId, tracker);
 
-            // Mark completed and null out ephemeral data after recalculation finishes.
-            // The cleanup future is stored in afterCleanup so that awaitRecalculation
-            // can wait for both the processing AND the cleanup to finish.
-            tracker.afterCleanup = tracker.future.whenComplete((_, t) -> {
-                if (t != null) {
-                    Log.errorf(t, "Recalculation failed for folder '%s' (nodeId=%d)", folder.name, nodeId);
+        // Mark completed after recalculation finishes, the planner nullifies ephemeral data
+        // (and evicts it from the 2LC) page by page.
+        // The cleanup future is stored in afterCleanup so that awaitRecalculation
+        // can wait for both the processing AND the cleanup to finish.
+        tracker.afterCleanup = tracker.future.whenComplete((_, t) -> {
+            if (t != null) {
+                Log.errorf(t, "Recalculation failed for folder '%s' (nodeId=%d)", plan.folderName(), nodeId);
+            }
+            // Mark tracker completed even on failure to prevent infinite retry on restart.
+            workService.runInNewTransaction(() -> {
+                ProcessingEntity entity = ProcessingEntity.findById(plan.trackingId());
+                if (entity != null) {
+                    entity.completed = true;
                 }
-                // Mark tracker completed even on failure to prevent infinite retry on restart.
-                // On success, also nullify ephemeral data and evict the 2LC.
-                workService.runInNewTransaction(() -> {
-                    ProcessingEntity entity = ProcessingEntity.findById(tracking.id);
-                    if (entity != null) {
-                        entity.completed = true;
-                    }
-                    if (t == null) {
-                        for (ValueEntity rootValue : rootValues) {
-                            int nullified = valueService.nullifyEphemeralData(rootValue.id);
-                            if (nullified > 0) {
-                                Log.debugf("Nullified data for %d ephemeral values (root %d)", nullified, rootValue.id);
-                            }
-                        }
-                        em.getEntityManagerFactory().getCache().evict(ValueEntity.class);
-                    }
-                });
             });
-            return tracker.toStatus();
         });
+        recalculationPlanner.start(plan, tracker);
+        return tracker.toStatus();
     }
 
     // --- Ephemeral chain walking ---
@@ -619,7 +612,7 @@ public class ProcessingService implements ProcessingServiceInterface {
         private final long nodeId;
         private final List<Long> valueIds;
         private final String folderName;
-        private final int total;
+        private volatile int total;
         private final AtomicInteger pendingCount = new AtomicInteger(0);
         private final AtomicInteger completedCount = new AtomicInteger(0);
         private final CompletableFuture<Void> future;
@@ -676,6 +669,14 @@ public class ProcessingService implements ProcessingServiceInterface {
             future.completeExceptionally(t);
         }
 
+        public void complete() {
+            future.complete(null);
+        }
+
+        public void setTotal(int total) {
+            this.total = total;
+        }
+
         public void incrementCompleted() {
             completedCount.incrementAndGet();
         }
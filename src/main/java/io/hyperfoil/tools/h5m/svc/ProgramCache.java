@@ -0,0 +1,190 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.h5m.entity.node.JsonataNode;
+import io.hyperfoil.tools.jjq.JqProgram;
+import io.hyperfoil.tools.jjq.jsonata.JsonataCompiler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * LRU cache of compiled jq and jsonata programs keyed by the expression.
+ * <p>
+ * The cache is bounded by the number of programs ({@code h5m.program.cache.maxEntries}) and by their weight, the
+ * total length of the cached expressions ({@code h5m.program.cache.maxWeight}). Node operations are compiled when
+ * NodeService persists a node and, unless {@code h5m.program.cache.warmup} is false, for the nodes of every folder
+ * on startup so the first upload after a restart does not pay the compile cost.
+ */
+@ApplicationScoped
+public class ProgramCache {
+
+    public enum Kind {
+        JQ(JqProgram::compile),
+        JSONATA(JsonataCompiler::compile);
+
+        private final Function<String, JqProgram> compiler;
+
+        Kind(Function<String, JqProgram> compiler) {
+            this.compiler = compiler;
+        }
+    }
+
+    private record Key(Kind kind, String expression) {}
+
+    @ConfigProperty(name = "h5m.program.cache.maxEntries", defaultValue = "5000")
+    int maxEntries;
+
+    @ConfigProperty(name = "h5m.program.cache.maxWeight", defaultValue = "10000000")
+    long maxWeight;
+
+    @ConfigProperty(name = "h5m.program.cache.warmup", defaultValue = "true")
+    boolean warmup;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    WorkService workService;
+
+    private final Map<Kind, Counter> hits = new EnumMap<>(Kind.class);
+    private final Map<Kind, Counter> misses = new EnumMap<>(Kind.class);
+    private final Map<Kind, Timer> compiles = new EnumMap<>(Kind.class);
+    private Counter evictions;
+
+    private long weight;
+    private final LinkedHashMap<Key, JqProgram> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    @PostConstruct
+    void init() {
+        for (Kind kind : Kind.values()) {
+            String tag = kind.name().toLowerCase();
+            hits.put(kind, Counter.builder("h5m.program.cache.requests").tag("kind", tag).tag("result", "hit")
+                    .description("Program lookups served from the cache").register(registry));
+            misses.put(kind, Counter.builder("h5m.program.cache.requests").tag("kind", tag).tag("result", "miss")
+                    .description("Program lookups that compiled the expression").register(registry));
+            compiles.put(kind, Timer.builder("h5m.program.cache.compile").tag("kind", tag)
+                    .description("Time to compile an expression").register(registry));
+        }
+        evictions = Counter.builder("h5m.program.cache.evictions")
+                .description("Programs removed to stay within the cache bounds").register(registry);
+        Gauge.builder("h5m.program.cache.size", this, ProgramCache::size)
+                .description("Compiled programs in the cache").register(registry);
+        Gauge.builder("h5m.program.cache.weight", this, ProgramCache::weight)
+                .description("Total expression length of the compiled programs in the cache").register(registry);
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!warmup) {
+            return;
+        }
+        // compile in the background, a node that is used before it is reached compiles on demand as before
+        Thread.ofVirtual().name("h5m-program-warmup").start(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                List<NodeEntity> nodes = workService.callInNewTransaction(() -> NodeEntity.<NodeEntity>list(
+                        "FROM node n WHERE n.group IN (SELECT f.group FROM folder f) AND TYPE(n) IN (JqNode, JsonataNode)"));
+                int compiled = 0;
+                for (NodeEntity node : nodes) {
+                    if (precompile(node)) {
+                        compiled++;
+                    }
+                }
+                Log.infof("Compiled %d of %d node programs in %d ms", compiled, nodes.size(), System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                Log.warnf(e, "Failed to warm up the program cache");
+            }
+        });
+    }
+
+    public JqProgram jq(String filter) {
+        return get(Kind.JQ, filter);
+    }
+
+    public JqProgram jsonata(String expression) {
+        return get(Kind.JSONATA, expression);
+    }
+
+    /**
+     * Returns the compiled program, compiling it on a miss. Compile errors are thrown to the caller and not cached.
+     */
+    public JqProgram get(Kind kind, String expression) {
+        Key key = new Key(kind, expression);
+        JqProgram program;
+        synchronized (entries) {
+            program = entries.get(key);
+        }
+        if (program != null) {
+            hits.get(kind).increment();
+            return program;
+        }
+        misses.get(kind).increment();
+        // compile outside the lock, two threads missing the same expression both compile and the last one wins
+        program = compiles.get(kind).record(() -> kind.compiler.apply(expression));
+        synchronized (entries) {
+            JqProgram previous = entries.put(key, program);
+            if (previous == null) {
+                weight += expression.length();
+            }
+            Iterator<Map.Entry<Key, JqProgram>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && entries.size() > 1 && eldest.hasNext()) {
+                Map.Entry<Key, JqProgram> entry = eldest.next();
+                weight -= entry.getKey().expression().length();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Compiles the operation of a jq or jsonata node so the first calculation finds it in the cache.
+     *
+     * @return false if the node does not have a program or the operation does not compile
+     */
+    public boolean precompile(NodeEntity node) {
+        Kind kind = node instanceof JqNode ? Kind.JQ : node instanceof JsonataNode ? Kind.JSONATA : null;
+        if (kind == null || node.operation == null || node.operation.isBlank()) {
+            return false;
+        }
+        try {
+            get(kind, node.operation);
+            return true;
+        } catch (RuntimeException e) {
+            // reported by NodeService when the node is calculated
+            Log.debugf("Node %s operation does not compile: %s", node.name, e.getMessage());
+            return false;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+}
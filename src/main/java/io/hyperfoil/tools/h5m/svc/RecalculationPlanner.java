@@ -0,0 +1,189 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.work.Work;
+import io.hyperfoil.tools.h5m.queue.WorkQueue;
+import io.quarkus.logging.Log;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues the work of a node recalculation one page of root values at a time.
+ * <p>
+ * Instead of loading every root value of the folder and queueing all of their work at once, the planner reads
+ * {@code h5m.recalculate.pageSize} root value IDs at a time and only queues the next page while fewer than
+ * {@code h5m.recalculate.maxInFlight} root values are being recalculated. The nodes to run, their sources and the
+ * ancestors the WorkQueue orders them by are resolved once per page and shared by the work of every root value in it.
+ * Recalculation work is background work, the WorkQueue only runs it when no upload work is ready.
+ * <p>
+ * The ephemeral data of a page is nullified and the view rows of its root values are rewritten as soon as every root
+ * value of the page is done.
+ */
+@ApplicationScoped
+public class RecalculationPlanner {
+
+    /**
+     * A recalculation of the target node for the root values up to {@code maxRootValueId}, after recomputing the
+     * ephemeral nodes it reads from.
+     */
+    record Plan(long nodeId, String folderName, long rootNodeId, long maxRootValueId, int total,
+                List<Long> ephemeralSourceIds, Long trackingId) {}
+
+    // a node to run for each root value, shared by all the work of a page
+    private record Step(NodeEntity node, List<NodeEntity> sources, Set<Long> ancestorNodeIds, boolean cascade) {}
+
+    @ConfigProperty(name = "h5m.recalculate.pageSize", defaultValue = "200")
+    int pageSize;
+
+    @ConfigProperty(name = "h5m.recalculate.maxInFlight", defaultValue = "1000")
+    int maxInFlight;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    WorkService workService;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    ProcessingService processingService;
+
+    @Inject
+    EphemeralValueStore ephemeralValues;
+
+    @Inject
+    ViewRowService viewRows;
+
+    /**
+     * Plans the recalculation on a virtual thread. The tracker completes when the work of every planned root value is
+     * done and the ephemeral data of its page is nullified, or fails with the first failed root value.
+     */
+    void start(Plan plan, ProcessingService.ActivityTracker tracker) {
+        WorkQueue queue = workService.getQueue();
+        // the queue is not idle while root values are left to plan
+        queue.incrementDeferred(1);
+        Thread.ofVirtual().name("h5m-recalculate-" + plan.nodeId()).start(() -> {
+            try {
+                plan(plan, tracker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tracker.fail(e);
+            } catch (Exception e) {
+                tracker.fail(e);
+            } finally {
+                queue.decrementDeferred(1);
+            }
+        });
+    }
+
+    private void plan(Plan plan, ProcessingService.ActivityTracker tracker) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(Math.max(maxInFlight, pageSize));
+        // one for planning and one for each page that is not done
+        AtomicInteger remaining = new AtomicInteger(1);
+        int planned = 0;
+        long afterId = 0;
+        while (!tracker.getFuture().isDone()) {
+            List<Long> rootValueIds = valueService.getValueIdsPage(plan.rootNodeId(), afterId, plan.maxRootValueId(), pageSize);
+            if (rootValueIds.isEmpty()) {
+                break;
+            }
+            inFlight.acquire(rootValueIds.size());
+            remaining.incrementAndGet();
+            List<CompletableFuture<Void>> done = new ArrayList<>(rootValueIds.size());
+            for (long rootValueId : rootValueIds) {
+                // the root value tracker has to exist before its work is created
+                ProcessingService.ActivityTracker sub = processingService.trackRootValue(plan.nodeId(), rootValueId, plan.folderName());
+                sub.getFuture().whenComplete((_, t) -> {
+                    inFlight.release();
+                    tracker.incrementCompleted();
+                    if (t != null && !tracker.getFuture().isDone()) {
+                        tracker.fail(t);
+                    }
+                });
+                done.add(sub.getFuture());
+            }
+            workService.runInNewTransaction(() -> workService.create(works(plan, rootValueIds)));
+            CompletableFuture.allOf(done.toArray(CompletableFuture[]::new)).whenComplete((_, t) -> {
+                try {
+                    if (t == null) {
+                        completePage(rootValueIds);
+                    } else {
+                        rootValueIds.forEach(ephemeralValues::release);
+                    }
+                } catch (Exception e) {
+                    Log.errorf(e, "Failed to complete a page of the recalculation of node %d", plan.nodeId());
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        tracker.complete();
+                    }
+                }
+            });
+            planned += rootValueIds.size();
+            afterId = rootValueIds.getLast();
+            Log.debugf("Recalculation of node %d planned %d of %d root values", plan.nodeId(), planned, plan.total());
+        }
+        // values deleted since the recalculation started are not planned
+        tracker.setTotal(planned);
+        if (remaining.decrementAndGet() == 0) {
+            tracker.complete();
+        }
+    }
+
+    /*
+     * The background work of a page: the ephemeral sources and then the target node for each root value
+     */
+    List<Work> works(Plan plan, List<Long> rootValueIds) {
+        List<Step> steps = new ArrayList<>(plan.ephemeralSourceIds().size() + 1);
+        for (Long ephemeralSourceId : plan.ephemeralSourceIds()) {
+            steps.add(step(ephemeralSourceId, false));
+        }
+        steps.add(step(plan.nodeId(), true));
+
+        List<Work> works = new ArrayList<>(rootValueIds.size() * steps.size());
+        for (long rootValueId : rootValueIds) {
+            for (Step step : steps) {
+                Work work = new Work(step.node(), step.sources(), List.of(rootValueId));
+                work.setAncestorNodeIds(step.ancestorNodeIds());
+                work.setCascade(step.cascade());
+                work.setDispatch(false);
+                work.setBackground(true);
+                works.add(work);
+            }
+        }
+        return works;
+    }
+
+    private Step step(long nodeId, boolean cascade) {
+        NodeEntity node = em.find(NodeEntity.class, nodeId);
+        if (node == null) {
+            throw new IllegalStateException("Node " + nodeId + " was deleted during its recalculation");
+        }
+        List<NodeEntity> sources = List.copyOf(node.sources);
+        Work template = new Work(node, sources, List.of());
+        template.precomputeAncestors();
+        return new Step(node, sources, Set.copyOf(template.getAncestorNodeIds()), cascade);
+    }
+
+    private void completePage(List<Long> rootValueIds) {
+        workService.runInNewTransaction(() -> {
+            for (long rootValueId : rootValueIds) {
+                int nullified = valueService.nullifyEphemeralData(rootValueId).size();
+                if (nullified > 0) {
+                    Log.debugf("Nullified data for %d ephemeral values (root %d)", nullified, rootValueId);
+                }
+            }
+            viewRows.refresh(rootValueIds);
+        });
+    }
+}
@@ -0,0 +1,571 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of fingerprint series for detection nodes, keyed by (rangeNode, groupBy, fingerprint, domainNode).
+ * <p>
+ * A series holds the range values as a {@code double[]} (NaN for non-numeric values) together with the range,
+ * domain and groupBy value IDs and the domain data, sorted by domain. It replaces the recursive
+ * findMatchingFingerprint query that would otherwise rebuild the series for every upload.
+ * <p>
+ * Writes to values are recorded with {@link #recordChange} and {@link #recordDelete} and applied when the
+ * transaction commits. A new or updated value of a node in the key only re-reads the groupBy values above it
+ * (a delta query), a deleted value reloads the whole series on the next read. Series are read in the caller's
+ * transaction; a read by a transaction that wrote values of the series' nodes is not kept for other readers, and the
+ * series read by a transaction that rolls back are reloaded, so uncommitted rows do not outlive their transaction.
+ * <p>
+ * The fingerprint values of an upload and the groupBy ancestor of a fingerprint value are cached the same way so
+ * the detection nodes that share a fingerprint look them up once per upload.
+ */
+@ApplicationScoped
+public class SeriesCache {
+
+    // points kept beyond the requested length so backfilled values do not force a reload
+    private static final int RETAIN_FACTOR = 2;
+    // more pending changes than this reload the whole series instead of running a delta query
+    private static final int MAX_PENDING = 1000;
+
+    private static final Object TX_KEY = new Object();
+
+    @ConfigProperty(name = "h5m.series.cache.maxEntries", defaultValue = "1000")
+    int maxEntries;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    TransactionSynchronizationRegistry txRegistry;
+
+    @Inject
+    MeterRegistry registry;
+
+    private Counter hits;
+    private Counter deltas;
+    private Counter loads;
+    private Counter lookupHits;
+    private Counter lookupMisses;
+
+    private final Map<Key, Series> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Series> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    // value IDs of the node (fingerprint or groupBy node) related to a value (upload or fingerprint value)
+    private record Lookup(long valueId, long nodeId) {}
+
+    private final Map<Lookup, List<Long>> fingerprints = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Lookup, List<Long>> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private final Map<Lookup, List<Long>> groupBys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Lookup, List<Long>> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public record Key(long rangeNodeId, long groupByNodeId, long fingerprintNodeId, JqValue fingerprint, long domainNodeId) {
+        boolean uses(long nodeId) {
+            return rangeNodeId == nodeId || groupByNodeId == nodeId || fingerprintNodeId == nodeId || domainNodeId == nodeId;
+        }
+    }
+
+    /**
+     * The most recent entries of a series in domain order.
+     */
+    public record Window(long[] rangeIds, long[] domainIds, long[] groupByIds, double[] values, JqValue[] domains) {
+        public int size() {
+            return values.length;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        hits = Counter.builder("h5m.series.cache.requests").tag("result", "hit")
+                .description("Series reads served without a query").register(registry);
+        deltas = Counter.builder("h5m.series.cache.requests").tag("result", "delta")
+                .description("Series reads that re-read the changed groupBy values").register(registry);
+        loads = Counter.builder("h5m.series.cache.requests").tag("result", "load")
+                .description("Series reads that loaded the whole series").register(registry);
+        lookupHits = Counter.builder("h5m.series.cache.lookups").tag("result", "hit")
+                .description("Fingerprint and groupBy lookups served without a query").register(registry);
+        lookupMisses = Counter.builder("h5m.series.cache.lookups").tag("result", "miss")
+                .description("Fingerprint and groupBy lookups that queried the values").register(registry);
+        Gauge.builder("h5m.series.cache.size", this, SeriesCache::size)
+                .description("Fingerprint series in the cache").register(registry);
+    }
+
+    /**
+     * Returns the most recent limit entries of the series, loading or refreshing it as needed.
+     * Must be called in a transaction.
+     */
+    public Window window(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, int limit) {
+        return read(rangeNode, groupBy, fingerprint, domainNode, limit, false, series -> series.window(series.size - limit, series.size));
+    }
+
+    /**
+     * Returns every entry of the series. Must be called in a transaction.
+     */
+    public Window all(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode) {
+        return read(rangeNode, groupBy, fingerprint, domainNode, 0, true, series -> series.window(0, series.size));
+    }
+
+    /**
+     * Returns the last limit entries with a domain at or before pivot, or null if the cached part of the series
+     * does not reach back far enough. Must be called in a transaction.
+     */
+    public Window preceding(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, JqValue pivot, int limit) {
+        return read(rangeNode, groupBy, fingerprint, domainNode, limit, false, series -> {
+            int end = NodeService.upperBound(Arrays.asList(series.domains).subList(0, series.size), pivot);
+            if (end < limit && !series.complete) {
+                return null;
+            }
+            return series.window(end - limit, end);
+        });
+    }
+
+    /**
+     * Returns the entries with a domain at or before to, starting before entries ahead of the first entry with a domain
+     * after from. With after > 0 the slice also holds the after entries starting at the first entry with a domain at or
+     * after to. Returns null if the cached part of the series does not reach back far enough. Must be called in a
+     * transaction.
+     */
+    public Window span(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, JqValue from, JqValue to, int before, int after) {
+        // the cached tail leaves room for slices of uploads that arrive slightly out of order
+        return read(rangeNode, groupBy, fingerprint, domainNode, 3 * (before + after), false, series -> {
+            List<JqValue> domains = Arrays.asList(series.domains).subList(0, series.size);
+            int start = NodeService.upperBound(domains, from) - before;
+            int end = NodeService.upperBound(domains, to);
+            if (after > 0) {
+                int lower = NodeService.lowerBound(domains, to);
+                if (lower == 0 && !series.complete) {
+                    return null; // earlier entries with the same domain may not be cached
+                }
+                start = Math.min(start, lower);
+                end = Math.max(end, Math.min(series.size, lower + after));
+            }
+            if (start < 0 && !series.complete) {
+                return null;
+            }
+            return series.window(start, end);
+        });
+    }
+
+    /**
+     * The fingerprint values of an upload. Must be called in a transaction.
+     */
+    public List<ValueEntity> fingerprints(ValueEntity root, NodeEntity fingerprintNode) {
+        return lookup(fingerprints, new Lookup(root.id, fingerprintNode.id),
+                () -> valueService.getDescendantValues(root, fingerprintNode));
+    }
+
+    /**
+     * The groupBy values above a fingerprint value. Must be called in a transaction.
+     */
+    public List<ValueEntity> groupBy(ValueEntity fingerprint, NodeEntity groupBy) {
+        return lookup(groupBys, new Lookup(fingerprint.id, groupBy.id),
+                () -> valueService.getAncestor(fingerprint, groupBy));
+    }
+
+    private List<ValueEntity> lookup(Map<Lookup, List<Long>> cache, Lookup key, Supplier<List<ValueEntity>> query) {
+        List<Long> ids;
+        synchronized (cache) {
+            ids = cache.get(key);
+        }
+        if (ids != null) {
+            Map<Long, ValueEntity> byId = valueService.findByIds(ids);
+            if (byId.size() == ids.size()) {
+                lookupHits.increment();
+                return new ArrayList<>(ids.stream().map(byId::get).toList());
+            }
+            // a value was deleted in a transaction that has not committed yet, or by one that did not record it
+        }
+        List<ValueEntity> values = query.get();
+        lookupMisses.increment();
+        synchronized (cache) {
+            cache.put(key, values.stream().map(ValueEntity::getId).toList());
+        }
+        return new ArrayList<>(values);
+    }
+
+    private <T> T read(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, int limit, boolean all, Function<Series, T> view) {
+        Key key = new Key(rangeNode.id, groupBy.id, fingerprint.node.id, fingerprint.data, domainNode.id);
+        Series series;
+        synchronized (entries) {
+            series = entries.computeIfAbsent(key, Series::new);
+        }
+        TxChanges changes = changes();
+        changes.read.add(series);
+        synchronized (series) {
+            Set<Long> pending = series.drainPending();
+            boolean tooShort = all ? !series.complete : limit > series.limit && !series.complete;
+            try {
+                if (!series.loaded || pending == null || tooShort) {
+                    load(series, rangeNode, groupBy, fingerprint, domainNode, all ? -1 : Math.max(limit, series.limit));
+                    loads.increment();
+                } else if (!pending.isEmpty()) {
+                    delta(series, rangeNode, groupBy, fingerprint, domainNode, pending);
+                    if (!series.complete && (all || series.size < limit)) {
+                        // removed entries left the tail shorter than requested, older entries are not cached
+                        load(series, rangeNode, groupBy, fingerprint, domainNode, all ? -1 : Math.max(limit, series.limit));
+                        loads.increment();
+                    } else {
+                        deltas.increment();
+                    }
+                } else {
+                    hits.increment();
+                }
+            } catch (RuntimeException e) {
+                // the drained changes are lost, reload on the next read
+                series.markStale();
+                throw e;
+            }
+            T rtrn = view.apply(series);
+            if (changes.uses(key)) {
+                // the series may hold values this transaction has not committed, the next read loads it again
+                series.loaded = false;
+            }
+            return rtrn;
+        }
+    }
+
+    /**
+     * Records a new or updated value so cached series that use its node re-read it after the transaction commits.
+     */
+    public void recordChange(long nodeId, long valueId) {
+        TxChanges changes = changes();
+        changes.changed.computeIfAbsent(nodeId, _ -> new HashSet<>()).add(valueId);
+        if (changes.immediate) {
+            apply(changes);
+        }
+    }
+
+    /**
+     * Records a deleted value so cached series that use its node reload after the transaction commits.
+     */
+    public void recordDelete(long nodeId) {
+        TxChanges changes = changes();
+        changes.deleted.add(nodeId);
+        if (changes.immediate) {
+            apply(changes);
+        }
+    }
+
+    /**
+     * Records a bulk delete of values from unknown nodes, every cached series is dropped after the transaction commits.
+     */
+    public void recordClear() {
+        TxChanges changes = changes();
+        changes.clear = true;
+        if (changes.immediate) {
+            apply(changes);
+        }
+    }
+
+    /**
+     * Drops every series that uses the node, e.g. when the node is recalculated.
+     */
+    public void invalidateNode(long nodeId) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.uses(nodeId));
+        }
+        invalidateLookups(nodeId);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        synchronized (fingerprints) {
+            fingerprints.clear();
+        }
+        synchronized (groupBys) {
+            groupBys.clear();
+        }
+    }
+
+    private void invalidateLookups(long nodeId) {
+        synchronized (fingerprints) {
+            fingerprints.keySet().removeIf(key -> key.nodeId() == nodeId);
+        }
+        synchronized (groupBys) {
+            groupBys.keySet().removeIf(key -> key.nodeId() == nodeId);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private TxChanges changes() {
+        if (txRegistry.getTransactionKey() == null) {
+            // not in a transaction, the change is already visible
+            TxChanges immediate = new TxChanges();
+            immediate.immediate = true;
+            return immediate;
+        }
+        TxChanges changes = (TxChanges) txRegistry.getResource(TX_KEY);
+        if (changes == null) {
+            TxChanges created = new TxChanges();
+            txRegistry.putResource(TX_KEY, created);
+            // interposed synchronizations complete before the regular ones, so the changes are applied
+            // before WorkService releases dependent Work in its own afterCompletion
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {}
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        apply(created);
+                    } else {
+                        // values written without recordChange could have been read into these series
+                        created.read.forEach(Series::markStale);
+                    }
+                }
+            });
+            changes = created;
+        }
+        return changes;
+    }
+
+    private void apply(TxChanges changes) {
+        if (changes.clear) {
+            clear();
+            return;
+        }
+        changes.deleted.forEach(this::invalidateLookups);
+        changes.changed.keySet().forEach(this::invalidateLookups);
+        List<Series> snapshot;
+        synchronized (entries) {
+            snapshot = new ArrayList<>(entries.values());
+        }
+        for (Series series : snapshot) {
+            for (Long nodeId : changes.deleted) {
+                if (series.key.uses(nodeId)) {
+                    series.markStale();
+                }
+            }
+            for (Map.Entry<Long, Set<Long>> entry : changes.changed.entrySet()) {
+                if (series.key.uses(entry.getKey())) {
+                    series.addPending(entry.getValue());
+                }
+            }
+        }
+    }
+
+    // limit <= 0 loads the complete series
+    private void load(Series series, NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, int limit) {
+        List<ValueService.SeriesRow> rows = valueService.findFingerprintSeriesRows(rangeNode, groupBy, fingerprint, domainNode, limit, null);
+        if (limit > 0) {
+            series.reset(limit, rows.size() < limit);
+        } else {
+            series.reset(Math.max(series.limit, rows.size()), true);
+        }
+        insert(series, rows);
+        series.loaded = true;
+    }
+
+    private void delta(Series series, NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, Set<Long> changedIds) {
+        Set<Long> touchedGroups = new HashSet<>(valueService.findAncestorIds(changedIds, groupBy));
+        series.removeGroups(touchedGroups);
+        if (!touchedGroups.isEmpty()) {
+            insert(series, valueService.findFingerprintSeriesRows(rangeNode, groupBy, fingerprint, domainNode, -1, changedIds));
+        }
+    }
+
+    private void insert(Series series, List<ValueService.SeriesRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Set<Long> ids = new HashSet<>();
+        for (ValueService.SeriesRow row : rows) {
+            ids.add(row.domainId());
+            ids.add(row.valueId());
+        }
+        Map<Long, ValueEntity> byId = valueService.findByIds(ids);
+        for (ValueService.SeriesRow row : rows) {
+            ValueEntity domain = byId.get(row.domainId());
+            ValueEntity value = byId.get(row.valueId());
+            if (domain == null || value == null || domain.data == null) {
+                continue;
+            }
+            Double numeric = value.data != null ? value.data.tryDouble() : null;
+            series.insert(row, domain.data, numeric != null ? numeric : Double.NaN);
+        }
+        series.trim();
+    }
+
+    private static class TxChanges {
+        final Map<Long, Set<Long>> changed = new HashMap<>();
+        final Set<Long> deleted = new HashSet<>();
+        // series read by the transaction
+        final Set<Series> read = new HashSet<>();
+        boolean clear = false;
+        boolean immediate = false;
+
+        boolean uses(Key key) {
+            return clear || deleted.stream().anyMatch(key::uses) || changed.keySet().stream().anyMatch(key::uses);
+        }
+    }
+
+    /*
+     * Parallel arrays sorted by domain (NodeService.compareDomain), oldest first
+     */
+    private static class Series {
+        final Key key;
+        long[] rangeIds = new long[0];
+        long[] domainIds = new long[0];
+        long[] groupByIds = new long[0];
+        double[] values = new double[0];
+        JqValue[] domains = new JqValue[0];
+        int size = 0;
+        int limit = 0;
+        // the cache holds every entry of the series, not just the most recent limit entries
+        boolean complete = false;
+        boolean loaded = false;
+
+        // guarded by pendingLock so commits do not wait for a series that is loading
+        private final Object pendingLock = new Object();
+        private Set<Long> pending = new HashSet<>();
+        private boolean overflow = false;
+
+        Series(Key key) {
+            this.key = key;
+        }
+
+        void markStale() {
+            synchronized (pendingLock) {
+                overflow = true;
+            }
+        }
+
+        void addPending(Set<Long> ids) {
+            synchronized (pendingLock) {
+                if (!overflow) {
+                    pending.addAll(ids);
+                    if (pending.size() > MAX_PENDING) {
+                        overflow = true;
+                        pending.clear();
+                    }
+                }
+            }
+        }
+
+        // returns null if the series has to be reloaded
+        Set<Long> drainPending() {
+            synchronized (pendingLock) {
+                Set<Long> rtrn = overflow ? null : pending;
+                pending = new HashSet<>();
+                overflow = false;
+                return rtrn;
+            }
+        }
+
+        void reset(int limit, boolean complete) {
+            this.limit = limit;
+            this.complete = complete;
+            size = 0;
+            int capacity = Math.max(16, limit);
+            rangeIds = new long[capacity];
+            domainIds = new long[capacity];
+            groupByIds = new long[capacity];
+            values = new double[capacity];
+            domains = new JqValue[capacity];
+        }
+
+        void insert(ValueService.SeriesRow row, JqValue domain, double value) {
+            // after equal domains so entries keep their insertion order, like the stable sort in NodeService
+            int idx = NodeService.upperBound(Arrays.asList(domains).subList(0, size), domain);
+            if (!complete && idx == 0 && size >= limit) {
+                return; // older than every cached entry of a partial series, outside the window
+            }
+            if (size == values.length) {
+                int capacity = values.length * 2;
+                rangeIds = Arrays.copyOf(rangeIds, capacity);
+                domainIds = Arrays.copyOf(domainIds, capacity);
+                groupByIds = Arrays.copyOf(groupByIds, capacity);
+                values = Arrays.copyOf(values, capacity);
+                domains = Arrays.copyOf(domains, capacity);
+            }
+            System.arraycopy(rangeIds, idx, rangeIds, idx + 1, size - idx);
+            System.arraycopy(domainIds, idx, domainIds, idx + 1, size - idx);
+            System.arraycopy(groupByIds, idx, groupByIds, idx + 1, size - idx);
+            System.arraycopy(values, idx, values, idx + 1, size - idx);
+            System.arraycopy(domains, idx, domains, idx + 1, size - idx);
+            rangeIds[idx] = row.valueId();
+            domainIds[idx] = row.domainId();
+            groupByIds[idx] = row.groupById();
+            values[idx] = value;
+            domains[idx] = domain;
+            size++;
+        }
+
+        void removeGroups(Set<Long> groups) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!groups.contains(groupByIds[i])) {
+                    rangeIds[kept] = rangeIds[i];
+                    domainIds[kept] = domainIds[i];
+                    groupByIds[kept] = groupByIds[i];
+                    values[kept] = values[i];
+                    domains[kept] = domains[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(domains, kept, size, null);
+            size = kept;
+        }
+
+        // drops the oldest entries once the series is RETAIN_FACTOR times longer than needed
+        void trim() {
+            int max = limit * RETAIN_FACTOR;
+            if (limit <= 0 || size <= max) {
+                return;
+            }
+            int drop = size - limit;
+            System.arraycopy(rangeIds, drop, rangeIds, 0, limit);
+            System.arraycopy(domainIds, drop, domainIds, 0, limit);
+            System.arraycopy(groupByIds, drop, groupByIds, 0, limit);
+            System.arraycopy(values, drop, values, 0, limit);
+            System.arraycopy(domains, drop, domains, 0, limit);
+            Arrays.fill(domains, limit, size, null);
+            size = limit;
+            complete = false;
+        }
+
+        Window window(int from, int to) {
+            from = Math.max(0, from);
+            return new Window(
+                    Arrays.copyOfRange(rangeIds, from, to),
+                    Arrays.copyOfRange(domainIds, from, to),
+                    Arrays.copyOfRange(groupByIds, from, to),
+                    Arrays.copyOfRange(values, from, to),
+                    Arrays.copyOfRange(domains, from, to));
+        }
+    }
+}
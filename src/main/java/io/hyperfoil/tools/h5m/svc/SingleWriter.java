@@ -0,0 +1,182 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.work.Work;
+import io.hyperfoil.tools.h5m.provided.DatabaseEngine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The only thread that writes work results on SQLite.
+ * <p>
+ * When {@code h5m.worker.singleWriter.enabled} is set and the database is SQLite, workers calculate values in a read
+ * transaction and hand them here instead of competing for the WAL write lock. The writer stores the results of up to
+ * {@code h5m.worker.singleWriter.batchSize} work items in one transaction, waiting at most
+ * {@code h5m.worker.singleWriter.maxDelay} for a batch to fill. A work item stays active in the WorkQueue until its
+ * batch commits so dependent work still waits for it.
+ * <p>
+ * If a batch fails, its work items run again one at a time through {@link WorkService#executeAlone(Work)} with the
+ * usual retries. Work with detection nodes, which write while they calculate, always runs that way on this thread.
+ */
+@ApplicationScoped
+public class SingleWriter {
+
+    private record Task(Work work, WorkService.Calculated calculated) {}
+
+    @ConfigProperty(name = "h5m.worker.singleWriter.enabled", defaultValue = "false")
+    boolean configured;
+
+    @ConfigProperty(name = "h5m.worker.singleWriter.batchSize", defaultValue = "64")
+    int batchSize;
+
+    @ConfigProperty(name = "h5m.worker.singleWriter.maxDelay", defaultValue = "PT0.005S")
+    Duration maxDelay;
+
+    @Inject
+    DatabaseEngine db;
+
+    @Inject
+    WorkService workService;
+
+    @Inject
+    MeterRegistry registry;
+
+    private boolean enabled;
+    private volatile boolean running;
+    private Thread writer;
+    private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+
+    private Counter commits;
+    private Counter fallbacks;
+    private DistributionSummary batches;
+
+    @PostConstruct
+    void init() {
+        enabled = configured && db.isSQLite();
+        if (!enabled) {
+            return;
+        }
+        commits = Counter.builder("h5m.worker.singleWriter.commits")
+                .description("Transactions committed by the single writer").register(registry);
+        fallbacks = Counter.builder("h5m.worker.singleWriter.fallbacks")
+                .description("Work items run on their own after their batch failed").register(registry);
+        batches = DistributionSummary.builder("h5m.worker.singleWriter.batch")
+                .description("Work items stored per single writer transaction").register(registry);
+        Gauge.builder("h5m.worker.singleWriter.queued", tasks, BlockingQueue::size)
+                .description("Work results waiting for the single writer").register(registry);
+        running = true;
+        writer = Thread.ofPlatform().name("h5m-single-writer").daemon().start(this::write);
+        Log.infof("SQLite single writer storing up to %d work items per transaction", batchSize);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (writer != null) {
+            try {
+                // the queued results are still written
+                writer.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues values calculated by a worker.
+     */
+    void submit(WorkService.Calculated calculated) {
+        tasks.add(new Task(calculated.work(), calculated));
+    }
+
+    /**
+     * Queues work to run on the writer as a whole, in a transaction of its own.
+     */
+    void submit(Work work) {
+        tasks.add(new Task(work, null));
+    }
+
+    private void write() {
+        while (running || !tasks.isEmpty()) {
+            try {
+                Task first = tasks.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<WorkService.Calculated> batch = new ArrayList<>();
+                List<Work> alone = new ArrayList<>();
+                add(first, batch, alone);
+                long deadline = System.nanoTime() + maxDelay.toNanos();
+                while (batch.size() + alone.size() < batchSize) {
+                    Task next = tasks.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    add(next, batch, alone);
+                }
+                if (!batch.isEmpty()) {
+                    store(batch);
+                }
+                for (Work work : alone) {
+                    runAlone(work);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.errorf(e, "Single writer failed");
+            }
+        }
+    }
+
+    private static void add(Task task, List<WorkService.Calculated> batch, List<Work> alone) {
+        if (task.calculated() != null) {
+            batch.add(task.calculated());
+        } else {
+            alone.add(task.work());
+        }
+    }
+
+    private void store(List<WorkService.Calculated> batch) {
+        try {
+            workService.storeAll(batch);
+            commits.increment();
+            batches.record(batch.size());
+        } catch (Exception e) {
+            // the batch rolled back, find the failing work by running each on its own
+            Log.debugf(e, "Batch of %d work items failed, running them one at a time", batch.size());
+            for (WorkService.Calculated calculated : batch) {
+                fallbacks.increment();
+                runAlone(calculated.work());
+            }
+        }
+    }
+
+    private void runAlone(Work work) {
+        try {
+            workService.executeAlone(work);
+            commits.increment();
+            batches.record(1);
+        } catch (Exception e) {
+            Log.errorf(e, "Failed to run work on the single writer: %s", work);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.h5m.queue.KahnDagSort;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+
+/**
+ * Maintains the value_closure table, the transitive closure of value_edge.
+ * <p>
+ * When {@code h5m.value.closure.enabled} is set, every value written through ValueService gets a depth 0 row
+ * for itself plus one row per ancestor, copied from the closure rows of its sources. ValueService then reads
+ * descendants and ancestors with a join on value_closure instead of a recursive CTE over value_edge.
+ * The closure is backfilled from value_edge on startup when its depth 0 rows are not exactly the values, e.g. the
+ * first start after enabling it. A start with the closure disabled empties the table, values and edges written
+ * while it is off are not tracked, so the next enabled start rebuilds it.
+ * <p>
+ * Values persisted without ValueService (e.g. {@code entity.persist()}) are not added, call {@link #rebuild()}
+ * after writing values that way.
+ */
+@ApplicationScoped
+public class ValueClosureService {
+
+    @ConfigProperty(name = "h5m.value.closure.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    EntityManager em;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Transactional
+    void onStart(@Observes @Priority(0) StartupEvent ev) {
+        if (!enabled) {
+            int removed = em.createNativeQuery("delete from value_closure").executeUpdate();
+            if (removed > 0) {
+                Log.infof("Removed %d value_closure rows while h5m.value.closure.enabled is off", removed);
+            }
+            return;
+        }
+        // compare the IDs, equal counts do not mean the rows belong to the current values
+        boolean missing = !em.createNativeQuery("""
+                select 1 from value v
+                    where not exists (select 1 from value_closure c where c.descendant_id = v.id and c.depth = 0)
+                """).setMaxResults(1).getResultList().isEmpty();
+        boolean orphaned = !em.createNativeQuery("""
+                select 1 from value_closure c
+                    where not exists (select 1 from value v where v.id = c.descendant_id)
+                       or not exists (select 1 from value v where v.id = c.ancestor_id)
+                """).setMaxResults(1).getResultList().isEmpty();
+        if (missing || orphaned) {
+            long start = System.currentTimeMillis();
+            rebuild();
+            Log.infof("Backfilled value_closure in %d ms", System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Adds the closure rows for newly persisted values. Sources in the same list are added first.
+     */
+    @Transactional
+    public void insert(List<ValueEntity> values) {
+        if (!enabled || values.isEmpty()) {
+            return;
+        }
+        // the native inserts read the closure rows of the sources, make sure the values are written first
+        em.flush();
+        for (ValueEntity value : KahnDagSort.sort(new ArrayList<>(values), v -> v.sources == null ? List.of() : v.sources)) {
+            List<Long> sourceIds = value.sources == null ? List.of()
+                    : value.sources.stream().map(ValueEntity::getId).filter(Objects::nonNull).distinct().toList();
+            if (sourceIds.isEmpty()) {
+                em.createNativeQuery("""
+                        insert into value_closure (ancestor_id, descendant_id, depth, root_id)
+                            values (:id, :id, 0, :id)
+                        """)
+                        .setParameter("id", value.id)
+                        .executeUpdate();
+            } else {
+                // the value belongs to the upload(s) of its sources, a value from several uploads takes the lowest
+                em.createNativeQuery("""
+                        insert into value_closure (ancestor_id, descendant_id, depth, root_id)
+                            select :id, :id, 0, min(c.root_id) from value_closure c
+                                where c.descendant_id in (:sourceIds) and c.depth = 0
+                        """)
+                        .setParameter("id", value.id)
+                        .setParameter("sourceIds", sourceIds)
+                        .executeUpdate();
+                em.createNativeQuery("""
+                        insert into value_closure (ancestor_id, descendant_id, depth, root_id)
+                            select c.ancestor_id, :id, min(c.depth) + 1, min(c.root_id) from value_closure c
+                                where c.descendant_id in (:sourceIds) group by c.ancestor_id
+                        """)
+                        .setParameter("id", value.id)
+                        .setParameter("sourceIds", sourceIds)
+                        .executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of the descendants of the value, call before deleting it so {@link #remove(long, Collection)}
+     * can repair the rows of descendants that are still reachable through another source.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> descendantIds(long valueId) {
+        if (!enabled) {
+            return List.of();
+        }
+        List<Number> ids = em.createNativeQuery("select descendant_id from value_closure where ancestor_id = :id and depth > 0")
+                .setParameter("id", valueId)
+                .getResultList();
+        return ids.stream().map(Number::longValue).toList();
+    }
+
+    /**
+     * Removes the closure rows of a deleted value and rebuilds the rows of its remaining descendants.
+     */
+    public void remove(long valueId, Collection<Long> descendantIds) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from value_closure where ancestor_id = :id or descendant_id = :id")
+                .setParameter("id", valueId)
+                .executeUpdate();
+        if (!descendantIds.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            List<Number> remaining = em.createNativeQuery("select id from value where id in (:ids)")
+                    .setParameter("ids", descendantIds)
+                    .getResultList();
+            if (!remaining.isEmpty()) {
+                rebuild(remaining.stream().map(Number::longValue).toList());
+            }
+        }
+    }
+
+    public void removeForFolder(long folderId) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("""
+                delete from value_closure where descendant_id in (select id from value where folder_id = :fid)
+                    or ancestor_id in (select id from value where folder_id = :fid)
+                """)
+                .setParameter("fid", folderId)
+                .executeUpdate();
+    }
+
+    public void clear() {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from value_closure").executeUpdate();
+    }
+
+    /**
+     * Recomputes the whole closure from value_edge.
+     */
+    @Transactional
+    public void rebuild() {
+        em.createNativeQuery("delete from value_closure").executeUpdate();
+        em.createNativeQuery("""
+                insert into value_closure (ancestor_id, descendant_id, depth, root_id)
+                    select v.id, v.id, 0, null from value v
+                """).executeUpdate();
+        em.createNativeQuery("""
+                with recursive up(descendant_id, ancestor_id, depth) as (
+                    select ve.child_id, ve.parent_id, 1 from value_edge ve
+                    union
+                    select u.descendant_id, ve.parent_id, u.depth + 1
+                        from value_edge ve join up u on ve.child_id = u.ancestor_id
+                )
+                insert into value_closure (ancestor_id, descendant_id, depth, root_id)
+                    select ancestor_id, descendant_id, min(depth), null from up group by ancestor_id, descendant_id
+                """).executeUpdate();
+        updateRoots();
+    }
+
+    /**
+     * Recomputes the ancestor rows of the given values from value_edge.
+     */
+    void rebuild(List<Long> valueIds) {
+        em.createNativeQuery("delete from value_closure where descendant_id in (:ids) and depth > 0")
+                .setParameter("ids", valueIds)
+                .executeUpdate();
+        em.createNativeQuery("""
+                with recursive up(descendant_id, ancestor_id, depth) as (
+                    select ve.child_id, ve.parent_id, 1 from value_edge ve where ve.child_id in (:ids)
+                    union
+                    select u.descendant_id, ve.parent_id, u.depth + 1
+                        from value_edge ve join up u on ve.child_id = u.ancestor_id
+                )
+                insert into value_closure (ancestor_id, descendant_id, depth, root_id)
+                    select ancestor_id, descendant_id, min(depth), null from up group by ancestor_id, descendant_id
+                """)
+                .setParameter("ids", valueIds)
+                .executeUpdate();
+        updateRoots();
+    }
+
+    /*
+     * Sets root_id on the rows written by rebuild: the lowest ancestor without sources for the depth 0 rows,
+     * then the root of the ancestor for the other rows
+     */
+    private void updateRoots() {
+        em.createNativeQuery("""
+                update value_closure set root_id = coalesce((
+                    select min(c.ancestor_id) from value_closure c
+                        where c.descendant_id = value_closure.descendant_id
+                          and not exists (select 1 from value_edge ve where ve.child_id = c.ancestor_id)
+                ), descendant_id)
+                where depth = 0 and root_id is null
+                """).executeUpdate();
+        em.createNativeQuery("""
+                update value_closure set root_id = (
+                    select s.root_id from value_closure s
+                        where s.ancestor_id = value_closure.ancestor_id and s.descendant_id = value_closure.ancestor_id
+                )
+                where depth > 0 and root_id is null
+                """).executeUpdate();
+    }
+
+    /**
+     * A CTE named {@code name} with a single {@code column} holding the descendants (not including the value itself)
+     * of the value ID in {@code rootExpr}, for use after {@code WITH RECURSIVE}.
+     */
+    String descendantsCte(String name, String column, String rootExpr) {
+        if (enabled) {
+            return name + " (" + column + ") AS (SELECT c.descendant_id FROM value_closure c WHERE c.ancestor_id = " + rootExpr + " AND c.depth > 0)";
+        }
+        return name + " (" + column + ") AS (\n" +
+                "    SELECT ve.child_id from value_edge ve where ve.parent_id = " + rootExpr + "\n" +
+                "    UNION ALL\n" +
+                "    SELECT ve.child_id from value_edge ve JOIN " + name + " r ON ve.parent_id = r." + column + "\n" +
+                ")";
+    }
+}
@@ -0,0 +1,282 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.h5m.entity.node.DetectionNode;
+import io.hyperfoil.tools.h5m.entity.node.FingerprintNode;
+import io.hyperfoil.tools.h5m.provided.DatabaseEngine;
+import io.hyperfoil.tools.h5m.provided.ValueCodec;
+import io.hyperfoil.tools.jjq.value.JqNumber;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+
+/**
+ * Maintains the value_number table, the numeric copy of values with JSON number data.
+ * <p>
+ * When {@code h5m.value.number.enabled} is set, ValueService adds a row for every numeric value it creates and
+ * sorts views with the indexed double instead of parsing the JSON. Detection nodes record the range values of
+ * each upload with the fingerprint hash and numeric domain of their groupBy value, then read the preceding window
+ * of a series with an index range scan on (node_id, fingerprint_hash, domain_num).
+ * <p>
+ * The value rows are backfilled on startup when the table is empty, the rows of a detection node are backfilled
+ * from the fingerprint series the first time the node records an upload. Values are not mirrored while the table is
+ * disabled, so a startup with it disabled empties the table and it is rebuilt once it is enabled again.
+ */
+@ApplicationScoped
+public class ValueNumberService {
+
+    /**
+     * A range value of a detection series, range is null when the value is not a number.
+     */
+    public record Point(long valueId, Double range) {}
+
+    @ConfigProperty(name = "h5m.value.number.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    DatabaseEngine db;
+
+    @Inject
+    ValueService valueService;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Transactional
+    void onStart(@Observes @Priority(0) StartupEvent ev) {
+        if (!enabled) {
+            int removed = em.createNativeQuery("delete from value_number").executeUpdate();
+            if (removed > 0) {
+                Log.infof("Removed %d value_number rows while h5m.value.number.enabled is off", removed);
+            }
+            return;
+        }
+        if (!em.createNativeQuery("select 1 from value_number").setMaxResults(1).getResultList().isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // compressed values are whole documents, never numbers
+        int inserted = em.createNativeQuery((switch (db.kind()) {
+            case POSTGRESQL -> """
+                    insert into value_number (value_id, node_id, range_num)
+                        select v.id, v.node_id, (convert_from(PLAIN_DATA, 'UTF-8')::jsonb #>> '{}')::double precision from value v
+                            where jsonb_typeof(convert_from(PLAIN_DATA, 'UTF-8')::jsonb) = 'number'
+                    """;
+            case SQLITE -> """
+                    insert into value_number (value_id, node_id, range_num)
+                        select v.id, v.node_id, json_extract(CAST(PLAIN_DATA AS TEXT), '$') from value v
+                            where json_type(CAST(PLAIN_DATA AS TEXT)) in ('integer', 'real')
+                    """;
+        }).replace("PLAIN_DATA", ValueCodec.plainData(db.kind(), "v.data"))).executeUpdate();
+        if (inserted > 0) {
+            Log.infof("Backfilled value_number for %d values in %d ms", inserted, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Adds the rows for newly persisted values with JSON number data.
+     */
+    public void insert(List<ValueEntity> values) {
+        if (!enabled) {
+            return;
+        }
+        for (ValueEntity value : values) {
+            if (value.id != null && value.node != null && value.data instanceof JqNumber number) {
+                em.createNativeQuery("""
+                        insert into value_number (value_id, node_id, range_num) values (:valueId, :nodeId, :range)
+                            on conflict (value_id, node_id) do nothing
+                        """)
+                        .setParameter("valueId", value.id)
+                        .setParameter("nodeId", value.node.id)
+                        .setParameter("range", number.doubleValue())
+                        .executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Updates the rows of a value whose data was replaced by a recalculation: the value row is kept only while the
+     * data is a number and the rows of detection nodes reading the value as their range get the new range.
+     *
+     * @param data the new data, or null if it is not stored in the value
+     */
+    public void update(ValueEntity value, JqValue data) {
+        if (!enabled || value.id == null || value.node == null) {
+            return;
+        }
+        Double rangeNum = data != null ? data.tryDouble() : null;
+        var query = em.createNativeQuery("update value_number set range_num = RANGE_NUM where value_id = :valueId and node_id <> :nodeId"
+                        .replace("RANGE_NUM", rangeNum != null ? ":range" : "null"))
+                .setParameter("valueId", value.id)
+                .setParameter("nodeId", value.node.id);
+        if (rangeNum != null) {
+            query.setParameter("range", rangeNum);
+        }
+        query.executeUpdate();
+        if (data instanceof JqNumber number) {
+            em.createNativeQuery("""
+                    insert into value_number (value_id, node_id, range_num) values (:valueId, :nodeId, :range)
+                        on conflict (value_id, node_id) do update set range_num = excluded.range_num
+                    """)
+                    .setParameter("valueId", value.id)
+                    .setParameter("nodeId", value.node.id)
+                    .setParameter("range", number.doubleValue())
+                    .executeUpdate();
+        } else {
+            em.createNativeQuery("delete from value_number where value_id = :valueId and node_id = :nodeId")
+                    .setParameter("valueId", value.id)
+                    .setParameter("nodeId", value.node.id)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Records the range values of one groupBy value for a detection node, backfilling the node's rows first if it
+     * has none.
+     *
+     * @param domain the domain value of the same groupBy value, or null if the detection node has no domain
+     */
+    @Transactional
+    public void record(NodeEntity detection, NodeEntity domainNode, ValueEntity fingerprint, ValueEntity domain, Collection<ValueEntity> rangeValues) {
+        if (!enabled || rangeValues.isEmpty()) {
+            return;
+        }
+        if (em.createNativeQuery("select 1 from value_number where node_id = :nodeId")
+                .setParameter("nodeId", detection.id).setMaxResults(1).getResultList().isEmpty()) {
+            backfill(detection, domainNode);
+        }
+        long hash = FingerprintNode.hash(fingerprint.data);
+        Double domainNum = domain != null ? domainNum(domain.data) : null;
+        for (ValueEntity rangeValue : rangeValues) {
+            upsert(detection.id, rangeValue, hash, domainNum);
+        }
+    }
+
+    /**
+     * The range values of the detection node's fingerprint series with a domain at or before pivot, the last limit
+     * entries in ascending domain order.
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Point> preceding(NodeEntity detection, ValueEntity fingerprint, double pivot, int limit) {
+        List<Object[]> rows = em.createNativeQuery("""
+                select n.value_id, n.range_num from value_number n
+                    where n.node_id = :nodeId and n.fingerprint_hash = :hash and n.domain_num <= :pivot
+                    order by n.domain_num desc, n.value_id desc
+                """)
+                .setParameter("nodeId", detection.id)
+                .setParameter("hash", FingerprintNode.hash(fingerprint.data))
+                .setParameter("pivot", pivot)
+                .setMaxResults(limit)
+                .getResultList();
+        List<Point> rtrn = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            rtrn.add(new Point(((Number) row[0]).longValue(), row[1] == null ? null : ((Number) row[1]).doubleValue()));
+        }
+        return rtrn.reversed();
+    }
+
+    public void remove(long valueId) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from value_number where value_id = :id")
+                .setParameter("id", valueId)
+                .executeUpdate();
+    }
+
+    public void removeForFolder(long folderId) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from value_number where value_id in (select id from value where folder_id = :fid)")
+                .setParameter("fid", folderId)
+                .executeUpdate();
+    }
+
+    public void clear() {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from value_number").executeUpdate();
+    }
+
+    // the series of every fingerprint the detection node has seen before its rows were recorded
+    private void backfill(NodeEntity detection, NodeEntity domainNode) {
+        if (domainNode == null || !(detection instanceof DetectionNode dn)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        @SuppressWarnings("unchecked")
+        List<Number> fingerprintIds = em.createNativeQuery("select id from value where node_id = :nodeId")
+                .setParameter("nodeId", dn.getFingerprintNode().id)
+                .getResultList();
+        Set<Long> seen = new HashSet<>();
+        Map<Long, ValueEntity> fingerprints = valueService.findByIds(fingerprintIds.stream().map(Number::longValue).toList());
+        int count = 0;
+        for (ValueEntity fingerprint : fingerprints.values()) {
+            long hash = FingerprintNode.hash(fingerprint.data);
+            if (!seen.add(hash)) {
+                continue;
+            }
+            List<ValueService.SeriesRow> rows = valueService.findFingerprintSeriesRows(dn.getRangeNode(), dn.getGroupByNode(), fingerprint, domainNode, -1, null);
+            Set<Long> ids = new HashSet<>();
+            rows.forEach(row -> {
+                ids.add(row.domainId());
+                ids.add(row.valueId());
+            });
+            Map<Long, ValueEntity> byId = valueService.findByIds(ids);
+            for (ValueService.SeriesRow row : rows) {
+                ValueEntity domain = byId.get(row.domainId());
+                ValueEntity range = byId.get(row.valueId());
+                if (range != null) {
+                    upsert(detection.id, range, hash, domain != null ? domainNum(domain.data) : null);
+                    count++;
+                }
+            }
+        }
+        Log.infof("Backfilled value_number for %d values of %s in %d ms", count, detection.name, System.currentTimeMillis() - start);
+    }
+
+    private void upsert(long nodeId, ValueEntity rangeValue, long hash, Double domainNum) {
+        Double rangeNum = rangeValue.data != null ? rangeValue.data.tryDouble() : null;
+        // nulls are written as literals, an untyped null parameter does not bind to a double column on PostgreSQL
+        var query = em.createNativeQuery("""
+                insert into value_number (value_id, node_id, fingerprint_hash, domain_num, range_num)
+                    values (:valueId, :nodeId, :hash, DOMAIN_NUM, RANGE_NUM)
+                    on conflict (value_id, node_id) do update
+                        set fingerprint_hash = excluded.fingerprint_hash, domain_num = excluded.domain_num, range_num = excluded.range_num
+                """
+                .replace("DOMAIN_NUM", domainNum != null ? ":domain" : "null")
+                .replace("RANGE_NUM", rangeNum != null ? ":range" : "null"))
+                .setParameter("valueId", rangeValue.id)
+                .setParameter("nodeId", nodeId)
+                .setParameter("hash", hash);
+        if (domainNum != null) {
+            query.setParameter("domain", domainNum);
+        }
+        if (rangeNum != null) {
+            query.setParameter("range", rangeNum);
+        }
+        query.executeUpdate();
+    }
+
+    // only numbers are mirrored, other domains keep the JSON comparison of findMatchingFingerprint
+    private static Double domainNum(JqValue data) {
+        return data instanceof JqNumber number ? number.doubleValue() : null;
+    }
+}
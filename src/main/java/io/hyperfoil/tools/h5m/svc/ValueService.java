@@ -2,6 +2,7 @@ package io.hyperfoil.tools.h5m.svc;
 
 import io.hyperfoil.tools.jjq.value.JqValue;
 import io.hyperfoil.tools.jjq.value.JqValues;
+import io.hyperfoil.tools.h5m.api.NodeType;
 import io.hyperfoil.tools.h5m.api.Value;
 import io.hyperfoil.tools.h5m.api.svc.ValueServiceInterface;
 import io.hyperfoil.tools.h5m.entity.FolderEntity;
@@ -11,20 +12,33 @@ import io.hyperfoil.tools.h5m.entity.ValueEntity;
 import io.hyperfoil.tools.h5m.entity.mapper.ApiMapper;
 import io.hyperfoil.tools.h5m.entity.work.Work;
 import io.hyperfoil.tools.h5m.entity.mapper.CycleAvoidingContext;
+import io.hyperfoil.tools.h5m.entity.node.FingerprintNode;
 import io.hyperfoil.tools.h5m.entity.node.RootNode;
 import io.hyperfoil.tools.h5m.queue.KahnDagSort;
 import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
 import jakarta.enterprise.context.ApplicationScoped;
 import io.hyperfoil.tools.h5m.api.Change;
 import io.hyperfoil.tools.h5m.event.ChangeDetectedEvent;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.Cache;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
 import jakarta.transaction.Transactional;
 import io.hyperfoil.tools.h5m.provided.DatabaseEngine;
+import io.hyperfoil.tools.h5m.provided.ValueCodec;
 import static io.hyperfoil.tools.h5m.provided.DatabaseEngine.Kind.*;
 import jakarta.ws.rs.NotFoundException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
 import org.hibernate.query.NativeQuery;
 
 import java.io.*;
@@ -53,6 +67,45 @@ public class ValueService implements ValueServiceInterface {
     ProcessingService processingService;
     @Inject
     WorkService workService;
+    @Inject
+    SeriesCache seriesCache;
+    @Inject
+    ValueClosureService closure;
+    @Inject
+    ValueNumberService numbers;
+    @Inject
+    ViewRowService viewRows;
+    @Inject
+    EphemeralValueStore ephemeralValues;
+    @Inject
+    EntityManagerFactory emf;
+    @Inject
+    MeterRegistry registry;
+
+    @PostConstruct
+    void init() {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        Gauge.builder("h5m.cache.value.hitRatio", statistics, ValueService::valueCacheHitRatio)
+                .description("Share of ValueEntity second-level cache lookups that were hits, NaN without hibernate statistics")
+                .register(registry);
+    }
+
+    private static double valueCacheHitRatio(Statistics statistics) {
+        if (!statistics.isStatisticsEnabled()) {
+            return Double.NaN;
+        }
+        CacheRegionStatistics region;
+        try {
+            region = statistics.getDomainDataRegionStatistics(ValueEntity.class.getName());
+        } catch (IllegalArgumentException e) {
+            return Double.NaN;
+        }
+        if (region == null) {
+            return Double.NaN;
+        }
+        long lookups = region.getHitCount() + region.getMissCount();
+        return lookups == 0 ? Double.NaN : (double) region.getHitCount() / lookups;
+    }
 
     // ---- Detection value cache ----
     // In-memory cache of detection values keyed by root value ID (upload ID).
@@ -60,6 +113,8 @@ public class ValueService implements ValueServiceInterface {
     // Used by getDetectionDescendants() as a fast path before falling back to DB query.
     private static final long DETECTION_CACHE_RETENTION_MS = 10 * 60 * 1000; // 10 minutes
     private static final int DETECTION_CACHE_MAX_ENTRIES = 1000;
+    // ids per UPDATE when nullifying on SQLite, below its bound parameter limit
+    private static final int NULLIFY_BATCH_SIZE = 500;
 
     private record DetectionCacheEntry(List<Value> values, long createdAt) {}
     private final ConcurrentHashMap<Long, DetectionCacheEntry> detectionCache = new ConcurrentHashMap<>();
@@ -107,10 +162,102 @@ public class ValueService implements ValueServiceInterface {
         }
     }
 
+    /**
+     * Sets root_id on values calculated before the column existed: the lowest ancestor without sources.
+     * Detection values that were given the upload that calculated them instead of the lowest upload of their sources
+     * are corrected as well. Runs before work recovery so the upload scoped queries see every value.
+     */
+    @Transactional
+    void backfillRootIds(@Observes @Priority(0) StartupEvent ev) {
+        String sourcesRoot = "SELECT min(coalesce(p.root_id, p.id)) FROM value_edge ve JOIN value p ON p.id = ve.parent_id WHERE ve.child_id = VALUE.id";
+        List<?> misplaced = em.createNativeQuery("""
+                SELECT 1 FROM value v
+                    WHERE v.node_id IN (SELECT n.id FROM node n WHERE n.type IN DETECTION_NODES) AND v.root_id <> (SOURCES_ROOT)
+                """.replace("DETECTION_NODES", NodeService.DETECTION_NODES).replace("SOURCES_ROOT", sourcesRoot.replace("VALUE", "v")))
+                .setMaxResults(1).getResultList();
+        if (!misplaced.isEmpty()) {
+            int corrected = em.createNativeQuery("""
+                    UPDATE value SET root_id = (SOURCES_ROOT)
+                    WHERE node_id IN (SELECT n.id FROM node n WHERE n.type IN DETECTION_NODES) AND root_id <> (SOURCES_ROOT)
+                    """.replace("DETECTION_NODES", NodeService.DETECTION_NODES).replace("SOURCES_ROOT", sourcesRoot.replace("VALUE", "value")))
+                    .executeUpdate();
+            Log.infof("Corrected root_id on %d detection values", corrected);
+        }
+        List<?> missing = em.createNativeQuery(
+                "SELECT 1 FROM value v WHERE v.root_id IS NULL AND EXISTS (SELECT 1 FROM value_edge ve WHERE ve.child_id = v.id)")
+                .setMaxResults(1).getResultList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        int updated = em.createNativeQuery("""
+                WITH RECURSIVE up(vid, aid) AS (
+                    SELECT ve.child_id, ve.parent_id FROM value_edge ve JOIN value v ON v.id = ve.child_id WHERE v.root_id IS NULL
+                    UNION
+                    SELECT u.vid, ve.parent_id FROM value_edge ve JOIN up u ON ve.child_id = u.aid
+                )
+                UPDATE value SET root_id = (
+                    SELECT min(u.aid) FROM up u
+                        WHERE u.vid = value.id AND NOT EXISTS (SELECT 1 FROM value_edge ve WHERE ve.child_id = u.aid)
+                )
+                WHERE root_id IS NULL AND EXISTS (SELECT 1 FROM value_edge ve WHERE ve.child_id = value.id)
+                """).executeUpdate();
+        Log.infof("Set root_id on %d existing values", updated);
+    }
+
+    /*
+     * Finds the values of :nodeId equal to :fingerprint with the (node_id, fingerprint_hash) index. Every value of a
+     * FingerprintNode has its hash once backfillFingerprintHashes ran at startup.
+     */
+    private static final String FINGERPRINT_HASH_MATCH =
+            "v.node_id = :nodeId and v.fingerprint_hash = :fingerprintHash and v.data = :fingerprint";
+    /*
+     * Values of nodes that are not FingerprintNodes have no hash, the bytes of every value of the node are compared
+     */
+    private static final String FINGERPRINT_DATA_MATCH = "v.node_id = :nodeId and v.data = :fingerprint";
+
+    private static boolean isHashed(ValueEntity fingerprint){
+        return fingerprint.node.type() == NodeType.FINGERPRINT;
+    }
+
+    /**
+     * Sets fingerprint_hash on fingerprint values calculated before the column existed.
+     */
+    @Transactional
+    void backfillFingerprintHashes(@Observes @Priority(0) StartupEvent ev) {
+        @SuppressWarnings("unchecked")
+        List<Number> ids = em.createNativeQuery(
+                "SELECT v.id FROM value v JOIN node n ON n.id = v.node_id WHERE n.type = 'fp' AND v.fingerprint_hash IS NULL")
+                .getResultList();
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (ValueEntity value : findByIds(ids.stream().map(Number::longValue).toList()).values()) {
+            if (value.data != null) {
+                em.createNativeQuery("UPDATE value SET fingerprint_hash = :hash WHERE id = :id")
+                        .setParameter("hash", FingerprintNode.hash(value.data))
+                        .setParameter("id", value.id)
+                        .executeUpdate();
+            }
+        }
+        // the cached entities still have a null hash
+        evictFromCache(ids.stream().map(Number::longValue).toList());
+        Log.infof("Set fingerprint_hash on %d existing values", ids.size());
+    }
+
+    // uploads have no root_id and their descendants are found with the (root_id, node_id) index instead of walking value_edge.
+    // Detection values without sources have no root_id either, they are not reached by either lookup
+    private static boolean isUpload(ValueEntity value){
+        return value.rootId == null && (value.sources == null || value.sources.isEmpty());
+    }
+
     @Override
     @Transactional
     public void purgeValues(){
+        closure.clear();
+        numbers.clear();
+        viewRows.clear();
         em.createNativeQuery("delete from Value").executeUpdate();
+        seriesCache.recordClear();
     }
 
     @Override
@@ -125,9 +272,7 @@ public class ValueService implements ValueServiceInterface {
             ProcessingEntity tracking = new ProcessingEntity(folder.id, null, newValue.id);
             tracking.persist();
 
-            List<Work> works = folder.group.getTopLevelNodes().stream()
-                    .map(node -> new Work(node, new ArrayList<>(node.sources), List.of(newValue.id)))
-                    .toList();
+            List<Work> works = workService.createUploadWork(folder.group.getTopLevelNodes(), newValue.id);
 
             if (works.isEmpty()) {
                 tracking.completed = true;
@@ -139,10 +284,58 @@ public class ValueService implements ValueServiceInterface {
         });
     }
 
+    @Override
+    public List<Long> createRootValues(long folderId, List<JqValue> data) {
+        if (data.isEmpty()) {
+            return List.of();
+        }
+        return workService.callInNewTransaction(() -> {
+            FolderEntity folder = em.createQuery(
+                    "SELECT f FROM folder f JOIN FETCH f.group g LEFT JOIN FETCH g.sources LEFT JOIN FETCH g.root WHERE f.id = :id",
+                    FolderEntity.class
+            ).setParameter("id", folderId).getSingleResult();
+            List<NodeEntity> topLevelNodes = folder.group.getTopLevelNodes();
+
+            // persist everything before queueing so hibernate can send the inserts as jdbc batches
+            List<ValueEntity> newValues = new ArrayList<>(data.size());
+            for (JqValue value : data) {
+                ValueEntity newValue = new ValueEntity(folder, folder.group.root, value);
+                em.persist(newValue);
+                newValues.add(newValue);
+            }
+            em.flush();
+            closure.insert(newValues);
+            numbers.insert(newValues);
+            for (ValueEntity newValue : newValues) {
+                ProcessingEntity tracking = new ProcessingEntity(folder.id, null, newValue.id);
+                tracking.completed = topLevelNodes.isEmpty();
+                em.persist(tracking);
+            }
+
+            List<Long> ids = new ArrayList<>(newValues.size());
+            List<Work> works = new ArrayList<>(newValues.size() * topLevelNodes.size());
+            for (ValueEntity newValue : newValues) {
+                ids.add(newValue.id);
+                if (!topLevelNodes.isEmpty()) {
+                    processingService.createForIngestion(folder.group.root.id, newValue.id, folder.name);
+                    works.addAll(workService.createUploadWork(topLevelNodes, newValue.id));
+                }
+            }
+            // a single create call registers one afterCompletion hook that queues the whole batch
+            if (!works.isEmpty()) {
+                workService.create(works);
+            }
+            return ids;
+        });
+    }
+
     @Transactional
     public ValueEntity create(ValueEntity value){
         if(!value.isPersistent()){
             value = em.merge(value);
+            recordChange(value);
+            closure.insert(List.of(value));
+            numbers.insert(List.of(value));
         }
         return value;
     }
@@ -150,18 +343,31 @@ public class ValueService implements ValueServiceInterface {
     @Transactional
     public List<ValueEntity> createAll(List<ValueEntity> values){
         List<ValueEntity> result = new ArrayList<>(values.size());
+        List<ValueEntity> created = new ArrayList<>(values.size());
         for (ValueEntity value : values) {
             if(!value.isPersistent()){
                 value = em.merge(value);
+                recordChange(value);
+                created.add(value);
             }
             result.add(value);
         }
+        closure.insert(created);
+        numbers.insert(created);
+        // the caller keeps using the unmanaged values, root_id is only set on the merged copies when persisting
         for (int i = 0; i < values.size(); i++) {
             values.get(i).id = result.get(i).id;
+            values.get(i).rootId = result.get(i).rootId;
         }
         return result;
     }
 
+    private void recordChange(ValueEntity value){
+        if(value.node != null && value.id != null){
+            seriesCache.recordChange(value.node.id, value.id);
+        }
+    }
+
     @Transactional
     @SuppressWarnings("unchecked")
     public List<ValueEntity> getDependentValues(ValueEntity v){
@@ -185,25 +391,40 @@ public class ValueService implements ValueServiceInterface {
 
     @Transactional
     public void delete(ValueEntity value){
+        if(value.id != null){
+            // the rows of the uploads the value belonged to no longer include it or its dependents
+            viewRows.markStale(List.of(value.id));
+        }
+        deleteWithDependents(value);
+    }
+
+    private void deleteWithDependents(ValueEntity value){
         if(value.id != null && ValueEntity.findById(value.id) != null){
             List<ValueEntity> dependents = getDependentValues(value);
             for(ValueEntity dependent : dependents){
                 long parentCount = EdgeQueries.getParentCount(em, "value_edge", dependent.id);
                 if(parentCount <= 1){
-                    delete(dependent);
+                    deleteWithDependents(dependent);
                 }
             }
             deleteValueAndEdges(value.id);
+            if(value.node != null){
+                seriesCache.recordDelete(value.node.id);
+            }
         }
     }
 
     @Transactional
     public void deleteForFolder(long folderId) {
         // Bulk delete - no parent count checks needed since entire folder is going away
+        closure.removeForFolder(folderId);
+        numbers.removeForFolder(folderId);
+        viewRows.removeForFolder(folderId);
         em.createNativeQuery("DELETE FROM value_edge WHERE child_id IN (SELECT id FROM value WHERE folder_id = :fid)")
                 .setParameter("fid", folderId).executeUpdate();
         em.createNativeQuery("DELETE FROM value WHERE folder_id = :fid")
                 .setParameter("fid", folderId).executeUpdate();
+        seriesCache.recordClear();
     }
 
 
@@ -237,16 +458,14 @@ public class ValueService implements ValueServiceInterface {
     @SuppressWarnings("unchecked")
     public List<ValueEntity> getDescendantValues(ValueEntity root){
         // Query IDs only, then load via findMultiple() to hit 2LC
-        List<Number> ids = em.createNativeQuery(
+        List<Number> ids = isUpload(root) ?
+                em.createNativeQuery("SELECT v.id FROM value v WHERE v.root_id = :rootId")
+                        .setParameter("rootId", root.id).getResultList() :
+                em.createNativeQuery(
                 """
-                WITH RECURSIVE sourceRecursive (v_id) AS (
-                    SELECT ve.child_id from value_edge ve where ve.parent_id = :rootId
-                    UNION ALL
-                    SELECT ve.child_id from value_edge ve JOIN sourceRecursive sr
-                    ON ve.parent_id = sr.v_id
-                )
+                WITH RECURSIVE CLOSURE_CTE
                 SELECT distinct v.id FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id
-                """
+                """.replace("CLOSURE_CTE", closure.descendantsCte("sourceRecursive", "v_id", ":rootId"))
         ).setParameter("rootId", root.id).getResultList();
         List<Long> longIds = ids.stream().map(Number::longValue).toList();
         return em.unwrap(Session.class).findMultiple(ValueEntity.class, longIds);
@@ -279,7 +498,7 @@ public class ValueService implements ValueServiceInterface {
     @Transactional
     public List<ValueEntity> findMatchingFingerprint_unused(NodeEntity source, ValueEntity fingerprint, NodeEntity sort){
         List<ValueEntity> rtrn = new ArrayList<>(em.createNativeQuery(
-            switch(db.kind()){
+            (switch(db.kind()){
                 case POSTGRESQL->
                     """
                     with recursive ancestor(vid) as (
@@ -290,7 +509,7 @@ public class ValueService implements ValueServiceInterface {
                             from value v join value_edge ve on v.id = ve.parent_id join ancestor a on a.vid = ve.child_id
                     ),
                     sorter(vid,sortable) as (
-                        select v.id as vid,convert_from(v.data, 'UTF-8')::jsonb as sortable 
+                        select v.id as vid,convert_from(PLAIN_DATA, 'UTF-8')::jsonb as sortable 
                             from value v where v.node_id = :sortId
                         union
                         select v.id as vid, s.sortable as sortable
@@ -315,7 +534,7 @@ public class ValueService implements ValueServiceInterface {
                             from value v join value_edge ve on v.id = ve.parent_id join ancestor a on a.vid = ve.child_id
                     ),
                     sorter(vid,sortable) as (
-                        select v.id as vid,json_extract(CAST(v.data AS TEXT), '$') as sortable 
+                        select v.id as vid,json_extract(CAST(PLAIN_DATA AS TEXT), '$') as sortable 
                             from value v where v.node_id = :sortId
                         union
                         select v.id as vid, s.sortable as sortable
@@ -330,9 +549,9 @@ public class ValueService implements ValueServiceInterface {
                     )                        
                     select * from value v join descendant d on v.id=d.vid where v.node_id=:sourceId order by sortable asc;
                     """;
-            }, ValueEntity.class)
+            }).replace("PLAIN_DATA", ValueCodec.plainData(db.kind(), "v.data")), ValueEntity.class)
                                                    .setParameter("nodeId", fingerprint.node.id)
-                                                   .setParameter("data", JqValues.serializeToBytes(fingerprint.data))
+                                                   .setParameter("data", ValueCodec.encode(fingerprint.data))
                                                    .setParameter("sourceId", source.id)
                                                    .setParameter("sortId",sort.id)
                                                    .getResultList());
@@ -360,9 +579,15 @@ public class ValueService implements ValueServiceInterface {
     public List<ValueEntity> findMatchingFingerprint(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, ValueEntity domainValue, ValueEntity ancestorValue,int limit,int offset,boolean preceedingValues){
 
         assert rangeNode!=null && groupBy!=null && fingerprint!=null;
+        boolean closed = closure.isEnabled();
         String sql = "";
         if(ancestorValue!=null){
-            sql +=
+            sql += closed ?
+                """
+                with recursive valueDescendants(vid) as (
+                    select c.descendant_id as vid from value_closure c where c.ancestor_id = :ancestorValueId and c.depth > 0
+                ),
+                """ :
                 """
                 with recursive valueDescendants(vid) as (
                     select ve.child_id as vid from value_edge ve where ve.parent_id = :ancestorValueId
@@ -371,19 +596,27 @@ public class ValueService implements ValueServiceInterface {
                 ),
                 """;
         }
-        // BYTEA equality — fingerprints are built deterministically by the same
-        // code path, so byte-level equality matches semantic equality
-        sql = sql +
+        // the indexed hash narrows the candidates, BYTEA equality then rules out collisions — fingerprints are
+        // built deterministically by the same code path, so byte-level equality matches semantic equality
+        sql = sql + (closed ?
+                    """
+                    ANCESTOR_PREFIX ancestor(vid) as (
+                        select distinct c.ancestor_id as vid
+                            from value v join value_closure c on c.descendant_id = v.id
+                            where FINGERPRINT_MATCH VALUE_ANCESTOR_CRITERIA
+                    ),
+                    """ :
                     """
                     ANCESTOR_PREFIX ancestor(vid) as (
                         select v.id as vid
-                            from value v where v.node_id = :nodeId and v.data = :fingerprint VALUE_ANCESTOR_CRITERIA
+                            from value v where FINGERPRINT_MATCH VALUE_ANCESTOR_CRITERIA
                         union
                         select v.id as vid
                             from value v join value_edge ve on v.id = ve.parent_id join ancestor a on a.vid = ve.child_id
                     ),
-                    """;
+                    """);
         sql = sql
+                .replace("FINGERPRINT_MATCH", isHashed(fingerprint) ? FINGERPRINT_HASH_MATCH : FINGERPRINT_DATA_MATCH)
                 .replace("ANCESTOR_PREFIX",ancestorValue==null?"with recursive":"")
                 .replace("VALUE_ANCESTOR_CRITERIA",ancestorValue==null?"":" and exists ( select 1 from valueDescendants where vid = v.id)");
 
@@ -392,19 +625,37 @@ public class ValueService implements ValueServiceInterface {
             // PostgreSQL: convert BYTEA back to jsonb for native JSON comparison.
             // SQLite: use json_extract to preserve numeric types — plain CAST to TEXT
             // would compare lexicographically ("10" < "2") instead of numerically (2 < 10).
+            // values compressed by ValueCodec read as NULL, they are too large to be domain values
+            String plainData = ValueCodec.plainData(db.kind(), "v.data");
             String domainValueComp = switch (db.kind()){
-                case SQLITE-> "and json_extract(CAST(v.data AS TEXT), '$') GTLT json_extract(CAST(:domain AS TEXT), '$')";
-                case POSTGRESQL-> "and convert_from(v.data, 'UTF-8')::jsonb GTLT convert_from(:domain, 'UTF-8')::jsonb";
+                case SQLITE-> "and json_extract(CAST("+plainData+" AS TEXT), '$') GTLT json_extract(CAST(:domain AS TEXT), '$')";
+                case POSTGRESQL-> "and convert_from("+plainData+", 'UTF-8')::jsonb GTLT convert_from(:domain, 'UTF-8')::jsonb";
             };
             // Convert BYTEA data to a sortable type for domain ordering.
             // BYTEA sorts lexicographically which is meaningless for JSON values.
             // SQLite: json_extract preserves native JSON types (integer, real, text)
             // so ORDER BY uses numeric comparison for numbers.
             String dataToSortable = switch (db.kind()) {
-                case POSTGRESQL -> "convert_from(v.data, 'UTF-8')::jsonb";
-                case SQLITE     -> "json_extract(CAST(v.data AS TEXT), '$')";
+                case POSTGRESQL -> "convert_from("+plainData+", 'UTF-8')::jsonb";
+                case SQLITE     -> "json_extract(CAST("+plainData+" AS TEXT), '$')";
             };
-            sql += ("""
+            sql += (closed ?
+                        """
+                        sorter(vid,sortable) as (
+                            select distinct c.ancestor_id as vid,DATA_TO_SORTABLE as sortable
+                                from value v join value_closure c on c.descendant_id = v.id
+                                where v.node_id = :sortId DOMAIN_VALUE_COMP
+                        ),
+                        descendant(vid,sortable) as (
+                           select distinct c.descendant_id as vid, s.sortable as sortable
+                             from value g join sorter s on g.id = s.vid join ancestor a on g.id = a.vid
+                               join value_closure c on c.ancestor_id = g.id
+                             where g.node_id = :groupById --limit descendants to values from the grouping node
+                        )
+                        select v.id from value v join descendant d on v.id=d.vid
+                            where v.node_id=:sourceId order by sortable ORDER_DIRECTION
+                        """ :
+                        """
                         sorter(vid,sortable) as (
                             select v.id as vid,DATA_TO_SORTABLE as sortable
                                 from value v where v.node_id = :sortId DOMAIN_VALUE_COMP
@@ -427,7 +678,17 @@ public class ValueService implements ValueServiceInterface {
         }else{
             //sorting by created_at
             // No domain sorting — order by created_at. Both dialects share the same SQL.
-            sql+= """
+            sql+= closed ?
+                        """
+                        descendant(vid) as (
+                           select distinct c.descendant_id as vid
+                             from value g join ancestor a on g.id = a.vid join value_closure c on c.ancestor_id = g.id
+                             where g.node_id = :groupById --limit descendants to values from the grouping node
+                        )
+                        select v.id from value v join descendant d on v.id=d.vid
+                            where v.node_id=:sourceId order by created_at ORDER_DIRECTION
+                        """ :
+                        """
                         descendant(vid) as (
                            select v.id as vid
                              from value v join ancestor a on v.id = a.vid
@@ -456,9 +717,12 @@ public class ValueService implements ValueServiceInterface {
         var query = (NativeQuery<Number>) em.createNativeQuery(sql);
         query
                 .setParameter("nodeId", fingerprint.node.id)
-                .setParameter("fingerprint", JqValues.serializeToBytes(fingerprint.data))
+                .setParameter("fingerprint", ValueCodec.encode(fingerprint.data))
                 .setParameter("sourceId", rangeNode.id)
                 .setParameter("groupById",groupBy.id);
+        if(isHashed(fingerprint)){
+            query.setParameter("fingerprintHash", FingerprintNode.hash(fingerprint.data));
+        }
         if(ancestorValue!=null){
             query.setParameter("ancestorValueId",ancestorValue.id);
         }
@@ -498,10 +762,194 @@ public class ValueService implements ValueServiceInterface {
         return rtrn;
     }
 
+    /**
+     * A value of a fingerprint series and the domain value of the same groupBy value.
+     */
+    public record SeriesPoint(ValueEntity domain, ValueEntity value) {}
+
+    /**
+     * The IDs of one fingerprint series entry: the groupBy value, its domain value and its range value.
+     */
+    public record SeriesRow(long groupById, long domainId, long valueId) {}
+
+    /**
+     * Finds every value of rangeNode whose groupBy ancestor matches the fingerprint, paired with the domainNode value
+     * from the same groupBy value and ordered by the domain value (ascending).
+     * This is the series findMatchingFingerprint reads one window at a time, loaded with a single query so callers
+     * can slide over it in memory.
+     */
+    @Transactional
+    public List<SeriesPoint> findFingerprintSeries(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode){
+        List<SeriesRow> rows = findFingerprintSeriesRows(rangeNode, groupBy, fingerprint, domainNode, -1, null);
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        for (SeriesRow row : rows) {
+            ids.add(row.domainId());
+            ids.add(row.valueId());
+        }
+        Map<Long, ValueEntity> byId = findByIds(ids);
+        List<SeriesPoint> rtrn = new ArrayList<>(rows.size());
+        for (SeriesRow row : rows) {
+            ValueEntity domain = byId.get(row.domainId());
+            ValueEntity value = byId.get(row.valueId());
+            if (domain != null && value != null) {
+                rtrn.add(new SeriesPoint(domain, value));
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * The row IDs of a fingerprint series, ordered by the domain value (ascending).
+     *
+     * @param limit only return the last limit entries, or all entries if limit <= 0
+     * @param touchedValueIds only return entries for groupBy values that are ancestors of (or are) these values, or all entries if null
+     */
+    @Transactional
+    public List<SeriesRow> findFingerprintSeriesRows(NodeEntity rangeNode, NodeEntity groupBy, ValueEntity fingerprint, NodeEntity domainNode, int limit, Collection<Long> touchedValueIds){
+        assert rangeNode!=null && groupBy!=null && fingerprint!=null && domainNode!=null;
+        String plainData = ValueCodec.plainData(db.kind(), "v.data");
+        String dataToSortable = switch (db.kind()) {
+            case POSTGRESQL -> "convert_from("+plainData+", 'UTF-8')::jsonb";
+            case SQLITE     -> "json_extract(CAST("+plainData+" AS TEXT), '$')";
+        };
+        boolean touched = touchedValueIds != null;
+        String sql = (touched ? touchedCte() + "," : "with recursive\n") + (closure.isEnabled() ?
+                """
+                ancestor(vid) as (
+                    select distinct c.ancestor_id as vid
+                        from value v join value_closure c on c.descendant_id = v.id
+                        where FINGERPRINT_MATCH
+                ),
+                sorter(vid,sortable,did) as (
+                    select c.ancestor_id as vid,DATA_TO_SORTABLE as sortable,v.id as did
+                        from value v join value_closure c on c.descendant_id = v.id
+                        where v.node_id = :sortId
+                ),
+                descendant(vid,sortable,did,gid) as (
+                   select distinct c.descendant_id as vid, s.sortable as sortable, s.did as did, v.id as gid
+                     from value v join sorter s on v.id = s.vid join ancestor a on v.id = a.vid
+                       join value_closure c on c.ancestor_id = v.id
+                     where v.node_id = :groupById TOUCHED_CRITERIA --limit descendants to values from the grouping node
+                )
+                select d.gid, d.did, v.id from value v join descendant d on v.id=d.vid
+                    where v.node_id=:sourceId order by d.sortable ORDER_DIRECTION, d.did ORDER_DIRECTION, v.id ORDER_DIRECTION
+                """ :
+                """
+                ancestor(vid) as (
+                    select v.id as vid
+                        from value v where FINGERPRINT_MATCH
+                    union
+                    select v.id as vid
+                        from value v join value_edge ve on v.id = ve.parent_id join ancestor a on a.vid = ve.child_id
+                ),
+                sorter(vid,sortable,did) as (
+                    select v.id as vid,DATA_TO_SORTABLE as sortable,v.id as did
+                        from value v where v.node_id = :sortId
+                    union
+                    select v.id as vid, s.sortable as sortable, s.did as did
+                        from value v join value_edge ve on v.id = ve.parent_id join sorter s on s.vid = ve.child_id
+                ),
+                descendant(vid,sortable,did,gid) as (
+                   select v.id as vid, s.sortable as sortable, s.did as did, v.id as gid
+                     from value v join sorter s on v.id = s.vid join ancestor a on v.id = a.vid
+                     where v.node_id = :groupById TOUCHED_CRITERIA --limit descendants to values from the grouping node
+                   union
+                   select v.id as vid, d.sortable as sortable, d.did as did, d.gid as gid
+                         from value v join value_edge ve on v.id = ve.child_id join descendant d on d.vid = ve.parent_id
+                )
+                select d.gid, d.did, v.id from value v join descendant d on v.id=d.vid
+                    where v.node_id=:sourceId order by d.sortable ORDER_DIRECTION, d.did ORDER_DIRECTION, v.id ORDER_DIRECTION
+                """)
+                .replace("FINGERPRINT_MATCH", isHashed(fingerprint) ? FINGERPRINT_HASH_MATCH : FINGERPRINT_DATA_MATCH)
+                .replace("DATA_TO_SORTABLE", dataToSortable)
+                .replace("TOUCHED_CRITERIA", touched ? "and v.id in (select vid from touched)" : "")
+                .replace("ORDER_DIRECTION", limit > 0 ? "desc" : "asc");
+        if (limit > 0) {
+            sql += " limit :limit";
+        }
+        var query = em.createNativeQuery(sql)
+                .setParameter("nodeId", fingerprint.node.id)
+                .setParameter("fingerprint", ValueCodec.encode(fingerprint.data))
+                .setParameter("sourceId", rangeNode.id)
+                .setParameter("groupById", groupBy.id)
+                .setParameter("sortId", domainNode.id);
+        if (isHashed(fingerprint)) {
+            query.setParameter("fingerprintHash", FingerprintNode.hash(fingerprint.data));
+        }
+        if (touched) {
+            query.setParameter("touchedIds", touchedValueIds);
+        }
+        if (limit > 0) {
+            query.setParameter("limit", limit);
+        }
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.getResultList();
+        List<SeriesRow> rtrn = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            rtrn.add(new SeriesRow(((Number) row[0]).longValue(), ((Number) row[1]).longValue(), ((Number) row[2]).longValue()));
+        }
+        // the limit takes the most recent entries, return them in ascending order like findMatchingFingerprint
+        return limit > 0 ? rtrn.reversed() : rtrn;
+    }
+
+    /**
+     * The values of node that are ancestors of (or are) the given values.
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Long> findAncestorIds(Collection<Long> valueIds, NodeEntity node){
+        if (valueIds.isEmpty()) {
+            return List.of();
+        }
+        List<Number> ids = em.createNativeQuery(touchedCte() + """
+                select t.vid from touched t join value v on v.id = t.vid where v.node_id = :nodeId
+                """)
+                .setParameter("touchedIds", valueIds)
+                .setParameter("nodeId", node.id)
+                .getResultList();
+        return ids.stream().map(Number::longValue).toList();
+    }
+
+    // the given values and all of their ancestors
+    private String touchedCte() {
+        return closure.isEnabled() ?
+            """
+            with recursive touched(vid) as (
+                select distinct c.ancestor_id as vid from value_closure c where c.descendant_id in (:touchedIds)
+            )
+            """ :
+            """
+            with recursive touched(vid) as (
+                select v.id as vid from value v where v.id in (:touchedIds)
+                union
+                select v.id as vid
+                    from value v join value_edge ve on v.id = ve.parent_id join touched t on t.vid = ve.child_id
+            )
+            """;
+    }
+
+    /**
+     * Loads values by ID from the 2LC (cache hit) or DB (cache miss, batched).
+     */
+    @Transactional
+    public Map<Long, ValueEntity> findByIds(Collection<Long> ids){
+        Map<Long, ValueEntity> byId = new HashMap<>();
+        for (ValueEntity ve : em.unwrap(Session.class).findMultiple(ValueEntity.class, new ArrayList<>(ids))) {
+            if (ve != null) byId.put(ve.getId(), ve);
+        }
+        return byId;
+    }
+
     @SuppressWarnings("unchecked")
     public List<ValueEntity> getAncestor(ValueEntity value, NodeEntity node){
         // Query IDs only, then load via findMultiple() to hit 2LC
-        List<Number> ids = em.createNativeQuery("""
+        List<Number> ids = em.createNativeQuery(closure.isEnabled() ? """
+            select c.ancestor_id from value_closure c join value v on v.id = c.ancestor_id
+                where c.descendant_id = :valueId and v.node_id = :nodeId
+        """ : """
             with recursive ancestor(vid) as (
                 select v.id as vid 
                     from value v where v.id = :valueId
@@ -548,7 +996,12 @@ public class ValueService implements ValueServiceInterface {
     @Transactional
     public List<JqValue> getGroupedValues(Long nodeId, Long valueId, List<Long> filterNodeIds, Map<Long,JqValue> fingerprints, Long sortByNodeId) {
         String nodeFilter = filterNodeIds != null && !filterNodeIds.isEmpty() ? "node_id in (:nodeIds)" : "";
-        String parentValueCte = valueId != null ? switch(db.kind()) {
+        String parentValueCte = valueId == null ? "" : closure.isEnabled() ?
+                """
+                ancestor_value as (
+                    select c.descendant_id as id from value_closure c where c.ancestor_id = :valueId
+                ),
+                """ : switch(db.kind()) {
             case SQLITE ->
                 """
                 ancestor_value as (
@@ -568,12 +1021,21 @@ public class ValueService implements ValueServiceInterface {
                 ),
                 """;
             default -> "";
-        } : "";
+        };
         String parentValueFilter = valueId != null ? " and id in (select av.id from ancestor_value av)" : "";
 
         // Sort CTE — tree.data is already converted to JSON text (SQLite) or jsonb
         // (PostgreSQL) by the tree CTE, so we use it directly without further conversion
-        String sortCte = sortByNodeId != null ? switch (db.kind()) {
+        String sortCte = sortByNodeId == null ? "" : numbers.isEnabled() ?
+                """
+                root_sort as (
+                select
+                    t.root_id,
+                    min(n.range_num) as sort_num,
+                    min(SORT_TXT) as sort_txt
+                from tree t left join value_number n on n.value_id = t.id and n.node_id = t.node_id
+                where t.node_id = :sortNodeId group by t.root_id),
+                """.replace("SORT_TXT", db.kind() == DatabaseEngine.Kind.POSTGRESQL ? "t.data::text" : "t.data") : switch (db.kind()) {
             case SQLITE ->
                     """
                     root_sort as (
@@ -592,12 +1054,14 @@ public class ValueService implements ValueServiceInterface {
                         min(data::text) as sort_txt 
                     from tree where node_id = :sortNodeId group by root_id),
                     """;
-        } : "";
+        };
         String sortJoin    = sortByNodeId != null ? "left join root_sort rs on b.root_id = rs.root_id" : "";
         String sortGroupBy = sortByNodeId != null ? ", rs.sort_num, rs.sort_txt" : "";
         String sortOrder   = sortByNodeId != null ? "order by rs.sort_num asc nulls last, rs.sort_txt asc" : "";
         String fingerPrintWhere = "";
         List<Long> fingerprintIds = fingerprints!=null ? new ArrayList<>(fingerprints.keySet()) : Collections.emptyList();
+        // fingerprint node values are narrowed down with the hash index before comparing the data
+        Set<Long> hashedIds = fingerprintIds.stream().filter(id -> NodeEntity.findById(id) instanceof FingerprintNode).collect(Collectors.toSet());
         if(!fingerprintIds.isEmpty()){
             for(int idx=0;idx<fingerprintIds.size();idx++){
                 Long id = fingerprintIds.get(idx);
@@ -605,7 +1069,9 @@ public class ValueService implements ValueServiceInterface {
                 if(!fingerPrintWhere.isEmpty()){
                     fingerPrintWhere+=" and ";
                 }
-                fingerPrintWhere+= " root_id in ( select ft.root_id from tree ft where ft.node_id = "+id+" and ft.data = "+
+                String hashed = hashedIds.contains(id)
+                        ? " and ft.id in (select fv.id from value fv where fv.node_id = "+id+" and fv.fingerprint_hash = :hash_"+idx+")" : "";
+                fingerPrintWhere+= " root_id in ( select ft.root_id from tree ft where ft.node_id = "+id+hashed+" and ft.data = "+
                         switch(db.kind()){
                             case SQLITE -> ":data_"+idx;
                             case POSTGRESQL -> "cast( :data_"+idx+" as jsonb)";
@@ -615,17 +1081,34 @@ public class ValueService implements ValueServiceInterface {
         }
 
         String filter = !nodeFilter.isEmpty() || !fingerPrintWhere.isEmpty() ? "where "+ nodeFilter + (!nodeFilter.isEmpty() && !fingerPrintWhere.isEmpty() ? " and " : "" ) + fingerPrintWhere : "";
-        String queryStr = (switch (db.kind()) {
-            case SQLITE ->
+        // values compressed by ValueCodec are left out of the view
+        String plainData = ValueCodec.plainData(db.kind(), "v.data");
+        String treeData = switch (db.kind()) {
+            case SQLITE -> "CAST("+plainData+" AS TEXT)";
+            case POSTGRESQL -> "convert_from("+plainData+", 'UTF-8')::jsonb";
+        };
+        String treeCte = (closure.isEnabled() ?
+                """
+                tree(id,node_id,root_id,idx,data) as (
+                    select v.id,v.node_id,c.ancestor_id as root_id,v.idx,TREE_DATA as data
+                        from value_closure c join value v on c.descendant_id = v.id
+                        where c.ancestor_id in (select id from value where node_id = :nodeId) and c.depth > 0 ANCESTOR_FILTER
+                ),
+                """ :
                 """
-                with recursive ANCESTOR_CTE tree(id,node_id,root_id,idx,data) as (
-                    select v.id,v.node_id,ve.parent_id as root_id,v.idx,CAST(v.data AS TEXT) as data
+                tree(id,node_id,root_id,idx,data) as (
+                    select v.id,v.node_id,ve.parent_id as root_id,v.idx,TREE_DATA as data
                         from value_edge ve left join value v on ve.child_id = v.id
                         where ve.parent_id in (select id from value where node_id = :nodeId) ANCESTOR_FILTER
                     union
-                    select v.id,v.node_id,t.root_id,v.idx,CAST(v.data AS TEXT) as data
+                    select v.id,v.node_id,t.root_id,v.idx,TREE_DATA as data
                         from value v join value_edge ve on v.id = ve.child_id join tree t on ve.parent_id = t.id
                 ),
+                """).replace("TREE_DATA", treeData);
+        String queryStr = (switch (db.kind()) {
+            case SQLITE ->
+                """
+                with recursive ANCESTOR_CTE TREE_CTE
                 SORT_CTE
                 bynode as (
                     select node_id,root_id,json_group_array(json(data)) as data
@@ -636,14 +1119,7 @@ public class ValueService implements ValueServiceInterface {
                 """;
             case POSTGRESQL ->
                 """
-                with recursive ANCESTOR_CTE tree(id,node_id,root_id,idx,data) as (
-                    select v.id,v.node_id,ve.parent_id as root_id,v.idx,convert_from(v.data, 'UTF-8')::jsonb as data
-                        from value_edge ve left join value v on ve.child_id = v.id
-                        where ve.parent_id in (select id from value where node_id = :nodeId) ANCESTOR_FILTER
-                    union
-                    select v.id,v.node_id,t.root_id,v.idx,convert_from(v.data, 'UTF-8')::jsonb as data
-                        from value v join value_edge ve on v.id = ve.child_id join tree t on ve.parent_id = t.id
-                ),
+                with recursive ANCESTOR_CTE TREE_CTE
                 SORT_CTE
                 bynode as (
                     select node_id,root_id,jsonb_agg(to_jsonb(data)) as data
@@ -654,6 +1130,7 @@ public class ValueService implements ValueServiceInterface {
                 """;
             default -> "";
         }).replace("ANCESTOR_CTE",parentValueCte)
+            .replace("TREE_CTE",treeCte)
             .replace("ANCESTOR_FILTER",parentValueFilter)
             .replace("NODE_FILTER", filter).replace("SORT_CTE", sortCte)
             .replace("SORT_JOIN", sortJoin).replace("SORT_GROUPBY", sortGroupBy).replace("SORT_ORDER", sortOrder);
@@ -669,6 +1146,9 @@ public class ValueService implements ValueServiceInterface {
                 Long id = fingerprintIds.get(idx);
                 JqValue fingerprint = fingerprints.get(id);
                 query.setParameter("data_"+idx,fingerprint.toString());
+                if (hashedIds.contains(id)) {
+                    query.setParameter("hash_"+idx, FingerprintNode.hash(fingerprint));
+                }
             }
         }
         return query.getResultList().stream().map(JqValues::parse).toList();
@@ -682,16 +1162,130 @@ public class ValueService implements ValueServiceInterface {
     @Transactional
     public List<Value> getNodeDescendantValues(Long nodeId){
         CycleAvoidingContext cycleContext = new CycleAvoidingContext();
-        return em.unwrap(Session.class).createNativeQuery(
+        return em.unwrap(Session.class).createNativeQuery(nodeDescendantsCte() +
+                """
+                SELECT distinct * FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id
+                """, ValueEntity.class
+        ).setParameter("nodeId",nodeId).getResultStream().map(entity -> apiMapper.toValue(entity, cycleContext)).toList();
+    }
+
+    @Override
+    @Transactional
+    public List<Value> getNodeDescendantValuesAfter(Long nodeId, long afterId, int limit){
+        return toValues(getNodeDescendantIdsAfter(nodeId, afterId, limit));
+    }
+
+    /**
+     * IDs of the values that have a value from the node as an ancestor after {@code afterId}, in ID order.
+     *
+     * @param limit the maximum number of IDs, or all of them if limit <= 0
+     */
+    @Transactional
+    public List<Long> getNodeDescendantIdsAfter(Long nodeId, long afterId, int limit){
+        var query = em.unwrap(Session.class).createNativeQuery(nodeDescendantsCte() +
+                """
+                SELECT distinct v.id FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id WHERE v.id > :afterId ORDER BY v.id
+                """, Long.class
+        ).setParameter("nodeId",nodeId).setParameter("afterId",afterId);
+        if (limit > 0) {
+            query.setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * Whether reading the descendants of the value walks value_edge. The values of an upload are found by their
+     * root_id and the descendants of other values by value_closure when it is enabled.
+     *
+     * @param valueId the value, or null for the descendants of every value of a node
+     */
+    @Transactional
+    public boolean walksValueEdges(Long valueId){
+        if (closure.isEnabled()) {
+            return false;
+        }
+        ValueEntity value = valueId == null ? null : em.find(ValueEntity.class, valueId);
+        return value == null || !isUpload(value);
+    }
+
+    /**
+     * The values with the IDs, in the order of the IDs.
+     */
+    @Transactional
+    public List<Value> getValuesById(List<Long> ids){
+        return toValues(ids);
+    }
+
+    //sourceRecursive(v_id) of the values that have a value from :nodeId as an ancestor
+    private String nodeDescendantsCte(){
+        return closure.isEnabled() ?
+                """
+                WITH sourceRecursive (v_id) AS (
+                     SELECT c.descendant_id from value_closure c join value r on r.id = c.ancestor_id where r.node_id = :nodeId and c.depth > 0
+                )
+                """ :
                 """
                 WITH RECURSIVE sourceRecursive (v_id) AS (
                      SELECT ve.child_id from value_edge ve where ve.parent_id in (select v.id from value v where v.node_id = :nodeId)
                      UNION ALL
                      SELECT ve.child_id from value_edge ve JOIN sourceRecursive sr ON ve.parent_id = sr.v_id
                 )
-                SELECT distinct * FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id
-                """, ValueEntity.class
-        ).setParameter("nodeId",nodeId).getResultStream().map(entity -> apiMapper.toValue(entity, cycleContext)).toList();
+                """;
+    }
+
+    /**
+     * Descendant values of the root value after {@code afterId}, in ID order.
+     *
+     * @param nodeIds only return values from these nodes, or from all nodes if null or empty
+     * @param detectionOnly only return values of detection nodes, takes effect over nodeIds
+     */
+    @Transactional
+    public List<Value> getDescendantsAfter(long rootValueId, List<Long> nodeIds, boolean detectionOnly, long afterId, int limit){
+        return toValues(getDescendantIdsAfter(rootValueId, nodeIds, detectionOnly, afterId, limit));
+    }
+
+    /**
+     * IDs of the descendant values of the root value after {@code afterId}, in ID order.
+     *
+     * @param limit the maximum number of IDs, or all of them if limit <= 0
+     * @see #getDescendantsAfter(long, List, boolean, long, int)
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Long> getDescendantIdsAfter(long rootValueId, List<Long> nodeIds, boolean detectionOnly, long afterId, int limit){
+        ValueEntity root = em.find(ValueEntity.class, rootValueId);
+        if (root == null) return List.of();
+        boolean byNode = !detectionOnly && nodeIds != null && !nodeIds.isEmpty();
+        String join = detectionOnly ? "JOIN node n ON v.node_id = n.id" : "";
+        String filter = detectionOnly ? "AND n.type IN " + NodeService.DETECTION_NODES : byNode ? "AND v.node_id in :nodeIds" : "";
+        var query = em.createNativeQuery((isUpload(root) ?
+                """
+                SELECT v.id FROM value v JOIN_NODE WHERE v.root_id = :rootId AND v.id > :afterId FILTER ORDER BY v.id
+                """ :
+                """
+                WITH RECURSIVE CLOSURE_CTE
+                SELECT distinct v.id FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id JOIN_NODE WHERE v.id > :afterId FILTER ORDER BY v.id
+                """.replace("CLOSURE_CTE", closure.descendantsCte("sourceRecursive", "v_id", ":rootId")))
+                .replace("JOIN_NODE", join).replace("FILTER", filter))
+                .setParameter("rootId", rootValueId)
+                .setParameter("afterId", afterId);
+        if (limit > 0) {
+            query.setMaxResults(limit);
+        }
+        if (byNode) {
+            query.setParameter("nodeIds", nodeIds);
+        }
+        List<Number> ids = query.getResultList();
+        return ids.stream().map(Number::longValue).toList();
+    }
+
+    //loads the values through the 2LC, in the order of the ids
+    private List<Value> toValues(List<Long> ids){
+        CycleAvoidingContext ctx = new CycleAvoidingContext();
+        return em.unwrap(Session.class)
+                .findMultiple(ValueEntity.class, ids)
+                .stream().map(e -> apiMapper.toValue(e, ctx))
+                .toList();
     }
     /**
      * returns the values that depend on the root value somewhere up the hierarchy and come from the specified node
@@ -704,16 +1298,14 @@ public class ValueService implements ValueServiceInterface {
     public List<ValueEntity> getDescendantValues(ValueEntity root, NodeEntity node){
         // Query only IDs (skip JSONB data), then batch-load via findMultiple() to hit 2LC.
         // findMultiple() issues a single batched query for any cache misses.
-        List<Number> ids = em.createNativeQuery(
+        List<Number> ids = isUpload(root) ?
+                em.createNativeQuery("SELECT v.id FROM value v WHERE v.root_id = :rootId AND v.node_id = :nodeId")
+                        .setParameter("rootId", root.id).setParameter("nodeId", node.id).getResultList() :
+                em.createNativeQuery(
                 """
-                WITH RECURSIVE sourceRecursive (v_id) AS (
-                    SELECT ve.child_id from value_edge ve where ve.parent_id = :rootId
-                    UNION ALL
-                    SELECT ve.child_id from value_edge ve JOIN sourceRecursive sr
-                    ON ve.parent_id = sr.v_id
-                )
+                WITH RECURSIVE CLOSURE_CTE
                 SELECT distinct v.id FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id WHERE v.node_id = :nodeId
-                """
+                """.replace("CLOSURE_CTE", closure.descendantsCte("sourceRecursive", "v_id", ":rootId"))
         ).setParameter("rootId", root.id).setParameter("nodeId",node.id).getResultList();
         List<Long> longIds = ids.stream().map(Number::longValue).toList();
         return em.unwrap(Session.class).findMultiple(ValueEntity.class, longIds);
@@ -729,17 +1321,18 @@ public class ValueService implements ValueServiceInterface {
         if(nodeId.isEmpty()){
             return getAllDescendants(rootValueId);
         }
+        ValueEntity root = em.find(ValueEntity.class, rootValueId);
+        if (root == null) return List.of();
         @SuppressWarnings("unchecked")
-        List<Long> ids =  em.unwrap(Session.class).createNativeQuery(
+        List<Long> ids = isUpload(root) ?
+                em.unwrap(Session.class).createNativeQuery("SELECT v.id FROM value v WHERE v.root_id = :rootId AND v.node_id in :nodeId", Long.class)
+                        .setParameter("rootId", rootValueId).setParameter("nodeId", nodeId)
+                        .getResultStream().toList() :
+                em.unwrap(Session.class).createNativeQuery(
                 """
-                    WITH RECURSIVE sourceRecursive (v_id) AS (
-                    SELECT ve.child_id from value_edge ve where ve.parent_id = :rootId
-                    UNION ALL
-                    SELECT ve.child_id from value_edge ve JOIN sourceRecursive sr
-                    ON ve.parent_id = sr.v_id
-                )
+                    WITH RECURSIVE CLOSURE_CTE
                 SELECT distinct v.id FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id WHERE v.node_id in :nodeId
-                """,Long.class
+                """.replace("CLOSURE_CTE", closure.descendantsCte("sourceRecursive", "v_id", ":rootId")),Long.class
         ).setParameter("rootId", rootValueId).setParameter("nodeId",nodeId)
                 .getResultStream().toList();
         CycleAvoidingContext ctx = new CycleAvoidingContext();
@@ -786,17 +1379,23 @@ public class ValueService implements ValueServiceInterface {
 
     @SuppressWarnings("unchecked")
     private List<Value> loadDetectionDescendantsFromDb(long rootValueId) {
-        List<Number> ids = em.createNativeQuery("""
-                WITH RECURSIVE descendants(vid) AS (
-                    SELECT ve.child_id FROM value_edge ve WHERE ve.parent_id = :rootId
-                    UNION ALL
-                    SELECT ve.child_id FROM value_edge ve JOIN descendants d ON ve.parent_id = d.vid
-                )
+        ValueEntity root = em.find(ValueEntity.class, rootValueId);
+        if (root == null) return List.of();
+        List<Number> ids = isUpload(root) ?
+                em.createNativeQuery("""
+                SELECT v.id
+                FROM value v
+                JOIN node n ON v.node_id = n.id
+                WHERE v.root_id = :rootId AND n.type IN """ + NodeService.DETECTION_NODES)
+                .setParameter("rootId", rootValueId)
+                .getResultList() :
+                em.createNativeQuery("""
+                WITH RECURSIVE CLOSURE_CTE
                 SELECT distinct v.id
                 FROM value v
                 JOIN node n ON v.node_id = n.id
                 JOIN descendants d ON v.id = d.vid
-                WHERE n.type IN """ + NodeService.DETECTION_NODES)
+                WHERE n.type IN """.replace("CLOSURE_CTE", closure.descendantsCte("descendants", "vid", ":rootId")) + NodeService.DETECTION_NODES)
                 .setParameter("rootId", rootValueId)
                 .getResultList();
         List<Long> longIds = ids.stream().map(Number::longValue).toList();
@@ -805,18 +1404,20 @@ public class ValueService implements ValueServiceInterface {
         return entities.stream().map(e -> apiMapper.toValue(e, ctx)).toList();
     }
 
-    //get the values from node that descend from root with the associated value source path (nodeId and index for each source value)
+    //get the values from node that descend from root by their lineage key (a hash of the nodeId and index for each source value)
     @Transactional
-    public Map<String, ValueEntity> getDescendantValueByPath(ValueEntity root, NodeEntity node){
+    public Map<Long, ValueEntity> getDescendantValueByLineage(ValueEntity root, NodeEntity node){
         List<ValueEntity> found = getDescendantValues(root,node);
-        if (!found.isEmpty()) {
-            // Re-fetch with sources eagerly loaded in a single query instead of N+1 lazy inits
+        if (found.stream().anyMatch(v -> v.lineageKey == null)) {
+            // values written before lineage keys were stored compute it from their sources,
+            // re-fetch with sources eagerly loaded in a single query instead of N+1 lazy inits
             found = em.createQuery(
                     "SELECT DISTINCT v FROM value v LEFT JOIN FETCH v.sources WHERE v IN :values",
                     ValueEntity.class
             ).setParameter("values", found).getResultList();
         }
-        return found.stream().collect(Collectors.toMap(ValueEntity::getPath,v->v));
+        ephemeralValues.fill(found);
+        return found.stream().collect(Collectors.toMap(ValueEntity::lineageKey,v->v));
     }
 
     /**
@@ -839,15 +1440,19 @@ public class ValueService implements ValueServiceInterface {
         // Query only IDs + node_id (skip JSONB data column transfer).
         // Batch-load entities via findMultiple() which hits the 2LC and issues
         // a single batched query for any cache misses.
-        List<Object[]> rows = em.createNativeQuery("""
-                WITH RECURSIVE sourceRecursive (v_id) AS (
-                    SELECT ve.child_id from value_edge ve where ve.parent_id = :rootId
-                    UNION ALL
-                    SELECT ve.child_id from value_edge ve JOIN sourceRecursive sr ON ve.parent_id = sr.v_id
-                )
-                SELECT distinct v.id, v.node_id, v.idx FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id WHERE v.node_id IN (:nodeIds)
+        List<Object[]> rows = isUpload(root) ?
+                em.createNativeQuery("""
+                SELECT v.id, v.node_id, v.idx FROM value v WHERE v.root_id = :rootId AND v.node_id IN (:nodeIds)
                 ORDER BY v.idx asc
                 """)
+                                  .setParameter("rootId", root.id)
+                                  .setParameter("nodeIds", nodeIds)
+                                  .getResultList() :
+                em.createNativeQuery("""
+                WITH RECURSIVE CLOSURE_CTE
+                SELECT distinct v.id, v.node_id, v.idx FROM value v JOIN sourceRecursive sr ON v.id = sr.v_id WHERE v.node_id IN (:nodeIds)
+                ORDER BY v.idx asc
+                """.replace("CLOSURE_CTE", closure.descendantsCte("sourceRecursive", "v_id", ":rootId")))
                                   .setParameter("rootId", root.id)
                                   .setParameter("nodeIds", nodeIds)
                                   .getResultList();
@@ -862,6 +1467,7 @@ public class ValueService implements ValueServiceInterface {
         }
         // Batch-load all entities in one call
         List<ValueEntity> loaded = em.unwrap(Session.class).findMultiple(ValueEntity.class, valueIds);
+        ephemeralValues.fill(loaded);
         Map<Long, List<ValueEntity>> result = new HashMap<>();
         for (ValueEntity v : loaded) {
             if (v != null) {
@@ -882,6 +1488,32 @@ public class ValueService implements ValueServiceInterface {
         return em.unwrap(Session.class).findMultiple(ValueEntity.class, longIds);
     }
 
+    /**
+     * The highest value ID of the node, 0 if it has no values.
+     */
+    @Transactional
+    public long getMaxValueId(long nodeId){
+        Number max = (Number) em.createNativeQuery("SELECT max(id) FROM value WHERE node_id = :nodeId")
+                .setParameter("nodeId", nodeId).getSingleResult();
+        return max == null ? 0 : max.longValue();
+    }
+
+    /**
+     * IDs of the node's values after {@code afterId} up to and including {@code maxId}, in ID order, so callers can
+     * page through the values of a node without loading them all.
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Long> getValueIdsPage(long nodeId, long afterId, long maxId, int limit){
+        List<Number> ids = em.createNativeQuery("SELECT id FROM value WHERE node_id = :nodeId AND id > :afterId AND id <= :maxId ORDER BY id")
+                .setParameter("nodeId", nodeId)
+                .setParameter("afterId", afterId)
+                .setParameter("maxId", maxId)
+                .setMaxResults(limit)
+                .getResultList();
+        return ids.stream().map(Number::longValue).toList();
+    }
+
     @Override
     @Transactional
     public List<Value> getNodeValues(Long nodeId){
@@ -890,6 +1522,12 @@ public class ValueService implements ValueServiceInterface {
         return entities.stream().map(entity -> apiMapper.toValue(entity, cycleContext)).toList();
     }
 
+    @Override
+    @Transactional
+    public List<Value> getNodeValuesAfter(Long nodeId, long afterId, int limit){
+        return toValues(getValueIdsPage(nodeId, afterId, Long.MAX_VALUE, limit));
+    }
+
     @Override
     @Transactional
     public long getNodeValueCount(Long nodeId) {
@@ -942,6 +1580,9 @@ public class ValueService implements ValueServiceInterface {
                 deleted++;
             }
         }
+        if(deleted > 0){
+            seriesCache.recordClear();
+        }
         return deleted;
     }
 
@@ -963,14 +1604,19 @@ public class ValueService implements ValueServiceInterface {
             }
         }
         deleteValueAndEdges(root.id);
+        seriesCache.recordClear();
         return 1 + deleted;
     }
 
     private void deleteValueAndEdges(long valueId) {
+        List<Long> descendantIds = closure.descendantIds(valueId);
         EdgeQueries.deleteParentEdges(em, "value_edge", valueId);
         EdgeQueries.deleteChildEdges(em, "value_edge", valueId);
         em.createNativeQuery("DELETE FROM value WHERE id = :id")
                 .setParameter("id", valueId).executeUpdate();
+        closure.remove(valueId, descendantIds);
+        numbers.remove(valueId);
+        viewRows.remove(valueId);
     }
 
     private boolean hasExternalParent(ValueEntity value, Set<Long> deletionSet){
@@ -1020,19 +1666,20 @@ public class ValueService implements ValueServiceInterface {
      *
      * Root and detection nodes are excluded as a safety net.
      * Value rows and edges are always preserved for ancestry queries.
+     * Ephemeral values kept in memory by {@link EphemeralValueStore} were written
+     * without data, they are released here.
      *
-     * @return the number of values whose data was nulled
+     * The nulled values are evicted from the second-level cache one by one so
+     * the cached values of other uploads stay cached.
+     *
+     * @return the IDs of the values whose data was nulled
      */
     @Transactional
-    public int nullifyEphemeralData(long rootValueId) {
-        return em.createNativeQuery("""
-            WITH RECURSIVE descendants (v_id) AS (
-                SELECT ve.child_id FROM value_edge ve WHERE ve.parent_id = :rootId
-                UNION ALL
-                SELECT ve.child_id FROM value_edge ve JOIN descendants d ON ve.parent_id = d.v_id
-            )
-            UPDATE value SET data = NULL
-            WHERE id IN (SELECT v_id FROM descendants)
+    public List<Long> nullifyEphemeralData(long rootValueId) {
+        ephemeralValues.release(rootValueId);
+        String cte = closure.descendantsCte("descendants", "v_id", ":rootId");
+        String where = """
+            id IN (SELECT v_id FROM descendants)
               AND node_id IN (
                 SELECT id FROM node WHERE
                    (ephemeral = 'DISCARD'
@@ -1055,10 +1702,43 @@ public class ValueService implements ValueServiceInterface {
               )
               AND data IS NOT NULL
             """.replaceAll("ROOT_OR_ANALYSIS_NODES",NodeService.ROOT_OR_ANALYSIS_NODES)
-                .replaceAll("ANALYSIS_NODES",NodeService.ANALYSIS_NODES)
-            )
-            .setParameter("rootId", rootValueId)
-            .executeUpdate();
+                .replaceAll("ANALYSIS_NODES",NodeService.ANALYSIS_NODES);
+        List<Long> ids;
+        if (db.isSQLite()) {
+            // select the IDs first, the write transaction keeps them from changing before the update
+            ids = toLongs(em.createNativeQuery("WITH RECURSIVE " + cte + "\nSELECT id FROM value WHERE " + where)
+                    .setParameter("rootId", rootValueId)
+                    .getResultList());
+            for (int i = 0; i < ids.size(); i += NULLIFY_BATCH_SIZE) {
+                em.createNativeQuery("UPDATE value SET data = NULL WHERE id IN (:ids)")
+                        .setParameter("ids", ids.subList(i, Math.min(ids.size(), i + NULLIFY_BATCH_SIZE)))
+                        .executeUpdate();
+            }
+        } else {
+            ids = toLongs(em.createNativeQuery("WITH RECURSIVE " + cte + "\nUPDATE value SET data = NULL WHERE " + where + " RETURNING id")
+                    .setParameter("rootId", rootValueId)
+                    .getResultList());
+        }
+        evictFromCache(ids);
+        return ids;
+    }
+
+    /**
+     * Evicts values changed with native SQL from the second-level cache, leaving the cached values of other uploads.
+     */
+    public void evictFromCache(Collection<Long> ids) {
+        Cache cache = emf.getCache();
+        for (Long id : ids) {
+            cache.evict(ValueEntity.class, id);
+        }
+    }
+
+    private static List<Long> toLongs(List<?> rows) {
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            ids.add(((Number) row).longValue());
+        }
+        return ids;
     }
 
     /**
@@ -1098,6 +1778,7 @@ public class ValueService implements ValueServiceInterface {
      */
     @Transactional
     public int nullifyNodeData(long nodeId) {
+        seriesCache.recordDelete(nodeId);
         return em.createNativeQuery("""
             UPDATE value SET data = NULL
             WHERE node_id = :nodeId AND data IS NOT NULL
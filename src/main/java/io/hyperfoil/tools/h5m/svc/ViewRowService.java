@@ -0,0 +1,338 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.ViewEntity;
+import io.hyperfoil.tools.h5m.provided.ValueCodec;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.RollbackException;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.SystemException;
+import jakarta.transaction.TransactionManager;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains the view_row table, one row per view and upload with the grouped values of the view's nodes.
+ * <p>
+ * When {@code h5m.view.rows.enabled} is set, the rows of an upload are written for every view of its folder when
+ * the upload's ingestion completes, and again for each page of uploads a node recalculation finishes. Deleting a
+ * value, or calculating a detection value attached to another upload, marks the uploads it belongs to as stale and
+ * their rows are written again before the transaction commits. Creating or
+ * updating a view deletes its rows and rebuilds them in the background, {@code h5m.view.rows.pageSize} uploads per
+ * transaction. Until the rebuild is done ViewService computes the view data from the values, after that it reads
+ * the rows in upload order.
+ * <p>
+ * Views without built rows, from before the table existed or from an interrupted rebuild, are rebuilt on startup.
+ * Rows are not maintained while the table is disabled, so a startup with it disabled drops the rows and the views
+ * are rebuilt once it is enabled again.
+ */
+@ApplicationScoped
+public class ViewRowService {
+
+    @ConfigProperty(name = "h5m.view.rows.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "h5m.view.rows.pageSize", defaultValue = "200")
+    int pageSize;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    WorkService workService;
+
+    @Inject
+    TransactionSynchronizationRegistry txRegistry;
+
+    @Inject
+    TransactionManager tm;
+
+    // transaction resource key of the uploads to refresh before the transaction commits
+    private static final Object STALE_ROOTS = ViewRowService.class.getName() + ".staleRoots";
+
+    // the latest rebuild of each view, older rebuilds stop at their next page
+    private final Map<Long, Long> rebuilds = new ConcurrentHashMap<>();
+    private final AtomicLong nextRebuild = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Transactional
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            int removed = em.createNativeQuery("delete from view_row").executeUpdate();
+            em.createNativeQuery("update folder_view set rows_built = false where rows_built = true").executeUpdate();
+            if (removed > 0) {
+                Log.infof("Removed %d view_row rows while h5m.view.rows.enabled is off", removed);
+            }
+            return;
+        }
+        List<Long> viewIds = em.createQuery("SELECT v.id FROM folder_view v WHERE v.rowsBuilt IS NULL OR v.rowsBuilt = false", Long.class)
+                .getResultList();
+        if (!viewIds.isEmpty()) {
+            Log.infof("Building view rows for %d views", viewIds.size());
+            viewIds.forEach(this::startRebuild);
+        }
+    }
+
+    /**
+     * Whether the rows of the view are complete and can be read instead of computing the view data.
+     */
+    public boolean isBuilt(ViewEntity view) {
+        return enabled && Boolean.TRUE.equals(view.rowsBuilt);
+    }
+
+    /**
+     * The rows of the view in upload order, skipping offset rows.
+     *
+     * @param limit the maximum number of rows, or all rows if limit <= 0
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<JqValue> rows(long viewId, int offset, int limit) {
+        var query = em.createNativeQuery("select data from view_row where view_id = :viewId order by root_value_id", byte[].class)
+                .setParameter("viewId", viewId)
+                .setFirstResult(Math.max(offset, 0));
+        if (limit > 0) {
+            query.setMaxResults(limit);
+        }
+        List<byte[]> rows = query.getResultList();
+        return rows.stream().map(ValueCodec::decode).toList();
+    }
+
+    /**
+     * Deletes the rows of the view and rebuilds them once the current transaction commits.
+     */
+    public void invalidate(ViewEntity view) {
+        if (!enabled) {
+            return;
+        }
+        view.rowsBuilt = false;
+        removeView(view.id);
+        long viewId = view.id;
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    startRebuild(viewId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the rows of the uploads for every view of their folders.
+     */
+    public void refresh(Collection<Long> rootValueIds) {
+        if (!enabled || rootValueIds.isEmpty()) {
+            return;
+        }
+        List<Object[]> roots = em.createQuery("SELECT r.id, r.node.id, r.folder.id FROM value r WHERE r.id IN :ids", Object[].class)
+                .setParameter("ids", rootValueIds)
+                .getResultList();
+        Map<Long, Map<Long, List<Long>>> viewsByFolder = new HashMap<>();
+        for (Object[] root : roots) {
+            if (root[2] == null) {
+                continue;
+            }
+            long folderId = (Long) root[2];
+            Map<Long, List<Long>> views = viewsByFolder.computeIfAbsent(folderId, this::viewNodes);
+            for (Map.Entry<Long, List<Long>> view : views.entrySet()) {
+                write(view.getKey(), (Long) root[1], view.getValue(), (Long) root[0]);
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of the uploads the values belong to again before the current transaction commits. Called
+     * before the values are deleted, while their value_edge rows still lead to the uploads.
+     */
+    public void markStale(Collection<Long> valueIds) {
+        if (!enabled || valueIds.isEmpty()) {
+            return;
+        }
+        staleRoots().addAll(rootsOf(valueIds));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> staleRoots() {
+        Set<Long> roots = (Set<Long>) txRegistry.getResource(STALE_ROOTS);
+        if (roots != null) {
+            return roots;
+        }
+        Set<Long> created = new HashSet<>();
+        txRegistry.putResource(STALE_ROOTS, created);
+        try {
+            // not interposed, so the rows are written while the persistence context is still open
+            tm.getTransaction().registerSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                    refresh(created);
+                }
+
+                @Override
+                public void afterCompletion(int status) {}
+            });
+        } catch (RollbackException | SystemException e) {
+            throw new IllegalStateException("Failed to register the view row refresh", e);
+        }
+        return created;
+    }
+
+    // the uploads whose view rows include the values: their ancestors without sources that are root node values
+    @SuppressWarnings("unchecked")
+    private List<Long> rootsOf(Collection<Long> valueIds) {
+        List<Number> ids = em.createNativeQuery("""
+                with recursive up(id) as (
+                    select v.id from value v where v.id in (:ids)
+                    union
+                    select ve.parent_id from value_edge ve join up u on ve.child_id = u.id
+                )
+                select u.id from up u join value v on v.id = u.id join node n on n.id = v.node_id
+                    where n.type = 'root' and not exists (select 1 from value_edge ve where ve.child_id = u.id)
+                """)
+                .setParameter("ids", valueIds)
+                .getResultList();
+        return ids.stream().map(Number::longValue).toList();
+    }
+
+    public void remove(long rootValueId) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from view_row where root_value_id = :id")
+                .setParameter("id", rootValueId)
+                .executeUpdate();
+    }
+
+    public void removeView(long viewId) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from view_row where view_id = :viewId")
+                .setParameter("viewId", viewId)
+                .executeUpdate();
+    }
+
+    public void removeForFolder(long folderId) {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from view_row where view_id in (select id from folder_view where folder_id = :fid)")
+                .setParameter("fid", folderId)
+                .executeUpdate();
+    }
+
+    public void clear() {
+        if (!enabled) {
+            return;
+        }
+        em.createNativeQuery("delete from view_row").executeUpdate();
+    }
+
+    // the node IDs of each view of the folder, views without components have no rows
+    private Map<Long, List<Long>> viewNodes(long folderId) {
+        Map<Long, List<Long>> views = new LinkedHashMap<>();
+        em.createQuery("SELECT c.view.id, c.node.id FROM folder_view_component c WHERE c.view.folder.id = :folderId ORDER BY c.view.id, c.headerOrder", Object[].class)
+                .setParameter("folderId", folderId)
+                .getResultList()
+                .forEach(row -> views.computeIfAbsent((Long) row[0], _ -> new ArrayList<>()).add((Long) row[1]));
+        return views;
+    }
+
+    private void write(long viewId, long rootNodeId, List<Long> nodeIds, long rootValueId) {
+        List<JqValue> grouped = valueService.getGroupedValues(rootNodeId, rootValueId, nodeIds, null, null);
+        if (grouped.isEmpty()) {
+            em.createNativeQuery("delete from view_row where view_id = :viewId and root_value_id = :rootValueId")
+                    .setParameter("viewId", viewId)
+                    .setParameter("rootValueId", rootValueId)
+                    .executeUpdate();
+            return;
+        }
+        em.createNativeQuery("""
+                insert into view_row (view_id, root_value_id, data) values (:viewId, :rootValueId, :data)
+                    on conflict (view_id, root_value_id) do update set data = excluded.data
+                """)
+                .setParameter("viewId", viewId)
+                .setParameter("rootValueId", rootValueId)
+                .setParameter("data", ValueCodec.encode(grouped.getFirst()))
+                .executeUpdate();
+    }
+
+    private void startRebuild(long viewId) {
+        long rebuild = nextRebuild.incrementAndGet();
+        rebuilds.put(viewId, rebuild);
+        Thread.ofVirtual().name("h5m-view-rows-" + viewId).start(() -> {
+            try {
+                rebuild(viewId, rebuild);
+            } catch (Exception e) {
+                Log.errorf(e, "Failed to build the rows of view %d", viewId);
+            } finally {
+                rebuilds.remove(viewId, rebuild);
+            }
+        });
+    }
+
+    private boolean isLatest(long viewId, long rebuild) {
+        return rebuilds.getOrDefault(viewId, rebuild) == rebuild;
+    }
+
+    private void rebuild(long viewId, long rebuild) {
+        long start = System.currentTimeMillis();
+        Long rootNodeId = workService.callInNewTransaction(() ->
+                em.createQuery("SELECT v.folder.group.root.id FROM folder_view v WHERE v.id = :viewId", Long.class)
+                        .setParameter("viewId", viewId).getResultStream().findFirst().orElse(null));
+        if (rootNodeId == null) {
+            // the view was deleted
+            return;
+        }
+        List<Long> nodeIds = workService.callInNewTransaction(() ->
+                em.createQuery("SELECT c.node.id FROM folder_view_component c WHERE c.view.id = :viewId ORDER BY c.headerOrder", Long.class)
+                        .setParameter("viewId", viewId).getResultList());
+        int written = 0;
+        long afterId = 0;
+        while (!nodeIds.isEmpty()) {
+            if (!isLatest(viewId, rebuild)) {
+                return;
+            }
+            long after = afterId;
+            List<Long> rootValueIds = workService.callInNewTransaction(() -> {
+                List<Long> ids = valueService.getValueIdsPage(rootNodeId, after, Long.MAX_VALUE, pageSize);
+                for (long rootValueId : ids) {
+                    write(viewId, rootNodeId, nodeIds, rootValueId);
+                }
+                return ids;
+            });
+            if (rootValueIds.isEmpty()) {
+                break;
+            }
+            written += rootValueIds.size();
+            afterId = rootValueIds.getLast();
+        }
+        workService.runInNewTransaction(() -> {
+            ViewEntity view = em.find(ViewEntity.class, viewId);
+            if (view != null && isLatest(viewId, rebuild)) {
+                view.rowsBuilt = true;
+            }
+        });
+        Log.debugf("Built rows of view %d for %d uploads in %d ms", viewId, written, System.currentTimeMillis() - start);
+    }
+}
@@ -31,6 +31,9 @@ public class ViewService implements ViewServiceInterface {
     @Inject
     ValueService valueService;
 
+    @Inject
+    ViewRowService viewRows;
+
     @Override
     @Transactional
     public List<View> getViews(long folderId) {
@@ -79,6 +82,7 @@ public class ViewService implements ViewServiceInterface {
 
         entity.persist();
         folder.views.add(entity);
+        viewRows.invalidate(entity);
         return apiMapper.toView(entity);
     }
 
@@ -118,6 +122,7 @@ public class ViewService implements ViewServiceInterface {
         }
 
         entity.persist();
+        viewRows.invalidate(entity);
         return apiMapper.toView(entity);
     }
 
@@ -131,12 +136,25 @@ public class ViewService implements ViewServiceInterface {
         if ("Default".equals(entity.name)) {
             throw new IllegalArgumentException("Cannot delete the Default view");
         }
+        viewRows.removeView(viewId);
         entity.delete();
     }
 
     @Override
     @Transactional
     public List<JqValue> getViewData(long folderId, Long viewId) {
+        return getViewData(folderId, viewId, 0, 0);
+    }
+
+    @Override
+    @Transactional
+    public List<JqValue> getViewData(long folderId, Long viewId, int offset, int limit) {
+        return getViewData(folderId, viewId, null, offset, limit);
+    }
+
+    @Override
+    @Transactional
+    public List<JqValue> getViewData(long folderId, Long viewId, Long sortByNodeId, int offset, int limit) {
         ViewEntity view = em.createQuery(
             "SELECT v FROM folder_view v LEFT JOIN FETCH v.components c LEFT JOIN FETCH c.node WHERE v.id = :id",
             ViewEntity.class
@@ -156,7 +174,15 @@ public class ViewService implements ViewServiceInterface {
             return List.of();
         }
 
-        return valueService.getGroupedValues(rootNodeId, nodeIds);
+        // view_row only keeps the upload order, a sorted page is read from the values
+        if (sortByNodeId == null && viewRows.isBuilt(view)) {
+            return viewRows.rows(view.id, offset, limit);
+        }
+        List<JqValue> rows = sortByNodeId == null
+            ? valueService.getGroupedValues(rootNodeId, nodeIds)
+            : valueService.getGroupedValues(rootNodeId, nodeIds, null, sortByNodeId);
+        int from = Math.min(Math.max(offset, 0), rows.size());
+        return limit > 0 ? rows.subList(from, Math.min(from + limit, rows.size())) : rows.subList(from, rows.size());
     }
 
     private FolderEntity findFolder(long folderId) {
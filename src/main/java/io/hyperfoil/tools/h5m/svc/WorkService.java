@@ -1,18 +1,24 @@
 package io.hyperfoil.tools.h5m.svc;
 
-import io.hyperfoil.tools.jjq.value.JqValues;
+import io.hyperfoil.tools.jjq.value.JqValue;
 import io.hyperfoil.tools.h5m.api.svc.WorkServiceInterface;
 import io.hyperfoil.tools.h5m.entity.NodeEntity;
 import io.hyperfoil.tools.h5m.entity.ValueEntity;
 import io.hyperfoil.tools.h5m.entity.work.Work;
+import io.hyperfoil.tools.h5m.queue.VirtualWorkQueueExecutor;
 import io.hyperfoil.tools.h5m.queue.WorkQueue;
 import io.hyperfoil.tools.h5m.queue.WorkQueueExecutor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
 import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.runtime.StartupEvent;
 import io.hyperfoil.tools.h5m.api.Change;
 import io.hyperfoil.tools.h5m.event.ChangeDetectedEvent;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Priority;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -26,13 +32,16 @@ import jakarta.transaction.Synchronization;
 import jakarta.transaction.Transactional;
 import jakarta.transaction.TransactionManager;
 import io.hyperfoil.tools.h5m.provided.DatabaseEngine;
+import io.hyperfoil.tools.h5m.provided.ValueCodec;
 import io.quarkus.logging.Log;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Hibernate;
 
 
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -43,6 +52,11 @@ import java.util.stream.Collectors;
 @ApplicationScoped
 public class WorkService implements WorkServiceInterface {
 
+    /**
+     * How the work queue is executed: a pool of platform threads or a virtual thread per work item.
+     */
+    public enum WorkerMode { PLATFORM, VIRTUAL }
+
     private static final int RETRY_LIMIT = 5;
     private static final long RETRY_BASE_MS = 5;
 
@@ -94,6 +108,7 @@ public class WorkService implements WorkServiceInterface {
                 if (attempt >= RETRY_LIMIT || !isPessimisticLock(rootCause != null ? rootCause : t)) {
                     throw t;
                 }
+                retries.increment();
                 backoffSleep(attempt);
             }
         }
@@ -127,6 +142,21 @@ public class WorkService implements WorkServiceInterface {
     @Inject
     ProcessingService processingService;
 
+    @Inject
+    SeriesCache seriesCache;
+
+    @Inject
+    SingleWriter singleWriter;
+
+    @Inject
+    EphemeralValueStore ephemeralValues;
+
+    @Inject
+    ValueNumberService valueNumbers;
+
+    @Inject
+    ViewRowService viewRows;
+
     @ConfigProperty(name = "h5m.worker.core", defaultValue = "1")
     int corePoolSize;
 
@@ -136,7 +166,32 @@ public class WorkService implements WorkServiceInterface {
     @ConfigProperty(name = "h5m.worker.keepalive", defaultValue = "PT60S")
     Duration keepAlive;
 
-    private WorkQueueExecutor workExecutor;
+    @ConfigProperty(name = "h5m.worker.fuseSiblings", defaultValue = "true")
+    boolean fuseSiblings;
+
+    @ConfigProperty(name = "h5m.worker.mode", defaultValue = "platform")
+    WorkerMode workerMode;
+
+    // the virtual mode limit, defaults to the connection pool size as every running work item holds a connection
+    @ConfigProperty(name = "h5m.worker.maxConcurrency")
+    Optional<Integer> maxConcurrency;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.max-size", defaultValue = "20")
+    int jdbcMaxSize;
+
+    private WorkQueue workQueue;
+    private ExecutorService workExecutor;
+    // read by WorkerPoolController to size the executor
+    private Timer commits;
+    private Counter retries;
+
+    @PostConstruct
+    void init() {
+        commits = Timer.builder("h5m.worker.commit")
+                .description("Time to commit the transaction of a work item").register(registry);
+        retries = Counter.builder("h5m.worker.retries")
+                .description("Work items and transactions retried after a database failure").register(registry);
+    }
 
     /**
      * Eagerly initializes the NodeEntity.sources chains for all active nodes
@@ -166,10 +221,27 @@ public class WorkService implements WorkServiceInterface {
 
     @Transactional
     void onStart(@Observes @Priority(1) StartupEvent ev) {
-        workExecutor = new WorkQueueExecutor(corePoolSize, maxPoolSize, keepAlive.toSeconds(), TimeUnit.SECONDS, new WorkQueue());
-        workExecutor.allowCoreThreadTimeOut(false);
-        workExecutor.prestartAllCoreThreads();
-        new ExecutorServiceMetrics(workExecutor, "h5mWorkExecutor", null).bindTo(registry);
+        workQueue = new WorkQueue();
+        if (workerMode == WorkerMode.VIRTUAL) {
+            VirtualWorkQueueExecutor executor = new VirtualWorkQueueExecutor(maxConcurrency.orElse(jdbcMaxSize), workQueue);
+            // the executor.* meters ExecutorServiceMetrics registers for the platform pool
+            Gauge.builder("executor.active", executor, VirtualWorkQueueExecutor::getActiveCount).tag("name", "h5mWorkExecutor")
+                    .description("The approximate number of threads that are actively executing tasks").register(registry);
+            Gauge.builder("executor.queued", workQueue, WorkQueue::pendingCount).tag("name", "h5mWorkExecutor")
+                    .description("The approximate number of tasks that are queued for execution").register(registry);
+            Gauge.builder("executor.pool.max", executor, VirtualWorkQueueExecutor::getMaxConcurrency).tag("name", "h5mWorkExecutor")
+                    .description("The maximum allowed number of threads in the pool").register(registry);
+            FunctionCounter.builder("executor.completed", executor, VirtualWorkQueueExecutor::getCompletedTaskCount).tag("name", "h5mWorkExecutor")
+                    .description("The approximate total number of tasks that have completed execution").register(registry);
+            Log.infof("Work queue running on virtual threads, at most %d at once", executor.getMaxConcurrency());
+            workExecutor = executor;
+        } else {
+            WorkQueueExecutor executor = new WorkQueueExecutor(corePoolSize, maxPoolSize, keepAlive.toSeconds(), TimeUnit.SECONDS, workQueue);
+            executor.allowCoreThreadTimeOut(false);
+            executor.prestartAllCoreThreads();
+            new ExecutorServiceMetrics(executor, "h5mWorkExecutor", null).bindTo(registry);
+            workExecutor = executor;
+        }
     }
 
     @PreDestroy
@@ -179,6 +251,30 @@ public class WorkService implements WorkServiceInterface {
         }
     }
 
+    /**
+     * The work to process a new upload with the top level nodes. Sibling jq and jsonata nodes that only read the
+     * upload share one Work so execute() evaluates them together with a single load of the upload data.
+     */
+    List<Work> createUploadWork(List<NodeEntity> topLevelNodes, long rootValueId) {
+        List<Work> rtrn = new ArrayList<>();
+        Set<NodeEntity> fused = new LinkedHashSet<>();
+        for (NodeEntity node : topLevelNodes) {
+            if (fuseSiblings && NodeService.isFusable(node)) {
+                fused.add(node);
+            } else {
+                rtrn.add(new Work(node, new ArrayList<>(node.sources), List.of(rootValueId)));
+            }
+        }
+        if (fused.size() == 1) {
+            NodeEntity node = fused.iterator().next();
+            rtrn.add(new Work(node, new ArrayList<>(node.sources), List.of(rootValueId)));
+        } else if (!fused.isEmpty()) {
+            List<NodeEntity> sources = fused.stream().flatMap(n -> n.sources.stream()).distinct().toList();
+            rtrn.add(new Work(fused, sources, List.of(rootValueId)));
+        }
+        return rtrn;
+    }
+
     /**
      * Creates work items and queues them for execution.
      * Work items are NOT persisted to the DB — they exist only in memory.
@@ -187,7 +283,6 @@ public class WorkService implements WorkServiceInterface {
      */
     @Transactional
     public void create(List<Work> works) {
-        WorkQueue workQueue = workExecutor.getWorkQueue();
         List<Work> newWorks = new ArrayList<>();
         for (Work work : works) {
             if (workQueue.hasWork(work)) {
@@ -247,11 +342,48 @@ public class WorkService implements WorkServiceInterface {
         }
     }
 
-    public WorkQueue getQueue(){return workExecutor.getWorkQueue();}
+    public WorkQueue getQueue(){return workQueue;}
+
+    Timer getCommitTimer() {
+        return commits;
+    }
+
+    Counter getRetryCounter() {
+        return retries;
+    }
+
+    /**
+     * The number of work items that may run at once: the core pool size of the platform pool, the permits of the
+     * virtual executor.
+     */
+    int getConcurrency() {
+        return switch (workExecutor) {
+            case WorkQueueExecutor executor -> executor.getCorePoolSize();
+            case VirtualWorkQueueExecutor executor -> executor.getMaxConcurrency();
+            default -> 0;
+        };
+    }
+
+    /**
+     * The upper bound for {@link #setConcurrency(int)}, platform threads beyond the connection pool would only wait
+     * for a connection.
+     */
+    int getMaxConcurrency() {
+        return workerMode == WorkerMode.VIRTUAL ? maxConcurrency.orElse(jdbcMaxSize) : Math.min(maxPoolSize, jdbcMaxSize);
+    }
+
+    void setConcurrency(int concurrency) {
+        switch (workExecutor) {
+            // the workers take from the queue directly, only core threads are ever started
+            case WorkQueueExecutor executor -> executor.setConcurrency(concurrency);
+            case VirtualWorkQueueExecutor executor -> executor.setMaxConcurrency(concurrency);
+            default -> {}
+        }
+    }
 
     @Override
     public boolean isIdle() {
-        return workExecutor.getWorkQueue().isIdle();
+        return workQueue.isIdle();
     }
 
     @Override
@@ -260,160 +392,130 @@ public class WorkService implements WorkServiceInterface {
         return workExecutor.awaitTermination(timeout, unit);
     }
 
+    /**
+     * The values calculated for a work item, not stored yet.
+     */
+    record Calculated(Work work, List<ValueEntity> sourceValues, Set<NodeEntity> activeNodes, List<ValueEntity> values) {}
+
+    /**
+     * Calculates and stores the values of a work item. With the SQLite single writer the values are only calculated
+     * here, {@link SingleWriter} stores them together with the values of other work items.
+     */
     @Transactional
     public void execute(Work w){
-        WorkQueue workQueue = workExecutor.getWorkQueue();
-        boolean decrementDeferred = false;
-        try {
-            // Batch-load source values with sources eagerly fetched in a single
-            // query. The 2LC does not cache @Basic(LAZY) properties for entities
-            // with associations (HHH-20773), so em.find() cache hits still
-            // trigger a DB round-trip for the lazy data field. This JPQL query
-            // eagerly fetches the sources collection via LEFT JOIN FETCH.
-            // Note: Entity Graph (fetchgraph/loadgraph) was tested but causes
-            // a 3x regression despite generating identical SQL — the overhead
-            // is in Hibernate's entity initialization, not in query generation.
-            List<ValueEntity> sourceValues;
-            List<Long> sourceIds = w.getSourceValueIds();
-            if (sourceIds == null || sourceIds.isEmpty()) {
-                sourceValues = List.of();
-            } else {
-                sourceValues = em.createQuery(
-                        "SELECT v FROM value v LEFT JOIN FETCH v.sources WHERE v.id IN :ids",
-                        ValueEntity.class)
-                    .setParameter("ids", sourceIds)
-                    .getResultList();
-            }
+        if (singleWriter.isEnabled()) {
+            calculateForWriter(w);
+        } else {
+            run(w);
+        }
+    }
 
-            // Reload active nodes in this transaction's persistence context —
-            // calculateValues() accesses node.sources which is lazy
-            Set<NodeEntity> activeNodes = new HashSet<>();
-            for (NodeEntity an : w.getActiveNodes()) {
-                NodeEntity managed = em.find(NodeEntity.class, an.id);
-                if (managed != null) {
-                    activeNodes.add(managed);
-                }
+    /**
+     * Calculates and stores the values of a work item in a transaction of its own, for the work {@link SingleWriter}
+     * does not batch.
+     */
+    @Transactional
+    void executeAlone(Work w) {
+        run(w);
+    }
+
+    /**
+     * Stores the values calculated for several work items in one transaction. The work items are completed when it
+     * commits, if it rolls back the caller has to run them again.
+     */
+    @Transactional
+    void storeAll(List<Calculated> batch) {
+        for (Calculated calculated : batch) {
+            store(calculated);
+        }
+        List<Work> works = batch.stream().map(Calculated::work)
+                .filter(w -> w.getActiveNodes() != null && !w.getActiveNodes().isEmpty())
+                .toList();
+        tm.getTransaction().registerSynchronization(new Synchronization() {
+            private long commitStart;
+            @Override public void beforeCompletion() {
+                commitStart = System.nanoTime();
             }
-            if(activeNodes.isEmpty() || sourceValues.isEmpty()){
-                // Nothing to process — still need to decrement trackers
-                processingService.decrementTrackers(w);
-                return;
+            @Override public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    return;
+                }
+                long elapsed = System.nanoTime() - commitStart;
+                for (Work w : works) {
+                    commits.record(elapsed, TimeUnit.NANOSECONDS);
+                    workQueue.decrement(w);
+                    processingService.decrementTrackers(w);
+                    w.releaseReferences();
+                }
             }
+        });
+    }
 
-            //looping over values works for Jq / Js nodes but what about cross test comparison
-            //calculateValue should probably accept all sourceValues and leave it to the node function to decide
-            List<ValueEntity> calculated = new ArrayList<>();
-            for(NodeEntity node : activeNodes){
-                List<ValueEntity> thisIteration = nodeService.calculateValues(node, sourceValues);
-                calculated.addAll(thisIteration);
-            }
-            if (calculated.isEmpty()) {
-                // Node produced no values (e.g., JQ expression didn't match the data).
-                // Skip the dedup loop and cascade — no DB queries needed.
+    /*
+     * Calculates the values without writing and hands them to the single writer once this (read only) transaction
+     * completes, the work item stays active in the queue until the writer commits. Detection nodes delete stale
+     * changes while they calculate so their work runs on the writer as a whole, as does work that failed here.
+     */
+    private void calculateForWriter(Work w){
+        boolean handedOff = false;
+        try {
+            if (w.getActiveNodes() != null && w.getActiveNodes().stream()
+                    .map(n -> em.find(NodeEntity.class, n.id)).filter(Objects::nonNull)
+                    .anyMatch(n -> Hibernate.unproxy(n) instanceof NodeEntity node && node.isDetection())) {
+                handedOff = true;
+                singleWriter.submit(w);
                 return;
             }
-            List<ValueEntity> newOrUpdated = new ArrayList<>();
-            List<ValueEntity> toPersist = new ArrayList<>();
-            for(ValueEntity v : sourceValues) {
-                for(NodeEntity activeNode : activeNodes){
-                    Map<String, ValueEntity> descendants = valueService.getDescendantValueByPath(v, activeNode);
-                    for(Iterator<ValueEntity> iter = calculated.iterator(); iter.hasNext();){
-                        ValueEntity newValue = iter.next();
-                        String path = newValue.getPath();
-                        if(descendants.containsKey(path)){
-                            ValueEntity existingValue = descendants.get(path);
-                            if(existingValue.getId().equals(newValue.getId())) {
-                                //if it's the same value we don't have to work with it
-                            }else if( newValue.data.equals(existingValue.data)){
-                                if(newValue.id != null){
-                                    valueService.delete(newValue);
-                                }
-                                iter.remove();
-                            }else{
-                                //update the existing value's data via native SQL
-                                //(@Immutable entities can't be updated through Hibernate)
-                                em.createNativeQuery("UPDATE value SET data = :data WHERE id = :id")
-                                    .setParameter("data", JqValues.serializeToBytes(newValue.data))
-                                    .setParameter("id", existingValue.getId())
-                                    .executeUpdate();
-                                // Evict from 2LC since cached value is now stale
-                                em.getEntityManagerFactory().getCache().evict(ValueEntity.class, existingValue.getId());
-                                newOrUpdated.add(existingValue);
-                            }
-                            descendants.remove(path);//remove it so we know what is left over
-                        }else{
-                            toPersist.add(newValue);
-                        }
-                    }
-                    if(!descendants.isEmpty()){//values that need to be deleted
-                        descendants.values().forEach(valueService::delete);
-                    }
-                }
-            }
-            if (!toPersist.isEmpty()) {
-                valueService.createAll(toPersist);
+            Calculated calculated = calculate(w);
+            if (calculated == null) {
+                return;
             }
-            newOrUpdated.addAll(calculated);
-            if(!newOrUpdated.isEmpty()){
-                Set<NodeEntity> createdValues = newOrUpdated.stream().map(v->v.node).collect(Collectors.toSet());
-                for(NodeEntity node : createdValues){
-                    if(node.isDetection()){
-                        // Build enriched Change records from the detection values
-                        // already in memory — no additional DB lookups needed
-                        List<Change> changes = newOrUpdated.stream()
-                                .filter(v -> v.node.equals(node))
-                                .map(v -> new Change(
-                                        v.getId(),
-                                        node.getId(),
-                                        node.name,
-                                        node.type(),
-                                        v.data,
-                                        v.data != null ? v.data.getField("fingerprint") : null
-                                ))
-                                .toList();
-                        long folderId = sourceValues.stream()
-                                .filter(v -> v.folder != null)
-                                .map(v -> v.folder.id)
-                                .findFirst()
-                                .orElse(-1L);
-                        // Derive rootValueId from sourceValueIds — for upload work,
-                        // the first ID is the root value (upload ID)
-                        long rootValueId = w.getSourceValueIds().isEmpty() ? -1L : w.getSourceValueIds().getFirst();
-                        changeDetectedEvent.fire(new ChangeDetectedEvent(folderId,
-                                changes, w.isDispatch(), rootValueId));
-                    }
-                    // Cascade work inherits source value IDs and dispatch flag, so
-                    // tracker association is derived automatically via findTrackers()
-                    if(w.isCascade()) {
-                        List<Long> sourceValueIds = sourceValues.stream().map(ValueEntity::getId).toList();
-                        List<Work> cascadeWork = nodeService.getDependentNodes(node).stream()
-                                .map(n -> {
-                                    Work cascaded = new Work(n, n.sources, sourceValueIds);
-                                    cascaded.setDispatch(w.isDispatch());
-                                    return cascaded;
-                                })
-                                .toList();
-
-                        create(cascadeWork);
+            handedOff = true;
+            tm.getTransaction().registerSynchronization(new Synchronization() {
+                @Override public void beforeCompletion() {}
+                @Override public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        singleWriter.submit(calculated);
+                    } else {
+                        singleWriter.submit(w);
                     }
                 }
+            });
+        } catch (Exception e) {
+            Log.debugf(e, "Calculation failed, running on the writer: %s\n work=%s", e.getMessage(), w);
+            handedOff = true;
+            singleWriter.submit(w);
+        } finally {
+            if(!handedOff && w.getActiveNodes() != null && !w.getActiveNodes().isEmpty()){
+                workQueue.decrement(w);
+                processingService.decrementTrackers(w);
+                w.releaseReferences();
             }
+        }
+    }
 
-            // Release entities from the persistence context to prevent memory
-            // accumulation during bulk imports.  All new/updated values have
-            // already been flushed to the DB, cascade Work items carry entity
-            // IDs and will reload via em.find() in their own transactions, and
-            // the change-detected events have already been fired.
-            em.flush();
-            em.clear();
+    private void run(Work w){
+        boolean decrementDeferred = false;
+        try {
+            Calculated calculated = calculate(w);
+            if (calculated == null) {
+                return;
+            }
+            store(calculated);
 
             // Defer decrement until after this transaction commits so that
             // isIdle() cannot return true while the DB commit is still in flight.
             if(w.getActiveNodes() != null && !w.getActiveNodes().isEmpty()){
                 decrementDeferred = true;
                 tm.getTransaction().registerSynchronization(new Synchronization() {
-                    @Override public void beforeCompletion() {}
+                    private long commitStart;
+                    @Override public void beforeCompletion() {
+                        commitStart = System.nanoTime();
+                    }
                     @Override public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            commits.record(System.nanoTime() - commitStart, TimeUnit.NANOSECONDS);
+                        }
                         workQueue.decrement(w);
                         processingService.decrementTrackers(w);
                         w.releaseReferences();
@@ -424,6 +526,7 @@ public class WorkService implements WorkServiceInterface {
             Log.debugf(e, "WorkRunner caught: %s\n work=%s", e.getMessage(), w);
             w.incrementRetryCount();
             if(db.isSQLite() && w.getRetryCount() < RETRY_LIMIT){
+                retries.increment();
                 backoffSleep(w.getRetryCount());
                 workQueue.add(w);
                 // Skip decrement in finally — work is re-queued and will be
@@ -442,4 +545,221 @@ public class WorkService implements WorkServiceInterface {
         }
     }
 
+    /*
+     * Loads the sources and active nodes of the work item and calculates the new values, null if there is nothing to
+     * store.
+     */
+    private Calculated calculate(Work w){
+        // Batch-load source values with sources eagerly fetched in a single
+        // query. The 2LC does not cache @Basic(LAZY) properties for entities
+        // with associations (HHH-20773), so em.find() cache hits still
+        // trigger a DB round-trip for the lazy data field. This JPQL query
+        // eagerly fetches the sources collection via LEFT JOIN FETCH.
+        // Note: Entity Graph (fetchgraph/loadgraph) was tested but causes
+        // a 3x regression despite generating identical SQL — the overhead
+        // is in Hibernate's entity initialization, not in query generation.
+        List<ValueEntity> sourceValues;
+        List<Long> sourceIds = w.getSourceValueIds();
+        if (sourceIds == null || sourceIds.isEmpty()) {
+            sourceValues = List.of();
+        } else {
+            sourceValues = em.createQuery(
+                    "SELECT v FROM value v LEFT JOIN FETCH v.sources WHERE v.id IN :ids",
+                    ValueEntity.class)
+                .setParameter("ids", sourceIds)
+                .getResultList();
+            ephemeralValues.fill(sourceValues);
+        }
+
+        // Reload active nodes in this transaction's persistence context —
+        // calculateValues() accesses node.sources which is lazy
+        Set<NodeEntity> activeNodes = new HashSet<>();
+        for (NodeEntity an : w.getActiveNodes()) {
+            NodeEntity managed = em.find(NodeEntity.class, an.id);
+            if (managed != null) {
+                activeNodes.add(managed);
+            }
+        }
+        if(activeNodes.isEmpty() || sourceValues.isEmpty()){
+            // Nothing to process — still need to decrement trackers
+            processingService.decrementTrackers(w);
+            return null;
+        }
+
+        //looping over values works for Jq / Js nodes but what about cross test comparison
+        //calculateValue should probably accept all sourceValues and leave it to the node function to decide
+        List<ValueEntity> calculated = new ArrayList<>();
+        // sibling jq / jsonata nodes of the upload are evaluated together against one load of the upload data
+        List<NodeEntity> fused = activeNodes.stream().filter(NodeService::isFusable).toList();
+        if(fused.size() > 1){
+            nodeService.calculateFusedValues(fused, sourceValues).values().forEach(calculated::addAll);
+        }else{
+            fused = List.of();
+        }
+        for(NodeEntity node : activeNodes){
+            if(fused.contains(node)){
+                continue;
+            }
+            List<ValueEntity> thisIteration = nodeService.calculateValues(node, sourceValues);
+            calculated.addAll(thisIteration);
+        }
+        if (calculated.isEmpty()) {
+            // Node produced no values (e.g., JQ expression didn't match the data).
+            // Skip the dedup loop and cascade — no DB queries needed.
+            return null;
+        }
+        return new Calculated(w, sourceValues, activeNodes, calculated);
+    }
+
+    /*
+     * Replaces the values of the active nodes with the calculated values, fires the change events of detection nodes
+     * and creates the cascade work.
+     */
+    private void store(Calculated result){
+        Work w = result.work();
+        List<ValueEntity> sourceValues = result.sourceValues();
+        Set<NodeEntity> activeNodes = result.activeNodes();
+        List<ValueEntity> calculated = result.values();
+        List<ValueEntity> newOrUpdated = new ArrayList<>();
+        List<ValueEntity> toPersist = new ArrayList<>();
+        // nodes whose data is nullified once the upload is processed, their data is kept in memory instead.
+        // Only for tracked uploads and recalculations, untracked work is never nullified
+        Set<Long> passThrough = new HashSet<>();
+        if (ephemeralValues.isEnabled() && !processingService.findTrackers(w).isEmpty()) {
+            for (NodeEntity activeNode : activeNodes) {
+                if (nodeService.isDiscardedAfterUpload(activeNode)) {
+                    passThrough.add(activeNode.id);
+                }
+            }
+        }
+        for(ValueEntity v : sourceValues) {
+            for(NodeEntity activeNode : activeNodes){
+                boolean keepInMemory = passThrough.contains(activeNode.id);
+                // matched by lineage key and compared by content hash, the data is only compared when the hashes match
+                Map<Long, ValueEntity> descendants = valueService.getDescendantValueByLineage(v, activeNode);
+                for(Iterator<ValueEntity> iter = calculated.iterator(); iter.hasNext();){
+                    ValueEntity newValue = iter.next();
+                    if(!newValue.node.equals(activeNode)){
+                        // fused work calculates the values of every sibling, they are matched in their own iteration
+                        continue;
+                    }
+                    Long lineage = newValue.lineageKey();
+                    if(descendants.containsKey(lineage)){
+                        ValueEntity existingValue = descendants.get(lineage);
+                        if(existingValue.getId().equals(newValue.getId())) {
+                            //if it's the same value we don't have to work with it
+                        }else if( newValue.sameData(existingValue)){
+                            if(newValue.id != null){
+                                valueService.delete(newValue);
+                            }
+                            iter.remove();
+                        }else{
+                            //update the existing value's data via native SQL
+                            //(@Immutable entities can't be updated through Hibernate)
+                            var update = em.createNativeQuery("UPDATE value SET data = "
+                                    + (keepInMemory ? "NULL" : ":data") + ", content_hash = :contentHash"
+                                    + (newValue.fingerprintHash != null ? ", fingerprint_hash = :hash" : "") + " WHERE id = :id")
+                                .setParameter("contentHash", newValue.contentHash())
+                                .setParameter("id", existingValue.getId());
+                            if (!keepInMemory) {
+                                update.setParameter("data", ValueCodec.encode(newValue.data));
+                            }
+                            if (newValue.fingerprintHash != null) {
+                                update.setParameter("hash", newValue.fingerprintHash);
+                            }
+                            update.executeUpdate();
+                            valueNumbers.update(existingValue, keepInMemory ? null : newValue.data);
+                            if (keepInMemory) {
+                                ephemeralValues.put(existingValue, newValue.data);
+                            }
+                            // Evict from 2LC since cached value is now stale
+                            em.getEntityManagerFactory().getCache().evict(ValueEntity.class, existingValue.getId());
+                            seriesCache.recordChange(activeNode.id, existingValue.getId());
+                            newOrUpdated.add(existingValue);
+                        }
+                        descendants.remove(lineage);//remove it so we know what is left over
+                    }else{
+                        toPersist.add(newValue);
+                    }
+                }
+                if(!descendants.isEmpty()){//values that need to be deleted
+                    descendants.values().forEach(valueService::delete);
+                }
+            }
+        }
+        if (!toPersist.isEmpty()) {
+            Map<ValueEntity, JqValue> kept = new IdentityHashMap<>();
+            if (!passThrough.isEmpty()) {
+                for (ValueEntity newValue : toPersist) {
+                    if (passThrough.contains(newValue.node.id)) {
+                        // the hash is stored from the data so recalculations can still be compared with it
+                        newValue.contentHash();
+                        kept.put(newValue, newValue.data);
+                        newValue.data = null;
+                    }
+                }
+            }
+            valueService.createAll(toPersist);
+            kept.forEach(ephemeralValues::put);
+        }
+        newOrUpdated.addAll(calculated);
+        // detection values can be attached to the groupBy value of an earlier upload, whose rows are not written
+        // again when this upload completes
+        viewRows.markStale(newOrUpdated.stream().filter(v -> v.id != null && v.node.isDetection()).map(ValueEntity::getId).toList());
+        if(!newOrUpdated.isEmpty()){
+            Set<NodeEntity> createdValues = newOrUpdated.stream().map(v->v.node).collect(Collectors.toSet());
+            for(NodeEntity node : createdValues){
+                if(node.isDetection()){
+                    // Build enriched Change records from the detection values
+                    // already in memory — no additional DB lookups needed
+                    List<Change> changes = newOrUpdated.stream()
+                            .filter(v -> v.node.equals(node))
+                            .map(v -> new Change(
+                                    v.getId(),
+                                    node.getId(),
+                                    node.name,
+                                    node.type(),
+                                    v.data,
+                                    v.data != null ? v.data.getField("fingerprint") : null
+                            ))
+                            .toList();
+                    long folderId = sourceValues.stream()
+                            .filter(v -> v.folder != null)
+                            .map(v -> v.folder.id)
+                            .findFirst()
+                            .orElse(-1L);
+                    // Derive rootValueId from sourceValueIds — for upload work,
+                    // the first ID is the root value (upload ID)
+                    long rootValueId = w.getSourceValueIds().isEmpty() ? -1L : w.getSourceValueIds().getFirst();
+                    changeDetectedEvent.fire(new ChangeDetectedEvent(folderId,
+                            changes, w.isDispatch(), rootValueId));
+                }
+                // Cascade work inherits source value IDs and the dispatch and background flags, so
+                // tracker association is derived automatically via findTrackers()
+                if(w.isCascade()) {
+                    List<Long> sourceValueIds = sourceValues.stream().map(ValueEntity::getId).toList();
+                    List<Work> cascadeWork = nodeService.getDependentNodes(node).stream()
+                            .map(n -> {
+                                Work cascaded = new Work(n, n.sources, sourceValueIds);
+                                cascaded.setRootValueIds(w.getRootValueIds());
+                                cascaded.setDispatch(w.isDispatch());
+                                cascaded.setBackground(w.isBackground());
+                                return cascaded;
+                            })
+                            .toList();
+
+                    create(cascadeWork);
+                }
+            }
+        }
+
+        // Release entities from the persistence context to prevent memory
+        // accumulation during bulk imports.  All new/updated values have
+        // already been flushed to the DB, cascade Work items carry entity
+        // IDs and will reload via em.find() in their own transactions, and
+        // the change-detected events have already been fired.
+        em.flush();
+        em.clear();
+    }
+
 }
@@ -0,0 +1,199 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes the number of work items that run at once while the service runs.
+ * <p>
+ * When {@code h5m.worker.adaptive.enabled} is set, every {@code h5m.worker.adaptive.interval} the controller compares
+ * the committed work items, their average commit latency and the database retries since the last interval. It backs
+ * off when retries exceed {@code h5m.worker.adaptive.maxRetryRate} per commit or the commit latency rises above
+ * {@code h5m.worker.adaptive.latencyFactor} times its baseline (e.g. SQLite writers waiting on each other). Otherwise,
+ * while work is queued, it adds one more and keeps it if the commit rate improved. The limit stays between
+ * {@code h5m.worker.adaptive.min} and the smaller of the executor bound and the connection pool size.
+ * <p>
+ * Every decision is counted in {@code h5m.worker.adaptive.decisions} by action and reason, the current limit and the
+ * measurements it was based on are gauges.
+ */
+@ApplicationScoped
+public class WorkerPoolController {
+
+    enum Action { INCREASE, DECREASE, HOLD }
+
+    record Decision(Action action, String reason, int limit) {}
+
+    @ConfigProperty(name = "h5m.worker.adaptive.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "h5m.worker.adaptive.interval", defaultValue = "PT5S")
+    Duration interval;
+
+    @ConfigProperty(name = "h5m.worker.adaptive.min", defaultValue = "1")
+    int min;
+
+    @ConfigProperty(name = "h5m.worker.adaptive.maxRetryRate", defaultValue = "0.05")
+    double maxRetryRate;
+
+    @ConfigProperty(name = "h5m.worker.adaptive.latencyFactor", defaultValue = "2.0")
+    double latencyFactor;
+
+    // an increase has to raise the commit rate by this fraction to be kept
+    @ConfigProperty(name = "h5m.worker.adaptive.minGain", defaultValue = "0.05")
+    double minGain;
+
+    @Inject
+    WorkService workService;
+
+    @Inject
+    MeterRegistry registry;
+
+    int max;
+
+    private Thread controller;
+    private volatile boolean running;
+    private final Map<String, Counter> decisions = new HashMap<>();
+
+    // the cumulative measurements of the previous interval
+    private long lastCommits;
+    private double lastCommitMillis;
+    private double lastRetries;
+    // the state decide() compares the current interval with
+    private double baselineLatency;
+    private double lastThroughput;
+    private Action lastAction = Action.HOLD;
+    private int cooldown;
+    // exposed as gauges
+    private volatile int limit;
+    private volatile double throughput;
+    private volatile double latency;
+    private volatile double retryRate;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            return;
+        }
+        max = Math.max(min, workService.getMaxConcurrency());
+        limit = Math.clamp(workService.getConcurrency(), min, max);
+        workService.setConcurrency(limit);
+        lastCommits = workService.getCommitTimer().count();
+        lastCommitMillis = workService.getCommitTimer().totalTime(TimeUnit.MILLISECONDS);
+        lastRetries = workService.getRetryCounter().count();
+
+        Gauge.builder("h5m.worker.adaptive.limit", this, c -> c.limit)
+                .description("Work items allowed to run at once").register(registry);
+        Gauge.builder("h5m.worker.adaptive.throughput", this, c -> c.throughput)
+                .description("Work items committed per second in the last interval").register(registry);
+        Gauge.builder("h5m.worker.adaptive.commit.latency", this, c -> c.latency)
+                .description("Average commit time in milliseconds in the last interval").register(registry);
+        Gauge.builder("h5m.worker.adaptive.retry.rate", this, c -> c.retryRate)
+                .description("Database retries per committed work item in the last interval").register(registry);
+
+        running = true;
+        controller = Thread.ofVirtual().name("h5m-worker-pool-controller").start(this::control);
+        Log.infof("Adaptive work concurrency between %d and %d, starting at %d", min, max, limit);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (controller != null) {
+            controller.interrupt();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    private void control() {
+        while (running) {
+            try {
+                Thread.sleep(interval.toMillis());
+                Decision decision = decide(limit, workService.getCommitTimer().count(),
+                        workService.getCommitTimer().totalTime(TimeUnit.MILLISECONDS),
+                        workService.getRetryCounter().count(), workService.getQueue().pendingCount(),
+                        interval.toMillis() / 1000.0);
+                record(decision);
+                if (decision.limit() != limit) {
+                    Log.debugf("Work concurrency %s %d -> %d (%s)", decision.action(), limit, decision.limit(), decision.reason());
+                    workService.setConcurrency(decision.limit());
+                    limit = decision.limit();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.errorf(e, "Failed to adjust the work concurrency");
+            }
+        }
+    }
+
+    private void record(Decision decision) {
+        decisions.computeIfAbsent(decision.action().name().toLowerCase() + ":" + decision.reason(), _ ->
+                Counter.builder("h5m.worker.adaptive.decisions")
+                        .tag("action", decision.action().name().toLowerCase())
+                        .tag("reason", decision.reason())
+                        .description("Adaptive work concurrency decisions").register(registry))
+                .increment();
+    }
+
+    /**
+     * Decides the limit for the next interval from the cumulative commit count, commit time and retry count and the
+     * pending work items at the end of this one.
+     */
+    Decision decide(int current, long commits, double commitMillis, double retries, int pending, double seconds) {
+        long intervalCommits = commits - lastCommits;
+        double intervalMillis = commitMillis - lastCommitMillis;
+        double intervalRetries = retries - lastRetries;
+        lastCommits = commits;
+        lastCommitMillis = commitMillis;
+        lastRetries = retries;
+
+        throughput = intervalCommits / seconds;
+        latency = intervalCommits > 0 ? intervalMillis / intervalCommits : 0;
+        retryRate = intervalRetries / Math.max(1, intervalCommits);
+        if (latency > 0) {
+            // the lowest latency seen, allowed to drift up slowly so a slower database is not contention forever
+            baselineLatency = baselineLatency == 0 ? latency : Math.min(latency, baselineLatency * 1.05);
+        }
+        if (cooldown > 0) {
+            cooldown--;
+        }
+
+        Decision decision;
+        if (intervalCommits == 0 && intervalRetries == 0 && pending == 0) {
+            decision = new Decision(Action.HOLD, "idle", current);
+        } else if (retryRate > maxRetryRate || (baselineLatency > 0 && latency > baselineLatency * latencyFactor)) {
+            // contention, more work at once would only wait longer
+            String reason = retryRate > maxRetryRate ? "retries" : "latency";
+            decision = current > min
+                    ? new Decision(Action.DECREASE, reason, Math.max(min, current - Math.max(1, current / 4)))
+                    : new Decision(Action.HOLD, reason, current);
+        } else if (pending > 0 && lastAction == Action.INCREASE && throughput < lastThroughput * (1 + minGain)) {
+            // the last increase did not pay off, go back and wait before probing again
+            cooldown = 3;
+            decision = new Decision(Action.DECREASE, "no_gain", Math.max(min, current - 1));
+        } else if (pending > 0 && current < max && cooldown == 0) {
+            decision = new Decision(Action.INCREASE, "backlog", current + 1);
+        } else {
+            decision = new Decision(Action.HOLD, "steady", current);
+        }
+        lastAction = decision.limit() == current ? Action.HOLD : decision.action();
+        lastThroughput = throughput;
+        return decision;
+    }
+}
@@ -1,6 +1,7 @@
 package io.hyperfoil.tools.h5m;
 
 import io.agroal.api.AgroalDataSource;
+import io.hyperfoil.tools.h5m.svc.SeriesCache;
 import io.hyperfoil.tools.h5m.svc.ValueService;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManagerFactory;
@@ -29,6 +30,9 @@ public class FreshDb {
     @Inject
     ValueService valueService;
 
+    @Inject
+    SeriesCache seriesCache;
+
     @BeforeEach
     @AfterEach
     public void dropRows() throws Exception {
@@ -36,6 +40,7 @@ public class FreshDb {
         // prevents stale cached entities when IDs are reused
         emf.getCache().evictAll();
         valueService.clearDetectionCache();
+        seriesCache.clear();
 
         if (tm.getStatus() != Status.STATUS_NO_TRANSACTION) {
             tm.rollback();
@@ -46,9 +51,12 @@ public class FreshDb {
                 stmt.executeUpdate("DELETE from folder_view_component");
                 stmt.executeUpdate("DELETE from folder_view");
                 stmt.executeUpdate("DELETE from notification_log");
+                stmt.executeUpdate("DELETE from notification_outbox");
                 stmt.executeUpdate("DELETE from notification_config");
                 stmt.executeUpdate("DELETE from api_key");
                 stmt.executeUpdate("DELETE from team_members");
+                stmt.executeUpdate("DELETE from value_closure");
+                stmt.executeUpdate("DELETE from value_number");
                 stmt.executeUpdate("DELETE from value_edge");
                 stmt.executeUpdate("DELETE from value");
                 stmt.executeUpdate("DELETE from folder");
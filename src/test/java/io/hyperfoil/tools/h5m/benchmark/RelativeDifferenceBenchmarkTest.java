@@ -0,0 +1,89 @@
+package io.hyperfoil.tools.h5m.benchmark;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.h5m.entity.node.RelativeDifference;
+import io.hyperfoil.tools.h5m.entity.node.RootNode;
+import io.hyperfoil.tools.h5m.svc.NodeService;
+import io.hyperfoil.tools.h5m.svc.SeriesCache;
+import io.hyperfoil.tools.jjq.value.JqNumber;
+import io.hyperfoil.tools.jjq.value.JqObject;
+import io.hyperfoil.tools.jjq.value.JqString;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Per-upload cost of RelativeDifference detection as the fingerprint's history grows.
+ * The newest upload only reads a window of the series around its domain value, so the time per
+ * upload with a cached series should stay flat from 100 to 3000 earlier uploads.
+ * <p>
+ * Run with: mvn test -Dtest=RelativeDifferenceBenchmarkTest -Dsurefire.excludes=""
+ */
+@QuarkusTest
+public class RelativeDifferenceBenchmarkTest extends FreshDb {
+
+    private static final int[] HISTORY = {100, 1000, 3000};
+
+    @Inject
+    NodeService nodeService;
+
+    @Inject
+    SeriesCache seriesCache;
+
+    @Inject
+    TransactionManager tm;
+
+    private record Series(RelativeDifference relDiff, ValueEntity last) {}
+
+    private Series createSeries(int uploads) throws Exception {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        NodeEntity rangeNode = new JqNode("range", ".y", rootNode);
+        rangeNode.persist();
+        NodeEntity domainNode = new JqNode("domain", ".domain", rootNode);
+        domainNode.persist();
+        NodeEntity fingerprintNode = new JqNode("fingerprint", ".fingerprint", rootNode);
+        fingerprintNode.persist();
+
+        RelativeDifference relDiff = new RelativeDifference("relativediff-" + uploads, "{}");
+        relDiff.setNodes(fingerprintNode, rootNode, rangeNode, domainNode);
+        relDiff.setWindow(5);
+        relDiff.setMinPrevious(5);
+        relDiff.setFilter("mean");
+        relDiff.persist();
+
+        ValueEntity root = null;
+        for (int i = 0; i < uploads; i++) {
+            root = new ValueEntity(null, rootNode, JqObject.EMPTY);
+            root.persist();
+            new ValueEntity(null, domainNode, JqNumber.of(i), List.of(root)).persist();
+            new ValueEntity(null, rangeNode, JqNumber.of(100 + i % 3), List.of(root)).persist();
+            new ValueEntity(null, fingerprintNode, JqString.of("benchmark"), List.of(root)).persist();
+        }
+        tm.commit();
+        return new Series(relDiff, root);
+    }
+
+    @Test
+    void relative_difference_per_upload() throws Exception {
+        System.out.println(BenchmarkTimer.csvHeader());
+        for (int uploads : HISTORY) {
+            Series series = createSeries(uploads);
+            BenchmarkTimer.Result cold = BenchmarkTimer.run("cold-" + uploads, 2, 10,
+                    seriesCache::clear,
+                    () -> nodeService.calculateRelativeDifferenceValues(series.relDiff(), series.last(), 0));
+            BenchmarkTimer.Result cached = BenchmarkTimer.run("cached-" + uploads, 5, 50,
+                    () -> {},
+                    () -> nodeService.calculateRelativeDifferenceValues(series.relDiff(), series.last(), 0));
+            System.out.println(BenchmarkTimer.toCsv(cold));
+            System.out.println(BenchmarkTimer.toCsv(cached));
+        }
+    }
+}
@@ -7,11 +7,13 @@ import io.hyperfoil.tools.h5m.entity.NodeEntity;
 import io.hyperfoil.tools.h5m.entity.node.JqNode;
 import io.hyperfoil.tools.h5m.svc.FolderService;
 import io.hyperfoil.tools.h5m.svc.NodeService;
+import io.hyperfoil.tools.h5m.svc.ProcessingService;
 import io.hyperfoil.tools.h5m.svc.ValueService;
 import io.hyperfoil.tools.h5m.svc.WorkService;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import jakarta.transaction.TransactionManager;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.junit.jupiter.api.*;
 
 import java.io.IOException;
@@ -19,12 +21,19 @@ import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Realistic upload→calculate pipeline benchmark using real qvss test data.
  * Measures end-to-end time from folder setup through upload and value calculation.
  * <p>
- * Run with: mvn test -Dtest=UploadPipelineBenchmarkTest -Dsurefire.excludes=""
+ * Results are labelled with the h5m.worker.mode, {@link UploadPipelineVirtualBenchmarkTest} runs the same benchmarks
+ * with the virtual thread executor so both appear in its report.
+ * <p>
+ * Run with: mvn test -Dtest='UploadPipeline*BenchmarkTest' -Dsurefire.excludes=""
  */
 @QuarkusTest
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -50,6 +59,9 @@ public class UploadPipelineBenchmarkTest extends FreshDb {
     @Inject
     WorkService workService;
 
+    @Inject
+    ProcessingService processingService;
+
     // qvss files used in the fixedthreshold_qvss_throughput test
     private static final String[] QVSS_9 = {
             "27405.json", "27406.json", "27271.json", "27272.json",
@@ -131,6 +143,14 @@ public class UploadPipelineBenchmarkTest extends FreshDb {
         benchChainedPipeline("pipeline_chain_30u", QVSS_30);
     }
 
+    // ==================== Latency: 5 JQ nodes, 30 concurrent uploads ====================
+
+    @Test
+    @Order(7)
+    void latency_5nodes_30uploads() throws Exception {
+        benchUploadLatency("latency_5n_30u", 5, QVSS_30);
+    }
+
     // ==================== Final report ====================
 
     @AfterAll
@@ -153,7 +173,7 @@ public class UploadPipelineBenchmarkTest extends FreshDb {
         JqValue[] data = loadQvssData(files);
 
         BenchmarkTimer.Result result = BenchmarkTimer.run(
-                name, WARMUP, MEASURE,
+                label(name), WARMUP, MEASURE,
                 this::cleanDb,
                 () -> {
                     long folderId = setupFlatNodes(name, nodeCount);
@@ -173,7 +193,7 @@ public class UploadPipelineBenchmarkTest extends FreshDb {
         JqValue[] data = loadQvssData(files);
 
         BenchmarkTimer.Result result = BenchmarkTimer.run(
-                name, WARMUP, MEASURE,
+                label(name), WARMUP, MEASURE,
                 this::cleanDb,
                 () -> {
                     long folderId = setupChainedNodes(name);
@@ -188,6 +208,52 @@ public class UploadPipelineBenchmarkTest extends FreshDb {
         results.add(result);
     }
 
+    /*
+     * Uploads every file without draining the queue in between and measures, per upload, the time from the upload
+     * call until its ingestion completes. Reports the throughput and the latency percentiles over the measured rounds.
+     */
+    private void benchUploadLatency(String name, int nodeCount, String[] files) throws Exception {
+        JqValue[] data = loadQvssData(files);
+        List<Double> latencies = new ArrayList<>();
+        double elapsedMs = 0;
+        try (ExecutorService waiters = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int round = 0; round < WARMUP + MEASURE; round++) {
+                cleanDb();
+                long folderId = setupFlatNodes(name, nodeCount);
+                List<CompletableFuture<Double>> ingested = new ArrayList<>();
+                long start = System.nanoTime();
+                for (JqValue upload : data) {
+                    long submitted = System.nanoTime();
+                    long rootId = valueService.createRootValue(folderId, upload);
+                    ingested.add(CompletableFuture.supplyAsync(() -> {
+                        processingService.awaitIngestion(rootId, 5, TimeUnit.MINUTES);
+                        return (System.nanoTime() - submitted) / 1_000_000.0;
+                    }, waiters));
+                }
+                List<Double> roundLatencies = ingested.stream().map(CompletableFuture::join).toList();
+                awaitWorkQueue();
+                if (round >= WARMUP) {
+                    latencies.addAll(roundLatencies);
+                    elapsedMs += (System.nanoTime() - start) / 1_000_000.0;
+                }
+            }
+        }
+        double[] sorted = latencies.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        reports.add(String.format(
+                "[LATENCY] %s: uploads=%d, throughput=%.1f uploads/s, p50_ms=%.1f, p99_ms=%.1f, max_ms=%.1f",
+                label(name), sorted.length, sorted.length * 1000.0 / elapsedMs,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1]));
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String label(String name) {
+        return name + "_" + ConfigProvider.getConfig().getOptionalValue("h5m.worker.mode", String.class).orElse("platform");
+    }
+
     private long setupFlatNodes(String folderName, int nodeCount) throws Exception {
         tm.begin();
         long folderId = folderService.create(folderName).id();
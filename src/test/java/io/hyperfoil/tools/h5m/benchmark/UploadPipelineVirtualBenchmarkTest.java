@@ -0,0 +1,15 @@
+package io.hyperfoil.tools.h5m.benchmark;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+
+/**
+ * The upload pipeline benchmarks with the work queue on virtual threads (h5m.worker.mode=virtual), limited to the
+ * connection pool size. Run together with {@link UploadPipelineBenchmarkTest} to compare with the platform pool:
+ * <p>
+ * mvn test -Dtest='UploadPipeline*BenchmarkTest' -Dsurefire.excludes=""
+ */
+@QuarkusTest
+@TestProfile(VirtualWorkerProfile.class)
+public class UploadPipelineVirtualBenchmarkTest extends UploadPipelineBenchmarkTest {
+}
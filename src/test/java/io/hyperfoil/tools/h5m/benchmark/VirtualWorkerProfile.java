@@ -0,0 +1,12 @@
+package io.hyperfoil.tools.h5m.benchmark;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+public class VirtualWorkerProfile implements QuarkusTestProfile {
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("h5m.worker.mode", "virtual");
+    }
+}
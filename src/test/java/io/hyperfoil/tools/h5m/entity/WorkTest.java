@@ -118,4 +118,28 @@ public class WorkTest {
 
         assertFalse(wTwo.dependsOn(wOne));
     }
+    @Test
+    public void dependsOn_node_dependency_same_root_value(){
+        NodeEntity one = new JqNode("one");
+        NodeEntity two = new JqNode("two");
+        two.sources = List.of(one);
+
+        Work wOne = new Work(one,null, List.of(1L));
+        Work wTwo = new Work(two,null, List.of(2L));
+        wTwo.setRootValueIds(List.of(1L));
+
+        assertTrue(wTwo.dependsOn(wOne),"work from the same upload should depend on each other");
+    }
+    @Test
+    public void dependsOn_node_dependency_different_root_value(){
+        NodeEntity one = new JqNode("one");
+        NodeEntity two = new JqNode("two");
+        two.sources = List.of(one);
+
+        Work wOne = new Work(one,null, List.of(1L));
+        Work wTwo = new Work(two,null, List.of(3L));
+        wTwo.setRootValueIds(List.of(2L));
+
+        assertFalse(wTwo.dependsOn(wOne),"work from different uploads should run concurrently");
+    }
 }
@@ -0,0 +1,104 @@
+package io.hyperfoil.tools.h5m.provided;
+
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import jakarta.json.stream.JsonParsingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JqValueStreamParserTest {
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void parse_matches_JqValues_parse() {
+        String json = """
+                {"name":"run","count":3,"ratio":0.25,"ok":true,"missing":null,
+                 "nested":{"list":[1,"two",[3.5,false],{}],"empty":[]}}
+                """;
+        assertEquals(JqValues.parse(json), JqValueStreamParser.parse(stream(json)));
+    }
+
+    @Test
+    public void parse_scalar_root() {
+        assertEquals(JqValues.parse("42"), JqValueStreamParser.parse(stream("42")));
+        assertEquals(JqValues.parse("\"text\""), JqValueStreamParser.parse(stream("\"text\"")));
+    }
+
+    @Test
+    public void parse_deeply_nested() {
+        int depth = 50_000;
+        String json = "[".repeat(depth) + "]".repeat(depth);
+        JqValue value = JqValueStreamParser.parse(stream(json));
+        assertNotNull(value);
+    }
+
+    @Test
+    public void parse_invalid_json() {
+        assertThrows(JsonParsingException.class, () -> JqValueStreamParser.parse(stream("{\"a\":")));
+        assertThrows(JsonParsingException.class, () -> JqValueStreamParser.parse(stream("{} {}")));
+    }
+
+    @Test
+    public void parse_limit_exceeded() {
+        String json = "{\"data\":\"" + "x".repeat(10_000) + "\"}";
+        assertThrows(JqValueStreamParser.LimitExceededException.class, () -> JqValueStreamParser.parse(stream(json), 1024));
+        assertNotNull(JqValueStreamParser.parse(stream(json), json.length()));
+    }
+
+    /*
+     * {"a": <padding spaces> 1}, generated while it is read so the test itself never holds the payload
+     */
+    private static InputStream padded(long padding) {
+        byte[] head = "{\"a\":".getBytes(StandardCharsets.UTF_8);
+        byte[] tail = "1}".getBytes(StandardCharsets.UTF_8);
+        long length = head.length + padding + tail.length;
+        return new InputStream() {
+            long position = 0;
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= length) {
+                    return -1;
+                }
+                int n = (int) Math.min(len, length - position);
+                for (int i = 0; i < n; i++, position++) {
+                    if (position < head.length) {
+                        b[off + i] = head[(int) position];
+                    } else if (position >= length - tail.length) {
+                        b[off + i] = tail[(int) (position - (length - tail.length))];
+                    } else {
+                        b[off + i] = ' ';
+                    }
+                }
+                return n;
+            }
+        };
+    }
+
+    @Test
+    public void parse_does_not_buffer_the_payload() {
+        // the bound this parser provides: memory follows the parsed tree, not the size of the payload
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long payload = 64L * 1024 * 1024;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        JqValue value = JqValueStreamParser.parse(padded(payload));
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(JqValues.parse("{\"a\":1}"), value);
+        assertTrue(allocated < payload / 8, "parsing a " + payload + " byte payload allocated " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,55 @@
+package io.hyperfoil.tools.h5m.provided;
+
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import org.junit.jupiter.api.Test;
+
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueCodecTest {
+
+    private static JqValue large() {
+        StringBuilder json = new StringBuilder("{\"samples\":[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i > 0 ? "," : "").append("{\"name\":\"sample\",\"index\":").append(i).append(",\"ok\":true}");
+        }
+        return JqValues.parse(json.append("]}").toString());
+    }
+
+    @Test
+    public void small_values_stay_plain_json() {
+        JqValue value = JqValues.parse("{\"name\":\"run\",\"count\":3}");
+        byte[] encoded = ValueCodec.encode(value, 1024, Deflater.BEST_SPEED);
+        assertFalse(ValueCodec.isEncoded(encoded));
+        assertArrayEquals(JqValues.serializeToBytes(value), encoded);
+        assertEquals(value, ValueCodec.decode(encoded));
+    }
+
+    @Test
+    public void large_values_are_compressed() {
+        JqValue value = large();
+        byte[] json = JqValues.serializeToBytes(value);
+        byte[] encoded = ValueCodec.encode(value, 1024, Deflater.BEST_SPEED);
+        assertTrue(ValueCodec.isEncoded(encoded));
+        assertEquals(ValueCodec.DEFLATE, encoded[1]);
+        assertTrue(encoded.length < json.length / 4, "compressed " + encoded.length + " of " + json.length + " bytes");
+        assertEquals(value, ValueCodec.decode(encoded));
+        // equal values have equal bytes so the data column can be compared
+        assertArrayEquals(encoded, ValueCodec.encode(large(), 1024, Deflater.BEST_SPEED));
+    }
+
+    @Test
+    public void legacy_rows_decode_as_json() {
+        String json = "[1,\"two\",{\"three\":3.0},null]";
+        assertEquals(JqValues.parse(json), ValueCodec.decode(json.getBytes()));
+        assertNull(ValueCodec.decode(null));
+        assertNull(ValueCodec.encode(null, 0, Deflater.BEST_SPEED));
+    }
+
+    @Test
+    public void unknown_codec_fails() {
+        assertThrows(IllegalArgumentException.class, () -> ValueCodec.decode(new byte[]{ValueCodec.MARKER, 42, 1, 2}));
+    }
+}
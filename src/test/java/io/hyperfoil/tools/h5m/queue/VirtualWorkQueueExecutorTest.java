@@ -0,0 +1,68 @@
+package io.hyperfoil.tools.h5m.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualWorkQueueExecutorTest {
+
+    @Test
+    public void runs_at_most_maxConcurrency_at_once() throws InterruptedException {
+        VirtualWorkQueueExecutor executor = new VirtualWorkQueueExecutor(3, new WorkQueue());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS), "every runnable should run");
+        assertTrue(maxRunning.get() <= 3, "at most 3 runnables at once but saw " + maxRunning.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runnables_run_on_virtual_threads() throws InterruptedException {
+        VirtualWorkQueueExecutor executor = new VirtualWorkQueueExecutor(1, new WorkQueue());
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger virtual = new AtomicInteger();
+        executor.execute(() -> {
+            if (Thread.currentThread().isVirtual()) {
+                virtual.incrementAndGet();
+            }
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, virtual.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdown_finishes_queued_runnables() throws InterruptedException {
+        VirtualWorkQueueExecutor executor = new VirtualWorkQueueExecutor(1, new WorkQueue());
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            executor.execute(count::incrementAndGet);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(5, count.get());
+        assertEquals(5, executor.getCompletedTaskCount());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(count::incrementAndGet));
+    }
+}
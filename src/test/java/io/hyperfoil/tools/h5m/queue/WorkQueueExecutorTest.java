@@ -0,0 +1,62 @@
+package io.hyperfoil.tools.h5m.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkQueueExecutorTest {
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void lower_concurrency_retires_busy_workers() throws InterruptedException {
+        WorkQueueExecutor executor = new WorkQueueExecutor(4, 50, 60, TimeUnit.SECONDS, new WorkQueue());
+        executor.prestartAllCoreThreads();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger afterDecrease = new AtomicInteger(-1);
+        for (int i = 0; i < 400; i++) {
+            executor.execute(() -> {
+                int now = running.incrementAndGet();
+                if (afterDecrease.get() >= 0) {
+                    afterDecrease.accumulateAndGet(now, Math::max);
+                }
+                maxRunning.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        }
+        await(() -> executor.getActiveCount() == 4, "4 workers should be busy");
+
+        // work is still pending, the surplus workers retire at their next task instead of waiting for an empty poll
+        executor.setConcurrency(1);
+        await(() -> executor.getPoolSize() == 1, "the pool should shrink to 1 worker but has " + executor.getPoolSize());
+        assertFalse(executor.getQueue().isEmpty(), "the workers should retire while work is pending");
+        assertEquals(1, executor.getMaximumPoolSize());
+        afterDecrease.set(0);
+        Thread.sleep(100);
+        assertTrue(afterDecrease.get() <= 1, "at most 1 runnable at once after the decrease but saw " + afterDecrease.get());
+        assertTrue(executor.getActiveCount() <= 1);
+
+        executor.setConcurrency(3);
+        await(() -> executor.getActiveCount() == 3, "the pool should grow back to 3 busy workers");
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -154,6 +154,30 @@ public class WorkQueueTest extends FreshDb {
         tm.commit();
     }
 
+    @Test
+    public void background_work_runs_after_other_ready_work() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        WorkQueue q = new WorkQueue();
+        tm.begin();
+        RootNode root = new RootNode();
+        root.persist();
+        NodeEntity aNode = new JqNode("a",".a",root);
+        aNode.persist();
+        ValueEntity rootValue1 = new ValueEntity(null,root,JqValues.parse("\"one\""));
+        rootValue1.persist();
+        ValueEntity rootValue2 = new ValueEntity(null,root,JqValues.parse("\"two\""));
+        rootValue2.persist();
+
+        Work recalculation = new Work(aNode,aNode.sources,List.of(rootValue1.id));
+        recalculation.setBackground(true);
+        Work upload = new Work(aNode,aNode.sources,List.of(rootValue2.id));
+        tm.commit();
+
+        q.addWorks(List.of(recalculation));
+        q.addWorks(List.of(upload));
+        assertSame(upload,q.poll(),"upload work should run before the background work queued earlier");
+        assertSame(recalculation,q.poll(),"background work should run once nothing else is ready");
+    }
+
     @Test
     public void poll_null_until_source_completes() throws InterruptedException, SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
         WorkQueue q = new WorkQueue();
@@ -378,6 +402,30 @@ public class WorkQueueTest extends FreshDb {
         assertFalse(q.isPending(childWork),"childWork should remain in the queue");
     }
 
+    @Test
+    public void remove_pending_releases_dependents() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        WorkQueue q = new WorkQueue();
 
+        tm.begin();
+        NodeEntity aNode = new JqNode("a");
+        aNode.persist();
+        NodeEntity bNode = new JqNode("b");
+        bNode.sources= List.of(aNode);
+        bNode.persist();
+
+        Work aWork = new Work(aNode,null,null);
+        Work bWork = new Work(bNode,null,null);
+        tm.commit();
+
+        q.addWorks(List.of(bWork, aWork));
+        assertEquals(List.of(aWork),q.getRequiredPrecedingRunnables(bWork),"b should wait for a");
+
+        assertTrue(q.remove(aWork),"a should be removed from the queue");
+        assertFalse(q.hasWork(aWork),"a should no longer be tracked");
+
+        Runnable polled = q.poll();
+        assertEquals(bWork,polled,"b should no longer wait for the removed a");
+        assertTrue(q.isActive(bWork),"b should be active after poll");
+    }
 
 }
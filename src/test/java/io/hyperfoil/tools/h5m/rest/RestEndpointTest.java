@@ -21,7 +21,9 @@ import jakarta.ws.rs.core.MediaType;
 import org.junit.jupiter.api.Test;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -306,6 +308,77 @@ public class RestEndpointTest extends FreshDb {
                 .body("size()", equalTo(0));
     }
 
+    @Test
+    public void value_get_node_values_by_page() throws Exception {
+        tm.begin();
+        RootNode rootNode = new RootNode();
+        rootNode.persist();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ValueEntity value = new ValueEntity(null, rootNode, JqValues.parse("{\"idx\": " + i + "}"));
+            value.persist();
+            ids.add(value.id);
+        }
+        tm.commit();
+
+        List<Long> firstPage = given()
+                .when().get("/api/value/node/" + rootNode.id + "?limit=2")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath().getList("id", Long.class);
+        assertEquals(ids.subList(0, 2), firstPage);
+
+        given()
+                .when().get("/api/value/node/" + rootNode.id + "?after=" + firstPage.getLast() + "&limit=2")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(1))
+                .body("[0].data.idx", equalTo(2));
+
+        String lines = given()
+                .accept("application/x-ndjson")
+                .when().get("/api/value/node/" + rootNode.id + "/stream?after=" + ids.getFirst())
+                .then()
+                .statusCode(200)
+                .extract().asString();
+        assertEquals(List.of(1, 2), lines.lines().filter(line -> !line.isBlank())
+                .map(line -> JqValues.parse(line).getField("data").getField("idx").tryDouble().intValue()).toList());
+
+        given()
+                .when().get("/api/value/node/" + rootNode.id + "?limit=0")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void value_stream_node_descendants() throws Exception {
+        tm.begin();
+        RootNode rootNode = new RootNode();
+        rootNode.persist();
+        JqNode jqNode = new JqNode("child", ".idx");
+        jqNode.sources = List.of(rootNode);
+        jqNode.persist();
+        List<Long> childIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ValueEntity rootValue = new ValueEntity(null, rootNode, JqValues.parse("{\"idx\": " + i + "}"));
+            rootValue.persist();
+            ValueEntity childValue = new ValueEntity(null, jqNode, JqValues.parse(String.valueOf(i)), List.of(rootValue));
+            childValue.persist();
+            childIds.add(childValue.id);
+        }
+        tm.commit();
+
+        // without value_closure the descendant IDs are read once for the stream, resuming skips the earlier ones
+        String lines = given()
+                .accept("application/x-ndjson")
+                .when().get("/api/value/node/" + rootNode.id + "/descendants/stream?after=" + childIds.getFirst())
+                .then()
+                .statusCode(200)
+                .extract().asString();
+        assertEquals(childIds.subList(1, 3), lines.lines().filter(line -> !line.isBlank())
+                .map(line -> JqValues.parse(line).getField("id").tryDouble().longValue()).toList());
+    }
+
     @Test
     public void value_get_descendants_with_data() throws Exception {
         tm.begin();
@@ -464,6 +537,86 @@ public class RestEndpointTest extends FreshDb {
                 .body("[0].data", equalTo("hello"));
     }
 
+    @Test
+    public void upload_batch_ndjson_creates_one_upload_per_line() throws InterruptedException {
+        long folderId = createFolder("batch-ndjson-test");
+        Long groupId = getGroupId("batch-ndjson-test");
+        Long jqNodeId = createNode(groupId, "extract", ".key");
+
+        List<Long> uploadIds = given()
+                .contentType("application/x-ndjson")
+                .body("{\"key\": \"a\"}\n\n{\"key\": \"b\"}\n{\"key\": \"c\"}\n")
+                .when().post("/api/folder/" + folderId + "/upload/batch")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath().getList(".", Long.class);
+        assertEquals(3, uploadIds.size());
+        assertEquals(3, uploadIds.stream().distinct().count(), "uploadIds should be unique");
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!workService.isIdle() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(workService.isIdle(), "Work queue should be idle after processing");
+
+        given()
+                .when().get("/api/value/node/" + jqNodeId)
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(3))
+                .body("data", containsInAnyOrder("a", "b", "c"));
+    }
+
+    @Test
+    public void upload_batch_ndjson_invalid_line_returns_error() throws Exception {
+        long folderId = createFolder("batch-invalid-test");
+        // more lines than h5m.upload.batchSize before the invalid one, no batch may be created
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            body.append("{\"key\": ").append(i).append("}\n");
+        }
+        given()
+                .contentType("application/x-ndjson")
+                .body(body.append("{\"key\":\n").toString())
+                .when().post("/api/folder/" + folderId + "/upload/batch")
+                .then()
+                .statusCode(400);
+
+        tm.begin();
+        long uploads = ValueEntity.count("folder.id", folderId);
+        tm.commit();
+        assertEquals(0, uploads, "a request with an invalid line should not create any uploads");
+    }
+
+    @Test
+    public void upload_batch_multipart_invalid_file_returns_error() throws Exception {
+        long folderId = createFolder("batch-multipart-invalid-test");
+        given()
+                .multiPart("file", "first.json", "{\"cpu\": 95}".getBytes(StandardCharsets.UTF_8), "application/json")
+                .multiPart("file", "second.json", "{\"cpu\":".getBytes(StandardCharsets.UTF_8), "application/json")
+                .when().post("/api/folder/" + folderId + "/upload/batch")
+                .then()
+                .statusCode(400);
+
+        tm.begin();
+        long uploads = ValueEntity.count("folder.id", folderId);
+        tm.commit();
+        assertEquals(0, uploads, "a request with an invalid file should not create any uploads");
+    }
+
+    @Test
+    public void upload_batch_multipart_files() {
+        long folderId = createFolder("batch-multipart-test");
+        List<Long> uploadIds = given()
+                .multiPart("file", "first.json", "{\"cpu\": 95}".getBytes(StandardCharsets.UTF_8), "application/json")
+                .multiPart("file", "second.json", "{\"cpu\": 99}".getBytes(StandardCharsets.UTF_8), "application/json")
+                .when().post("/api/folder/" + folderId + "/upload/batch")
+                .then()
+                .statusCode(200)
+                .extract().jsonPath().getList(".", Long.class);
+        assertEquals(2, uploadIds.size());
+    }
+
     // -- Dashboard summaries --
 
     @Test
@@ -1105,6 +1258,44 @@ public class RestEndpointTest extends FreshDb {
                 .statusCode(404);
     }
 
+    @Test
+    public void recalculation_status_stream() throws Exception {
+        long folderId = createFolder("recalculation-stream");
+        Long groupId = getGroupId("recalculation-stream");
+        Long nodeId = createNode(groupId, "extract", ".value");
+        Long uploadId = given()
+                .multiPart("raw", "{\"value\": 42}")
+                .when().post("/api/folder/" + folderId + "/upload")
+                .then()
+                .statusCode(200)
+                .extract().as(Long.class);
+        awaitIngestionCompleted(uploadId);
+        processingService.recalculateNode(nodeId);
+        assertTrue(processingService.awaitRecalculation(nodeId, 30, TimeUnit.SECONDS));
+
+        // the stream ends with the event that reports the end of the recalculation
+        String events = given()
+                .accept(MediaType.SERVER_SENT_EVENTS)
+                .when().get("/api/processing/node/" + nodeId + "/stream")
+                .then()
+                .statusCode(200)
+                .contentType(startsWith(MediaType.SERVER_SENT_EVENTS))
+                .extract().asString();
+        List<String> data = events.lines().filter(line -> line.startsWith("data:")).toList();
+        assertEquals(1, data.size(), events);
+        assertTrue(data.getFirst().contains("\"state\":\"COMPLETED\""), events);
+        assertTrue(data.getFirst().contains("\"completed\":1"), events);
+    }
+
+    @Test
+    public void recalculation_status_stream_not_found() {
+        given()
+                .accept(MediaType.SERVER_SENT_EVENTS)
+                .when().get("/api/processing/node/999999/stream")
+                .then()
+                .statusCode(404);
+    }
+
     @Test
     public void upload_status() {
         long folderId = createFolder("upload-status");
@@ -21,6 +21,7 @@ import org.junit.jupiter.api.Test;
 import io.hyperfoil.tools.h5m.entity.node.SplitNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -53,6 +54,9 @@ public class EDivisiveTest extends FreshDb {
     @Inject
     EntityManager em;
 
+    @Inject
+    SeriesCache seriesCache;
+
     private void awaitIdle(long timeoutMs) throws InterruptedException {
         long deadline = System.currentTimeMillis() + timeoutMs;
         int stableChecks = 0;
@@ -837,4 +841,95 @@ public class EDivisiveTest extends FreshDb {
                 "remain the same. The step at index 10 is still present. " +
                 "Initial: " + initialCount + ", after more: " + afterMoreUploads.size());
     }
+
+    @Test
+    public void series_cache_applies_new_uploads() throws Exception {
+        double[] series = new double[12];
+        for (int i = 0; i < series.length; i++) series[i] = 100.0 + i;
+        long edId = setupAndUpload("series-cache-test", series, 5, 0.05);
+        long folderId = folderService.find("series-cache-test").id();
+
+        // an out of order upload lands between the existing domain values
+        processingService.awaitIngestion(valueService.createRootValue(folderId,
+                JqValues.parse("{\"v\": 500.5, \"fp\": \"default\", \"d\": 5.5}")), 30, TimeUnit.SECONDS);
+        awaitIdle(10_000);
+
+        tm.begin();
+        EDivisive ed = EDivisive.findById(edId);
+        NodeEntity groupBy = NodeEntity.findById(ed.getGroupByNode().getId());
+        ValueEntity fingerprint = ValueEntity.<ValueEntity>find("node.id", ed.getFingerprintNode().getId()).firstResult();
+        SeriesCache.Window cached = seriesCache.window(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(), 500);
+        seriesCache.clear();
+        SeriesCache.Window loaded = seriesCache.window(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(), 500);
+        tm.commit();
+
+        assertEquals(13, loaded.size());
+        assertEquals(500.5, loaded.values()[6]);
+        assertArrayEquals(loaded.values(), cached.values(), "cached series should match a fresh load");
+        assertArrayEquals(loaded.rangeIds(), cached.rangeIds());
+        assertArrayEquals(loaded.domainIds(), cached.domainIds());
+    }
+
+    @Test
+    public void series_cache_does_not_keep_rolled_back_values() throws Exception {
+        double[] series = new double[12];
+        for (int i = 0; i < series.length; i++) series[i] = 100.0 + i;
+        long edId = setupAndUpload("series-cache-rollback-test", series, 5, 0.05);
+        awaitIdle(10_000);
+        seriesCache.clear();
+
+        // a transaction adds a range value to an existing upload and reads the series before it rolls back
+        tm.begin();
+        EDivisive ed = EDivisive.findById(edId);
+        NodeEntity groupBy = NodeEntity.findById(ed.getGroupByNode().getId());
+        ValueEntity fingerprint = ValueEntity.<ValueEntity>find("node.id", ed.getFingerprintNode().getId()).firstResult();
+        ValueEntity root = valueService.getAncestor(fingerprint, groupBy).getFirst();
+        new ValueEntity(null, ed.getRangeNode(), JqValues.parse("999.0"), List.of(root)).persist();
+        em.flush();
+        seriesCache.window(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(), 500);
+        tm.rollback();
+
+        tm.begin();
+        ed = EDivisive.findById(edId);
+        groupBy = NodeEntity.findById(ed.getGroupByNode().getId());
+        fingerprint = ValueEntity.<ValueEntity>find("node.id", ed.getFingerprintNode().getId()).firstResult();
+        SeriesCache.Window cached = seriesCache.window(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(), 500);
+        seriesCache.clear();
+        SeriesCache.Window loaded = seriesCache.window(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(), 500);
+        tm.commit();
+
+        assertEquals(12, loaded.size());
+        assertArrayEquals(loaded.values(), cached.values(), "the cached series should not hold the rolled back value");
+        assertArrayEquals(loaded.rangeIds(), cached.rangeIds());
+    }
+
+    @Test
+    public void series_cache_span_is_a_slice_of_the_series() throws Exception {
+        double[] series = new double[12];
+        for (int i = 0; i < series.length; i++) series[i] = 100.0 + i;
+        long edId = setupAndUpload("series-cache-span-test", series, 5, 0.05);
+        awaitIdle(10_000);
+        seriesCache.clear();
+
+        tm.begin();
+        EDivisive ed = EDivisive.findById(edId);
+        NodeEntity groupBy = NodeEntity.findById(ed.getGroupByNode().getId());
+        ValueEntity fingerprint = ValueEntity.<ValueEntity>find("node.id", ed.getFingerprintNode().getId()).firstResult();
+        // domains are 0..11, the cached tail of a short span does not reach back to domain 2
+        assertNull(seriesCache.span(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(),
+                JqValues.parse("2"), JqValues.parse("2"), 1, 0));
+        // two entries before the first domain after 9 up to domain 11
+        SeriesCache.Window preceding = seriesCache.span(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(),
+                JqValues.parse("9"), JqValues.parse("11"), 2, 0);
+        // with after the slice also holds the three entries from domain 5
+        SeriesCache.Window around = seriesCache.span(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode(),
+                JqValues.parse("5"), JqValues.parse("5"), 2, 3);
+        SeriesCache.Window all = seriesCache.all(ed.getRangeNode(), groupBy, fingerprint, ed.getDomainNode());
+        tm.commit();
+
+        assertNotNull(preceding);
+        assertArrayEquals(Arrays.copyOfRange(all.values(), 8, 12), preceding.values());
+        assertNotNull(around);
+        assertArrayEquals(Arrays.copyOfRange(all.values(), 4, 8), around.values());
+    }
 }
@@ -12,7 +12,9 @@ import io.hyperfoil.tools.h5m.entity.ProcessingEntity;
 
 import io.hyperfoil.tools.h5m.entity.ValueEntity;
 import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.h5m.entity.node.RootNode;
 import io.hyperfoil.tools.h5m.notification.NotificationMethod;
+import io.quarkus.arc.ClientProxy;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
@@ -46,6 +48,9 @@ public class FolderServiceTest extends FreshDb {
     @Inject
     ValueService valueService;
 
+    @Inject
+    EphemeralValueStore ephemeralValues;
+
     private void awaitIdle(long timeoutMs) throws InterruptedException {
         long deadline = System.currentTimeMillis() + timeoutMs;
         int stableChecks = 0;
@@ -318,6 +323,119 @@ public class FolderServiceTest extends FreshDb {
         tm.commit();
     }
 
+    @Test
+    public void ephemeral_intermediate_data_passed_through_memory() throws Exception {
+        // Node graph: root → parent (.key) → child ({parent}:.)
+        // parent data is kept in memory for child instead of written and nulled
+        tm.begin();
+        long folderId = folderService.create("ephemeral-pass-through-test").id();
+        FolderEntity folder = folderService.read(folderId);
+
+        JqNode parent = new JqNode("parent", ".key", folder.group.root);
+        parent.group = folder.group;
+        parent.persist();
+
+        JqNode child = new JqNode("child", ".", parent);
+        child.group = folder.group;
+        child.persist();
+
+        long parentId = parent.id;
+        long childId = child.id;
+        tm.commit();
+
+        long uploadId = valueService.createRootValue(folderId, JqValues.parse("{\"key\": \"k1\"}"));
+        processingService.getByRootValueId(uploadId).afterCleanup.get(30, TimeUnit.SECONDS);
+
+        tm.begin();
+        List<ValueEntity> parentValues = ValueEntity.find("node.id", parentId).list();
+        assertEquals(1, parentValues.size(), "Parent should have a value row");
+        assertNotNull(parentValues.get(0).contentHash, "Parent content hash should be stored without its data");
+        ephemeralValues.fill(parentValues);
+        assertNull(parentValues.get(0).data, "Parent data should be released once the upload is processed");
+
+        List<ValueEntity> childValues = ValueEntity.find("node.id", childId).list();
+        assertEquals(1, childValues.size(), "Child should have a value");
+        assertEquals("k1", childValues.get(0).data.asText(), "Child should be calculated from the parent data in memory");
+        tm.commit();
+    }
+
+    @Test
+    public void ephemeral_data_of_rolled_back_transaction_is_not_kept() throws Exception {
+        tm.begin();
+        RootNode rootNode = new RootNode();
+        rootNode.persist();
+        tm.commit();
+        ValueEntity value = valueService.create(new ValueEntity(null, rootNode, null));
+        int before = ephemeralValues.size();
+
+        // a rolled back batch did not write the NULL row, later reads must not see its data
+        tm.begin();
+        ephemeralValues.put(value, JqValues.parse("\"uncommitted\""));
+        tm.rollback();
+        assertEquals(before, ephemeralValues.size());
+        ValueEntity read = new ValueEntity();
+        read.id = value.id;
+        ephemeralValues.fill(List.of(read));
+        assertNull(read.data, "data of a rolled back transaction should not be kept");
+
+        tm.begin();
+        ephemeralValues.put(value, JqValues.parse("\"committed\""));
+        tm.commit();
+        ephemeralValues.fill(List.of(read));
+        assertEquals("committed", read.data.asText());
+        ephemeralValues.release(value.getUploadId());
+    }
+
+    @Test
+    public void ephemeral_data_over_max_bytes_is_written_to_the_row() throws Exception {
+        tm.begin();
+        RootNode rootNode = new RootNode();
+        rootNode.persist();
+        tm.commit();
+        ValueEntity first = valueService.create(new ValueEntity(null, rootNode, null));
+        ValueEntity second = valueService.create(new ValueEntity(null, rootNode, null));
+        ValueEntity large = valueService.create(new ValueEntity(null, rootNode, null));
+        EphemeralValueStore store = ClientProxy.unwrap(ephemeralValues);
+        long maxBytes = store.maxBytes;
+        // room for one of the 13 and 14 byte values
+        store.maxBytes = 20;
+        try {
+            tm.begin();
+            ephemeralValues.put(first, JqValues.parse("\"first-value\""));
+            tm.commit();
+            tm.begin();
+            ephemeralValues.put(second, JqValues.parse("\"second-value\""));
+            ephemeralValues.put(large, JqValues.parse("\"larger-than-the-limit\""));
+            tm.commit();
+            assertTrue(ephemeralValues.bytes() <= 20, "kept " + ephemeralValues.bytes() + " bytes");
+
+            tm.begin();
+            ValueEntity read = ValueEntity.findById(first.id);
+            assertEquals("first-value", read.data.asText(), "the oldest value should be evicted to its row");
+            read = ValueEntity.findById(large.id);
+            assertEquals("larger-than-the-limit", read.data.asText(), "a value larger than the limit should be written to its row");
+            read = ValueEntity.findById(second.id);
+            assertNull(read.data, "the newest value should only be kept in memory");
+            tm.commit();
+
+            // a read of the NULL row from before the eviction committed still gets the data
+            ValueEntity stale = new ValueEntity();
+            stale.id = first.id;
+            ValueEntity kept = new ValueEntity();
+            kept.id = second.id;
+            tm.begin();
+            ephemeralValues.fill(List.of(stale, kept));
+            tm.commit();
+            assertEquals("first-value", stale.data.asText());
+            assertEquals("second-value", kept.data.asText());
+        } finally {
+            store.maxBytes = maxBytes;
+            ephemeralValues.release(first.getUploadId());
+            ephemeralValues.release(second.getUploadId());
+            ephemeralValues.release(large.getUploadId());
+        }
+    }
+
     @Test
     public void ephemeral_auto_leaf_data_preserved() throws Exception {
         // ephemeral=AUTO: leaf node (no children) should keep data
@@ -0,0 +1,86 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.pasted.ProxyJq;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class JsContextPoolTest {
+
+    @Inject
+    JsContextPool pool;
+
+    @Inject
+    MeterRegistry registry;
+
+    private double hits() {
+        return registry.get("h5m.js.context.acquire").tag("result", "hit").counter().count();
+    }
+
+    @Test
+    void execute_reuses_context() {
+        pool.execute("(a) => a", new Object[]{1}, Value::asInt);
+        double before = hits();
+        int result = pool.execute("(a, b) => a + b", new Object[]{1, 2}, Value::asInt);
+        assertEquals(3, result);
+        assertEquals(before + 1, hits(), "second evaluation should reuse the pooled context");
+        assertTrue(pool.idleCount() > 0, "context should be returned to the pool");
+    }
+
+    @Test
+    void execute_function_with_trailing_semicolon_and_comment() {
+        String function = """
+                function(value){
+                  return value.a * 2;
+                }; // doubled
+                """;
+        int result = pool.execute(function, new Object[]{ProxyJq.wrap(JqValues.parse("{\"a\":21}"))}, Value::asInt);
+        assertEquals(42, result);
+    }
+
+    @Test
+    void execute_removes_globals_between_uses() {
+        pool.execute("() => { globalThis.leaked = 1; return leaked; }", new Object[0], Value::asInt);
+        String type = pool.execute("() => typeof leaked", new Object[0], Value::asString);
+        assertEquals("undefined", type, "globals from the previous function should be removed");
+    }
+
+    @Test
+    void execute_does_not_share_changed_builtins() {
+        double discarded = registry.get("h5m.js.context.discarded").counter().count();
+        pool.execute("() => { Array.prototype.leaked = 1; Math.random = () => 4; return 1; }", new Object[0], Value::asInt);
+        assertEquals(discarded + 1, registry.get("h5m.js.context.discarded").counter().count(),
+                "a context with changed builtins should not return to the pool");
+        String type = pool.execute("() => typeof [].leaked", new Object[0], Value::asString);
+        assertEquals("undefined", type, "prototype changes of another node should not be visible");
+        double random = pool.execute("() => Math.random()", new Object[0], Value::asDouble);
+        assertNotEquals(4.0, random, "replaced builtins of another node should not be visible");
+    }
+
+    @Test
+    void execute_does_not_keep_function_state() {
+        String counter = "(() => { let calls = 0; return () => ++calls; })()";
+        assertEquals(1, pool.execute(counter, new Object[0], Value::asInt));
+        assertEquals(1, pool.execute(counter, new Object[0], Value::asInt), "state captured by the function should not outlive the call");
+    }
+
+    @Test
+    void execute_keeps_instanceof_prelude() {
+        boolean result = pool.execute("(v) => v instanceof Object", new Object[]{ProxyJq.wrap(JqValues.parse("{\"a\":1}"))}, Value::asBoolean);
+        assertTrue(result, "JqObject proxies should be instances of Object");
+    }
+
+    @Test
+    void execute_throws_on_error() {
+        assertThrows(PolyglotException.class, () -> pool.execute("() => { throw new Error('boom'); }", new Object[0], Value::asInt));
+        int result = pool.execute("() => 1", new Object[0], Value::asInt);
+        assertEquals(1, result, "pool should still work after a guest exception");
+    }
+}
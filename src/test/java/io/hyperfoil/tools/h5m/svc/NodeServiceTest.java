@@ -101,6 +101,28 @@ public class NodeServiceTest extends FreshDb {
         assertFalse(nodeService.isEphemeral(node),"analysis node cannot be ephemeral");
     }
 
+    @Test
+    public void isDiscardedAfterUpload_analysis_source() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+        NodeEntity node = new JqNode("node",".node");
+        node.persist();
+        NodeEntity child = new JqNode("child",".child",node);
+        child.persist();
+        NodeEntity other = new JqNode("other",".other");
+        other.persist();
+        NodeEntity otherChild = new JqNode("otherChild",".child",other);
+        otherChild.persist();
+        NodeEntity rd = new RelativeDifference("rd","");
+        rd.sources = List.of(other);
+        rd.persist();
+        tm.commit();
+
+        assertTrue(nodeService.isDiscardedAfterUpload(node),"intermediate node data is discarded");
+        assertFalse(nodeService.isDiscardedAfterUpload(child),"leaf node data is kept");
+        assertTrue(nodeService.isEphemeral(other),"intermediate node is ephemeral");
+        assertFalse(nodeService.isDiscardedAfterUpload(other),"analysis source data is kept");
+    }
+
     @Test
     public void getEphemeralSources_root_source() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
         tm.begin();
@@ -3144,4 +3166,16 @@ public class NodeServiceTest extends FreshDb {
         tm.commit();
     }
 
+    @Test
+    public void relativeDifference_series_bounds() {
+        List<JqValue> domains = List.of(JqNumber.of(1), JqNumber.of(2), JqNumber.of(2), JqNumber.of(10));
+        assertEquals(0, NodeService.upperBound(domains, JqNumber.of(0)));
+        assertEquals(3, NodeService.upperBound(domains, JqNumber.of(2)));
+        assertEquals(1, NodeService.lowerBound(domains, JqNumber.of(2)));
+        assertEquals(4, NodeService.upperBound(domains, JqNumber.of(10)));
+        assertEquals(4, NodeService.lowerBound(domains, JqNumber.of(11)));
+        assertTrue(NodeService.compareDomain(JqNumber.of(2), JqNumber.of(10)) < 0, "numbers compare numerically");
+        assertTrue(NodeService.compareDomain(JqString.of("2024-01-02"), JqString.of("2024-01-10")) < 0);
+    }
+
 }
@@ -0,0 +1,195 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.api.Change;
+import io.hyperfoil.tools.h5m.api.NodeType;
+import io.hyperfoil.tools.h5m.entity.NotificationConfig;
+import io.hyperfoil.tools.h5m.entity.NotificationLog;
+import io.hyperfoil.tools.h5m.entity.NotificationOutbox;
+import io.hyperfoil.tools.h5m.event.ChangeDetectedEvent;
+import io.hyperfoil.tools.h5m.notification.NotificationMethod;
+import io.hyperfoil.tools.jjq.value.JqObject;
+import io.hyperfoil.tools.jjq.value.JqString;
+import io.quarkus.mailer.MockMailbox;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class NotificationDispatcherTest extends FreshDb {
+
+    @Inject
+    TransactionManager tm;
+
+    @Inject
+    FolderService folderService;
+
+    @Inject
+    NotificationService notificationService;
+
+    @Inject
+    NotificationDispatcher dispatcher;
+
+    @Inject
+    MockMailbox mailbox;
+
+    @BeforeEach
+    void clearMailbox() {
+        mailbox.clear();
+    }
+
+    private static Change change(long valueId) {
+        return new Change(valueId, 7L, "threshold-node", NodeType.FIXED_THRESHOLD,
+                JqObject.builder().put("value", 95.3).build(), JqString.of("perf-test"));
+    }
+
+    private void await(BooleanSupplier condition, String message) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private long countOutbox(String status) {
+        try {
+            tm.begin();
+            long count = NotificationOutbox.count("status", status);
+            tm.commit();
+            return count;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long countOutbox() {
+        try {
+            tm.begin();
+            long count = NotificationOutbox.count();
+            tm.commit();
+            return count;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void changes_for_the_same_node_are_sent_as_one_notification() throws Exception {
+        long folderId = folderService.create("outbox-batch").id();
+        notificationService.create(folderId, NotificationMethod.EMAIL, "mail", "{\"to\": \"team@example.com\"}", null, null);
+
+        tm.begin();
+        notificationService.onChangeDetected(new ChangeDetectedEvent(folderId, List.of(change(1L)), true, 100L));
+        notificationService.onChangeDetected(new ChangeDetectedEvent(folderId, List.of(change(2L)), true, 100L));
+        assertTrue(mailbox.getMailsSentTo("team@example.com").isEmpty(), "nothing should be sent before commit");
+        tm.commit();
+
+        await(() -> !mailbox.getMailsSentTo("team@example.com").isEmpty(), "notification was not sent after commit");
+        await(() -> countOutbox() == 0, "sent rows should be removed from the outbox");
+        assertEquals(1, mailbox.getMailsSentTo("team@example.com").size());
+
+        tm.begin();
+        List<NotificationLog> logs = NotificationLog.listAll();
+        assertEquals(1, logs.size());
+        assertEquals("sent", logs.getFirst().status);
+        assertEquals(2, logs.getFirst().changeCount);
+        tm.commit();
+    }
+
+    @Test
+    public void changes_of_different_uploads_are_sent_separately() throws Exception {
+        long folderId = folderService.create("outbox-uploads").id();
+        notificationService.create(folderId, NotificationMethod.EMAIL, "mail", "{\"to\": \"team@example.com\"}", null, null);
+
+        tm.begin();
+        notificationService.onChangeDetected(new ChangeDetectedEvent(folderId, List.of(change(1L)), true, 100L));
+        notificationService.onChangeDetected(new ChangeDetectedEvent(folderId, List.of(change(2L)), true, 101L));
+        tm.commit();
+
+        await(() -> countOutbox() == 0, "sent rows should be removed from the outbox");
+        assertEquals(2, mailbox.getMailsSentTo("team@example.com").size());
+    }
+
+    @Test
+    public void claimed_rows_are_not_sent_again() throws Exception {
+        long folderId = folderService.create("outbox-claim").id();
+        NotificationConfig config = notificationService.create(folderId, NotificationMethod.EMAIL, "mail", "{\"to\": \"team@example.com\"}", null, null);
+
+        // another instance claimed the row, its claim has not timed out
+        tm.begin();
+        NotificationOutbox row = new NotificationOutbox();
+        row.folderId = folderId;
+        row.configId = config.id;
+        row.rootValueId = 100L;
+        row.nodeId = 7L;
+        row.nodeName = "threshold-node";
+        row.changes = NotificationDispatcher.serializeChanges(List.of(change(1L)));
+        row.status = NotificationOutbox.SENDING;
+        row.claimedAt = LocalDateTime.now();
+        row.claims = 1;
+        row.nextAttemptAt = LocalDateTime.now();
+        row.persist();
+        tm.commit();
+
+        dispatcher.dispatchDue();
+        Thread.sleep(200);
+        assertTrue(mailbox.getMailsSentTo("team@example.com").isEmpty());
+        assertEquals(1, countOutbox(NotificationOutbox.SENDING));
+    }
+
+    @Test
+    public void rolled_back_detection_does_not_notify() throws Exception {
+        long folderId = folderService.create("outbox-rollback").id();
+        notificationService.create(folderId, NotificationMethod.EMAIL, "mail", "{\"to\": \"team@example.com\"}", null, null);
+
+        tm.begin();
+        notificationService.onChangeDetected(new ChangeDetectedEvent(folderId, List.of(change(1L)), true, 100L));
+        tm.rollback();
+
+        dispatcher.dispatchDue();
+        Thread.sleep(200);
+        assertTrue(mailbox.getMailsSentTo("team@example.com").isEmpty());
+        assertEquals(0, countOutbox(NotificationOutbox.PENDING));
+    }
+
+    @Test
+    public void failed_send_is_retried_until_max_attempts() throws Exception {
+        long folderId = folderService.create("outbox-retry").id();
+        // nothing listens on port 1
+        notificationService.create(folderId, NotificationMethod.WEBHOOK, "hook", "{\"url\": \"http://localhost:1/hook\"}", null, null);
+
+        tm.begin();
+        notificationService.onChangeDetected(new ChangeDetectedEvent(folderId, List.of(change(1L)), true, 100L));
+        tm.commit();
+
+        await(() -> {
+            dispatcher.dispatchDue();
+            return countOutbox(NotificationOutbox.FAILED) == 1;
+        }, "row should be marked failed after the retries");
+
+        tm.begin();
+        NotificationOutbox row = NotificationOutbox.find("status", NotificationOutbox.FAILED).firstResult();
+        assertEquals(3, row.attempts, "h5m.notification.dispatch.maxAttempts in the test profile");
+        assertNotNull(row.lastError);
+        List<NotificationLog> logs = NotificationLog.listAll();
+        assertEquals(1, logs.size());
+        assertEquals("failed", logs.getFirst().status);
+        tm.commit();
+    }
+
+    @Test
+    public void changes_round_trip_through_the_outbox() {
+        List<Change> changes = List.of(change(1L), change(2L));
+        assertEquals(changes, NotificationDispatcher.parseChanges(NotificationDispatcher.serializeChanges(changes)));
+    }
+}
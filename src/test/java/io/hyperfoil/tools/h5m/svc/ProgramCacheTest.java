@@ -0,0 +1,56 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.h5m.entity.node.JsNode;
+import io.hyperfoil.tools.jjq.JqProgram;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class ProgramCacheTest {
+
+    @Inject
+    ProgramCache cache;
+
+    @Inject
+    MeterRegistry registry;
+
+    private double requests(String kind, String result) {
+        return registry.get("h5m.program.cache.requests").tag("kind", kind).tag("result", result).counter().count();
+    }
+
+    @Test
+    void jq_reuses_compiled_program() {
+        cache.clear();
+        double misses = requests("jq", "miss");
+        double hits = requests("jq", "hit");
+        JqProgram first = cache.jq(".foo");
+        JqProgram second = cache.jq(".foo");
+        assertSame(first, second);
+        assertEquals(misses + 1, requests("jq", "miss"));
+        assertEquals(hits + 1, requests("jq", "hit"));
+        assertEquals(1, cache.size());
+        assertEquals(".foo".length(), cache.weight());
+    }
+
+    @Test
+    void jq_and_jsonata_are_cached_separately() {
+        cache.clear();
+        cache.jq("foo");
+        cache.jsonata("foo");
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void precompile_skips_invalid_and_non_program_nodes() {
+        cache.clear();
+        assertTrue(cache.precompile(new JqNode("ok", ".a")));
+        assertFalse(cache.precompile(new JqNode("bad", ".a | [")), "compile errors should not propagate");
+        assertFalse(cache.precompile(new JsNode("js", "(a)=>a")));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,127 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.api.Processing;
+import io.hyperfoil.tools.h5m.entity.FolderEntity;
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.h5m.entity.work.Work;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.quarkus.arc.ClientProxy;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class RecalculationPlannerTest extends FreshDb {
+
+    @Inject
+    TransactionManager tm;
+
+    @Inject
+    FolderService folderService;
+
+    @Inject
+    ProcessingService processingService;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    RecalculationPlanner planner;
+
+    private record Uploads(long rootNodeId, long nodeId, List<Long> rootValueIds) {}
+
+    private Uploads upload(String folderName, int count) throws Exception {
+        tm.begin();
+        long folderId = folderService.create(folderName).id();
+        FolderEntity folder = folderService.read(folderId);
+        JqNode extract = new JqNode("extract", ".key", folder.group.root);
+        extract.group = folder.group;
+        extract.persist();
+        folder.group.sources.add(extract);
+        folder.group.persist();
+        long rootNodeId = folder.group.root.id;
+        tm.commit();
+
+        List<Long> rootValueIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long rootValueId = valueService.createRootValue(folderId, JqValues.parse("{\"key\": " + i + "}"));
+            assertTrue(processingService.awaitIngestion(rootValueId, 30, TimeUnit.SECONDS));
+            rootValueIds.add(rootValueId);
+        }
+        return new Uploads(rootNodeId, extract.id, rootValueIds);
+    }
+
+    @Test
+    public void pages_are_planned_within_the_in_flight_limit() throws Exception {
+        Uploads uploads = upload("planner-paging", 7);
+        RecalculationPlanner unwrapped = ClientProxy.unwrap(planner);
+        int pageSize = unwrapped.pageSize;
+        int maxInFlight = unwrapped.maxInFlight;
+        unwrapped.pageSize = 2;
+        unwrapped.maxInFlight = 3;
+        int maxSeen = 0;
+        try {
+            processingService.recalculateNode(uploads.nodeId());
+            ProcessingService.ActivityTracker tracker = processingService.getByNodeId(uploads.nodeId());
+            while (!tracker.getFuture().isDone()) {
+                // counted from the highest ID down: root values are planned in ID order, so every root value counted
+                // later in the sweep was already in flight when the first one was counted
+                int inFlight = 0;
+                for (Long rootValueId : uploads.rootValueIds().reversed()) {
+                    ProcessingService.ActivityTracker sub = processingService.getByRootValueId(rootValueId);
+                    if (sub != null && !sub.getFuture().isDone()) {
+                        inFlight++;
+                    }
+                }
+                maxSeen = Math.max(maxSeen, inFlight);
+                Thread.sleep(1);
+            }
+            assertTrue(processingService.awaitRecalculation(uploads.nodeId(), 30, TimeUnit.SECONDS));
+        } finally {
+            unwrapped.pageSize = pageSize;
+            unwrapped.maxInFlight = maxInFlight;
+        }
+        assertTrue(maxSeen <= 3, "at most 3 root values should be recalculated at once, saw " + maxSeen);
+
+        Processing status = processingService.getRecalculationStatus(uploads.nodeId());
+        assertEquals(Processing.State.COMPLETED, status.state());
+        assertEquals(7, status.total(), "every page should be planned");
+        assertEquals(7, status.completed());
+        tm.begin();
+        NodeEntity extract = NodeEntity.findById(uploads.nodeId());
+        for (Long rootValueId : uploads.rootValueIds()) {
+            assertEquals(1, valueService.getDescendantValues(valueService.byId(rootValueId), extract).size(),
+                    "root value " + rootValueId + " should have its recalculated value");
+        }
+        tm.commit();
+    }
+
+    @Test
+    public void recalculation_work_is_background_work() throws Exception {
+        Uploads uploads = upload("planner-background", 2);
+        RecalculationPlanner.Plan plan = new RecalculationPlanner.Plan(uploads.nodeId(), "planner-background",
+                uploads.rootNodeId(), Long.MAX_VALUE, 2, List.of(), null);
+        tm.begin();
+        try {
+            List<Work> works = planner.works(plan, uploads.rootValueIds());
+            assertEquals(2, works.size());
+            for (Work work : works) {
+                assertTrue(work.isBackground(), "upload work should run before recalculation work");
+                assertFalse(work.isDispatch(), "recalculations should not send notifications");
+                assertTrue(work.isCascade());
+                assertEquals(1, work.getSourceValueIds().size());
+            }
+        } finally {
+            tm.rollback();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.cli.CliProfile;
+import io.hyperfoil.tools.h5m.entity.FolderEntity;
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@TestProfile(CliProfile.class)
+public class SingleWriterSqliteTest extends FreshDb {
+
+    @Inject
+    TransactionManager tm;
+
+    @Inject
+    FolderService folderService;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    WorkService workService;
+
+    @Inject
+    SingleWriter singleWriter;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Test
+    public void upload_values_are_stored_by_the_writer() throws Exception {
+        assertTrue(singleWriter.isEnabled(), "the cli profile should use the single writer");
+        tm.begin();
+        long folderId = folderService.create("single-writer").id();
+        FolderEntity folder = folderService.read(folderId);
+        JqNode a = new JqNode("a", ".a", folder.group.root);
+        a.group = folder.group;
+        folder.group.sources.add(a);
+        JqNode b = new JqNode("b", ".b", folder.group.root);
+        b.group = folder.group;
+        folder.group.sources.add(b);
+        JqNode doubled = new JqNode("doubled", ". * 2", a);
+        doubled.group = folder.group;
+        folder.group.sources.add(doubled);
+        folder.group.persist();
+        tm.commit();
+
+        double stored = registry.get("h5m.worker.singleWriter.batch").summary().totalAmount();
+        for (int i = 0; i < 20; i++) {
+            valueService.createRootValue(folderId, JqValues.parse("{\"a\":" + i + ",\"b\":" + (i * 10) + "}"));
+        }
+        while (!workService.isIdle()) {
+            Thread.sleep(10);
+        }
+
+        tm.begin();
+        assertEquals(20, ValueEntity.count("node.id", a.id));
+        assertEquals(20, ValueEntity.count("node.id", b.id));
+        assertEquals(20, ValueEntity.count("node.id", doubled.id), "cascade work should run after its batch committed");
+        tm.commit();
+        assertTrue(registry.get("h5m.worker.singleWriter.batch").summary().totalAmount() > stored,
+                "work results should be stored by the single writer");
+    }
+}
@@ -7,6 +7,7 @@ import io.hyperfoil.tools.h5m.api.node.StdDevAnomalyConfig;
 import io.hyperfoil.tools.h5m.entity.NodeEntity;
 import io.hyperfoil.tools.h5m.entity.ValueEntity;
 import io.hyperfoil.tools.h5m.entity.node.*;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import jakarta.transaction.*;
@@ -28,6 +29,9 @@ public class StdDevAnomalyTest extends FreshDb {
     @Inject
     ValueService valueService;
 
+    @Inject
+    MeterRegistry registry;
+
     /**
      * Helper: creates the standard node topology for StdDev tests.
      * root → split → [range (.y), domain (.domain), fingerprint (.fingerprint)]
@@ -417,6 +421,37 @@ public class StdDevAnomalyTest extends FreshDb {
         tm.commit();
     }
 
+    @Test
+    public void stale_change_cleanup_keeps_anomalies_at_other_domain_values() throws Exception {
+        // the cleanup reads the anomalies at the current domain value from the cached series of the node
+        TestTopology t = createTopology(5, 3.0, StdDevAnomalyConfig.Direction.BOTH, 3);
+        for (int i = 1; i <= 5; i++) {
+            uploadDataPoint(t, "alpha", i, 100.0);
+        }
+        ValueEntity firstRoot = uploadDataPoint(t, "alpha", 6, 500.0);
+        tm.begin();
+        nodeService.calculateStdDevAnomalyValues(t.sd, firstRoot, 0).forEach(valueService::create);
+        tm.commit();
+        uploadDataPoint(t, "alpha", 7, 100.0);
+        ValueEntity secondRoot = uploadDataPoint(t, "alpha", 8, 900.0);
+        tm.begin();
+        List<ValueEntity> second = nodeService.calculateStdDevAnomalyValues(t.sd, secondRoot, 0);
+        assertEquals(1, second.size(), "Should detect anomaly at y=900");
+        second.forEach(valueService::create);
+        tm.commit();
+
+        tm.begin();
+        List<ValueEntity> reprocessed = nodeService.calculateStdDevAnomalyValues(t.sd, firstRoot, 0);
+        assertEquals(1, reprocessed.size());
+        tm.commit();
+
+        tm.begin();
+        List<ValueEntity> persisted = ValueEntity.list("node.id", t.sd.id);
+        assertEquals(List.of(8.0), persisted.stream().map(v -> v.data.getField("domainvalue").asDouble(0.0)).toList(),
+                "only the anomaly at the reprocessed domain value should be removed");
+        tm.commit();
+    }
+
     @Test
     public void anomaly_at_domain_value_is_consistent_across_calls() throws Exception {
         // Verify that for the same data, multiple calls produce the same result
@@ -820,4 +855,36 @@ public class StdDevAnomalyTest extends FreshDb {
                 "The persisted anomaly should be for y=500");
         tm.commit();
     }
+
+    @Test
+    public void second_detector_reuses_cached_lookups() throws Exception {
+        TestTopology t = createTopology(10, 4.0, StdDevAnomalyConfig.Direction.BOTH, 5);
+        tm.begin();
+        StdDevAnomaly other = new StdDevAnomaly("stddev-other", "{}");
+        other.setNodes(t.fingerprint, t.split, t.range, t.domain);
+        other.setWindowSize(10);
+        other.setDeviations(4.0);
+        other.setDirection(StdDevAnomalyConfig.Direction.BOTH);
+        other.setMinDataPoints(5);
+        other.persist();
+        tm.commit();
+
+        for (int i = 1; i <= 10; i++) {
+            uploadDataPoint(t, "alpha", i, 100.0);
+        }
+        ValueEntity anomalyRoot = uploadDataPoint(t, "alpha", 11, 200.0);
+
+        assertEquals(1, nodeService.calculateStdDevAnomalyValues(t.sd, anomalyRoot, 0).size());
+        double hits = registry.get("h5m.series.cache.lookups").tag("result", "hit").counter().count();
+        double misses = registry.get("h5m.series.cache.lookups").tag("result", "miss").counter().count();
+
+        // same fingerprint and groupBy values, the second detector must not query them again
+        List<ValueEntity> changes = nodeService.calculateStdDevAnomalyValues(other, anomalyRoot, 0);
+        assertEquals(1, changes.size(), "Second detector should detect the same anomaly");
+        assertEquals(200.0, changes.get(0).data.getField("value").asDouble(0.0), 0.01);
+        assertTrue(registry.get("h5m.series.cache.lookups").tag("result", "hit").counter().count() > hits,
+                "Second detector should be served from the lookup cache");
+        assertEquals(misses, registry.get("h5m.series.cache.lookups").tag("result", "miss").counter().count(), 0.0,
+                "Second detector should not query the fingerprint or groupBy values");
+    }
 }
@@ -0,0 +1,188 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.entity.FolderEntity;
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.jjq.value.JqObject;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@TestProfile(ClosureEnabledProfile.class)
+public class ValueClosureTest extends FreshDb {
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    ValueClosureService closure;
+
+    @Inject
+    FolderService folderService;
+
+    @Inject
+    ProcessingService processingService;
+
+    @Inject
+    TransactionManager tm;
+
+    @Inject
+    EntityManager em;
+
+    private List<Long> uploadQvss() throws Exception {
+        folderService.importFolder(Path.of("src/test/resources/qvss/nodes.json"), false);
+        long folderId = folderService.find("quarkus-spring-boot-comparison").id();
+        List<Long> rootIds = new ArrayList<>();
+        for (String runFile : List.of("/qvss/15248.json", "/qvss/15769.json", "/qvss/16326.json")) {
+            try (InputStream is = getClass().getResourceAsStream(runFile)) {
+                JqValue runData = JqValues.parse(is.readAllBytes());
+                long rootId = valueService.createRootValue(folderId, runData);
+                processingService.awaitIngestion(rootId, 60, TimeUnit.SECONDS);
+                rootIds.add(rootId);
+            }
+        }
+        return rootIds;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<List<Long>> closureRows() throws Exception {
+        tm.begin();
+        try {
+            List<Object[]> rows = em.createNativeQuery("select ancestor_id, descendant_id, depth, root_id from value_closure").getResultList();
+            Set<List<Long>> rtrn = new HashSet<>();
+            for (Object[] row : rows) {
+                rtrn.add(List.of(((Number) row[0]).longValue(), ((Number) row[1]).longValue(), ((Number) row[2]).longValue(), ((Number) row[3]).longValue()));
+            }
+            return rtrn;
+        } finally {
+            tm.commit();
+        }
+    }
+
+    @Test
+    public void closure_covers_every_value() throws Exception {
+        List<Long> rootIds = uploadQvss();
+        Set<List<Long>> rows = closureRows();
+
+        tm.begin();
+        long values = ((Number) em.createNativeQuery("select count(*) from value").getSingleResult()).longValue();
+        tm.commit();
+        assertEquals(values, rows.stream().filter(r -> r.get(2) == 0).count(), "one depth 0 row per value");
+        Set<Long> roots = new HashSet<>();
+        rows.forEach(r -> roots.add(r.get(3)));
+        assertEquals(new HashSet<>(rootIds), roots, "every value should belong to one of the uploads");
+
+        for (long rootId : rootIds) {
+            ValueEntity root = valueService.byId(rootId);
+            List<ValueEntity> descendants = valueService.getDescendantValues(root);
+            assertFalse(descendants.isEmpty());
+            long expected = rows.stream().filter(r -> r.get(0) == rootId && r.get(2) > 0).count();
+            assertEquals(expected, descendants.size());
+        }
+    }
+
+    @Test
+    public void rebuild_matches_incremental_closure() throws Exception {
+        uploadQvss();
+        Set<List<Long>> incremental = closureRows();
+        assertFalse(incremental.isEmpty());
+
+        tm.begin();
+        em.createNativeQuery("delete from value_closure").executeUpdate();
+        tm.commit();
+        closure.rebuild();
+
+        assertEquals(incremental, closureRows());
+    }
+
+    @Test
+    public void startup_rebuilds_closure_with_stale_rows() throws Exception {
+        uploadQvss();
+        Set<List<Long>> incremental = closureRows();
+
+        // a stale closure can hold as many depth 0 rows as there are values
+        tm.begin();
+        long valueId = ((Number) em.createNativeQuery("select max(id) from value").getSingleResult()).longValue();
+        em.createNativeQuery("delete from value_closure where descendant_id = :id or ancestor_id = :id")
+                .setParameter("id", valueId)
+                .executeUpdate();
+        em.createNativeQuery("insert into value_closure (ancestor_id, descendant_id, depth, root_id) values (:id, :id, 0, :id)")
+                .setParameter("id", valueId + 1000)
+                .executeUpdate();
+        tm.commit();
+
+        closure.onStart(null);
+
+        assertEquals(incremental, closureRows());
+    }
+
+    @Test
+    public void getAncestor_uses_closure() throws Exception {
+        List<Long> rootIds = uploadQvss();
+        tm.begin();
+        FolderEntity folder = FolderEntity.find("name", "quarkus-spring-boot-comparison").firstResult();
+        NodeEntity rootNode = folder.group.root;
+        NodeEntity buildNode = folder.group.sources.stream().filter(n -> "build".equals(n.name)).findFirst().orElseThrow();
+        tm.commit();
+
+        ValueEntity root = valueService.byId(rootIds.getFirst());
+        List<ValueEntity> builds = valueService.getDescendantValues(root, buildNode);
+        assertFalse(builds.isEmpty());
+        for (ValueEntity build : builds) {
+            List<ValueEntity> ancestors = valueService.getAncestor(build, rootNode);
+            assertEquals(1, ancestors.size());
+            assertEquals(root.id, ancestors.getFirst().id);
+        }
+    }
+
+    @Test
+    public void getGroupedValues_sorted_by_build_id() throws Exception {
+        uploadQvss();
+        tm.begin();
+        FolderEntity folder = FolderEntity.find("name", "quarkus-spring-boot-comparison").firstResult();
+        Long rootNodeId = folder.group.root.id;
+        Long buildNodeId = folder.group.sources.stream().filter(n -> "build".equals(n.name)).findFirst().map(n -> n.id).orElseThrow();
+        tm.commit();
+
+        List<JqValue> results = valueService.getGroupedValues(rootNodeId, null, null, buildNodeId);
+        assertTrue(results.size() >= 3, "should have at least 3 grouped results: " + results.size());
+        double prev = -1;
+        for (JqValue result : results) {
+            JqObject row = (JqObject) result;
+            if (row.has("build")) {
+                double buildId = row.get("build").asDouble(-1);
+                assertTrue(buildId >= prev, "BUILD_ID should be ascending: prev=" + prev + " current=" + buildId);
+                prev = buildId;
+            }
+        }
+        assertTrue(prev > 0, "at least one row should have a 'build' field");
+    }
+
+    @Test
+    public void delete_prunes_closure() throws Exception {
+        List<Long> rootIds = uploadQvss();
+        tm.begin();
+        FolderEntity folder = FolderEntity.find("name", "quarkus-spring-boot-comparison").firstResult();
+        NodeEntity buildNode = folder.group.sources.stream().filter(n -> "build".equals(n.name)).findFirst().orElseThrow();
+        tm.commit();
+
+        ValueEntity build = valueService.getDescendantValues(valueService.byId(rootIds.getFirst()), buildNode).getFirst();
+        valueService.delete(build);
+
+        assertTrue(closureRows().stream().noneMatch(r -> r.get(0).equals(build.id) || r.get(1).equals(build.id)));
+    }
+}
@@ -0,0 +1,190 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.api.node.StdDevAnomalyConfig;
+import io.hyperfoil.tools.h5m.entity.NodeEntity;
+import io.hyperfoil.tools.h5m.entity.ValueEntity;
+import io.hyperfoil.tools.h5m.entity.node.*;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@TestProfile(ValueNumberEnabledProfile.class)
+public class ValueNumberTest extends FreshDb {
+
+    @Inject
+    TransactionManager tm;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    NodeService nodeService;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    ValueNumberService numbers;
+
+    @Test
+    public void create_mirrors_numeric_values() throws Exception {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        tm.commit();
+
+        ValueEntity number = valueService.create(new ValueEntity(null, rootNode, JqValues.parse("42.5")));
+        valueService.create(new ValueEntity(null, rootNode, JqValues.parse("\"42.5\"")));
+
+        tm.begin();
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("select value_id, range_num from value_number").getResultList();
+        tm.commit();
+        assertEquals(1, rows.size(), "only JSON numbers should be mirrored");
+        assertEquals(number.id, ((Number) rows.get(0)[0]).longValue());
+        assertEquals(42.5, ((Number) rows.get(0)[1]).doubleValue(), 0.0001);
+    }
+
+    @Test
+    public void stddev_reads_window_from_value_number() throws Exception {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        SplitNode splitNode = new SplitNode("split", "split", List.of(rootNode));
+        splitNode.persist();
+        NodeEntity rangeNode = new JqNode("range", ".y", splitNode);
+        rangeNode.persist();
+        NodeEntity domainNode = new JqNode("domain", ".domain", splitNode);
+        domainNode.persist();
+        NodeEntity fingerprintNode = new JqNode("fingerprint", ".fingerprint", splitNode);
+        fingerprintNode.persist();
+        StdDevAnomaly sd = new StdDevAnomaly("stddev-test", "{}");
+        sd.setNodes(fingerprintNode, splitNode, rangeNode, domainNode);
+        sd.setWindowSize(5);
+        sd.setDeviations(3.0);
+        sd.setDirection(StdDevAnomalyConfig.Direction.BOTH);
+        sd.setMinDataPoints(3);
+        sd.persist();
+        tm.commit();
+
+        // the first calculation backfills the earlier uploads, the later ones record their own range values
+        ValueEntity root = null;
+        for (int i = 1; i <= 10; i++) {
+            root = upload(rootNode, splitNode, rangeNode, domainNode, fingerprintNode, i, 100.0);
+            if (i >= 5) {
+                assertEquals(0, nodeService.calculateStdDevAnomalyValues(sd, root, 0).size(), "window at " + i);
+            }
+        }
+        tm.begin();
+        long rows = ((Number) em.createNativeQuery("select count(*) from value_number where node_id = :id")
+                .setParameter("id", sd.id).getSingleResult()).longValue();
+        tm.commit();
+        assertEquals(10, rows);
+
+        tm.begin();
+        List<ValueNumberService.Point> window = numbers.preceding(sd, valueService.getDescendantValues(root, fingerprintNode).getFirst(), 10, 5);
+        tm.commit();
+        assertEquals(5, window.size());
+        assertEquals(List.of(100.0, 100.0, 100.0, 100.0, 100.0), window.stream().map(ValueNumberService.Point::range).toList());
+
+        ValueEntity anomaly = upload(rootNode, splitNode, rangeNode, domainNode, fingerprintNode, 11, 200.0);
+        List<ValueEntity> changes = nodeService.calculateStdDevAnomalyValues(sd, anomaly, 0);
+        assertEquals(1, changes.size());
+        assertEquals(100.0, changes.getFirst().data.getField("mean").asDouble(0.0), 0.01);
+        assertEquals(200.0, changes.getFirst().data.getField("value").asDouble(0.0), 0.01);
+    }
+
+    @Test
+    public void update_replaces_range_num() throws Exception {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        tm.commit();
+        ValueEntity value = valueService.create(new ValueEntity(null, rootNode, JqValues.parse("1")));
+
+        tm.begin();
+        numbers.update(value, JqValues.parse("2.5"));
+        tm.commit();
+        assertEquals(List.of(2.5), rangeNums(value.id));
+
+        tm.begin();
+        numbers.update(value, JqValues.parse("\"n/a\""));
+        tm.commit();
+        assertEquals(List.of(), rangeNums(value.id), "the row should be removed once the data is not a number");
+    }
+
+    @Test
+    public void stddev_records_non_numeric_range() throws Exception {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        SplitNode splitNode = new SplitNode("split", "split", List.of(rootNode));
+        splitNode.persist();
+        NodeEntity rangeNode = new JqNode("range", ".y", splitNode);
+        rangeNode.persist();
+        NodeEntity domainNode = new JqNode("domain", ".domain", splitNode);
+        domainNode.persist();
+        NodeEntity fingerprintNode = new JqNode("fingerprint", ".fingerprint", splitNode);
+        fingerprintNode.persist();
+        StdDevAnomaly sd = new StdDevAnomaly("stddev-text", "{}");
+        sd.setNodes(fingerprintNode, splitNode, rangeNode, domainNode);
+        sd.setWindowSize(5);
+        sd.setDeviations(3.0);
+        sd.setDirection(StdDevAnomalyConfig.Direction.BOTH);
+        sd.setMinDataPoints(3);
+        sd.persist();
+        tm.commit();
+
+        // the non-numeric range is backfilled and recorded with a null range_num
+        for (int i = 1; i <= 4; i++) {
+            upload(rootNode, splitNode, rangeNode, domainNode, fingerprintNode, i, i == 2 ? "\"n/a\"" : 100.0);
+        }
+        ValueEntity root = upload(rootNode, splitNode, rangeNode, domainNode, fingerprintNode, 5, "\"n/a\"");
+        assertEquals(0, nodeService.calculateStdDevAnomalyValues(sd, root, 0).size());
+
+        tm.begin();
+        long nulls = ((Number) em.createNativeQuery("select count(*) from value_number where node_id = :id and range_num is null")
+                .setParameter("id", sd.id).getSingleResult()).longValue();
+        List<ValueNumberService.Point> window = numbers.preceding(sd, valueService.getDescendantValues(root, fingerprintNode).getFirst(), 5, 5);
+        tm.commit();
+        assertEquals(2, nulls);
+        assertEquals(Arrays.asList(100.0, null, 100.0, 100.0, null), window.stream().map(ValueNumberService.Point::range).toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Double> rangeNums(long valueId) throws Exception {
+        tm.begin();
+        List<Number> rows = em.createNativeQuery("select range_num from value_number where value_id = :id")
+                .setParameter("id", valueId).getResultList();
+        tm.commit();
+        return rows.stream().map(Number::doubleValue).toList();
+    }
+
+    private ValueEntity upload(NodeEntity rootNode, NodeEntity splitNode, NodeEntity rangeNode, NodeEntity domainNode,
+                               NodeEntity fingerprintNode, double domain, Object range) throws Exception {
+        tm.begin();
+        ValueEntity root = new ValueEntity(null, rootNode, JqValues.parse(String.format(
+                """
+                { "split": [ { "fingerprint": "alpha", "domain": %s, "y": %s } ] }
+                """, domain, range)));
+        root.persist();
+        ValueEntity split = new ValueEntity(null, splitNode, root.data.getField("split").getElement(0), List.of(root));
+        split.persist();
+        new ValueEntity(null, domainNode, split.data.getField("domain"), List.of(split)).persist();
+        new ValueEntity(null, rangeNode, split.data.getField("y"), List.of(split)).persist();
+        new ValueEntity(null, fingerprintNode, split.data.getField("fingerprint"), List.of(split)).persist();
+        tm.commit();
+        return root;
+    }
+}
@@ -9,11 +9,13 @@ import io.hyperfoil.tools.h5m.entity.NodeGroupEntity;
 import io.hyperfoil.tools.h5m.entity.ValueEntity;
 import io.hyperfoil.tools.h5m.entity.mapper.ApiMapper;
 import io.hyperfoil.tools.h5m.entity.mapper.CycleAvoidingContext;
+import io.hyperfoil.tools.h5m.entity.node.FingerprintNode;
 import io.hyperfoil.tools.h5m.entity.node.JqNode;
 import io.hyperfoil.tools.h5m.entity.node.RootNode;
 import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
+import jakarta.persistence.Cache;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.*;
 import org.hibernate.LazyInitializationException;
@@ -643,6 +645,154 @@ public class ValueServiceTest extends FreshDb {
 
     }
     @Test
+    public void findMatchingFingerprint_hash_collision_compares_data() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+
+        NodeGroupEntity group = new NodeGroupEntity("findMatchingFingerprint_hash_collision");
+        group.persist();
+        NodeEntity rootNode = group.root;
+        NodeEntity fpNode = new FingerprintNode("fp", "");
+        fpNode.group = group;
+        fpNode.sources=List.of(rootNode);
+        fpNode.persist();
+        NodeEntity bNode = new JqNode("b");
+        bNode.group = group;
+        bNode.sources=List.of(rootNode);
+        bNode.persist();
+
+        ValueEntity rootValue01 = new ValueEntity(null,rootNode,JqString.of("root1"));
+        rootValue01.persist();
+        ValueEntity rootValue02 = new ValueEntity(null,rootNode,JqString.of("root2"));
+        rootValue02.persist();
+
+        ValueEntity fpValue01 = new ValueEntity(null,fpNode,JqString.of("a"));
+        fpValue01.fingerprintHash = FingerprintNode.hash(fpValue01.data);
+        fpValue01.sources=List.of(rootValue01);
+        fpValue01.persist();
+        //different fingerprint with the same hash
+        ValueEntity fpValue02 = new ValueEntity(null,fpNode,JqString.of("z"));
+        fpValue02.fingerprintHash = fpValue01.fingerprintHash;
+        fpValue02.sources=List.of(rootValue02);
+        fpValue02.persist();
+
+        ValueEntity bValue01 = new ValueEntity(null,bNode,JqString.of("b1"));
+        bValue01.sources=List.of(rootValue01);
+        bValue01.persist();
+        ValueEntity bValue02 = new ValueEntity(null,bNode,JqString.of("b2"));
+        bValue02.sources=List.of(rootValue02);
+        bValue02.persist();
+        tm.commit();
+
+        List<ValueEntity> found = valueService.findMatchingFingerprint(rootNode,rootNode,fpValue01,bNode);
+
+        assertEquals(List.of(rootValue01),found,"the colliding fingerprint should be ruled out by the data comparison");
+    }
+    @Test
+    public void findMatchingFingerprint_fingerprint_node_values_are_hashed() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+        NodeGroupEntity group = new NodeGroupEntity("findMatchingFingerprint_hashed");
+        group.persist();
+        NodeEntity rootNode = group.root;
+        NodeEntity fpNode = new FingerprintNode("fp", "");
+        fpNode.group = group;
+        fpNode.sources=List.of(rootNode);
+        fpNode.persist();
+        NodeEntity bNode = new JqNode("b");
+        bNode.group = group;
+        bNode.sources=List.of(rootNode);
+        bNode.persist();
+
+        ValueEntity rootValue = new ValueEntity(null,rootNode,JqString.of("root"));
+        rootValue.persist();
+        //no hash set by the caller, it is set when the value is persisted
+        ValueEntity fpValue = new ValueEntity(null,fpNode,JqString.of("a"),List.of(rootValue));
+        fpValue.persist();
+        ValueEntity bValue = new ValueEntity(null,bNode,JqString.of("b"),List.of(rootValue));
+        bValue.persist();
+        tm.commit();
+
+        tm.begin();
+        Number stored = (Number) em.createNativeQuery("SELECT fingerprint_hash FROM value WHERE id = :id")
+                .setParameter("id", fpValue.id).getSingleResult();
+        tm.commit();
+        assertEquals(FingerprintNode.hash(fpValue.data), stored.longValue());
+
+        //fingerprint values are only matched by their hash, a value without one is not found
+        assertEquals(List.of(rootValue), valueService.findMatchingFingerprint(rootNode,rootNode,fpValue,bNode));
+        tm.begin();
+        em.createNativeQuery("UPDATE value SET fingerprint_hash = NULL WHERE id = :id").setParameter("id", fpValue.id).executeUpdate();
+        tm.commit();
+        assertEquals(List.of(), valueService.findMatchingFingerprint(rootNode,rootNode,fpValue,bNode));
+    }
+    @Test
+    public void nullifyEphemeralData_evicts_only_nullified_values() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        NodeEntity parentNode = new JqNode("parent",".parent",rootNode);
+        parentNode.persist();
+        NodeEntity childNode = new JqNode("child",".child",parentNode);
+        childNode.persist();
+
+        ValueEntity rootValue = new ValueEntity(null,rootNode,JqString.of("root"));
+        rootValue.persist();
+        ValueEntity parentValue = new ValueEntity(null,parentNode,JqString.of("parent"),List.of(rootValue));
+        parentValue.persist();
+        ValueEntity childValue = new ValueEntity(null,childNode,JqString.of("child"),List.of(parentValue));
+        childValue.persist();
+        tm.commit();
+
+        //load both values into the second-level cache
+        tm.begin();
+        ValueEntity.findById(parentValue.id);
+        ValueEntity.findById(childValue.id);
+        tm.commit();
+        Cache cache = em.getEntityManagerFactory().getCache();
+        assertTrue(cache.contains(ValueEntity.class,childValue.id));
+
+        tm.begin();
+        List<Long> nullified = valueService.nullifyEphemeralData(rootValue.id);
+        tm.commit();
+
+        assertEquals(List.of(parentValue.id),nullified,"only the intermediate value should be nullified");
+        assertFalse(cache.contains(ValueEntity.class,parentValue.id),"nullified value should be evicted");
+        assertTrue(cache.contains(ValueEntity.class,childValue.id),"other values should stay cached");
+    }
+
+    @Test
+    public void getDescendantValueByLineage_matches_recalculated_values() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+        NodeEntity rootNode = new RootNode();
+        rootNode.persist();
+        NodeEntity aNode = new JqNode("a");
+        aNode.sources=List.of(rootNode);
+        aNode.persist();
+
+        ValueEntity rootValue = new ValueEntity(null,rootNode,JqString.of("root"));
+        rootValue.persist();
+        ValueEntity aValue0 = new ValueEntity(null,aNode,JqString.of("a0"),List.of(rootValue));
+        aValue0.idx = 0;
+        aValue0.persist();
+        ValueEntity aValue1 = new ValueEntity(null,aNode,JqString.of("a1"),List.of(rootValue));
+        aValue1.idx = 1;
+        aValue1.persist();
+        tm.commit();
+
+        tm.begin();
+        Map<Long,ValueEntity> found = valueService.getDescendantValueByLineage(rootValue,aNode);
+        assertEquals(2,found.size());
+        ValueEntity recalculated = new ValueEntity(null,aNode,JqString.of("a1"),List.of(rootValue));
+        recalculated.idx = 1;
+        ValueEntity existing = found.get(recalculated.lineageKey());
+        assertEquals(aValue1.id,existing.id,"the recalculated value should match the existing value with the same source path");
+        assertEquals(FingerprintNode.hash(JqString.of("a1")),existing.contentHash,"the content hash should be stored");
+        assertTrue(recalculated.sameData(existing));
+        ValueEntity changed = new ValueEntity(null,aNode,JqString.of("changed"),List.of(rootValue));
+        changed.idx = 1;
+        assertFalse(changed.sameData(existing));
+        tm.commit();
+    }
+    @Test
     public void findMatchingFingerprint_sibling() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
         tm.begin();
         NodeEntity rootNode = new RootNode();
@@ -2046,6 +2196,60 @@ public class ValueServiceTest extends FreshDb {
         tm.commit();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void calculated_values_carry_upload_root_id() throws Exception {
+        folderService.importFolder(Path.of("src/test/resources/qvss/nodes.json"), false);
+        long qvssFolderId = folderService.find("quarkus-spring-boot-comparison").id();
+        List<Long> uploadIds = new java.util.ArrayList<>();
+        for (String runFile : List.of("/qvss/15248.json", "/qvss/15769.json")) {
+            try (InputStream is = getClass().getResourceAsStream(runFile)) {
+                long uploadId = valueService.createRootValue(qvssFolderId, JqValues.parse(is.readAllBytes()));
+                processingService.awaitIngestion(uploadId, 60, TimeUnit.SECONDS);
+                uploadIds.add(uploadId);
+            }
+        }
+
+        tm.begin();
+        List<Object[]> rows = em.createNativeQuery("select id, root_id from value order by id").getResultList();
+        tm.commit();
+        Map<Long, Long> rootIds = new java.util.HashMap<>();
+        for (Object[] row : rows) {
+            long id = ((Number) row[0]).longValue();
+            Long rootId = row[1] == null ? null : ((Number) row[1]).longValue();
+            rootIds.put(id, rootId);
+            if (uploadIds.contains(id)) {
+                assertNull(rootId, "uploads should not have a root_id");
+            } else if (rootId != null) {
+                assertTrue(uploadIds.contains(rootId), "value " + id + " should belong to an upload but had root_id=" + rootId);
+            }
+        }
+
+        tm.begin();
+        NodeEntity buildNode = FolderEntity.<FolderEntity>find("name", "quarkus-spring-boot-comparison").firstResult()
+                .group.sources.stream().filter(n -> "build".equals(n.name)).findFirst().orElseThrow();
+        tm.commit();
+        for (long uploadId : uploadIds) {
+            List<ValueEntity> builds = valueService.getDescendantValues(valueService.byId(uploadId), buildNode);
+            assertFalse(builds.isEmpty());
+            builds.forEach(b -> assertEquals(uploadId, rootIds.get(b.id)));
+        }
+
+        // the backfill walks value_edge, so every value, detection values included, must get the root_id it was
+        // calculated with: the root_id lookups and the graph walk agree on the upload of a value
+        tm.begin();
+        em.createNativeQuery("update value set root_id = null").executeUpdate();
+        tm.commit();
+        valueService.backfillRootIds(null);
+        tm.begin();
+        List<Object[]> backfilled = em.createNativeQuery("select v.id, v.root_id from value v").getResultList();
+        tm.commit();
+        for (Object[] row : backfilled) {
+            Long rootId = row[1] == null ? null : ((Number) row[1]).longValue();
+            assertEquals(rootIds.get(((Number) row[0]).longValue()), rootId, "root_id of value " + row[0]);
+        }
+    }
+
     @Test
     public void getGroupedValues_qvss_sorted_by_build_id() throws Exception {
         // End-to-end test using real QVSS data: imports the node graph from the
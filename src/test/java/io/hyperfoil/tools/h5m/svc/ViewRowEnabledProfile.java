@@ -0,0 +1,12 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+public class ViewRowEnabledProfile implements QuarkusTestProfile {
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("h5m.view.rows.enabled", "true");
+    }
+}
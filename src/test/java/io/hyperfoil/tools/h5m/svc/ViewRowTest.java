@@ -0,0 +1,138 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import io.hyperfoil.tools.h5m.FreshDb;
+import io.hyperfoil.tools.h5m.api.View;
+import io.hyperfoil.tools.h5m.api.ViewComponent;
+import io.hyperfoil.tools.h5m.entity.FolderEntity;
+import io.hyperfoil.tools.h5m.entity.ViewEntity;
+import io.hyperfoil.tools.h5m.entity.node.JqNode;
+import io.hyperfoil.tools.jjq.value.JqValue;
+import io.hyperfoil.tools.jjq.value.JqValues;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.transaction.TransactionManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@TestProfile(ViewRowEnabledProfile.class)
+public class ViewRowTest extends FreshDb {
+
+    @Inject
+    TransactionManager tm;
+
+    @Inject
+    FolderService folderService;
+
+    @Inject
+    ValueService valueService;
+
+    @Inject
+    ViewService viewService;
+
+    @Inject
+    ProcessingService processingService;
+
+    @Inject
+    ViewRowService viewRows;
+
+    private static void await(String description, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + description);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private boolean isBuilt(long viewId) {
+        try {
+            tm.begin();
+            try {
+                return viewRows.isBuilt(ViewEntity.findById(viewId));
+            } finally {
+                tm.commit();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void view_data_is_read_from_rows() throws Exception {
+        tm.begin();
+        long folderId = folderService.create("view-rows").id();
+        FolderEntity folder = folderService.read(folderId);
+        JqNode jqNode = new JqNode("extract", ".key", folder.group.root);
+        jqNode.group = folder.group;
+        jqNode.persist();
+        long rootNodeId = folder.group.root.id;
+        tm.commit();
+
+        long firstId = valueService.createRootValue(folderId, JqValues.parse("{\"key\": \"first\"}"));
+        assertTrue(processingService.awaitIngestion(firstId, 10, TimeUnit.SECONDS));
+
+        // the rows of existing uploads are built in the background
+        View view = viewService.createView(folderId, new View(null, "keys", folderId,
+                List.of(new ViewComponent(null, jqNode.id, null, null, "key", 1))));
+        await("view rows to be built", () -> isBuilt(view.id()));
+        assertEquals(1, viewRows.rows(view.id(), 0, 0).size());
+
+        // rows of new uploads are written when their ingestion completes
+        long secondId = valueService.createRootValue(folderId, JqValues.parse("{\"key\": \"second\"}"));
+        assertTrue(processingService.awaitIngestion(secondId, 10, TimeUnit.SECONDS));
+        await("the row of the second upload", () -> viewRows.rows(view.id(), 0, 0).size() == 2);
+
+        List<JqValue> rows = viewService.getViewData(folderId, view.id());
+        assertEquals(new HashSet<>(valueService.getGroupedValues(rootNodeId, List.of(jqNode.id))), new HashSet<>(rows),
+                "rows should match the view data computed from the values");
+        assertEquals(List.of(rows.get(1)), viewService.getViewData(folderId, view.id(), 1, 1));
+
+        // deleting a value of the view writes the row of its upload again
+        valueService.delete(valueService.getDescendantValues(valueService.byId(firstId), jqNode).getFirst());
+        assertEquals(List.of(rows.get(1)), viewRows.rows(view.id(), 0, 0), "the first upload has no values of the view left");
+
+        // updating the view rebuilds its rows
+        viewService.updateView(view.id(), new View(view.id(), "keys", folderId,
+                List.of(new ViewComponent(null, jqNode.id, null, null, "renamed", 1))));
+        await("view rows to be rebuilt", () -> isBuilt(view.id()));
+        assertEquals(1, viewRows.rows(view.id(), 0, 0).size());
+
+        viewService.deleteView(view.id());
+        assertTrue(viewRows.rows(view.id(), 0, 0).isEmpty());
+    }
+
+    @Test
+    public void sorted_view_data_is_read_from_the_values() throws Exception {
+        tm.begin();
+        long folderId = folderService.create("view-rows-sorted").id();
+        FolderEntity folder = folderService.read(folderId);
+        JqNode jqNode = new JqNode("extract", ".key", folder.group.root);
+        jqNode.group = folder.group;
+        jqNode.persist();
+        long rootNodeId = folder.group.root.id;
+        tm.commit();
+
+        View view = viewService.createView(folderId, new View(null, "keys", folderId,
+                List.of(new ViewComponent(null, jqNode.id, null, null, "key", 1))));
+        for (String key : List.of("b", "c", "a")) {
+            long uploadId = valueService.createRootValue(folderId, JqValues.parse("{\"key\": \"" + key + "\"}"));
+            assertTrue(processingService.awaitIngestion(uploadId, 10, TimeUnit.SECONDS));
+        }
+        await("the rows of the uploads", () -> isBuilt(view.id()) && viewRows.rows(view.id(), 0, 0).size() == 3);
+
+        // view_row only has the upload order, a sorted page falls back to the values
+        List<JqValue> sorted = valueService.getGroupedValues(rootNodeId, List.of(jqNode.id), null, jqNode.id);
+        assertEquals(sorted, viewService.getViewData(folderId, view.id(), jqNode.id, 0, 0));
+        assertEquals(sorted.subList(1, 3), viewService.getViewData(folderId, view.id(), jqNode.id, 1, 2));
+        assertNotEquals(viewService.getViewData(folderId, view.id()), sorted, "upload order should differ from the sorted order");
+    }
+}
@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
 @TestProfile(WorkServiceTest.NoWorkers.class)
@@ -37,6 +38,9 @@ public class WorkServiceTest extends FreshDb {
     @Inject
     WorkService workService;
 
+    @Inject
+    ValueService valueService;
+
 
 
     @Test
@@ -61,4 +65,77 @@ public class WorkServiceTest extends FreshDb {
         assertEquals(0,workService.getQueue().size(),"parent should not queue child work");
     }
 
+    @Test
+    public void execute_fused_siblings() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+        NodeEntity root = new RootNode();
+        root.persist();
+        NodeEntity a = new JqNode("a",".a",root);
+        a.persist();
+        NodeEntity b = new JqNode("b",".b[]",root);
+        b.persist();
+        NodeEntity c = new JqNode("c",".c",root);
+        c.persist();
+        NodeEntity child = new JqNode("child",".x",a);
+        child.persist();
+        ValueEntity value = new ValueEntity(null,root, JqValues.parse("""
+                { "a" : { "x" : 1 }, "b" : [ 1, 2, 3 ], "c" : "found" }
+                """));
+        value.persist();
+
+        List<Work> works = workService.createUploadWork(List.of(a,b,c), value.id);
+        assertEquals(1,works.size(),"siblings of the upload should share one work");
+        assertEquals(3,works.getFirst().getActiveNodes().size());
+        tm.commit();
+
+        Work fused = works.getFirst();
+        fused.setCascade(false);
+        workService.execute(fused);
+
+        tm.begin();
+        assertEquals(1,ValueEntity.count("node",a));
+        List<ValueEntity> bValues = ValueEntity.list("node = ?1 order by idx",b);
+        assertEquals(List.of(1,2,3),bValues.stream().map(v->v.data.asInt(0)).toList());
+        assertEquals(1,ValueEntity.count("node",c));
+        assertTrue(bValues.stream().allMatch(v->value.id.equals(v.rootId)),"fused values should belong to the upload");
+        assertEquals(0,ValueEntity.count("node",child),"child is not part of the fused work");
+        tm.commit();
+    }
+
+    @Test
+    public void execute_fused_siblings_twice() throws SystemException, NotSupportedException, HeuristicRollbackException, HeuristicMixedException, RollbackException {
+        tm.begin();
+        NodeEntity root = new RootNode();
+        root.persist();
+        NodeEntity a = new JqNode("a",".a",root);
+        a.persist();
+        NodeEntity b = new JqNode("b",".b[]",root);
+        b.persist();
+        ValueEntity value = new ValueEntity(null,root, JqValues.parse("""
+                { "a" : { "x" : 1 }, "b" : [ 1, 2, 3 ] }
+                """));
+        value.persist();
+        List<Work> works = workService.createUploadWork(List.of(a,b), value.id);
+        tm.commit();
+
+        Work first = works.getFirst();
+        first.setCascade(false);
+        workService.execute(first);
+
+        // a recalculation matches the existing values of every sibling instead of writing them again
+        tm.begin();
+        Work second = workService.createUploadWork(List.of(a,b), value.id).getFirst();
+        tm.commit();
+        second.setCascade(false);
+        workService.execute(second);
+
+        tm.begin();
+        assertEquals(1,ValueEntity.count("node",a));
+        List<ValueEntity> bValues = ValueEntity.list("node = ?1 order by idx",b);
+        assertEquals(List.of(1,2,3),bValues.stream().map(v->v.data.asInt(0)).toList());
+        assertEquals(1,valueService.getDescendantValueByLineage(value,a).size());
+        assertEquals(3,valueService.getDescendantValueByLineage(value,b).size());
+        tm.commit();
+    }
+
 }
@@ -0,0 +1,82 @@
+package io.hyperfoil.tools.h5m.svc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WorkerPoolControllerTest {
+
+    private static WorkerPoolController controller(int min, int max) {
+        WorkerPoolController controller = new WorkerPoolController();
+        controller.min = min;
+        controller.max = max;
+        controller.maxRetryRate = 0.05;
+        controller.latencyFactor = 2.0;
+        controller.minGain = 0.05;
+        return controller;
+    }
+
+    @Test
+    public void backlog_increases_while_throughput_improves() {
+        WorkerPoolController controller = controller(1, 10);
+        WorkerPoolController.Decision first = controller.decide(1, 10, 100, 0, 50, 1);
+        assertEquals(WorkerPoolController.Action.INCREASE, first.action());
+        assertEquals(2, first.limit());
+
+        WorkerPoolController.Decision second = controller.decide(2, 30, 300, 0, 50, 1);
+        assertEquals(WorkerPoolController.Action.INCREASE, second.action());
+        assertEquals(3, second.limit());
+    }
+
+    @Test
+    public void increase_without_gain_is_reverted() {
+        WorkerPoolController controller = controller(1, 10);
+        controller.decide(1, 10, 100, 0, 50, 1);
+        WorkerPoolController.Decision decision = controller.decide(2, 20, 200, 0, 50, 1);
+        assertEquals(WorkerPoolController.Action.DECREASE, decision.action());
+        assertEquals("no_gain", decision.reason());
+        assertEquals(1, decision.limit());
+
+        // waits before probing again
+        assertEquals(WorkerPoolController.Action.HOLD, controller.decide(1, 30, 300, 0, 50, 1).action());
+    }
+
+    @Test
+    public void retries_back_off() {
+        WorkerPoolController controller = controller(1, 10);
+        WorkerPoolController.Decision decision = controller.decide(8, 10, 100, 5, 10, 1);
+        assertEquals(WorkerPoolController.Action.DECREASE, decision.action());
+        assertEquals("retries", decision.reason());
+        assertEquals(6, decision.limit());
+    }
+
+    @Test
+    public void commit_latency_above_baseline_backs_off() {
+        WorkerPoolController controller = controller(1, 10);
+        controller.decide(4, 10, 100, 0, 0, 1);
+        WorkerPoolController.Decision decision = controller.decide(4, 20, 600, 0, 10, 1);
+        assertEquals(WorkerPoolController.Action.DECREASE, decision.action());
+        assertEquals("latency", decision.reason());
+        assertEquals(3, decision.limit());
+    }
+
+    @Test
+    public void limit_stays_within_bounds() {
+        WorkerPoolController controller = controller(2, 3);
+        assertEquals(WorkerPoolController.Action.HOLD, controller.decide(3, 10, 100, 0, 50, 1).action());
+        // contention at the minimum holds instead of probing
+        WorkerPoolController.Decision decision = controller.decide(2, 20, 200, 10, 50, 1);
+        assertEquals(WorkerPoolController.Action.HOLD, decision.action());
+        assertEquals("retries", decision.reason());
+        assertEquals(2, decision.limit());
+    }
+
+    @Test
+    public void idle_holds() {
+        WorkerPoolController controller = controller(1, 10);
+        WorkerPoolController.Decision decision = controller.decide(3, 0, 0, 0, 0, 1);
+        assertEquals(WorkerPoolController.Action.HOLD, decision.action());
+        assertEquals("idle", decision.reason());
+        assertEquals(3, decision.limit());
+    }
+}